@@ -1,4 +1,39 @@
 package com.example.InvoiceManage.DTO;
 
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Ảnh chụp (snapshot) bất biến của một hóa đơn, dùng để xuất file DOCX/PDF.
+ * Được nạp đầy đủ trong một giao dịch ngắn rồi đưa sang luồng render,
+ * nên luồng render không bao giờ chạm tới entity hay lazy-loading.
+ */
+@Getter
+@Builder
+@AllArgsConstructor
 public class Invoice {
+    private Integer id;
+    private String invoiceNumber;
+    private Integer orderId;
+    private Integer customerId;
+    private String customerName;
+    private String customerEmail;
+    private String statusName;
+    private LocalDateTime issuedAt;
+    private BigDecimal total;
+    private List<Line> lines;
+
+    @Getter
+    @AllArgsConstructor
+    public static class Line {
+        private String productName;
+        private Integer quantity;
+        private BigDecimal price;
+        private BigDecimal subtotal;
+    }
 }
@@ -6,10 +6,16 @@ import java.util.List;
 public class ChatRequest {
     private String model;
     private List<ChatMessage> messages; // Thay vì String, giờ là một danh sách tin nhắn
+    private String collection; // Bộ ngữ cảnh của người dùng để tra cứu (mặc định "default")
+    private String conversationId; // Định danh cuộc hội thoại, dùng cho bộ nhớ hội thoại (không bắt buộc)
 
     // Getters and Setters
     public String getModel() { return model; }
     public void setModel(String model) { this.model = model; }
     public List<ChatMessage> getMessages() { return messages; }
     public void setMessages(List<ChatMessage> messages) { this.messages = messages; }
+    public String getCollection() { return collection; }
+    public void setCollection(String collection) { this.collection = collection; }
+    public String getConversationId() { return conversationId; }
+    public void setConversationId(String conversationId) { this.conversationId = conversationId; }
 }
\ No newline at end of file
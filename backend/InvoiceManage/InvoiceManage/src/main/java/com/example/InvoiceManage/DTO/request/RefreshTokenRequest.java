@@ -0,0 +1,11 @@
+package com.example.InvoiceManage.DTO.request;
+
+import jakarta.validation.constraints.NotBlank;
+import lombok.Data;
+
+@Data
+public class RefreshTokenRequest {
+
+    @NotBlank(message = "The Refresh Token Can't Blank")
+    private String refreshToken;
+}
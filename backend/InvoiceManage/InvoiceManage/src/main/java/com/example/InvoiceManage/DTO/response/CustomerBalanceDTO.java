@@ -0,0 +1,17 @@
+package com.example.InvoiceManage.DTO.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CustomerBalanceDTO {
+    private Integer userId;
+    private String customerName;
+    private Long unpaidOrders;
+    private BigDecimal outstanding;
+}
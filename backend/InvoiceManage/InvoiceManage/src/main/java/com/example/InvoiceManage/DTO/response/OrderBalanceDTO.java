@@ -0,0 +1,29 @@
+package com.example.InvoiceManage.DTO.response;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OrderBalanceDTO {
+    private Integer orderId;
+    private LocalDateTime date;
+    private BigDecimal total;
+    private BigDecimal paidAmount;
+    private LocalDateTime lastPaidAt;
+    private String lastMethod;
+
+    public BigDecimal getOutstanding() {
+        BigDecimal outstanding = total.subtract(paidAmount);
+        return outstanding.signum() > 0 ? outstanding : BigDecimal.ZERO;
+    }
+
+    public boolean isFullyPaid() {
+        return paidAmount.compareTo(total) >= 0;
+    }
+}
@@ -16,4 +16,5 @@ public class UserResponse {
     private String name;
     private Role role; // Only include the Role object here
     private String accessToken;
+    private String refreshToken;
 }
\ No newline at end of file
@@ -8,6 +8,8 @@ public class SecurityConstants {
     public static final String[] PUBLIC_URLS = {
             API_PREFIX + "/auth/login",
             API_PREFIX + "/auth/register",
+            API_PREFIX + "/auth/refresh",
+            API_PREFIX + "/auth/logout",
             // XÓA DÒNG NÀY NẾU BẠN MUỐN BẢO VỆ NÓ: API_PREFIX + "/users/list",
             // Thêm các URL công khai khác (ví dụ: Swagger UI)
             API_PREFIX + "/swagger-ui/**",
@@ -15,6 +17,7 @@ public class SecurityConstants {
             API_PREFIX + "/webjars/**",
             API_PREFIX + "/favicon.ico",
             API_PREFIX+"/vnpay/IPN",
+            API_PREFIX+"/stripe/webhook",
             API_PREFIX+"/invoice-requests/**"
     };
 
@@ -0,0 +1,43 @@
+package com.example.InvoiceManage.controller;
+
+import com.example.InvoiceManage.config.constants.SecurityConstants;
+import com.example.InvoiceManage.entity.ArchivePartition;
+import com.example.InvoiceManage.entity.SecurityUser;
+import com.example.InvoiceManage.service.ArchiveService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping(SecurityConstants.API_PREFIX + "/archive")
+@CrossOrigin(origins = "http://localhost:3000")
+@RequiredArgsConstructor
+public class ArchiveController {
+
+    private final ArchiveService archiveService;
+
+    // Chạy lưu trữ ngay (ngoài lịch định kỳ), xử lý ở nền
+    @PostMapping("/run")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> run(@AuthenticationPrincipal SecurityUser securityUser) {
+        if (!archiveService.startAsync()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Đang có một lượt lưu trữ khác chạy.");
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of("running", true));
+    }
+
+    @GetMapping("/partitions")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> partitions(@AuthenticationPrincipal SecurityUser securityUser) {
+        List<ArchivePartition> partitions = archiveService.getPartitions();
+        return ResponseEntity.ok(Map.of(
+                "running", archiveService.isRunning(),
+                "partitions", partitions));
+    }
+}
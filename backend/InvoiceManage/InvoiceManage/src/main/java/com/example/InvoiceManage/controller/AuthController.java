@@ -1,12 +1,23 @@
 package com.example.InvoiceManage.controller;
 
 import com.example.InvoiceManage.DTO.request.LoginRequest;
+import com.example.InvoiceManage.DTO.request.RefreshTokenRequest;
 import com.example.InvoiceManage.DTO.request.UserRegistrationRequest;
+import com.example.InvoiceManage.DTO.response.TokenRefreshResponse;
 import com.example.InvoiceManage.DTO.response.UserResponse;
 import com.example.InvoiceManage.entity.User;
+import com.example.InvoiceManage.exception.InvalidRefreshTokenException;
+import com.example.InvoiceManage.exception.TooManyRequestsException;
+import com.example.InvoiceManage.security.jwt.JwtService;
+import com.example.InvoiceManage.service.RefreshTokenService;
+import com.example.InvoiceManage.service.TokenRevocationService;
+import io.jsonwebtoken.JwtException;
 import com.example.InvoiceManage.service.UserService;
 import com.example.InvoiceManage.exception.UserAccountDeactivatedException; // <-- IMPORT NÀY
+import jakarta.servlet.http.HttpServletRequest;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import java.util.Optional;
@@ -18,10 +29,23 @@ public class AuthController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private RefreshTokenService refreshTokenService;
+
+    @Autowired
+    private TokenRevocationService tokenRevocationService;
+
+    @Autowired
+    private JwtService jwtService;
+
+    // Số reverse proxy tin cậy đứng trước ứng dụng; 0: bỏ qua X-Forwarded-For vì client tự đặt được để né giới hạn theo IP
+    @Value("${auth.login.trusted-proxies:0}")
+    private int trustedProxies;
+
     @PostMapping("/login")
-    public ResponseEntity<?> login(@RequestBody LoginRequest request) {
+    public ResponseEntity<?> login(@RequestBody LoginRequest request, HttpServletRequest httpRequest) {
         try {
-            Optional<UserResponse> userOpt = userService.login(request);
+            Optional<UserResponse> userOpt = userService.login(request, clientIp(httpRequest));
             if (userOpt.isPresent()) {
                 return ResponseEntity.ok(userOpt.get());
             } else {
@@ -31,9 +55,45 @@ public class AuthController {
         } catch (UserAccountDeactivatedException e) {
             // Đây là trường hợp tài khoản bị chặn (active = false)
             return ResponseEntity.status(403).body(e.getMessage());
+        } catch (TooManyRequestsException e) {
+            return tooManyRequests(e);
+        }
+    }
+
+    // Đổi refresh token lấy cặp token mới; refresh token cũ không dùng lại được nữa
+    @PostMapping("/refresh")
+    public ResponseEntity<?> refresh(@RequestBody RefreshTokenRequest request) {
+        if (request.getRefreshToken() == null || request.getRefreshToken().isBlank()) {
+            return ResponseEntity.badRequest().body("Thiếu refresh token");
+        }
+        try {
+            TokenRefreshResponse tokens = refreshTokenService.rotate(request.getRefreshToken());
+            return ResponseEntity.ok(tokens);
+        } catch (InvalidRefreshTokenException e) {
+            return ResponseEntity.status(401).body(e.getMessage());
+        } catch (UserAccountDeactivatedException e) {
+            return ResponseEntity.status(403).body(e.getMessage());
         }
     }
 
+    // Thu hồi refresh token (và cả họ token của lần đăng nhập đó) cùng access token đang dùng
+    @PostMapping("/logout")
+    public ResponseEntity<?> logout(@RequestBody(required = false) RefreshTokenRequest request,
+                                    @RequestHeader(value = "Authorization", required = false) String authHeader) {
+        // Body có thể trống: client chỉ gửi access token cũng đăng xuất được
+        if (request != null && request.getRefreshToken() != null && !request.getRefreshToken().isBlank()) {
+            refreshTokenService.revoke(request.getRefreshToken());
+        }
+        if (authHeader != null && authHeader.startsWith("Bearer ")) {
+            try {
+                tokenRevocationService.revokeToken(jwtService.verify(authHeader.substring(7)));
+            } catch (JwtException | IllegalArgumentException e) {
+                // Access token đã hết hạn hoặc không hợp lệ: không cần thu hồi
+            }
+        }
+        return ResponseEntity.noContent().build();
+    }
+
     @PostMapping("/register")
     public ResponseEntity<?> register(@RequestBody UserRegistrationRequest request) {
         try {
@@ -41,6 +101,33 @@ public class AuthController {
             return ResponseEntity.ok(user);
         } catch (IllegalArgumentException e) {
             return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (TooManyRequestsException e) {
+            // Pool BCrypt quá tải khi băm mật khẩu mới
+            return tooManyRequests(e);
+        }
+    }
+
+    private static ResponseEntity<?> tooManyRequests(TooManyRequestsException e) {
+        return ResponseEntity.status(429)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(e.getMessage());
+    }
+
+    private String clientIp(HttpServletRequest request) {
+        return clientIp(request.getHeader("X-Forwarded-For"), request.getRemoteAddr(), trustedProxies);
+    }
+
+    /**
+     * Mỗi proxy nối địa chỉ nó nhận request vào cuối X-Forwarded-For, nên với N proxy tin cậy
+     * IP client là mục thứ N tính từ phải; các mục bên trái hơn do client tự ghi, không tin được.
+     */
+    static String clientIp(String forwardedFor, String remoteAddr, int trustedProxies) {
+        if (trustedProxies <= 0 || forwardedFor == null || forwardedFor.isBlank()) {
+            return remoteAddr;
         }
+        String[] hops = forwardedFor.split(",");
+        // Header ngắn hơn số proxy: mọi mục đều do proxy tin cậy ghi, lấy mục xa nhất
+        String hop = hops[Math.max(0, hops.length - trustedProxies)].trim();
+        return hop.isEmpty() ? remoteAddr : hop;
     }
-}
\ No newline at end of file
+}
@@ -2,68 +2,147 @@ package com.example.InvoiceManage.controller;
 
 import com.example.InvoiceManage.DTO.request.ChatMessage;
 import com.example.InvoiceManage.DTO.request.ChatRequest;
+import com.example.InvoiceManage.entity.SecurityUser;
+import com.example.InvoiceManage.exception.ServiceUnavailableException;
 import com.example.InvoiceManage.service.ChatContextService;
+import com.example.InvoiceManage.service.chat.ChatAnswerCache;
+import com.example.InvoiceManage.service.chat.ConversationMemory;
+import com.example.InvoiceManage.service.chat.OllamaChatClient;
+import lombok.extern.slf4j.Slf4j;
 import org.json.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.*;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.HttpClientErrorException;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+@Slf4j
 @RestController
 @RequestMapping("${api.prefix}/chat")
 @CrossOrigin(origins = "http://localhost:3000")
 public class ChatbotController {
 
-    // *** THAY ĐỔI QUAN TRỌNG: Quay lại dùng /api/chat để có bộ nhớ ***
-    private static final String OLLAMA_API_CHAT_URL = "http://localhost:11434/api/chat";
     private static final String DEFAULT_MODEL = "mistral"; // Đặt mistral làm model mặc định
+    private static final double TEMPERATURE = 0.3; // Giảm nhiệt độ để câu trả lời bám sát sự thật, ít sáng tạo hơn
+    private static final String SYSTEM_PROMPT =
+            "Bạn là một trợ lý ảo, chỉ trả lời dựa trên sự thật. Hãy tuân thủ nghiêm ngặt các quy tắc sau:\n" +
+                    "1. CHỈ được trả lời câu hỏi của người dùng dựa vào 'NGỮ CẢNH' được cung cấp.\n" +
+                    "2. Trả lời ngắn gọn, đi thẳng vào vấn đề. Trả lời bằng tiếng Việt.\n" +
+                    "3. TUYỆT ĐỐI KHÔNG thêm lời chào, lời bình luận, hay tự giới thiệu. \n" +
+                    "4. Nếu không tìm thấy thông tin trong 'NGỮ CẢNH', chỉ cần trả lời DUY NHẤT một câu: 'Tôi không tìm thấy thông tin này trong tài liệu.'";
 
     @Autowired
     private ChatContextService contextService;
 
-    // Endpoint upload file giữ nguyên
+    @Autowired
+    private OllamaChatClient ollamaChatClient;
+
+    @Autowired
+    private ChatAnswerCache answerCache;
+
+    @Autowired
+    private ConversationMemory conversationMemory;
+
+    @Value("${chat.stream.timeout-ms:300000}")
+    private long streamTimeoutMs;
+
+    // Tài liệu được thêm vào bộ ngữ cảnh riêng của người dùng (mặc định "default"), không ảnh hưởng người khác.
+    // Nạp ở nền: trả về 202 kèm job, tiến độ xem qua /ingestions/{jobId}
     @PostMapping("/upload-context")
-    public ResponseEntity<String> uploadContextDocument(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<?> uploadContextDocument(@RequestParam("file") MultipartFile file,
+                                                   @RequestParam(value = "collection", defaultValue = ChatContextService.DEFAULT_COLLECTION) String collection,
+                                                   @AuthenticationPrincipal SecurityUser user) {
         try {
-            contextService.loadDocument(file);
-            return ResponseEntity.ok("Document loaded successfully as context.");
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(contextService.startIngestion(user.getUsername(), collection, file));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Failed to start document ingestion into context '{}'", collection, e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to load document: " + e.getMessage());
         }
     }
 
-    // *** ENDPOINT MỚI: Nạp tài liệu từ đường dẫn trên server ***
+    // *** ENDPOINT MỚI: Nạp tài liệu từ đường dẫn trên server (ở nền, như /upload-context) ***
+    // Chỉ ADMIN, và chỉ file trong chat.ingest.base-dir
+    @PreAuthorize("hasRole('ADMIN')")
     @PostMapping("/load-from-path")
-    public ResponseEntity<String> loadContextFromPath(@RequestBody Map<String, String> payload) {
+    public ResponseEntity<?> loadContextFromPath(@RequestBody Map<String, String> payload,
+                                                 @AuthenticationPrincipal SecurityUser user) {
         try {
             String filePath = payload.get("path");
             if (filePath == null || filePath.trim().isEmpty()) {
                 return ResponseEntity.badRequest().body("File path is required.");
             }
-            contextService.loadDocumentFromPath(filePath);
-            return ResponseEntity.ok("Document from path '" + filePath + "' loaded successfully.");
+            String collection = payload.getOrDefault("collection", ChatContextService.DEFAULT_COLLECTION);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(contextService.startIngestionFromPath(user.getUsername(), collection, filePath));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Failed to start document ingestion from path {}", payload.get("path"), e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Failed to load document from path: " + e.getMessage());
         }
     }
 
+    // Tiến độ một lượt nạp tài liệu: status QUEUED / RUNNING / COMPLETED / FAILED, progress 0..1
+    @GetMapping("/ingestions/{jobId}")
+    public ResponseEntity<ChatContextService.IngestionJob> getIngestionJob(@PathVariable String jobId,
+                                                                          @AuthenticationPrincipal SecurityUser user) {
+        return contextService.getIngestionJob(user.getUsername(), jobId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
     @PostMapping("/clear-context")
-    public ResponseEntity<String> clearContext() {
-        contextService.clearContext();
-        return ResponseEntity.ok("Context has been cleared.");
+    public ResponseEntity<String> clearContext(@RequestParam(value = "collection", defaultValue = ChatContextService.DEFAULT_COLLECTION) String collection,
+                                               @AuthenticationPrincipal SecurityUser user) {
+        try {
+            contextService.clearContext(user.getUsername(), collection);
+            return ResponseEntity.ok("Context has been cleared.");
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    // Các bộ ngữ cảnh của người dùng hiện tại
+    @GetMapping("/collections")
+    public ResponseEntity<List<String>> listCollections(@AuthenticationPrincipal SecurityUser user) {
+        return ResponseEntity.ok(contextService.listCollections(user.getUsername()));
+    }
+
+    // Danh sách tài liệu trong một bộ ngữ cảnh
+    @GetMapping("/collections/{collection}")
+    public ResponseEntity<?> getCollection(@PathVariable String collection,
+                                           @AuthenticationPrincipal SecurityUser user) {
+        try {
+            return ResponseEntity.ok(contextService.getCollection(user.getUsername(), collection).documents());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @DeleteMapping("/collections/{collection}/documents/{document}")
+    public ResponseEntity<?> removeDocument(@PathVariable String collection,
+                                            @PathVariable String document,
+                                            @AuthenticationPrincipal SecurityUser user) {
+        try {
+            return ResponseEntity.ok(contextService.removeDocument(user.getUsername(), collection, document).documents());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
     }
 
     @PostMapping("/conversation")
-    public ResponseEntity<String> chatWithOllama(@RequestBody ChatRequest chatRequest) {
+    public ResponseEntity<String> chatWithOllama(@RequestBody ChatRequest chatRequest,
+                                                 @AuthenticationPrincipal SecurityUser user) {
         try {
             // Sử dụng model được chỉ định hoặc mistral làm mặc định
             String modelName = (chatRequest.getModel() != null && !chatRequest.getModel().isEmpty())
@@ -76,70 +155,160 @@ public class ChatbotController {
             }
 
             String latestUserQuery = history.get(history.size() - 1).getContent();
-            String relevantContext = contextService.findRelevantContext(latestUserQuery);
-
-            // 1. *** SYSTEM PROMPT MỚI: Rõ ràng, dứt khoát và bằng tiếng Việt ***
-            // Ra lệnh trực tiếp cho model, cấm các hành vi không mong muốn.
-            String systemPromptContent =
-                    "Bạn là một trợ lý ảo, chỉ trả lời dựa trên sự thật. Hãy tuân thủ nghiêm ngặt các quy tắc sau:\n" +
-                            "1. CHỈ được trả lời câu hỏi của người dùng dựa vào 'NGỮ CẢNH' được cung cấp.\n" +
-                            "2. Trả lời ngắn gọn, đi thẳng vào vấn đề. Trả lời bằng tiếng Việt.\n" +
-                            "3. TUYỆT ĐỐI KHÔNG thêm lời chào, lời bình luận, hay tự giới thiệu. \n" +
-                            "4. Nếu không tìm thấy thông tin trong 'NGỮ CẢNH', chỉ cần trả lời DUY NHẤT một câu: 'Tôi không tìm thấy thông tin này trong tài liệu.'";
-
-            // 2. *** CẤU TRÚC LẠI PAYLOAD GỬI ĐẾN OLLAMA ***
-            List<ChatMessage> messagesForOllama = new ArrayList<>();
-            messagesForOllama.add(new ChatMessage("system", systemPromptContent));
-
-            // Thay vì đưa context vào system prompt, ta đặt nó rõ ràng trong user prompt
-            // để model tập trung hơn vào nhiệm vụ.
-            String userPromptWithContext = "NGỮ CẢNH:\n\"" +
-                    (relevantContext.isEmpty() ? "Không có ngữ cảnh nào được cung cấp." : relevantContext) +
-                    "\"\n\n" +
-                    "DỰA VÀO NGỮ CẢNH TRÊN, hãy trả lời câu hỏi sau:\n\"" + latestUserQuery + "\"";
-
-            messagesForOllama.add(new ChatMessage("user", userPromptWithContext));
-
-            // --- PHẦN TÙY CHỌN: KÍCH HOẠT LẠI BỘ NHỚ CHO HỘI THOẠI DÀI ---
-            // Để có câu trả lời ngắn gọn nhất cho từng câu hỏi, ta tạm thời không gửi toàn bộ lịch sử.
-            // Nếu bạn muốn chatbot "nhớ" các câu hỏi trước đó (ví dụ: hỏi "nó dùng công nghệ gì?"),
-            // hãy bỏ comment ở dòng dưới đây. Lưu ý rằng việc này có thể làm câu trả lời dài hơn một chút.
-            // messagesForOllama.addAll(history);
-
-            Map<String, Object> ollamaPayload = new HashMap<>();
-            ollamaPayload.put("model", modelName);
-            ollamaPayload.put("messages", messagesForOllama);
-            ollamaPayload.put("stream", false);
-            // Thêm các tham số để kiểm soát model tốt hơn (tùy chọn)
-            Map<String, Object> options = new HashMap<>();
-            options.put("temperature", 0.3); // Giảm nhiệt độ để câu trả lời bám sát sự thật, ít sáng tạo hơn
-            ollamaPayload.put("options", options);
-
-
-            // Phần gọi RestTemplate giữ nguyên...
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            HttpEntity<Map<String, Object>> entity = new HttpEntity<>(ollamaPayload, headers);
-            RestTemplate restTemplate = new RestTemplate();
-            ResponseEntity<String> ollamaResponse;
+            String collection = chatRequest.getCollection() != null ? chatRequest.getCollection() : ChatContextService.DEFAULT_COLLECTION;
+            String relevantContext = contextService.findRelevantContext(user.getUsername(), collection, latestUserQuery);
 
-            try {
-                ollamaResponse = restTemplate.postForEntity(OLLAMA_API_CHAT_URL, entity, String.class);
-            } catch (HttpClientErrorException e) {
-                return ResponseEntity.status(e.getStatusCode()).body("Error from Ollama: " + e.getResponseBodyAsString());
-            }
+            // Bộ nhớ hội thoại: vài lượt gần nhất nguyên văn + tóm tắt các lượt cũ, để hiểu câu hỏi nối tiếp
+            // (ví dụ: hỏi "nó dùng công nghệ gì?") mà prompt không dài ra theo cuộc trò chuyện
+            ConversationMemory.Recall memory = conversationMemory.recall(user.getUsername(), chatRequest.getConversationId(),
+                    modelName, history.subList(0, history.size() - 1));
+            List<ChatMessage> messagesForOllama = buildOllamaMessages(relevantContext, memory, latestUserQuery);
 
-            if (ollamaResponse.getStatusCode() == HttpStatus.OK && ollamaResponse.getBody() != null) {
-                JSONObject jsonResponse = new JSONObject(ollamaResponse.getBody());
-                String aiTextResponse = jsonResponse.getJSONObject("message").getString("content");
-                return ResponseEntity.ok(aiTextResponse.trim());
-            } else {
-                return ResponseEntity.status(ollamaResponse.getStatusCode()).body("Ollama server error: " + ollamaResponse.getBody());
+            // Câu hỏi này đã được trả lời trên đúng các đoạn ngữ cảnh (và phần hội thoại) này: không cần gọi model
+            ChatAnswerCache.Key cacheKey = answerCache.key(user.getUsername(), collection, modelName,
+                    latestUserQuery, relevantContext + memory.fingerprint(), TEMPERATURE);
+            String cached = answerCache.get(cacheKey);
+            if (cached != null) {
+                return ResponseEntity.ok(cached);
             }
 
+            // Client dùng chung: giữ kết nối tới Ollama, giới hạn số request cùng lúc, gộp câu hỏi giống nhau
+            long start = System.nanoTime();
+            String aiTextResponse = ollamaChatClient.chat(modelName, messagesForOllama, TEMPERATURE).trim();
+            answerCache.put(cacheKey, aiTextResponse, System.nanoTime() - start);
+            return ResponseEntity.ok(aiTextResponse);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (ServiceUnavailableException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(e.getMessage());
+        } catch (OllamaChatClient.OllamaHttpException e) {
+            return ResponseEntity.status(e.getStatusCode()).body(e.getMessage());
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Error processing chat message", e);
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body("Error processing chat message: " + e.getMessage());
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Như /conversation nhưng trả lời dạng Server-Sent Events: mỗi token của model được gửi ngay khi Ollama sinh ra
+     * (event "token", data {"token": "..."}), kết thúc bằng event "done" hoặc "error".
+     * Client ngắt kết nối thì request tới Ollama cũng bị hủy.
+     */
+    @PostMapping(value = "/conversation/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamChatWithOllama(@RequestBody ChatRequest chatRequest,
+                                                           @AuthenticationPrincipal SecurityUser user) {
+        String modelName = (chatRequest.getModel() != null && !chatRequest.getModel().isEmpty())
+                ? chatRequest.getModel()
+                : DEFAULT_MODEL;
+        List<ChatMessage> history = chatRequest.getMessages();
+        if (history == null || history.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Message history cannot be empty.");
+        }
+        String latestUserQuery = history.get(history.size() - 1).getContent();
+        String collection = chatRequest.getCollection() != null ? chatRequest.getCollection() : ChatContextService.DEFAULT_COLLECTION;
+        String relevantContext;
+        try {
+            relevantContext = contextService.findRelevantContext(user.getUsername(), collection, latestUserQuery);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+
+        ConversationMemory.Recall memory = conversationMemory.recall(user.getUsername(), chatRequest.getConversationId(),
+                modelName, history.subList(0, history.size() - 1));
+
+        SseEmitter emitter = new SseEmitter(streamTimeoutMs);
+        ChatAnswerCache.Key cacheKey = answerCache.key(user.getUsername(), collection, modelName,
+                latestUserQuery, relevantContext + memory.fingerprint(), TEMPERATURE);
+        String cached = answerCache.get(cacheKey);
+        if (cached != null) {
+            // Trúng cache: gửi cả câu trả lời trong một event token rồi kết thúc, không mở request tới Ollama
+            try {
+                emitter.send(SseEmitter.event().name("token")
+                        .data(new JSONObject().put("token", cached).toString(), MediaType.APPLICATION_JSON));
+                emitter.send(SseEmitter.event().name("done").data("{}", MediaType.APPLICATION_JSON));
+                emitter.complete();
+            } catch (IOException e) {
+                emitter.completeWithError(e);
+            }
+            return ResponseEntity.ok(emitter);
+        }
+
+        long start = System.nanoTime();
+        OllamaChatClient.ChatStream stream;
+        try {
+            stream = ollamaChatClient.streamChat(modelName,
+                    buildOllamaMessages(relevantContext, memory, latestUserQuery), TEMPERATURE,
+                    new OllamaChatClient.ChatStreamListener() {
+                        @Override
+                        public void onToken(String token) throws Exception {
+                            // Gửi JSON thay vì chuỗi thô: token thường bắt đầu bằng dấu cách, SSE sẽ cắt mất dấu cách đầu của data
+                            emitter.send(SseEmitter.event().name("token")
+                                    .data(new JSONObject().put("token", token).toString(), MediaType.APPLICATION_JSON));
+                        }
+
+                        @Override
+                        public void onComplete(String content) {
+                            answerCache.put(cacheKey, content.trim(), System.nanoTime() - start);
+                            try {
+                                emitter.send(SseEmitter.event().name("done").data("{}", MediaType.APPLICATION_JSON));
+                                emitter.complete();
+                            } catch (Exception e) {
+                                emitter.completeWithError(e);
+                            }
+                        }
+
+                        @Override
+                        public void onError(Throwable error) {
+                            log.warn("Chat stream from Ollama failed: {}", error.toString());
+                            try {
+                                emitter.send(SseEmitter.event().name("error")
+                                        .data(new JSONObject().put("message", "Error from Ollama: " + error.getMessage()).toString(),
+                                                MediaType.APPLICATION_JSON));
+                                emitter.complete();
+                            } catch (Exception e) {
+                                emitter.completeWithError(e);
+                            }
+                        }
+                    });
+        } catch (ServiceUnavailableException e) {
+            // Model đang bận: trả 503 trước khi mở stream để client biết thử lại sau
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .build();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Interrupted while waiting for the chatbot");
+        }
+        // Client đóng kết nối, hết thời gian hay lỗi ghi: dừng model ngay, không sinh tiếp token không ai đọc
+        emitter.onCompletion(stream::cancel);
+        emitter.onTimeout(stream::cancel);
+        emitter.onError(e -> stream.cancel());
+        return ResponseEntity.ok(emitter);
+    }
+
+    // Prompt gửi cho model: system prompt cố định + bộ nhớ hội thoại + câu hỏi kèm ngữ cảnh tìm được
+    private List<ChatMessage> buildOllamaMessages(String relevantContext, ConversationMemory.Recall memory, String latestUserQuery) {
+        // 1. *** SYSTEM PROMPT MỚI: Rõ ràng, dứt khoát và bằng tiếng Việt ***
+        // Ra lệnh trực tiếp cho model, cấm các hành vi không mong muốn.
+        List<ChatMessage> messagesForOllama = new ArrayList<>();
+        messagesForOllama.add(new ChatMessage("system", SYSTEM_PROMPT));
+
+        // Tóm tắt các lượt cũ rồi tới các lượt gần nhất, giới hạn theo chat.memory.*
+        if (memory.summary() != null) {
+            messagesForOllama.add(new ChatMessage("system", "TÓM TẮT CÁC LƯỢT TRAO ĐỔI TRƯỚC:\n" + memory.summary()));
+        }
+        messagesForOllama.addAll(memory.recentTurns());
+
+        // 2. Thay vì đưa context vào system prompt, ta đặt nó rõ ràng trong user prompt
+        // để model tập trung hơn vào nhiệm vụ.
+        String userPromptWithContext = "NGỮ CẢNH:\n\"" +
+                (relevantContext.isEmpty() ? "Không có ngữ cảnh nào được cung cấp." : relevantContext) +
+                "\"\n\n" +
+                "DỰA VÀO NGỮ CẢNH TRÊN, hãy trả lời câu hỏi sau:\n\"" + latestUserQuery + "\"";
+        messagesForOllama.add(new ChatMessage("user", userPromptWithContext));
+        return messagesForOllama;
+    }
+}
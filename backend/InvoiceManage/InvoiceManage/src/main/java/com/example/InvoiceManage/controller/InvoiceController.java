@@ -1,4 +1,107 @@
 package com.example.InvoiceManage.controller;
 
+import com.example.InvoiceManage.DTO.Invoice;
+import com.example.InvoiceManage.config.constants.SecurityConstants;
+import com.example.InvoiceManage.entity.SecurityUser;
+import com.example.InvoiceManage.service.InvoiceDocumentRenderer.Format;
+import com.example.InvoiceManage.service.InvoiceService;
+import com.example.InvoiceManage.service.InvoiceService.BulkRenderJob;
+import com.example.InvoiceManage.service.InvoiceService.RenderedInvoice;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RestController
+@RequestMapping(SecurityConstants.API_PREFIX + "/invoices")
+@CrossOrigin(origins = "http://localhost:3000")
+@RequiredArgsConstructor
 public class InvoiceController {
+
+    private final InvoiceService invoiceService;
+
+    /**
+     * Tải file hóa đơn. Hỗ trợ ETag (If-None-Match -> 304) và tải từng phần qua header Range:
+     * khi body là Resource, Spring MVC tự trả về 206 Partial Content theo Range được yêu cầu.
+     */
+    @GetMapping("/{id}/document")
+    public ResponseEntity<?> downloadDocument(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @PathVariable("id") Integer id,
+            @RequestParam(defaultValue = "pdf") String format,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        Format documentFormat;
+        try {
+            documentFormat = Format.from(format);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+
+        // Khách hàng chỉ được tải hóa đơn của chính mình; kiểm tra trước khi render/đọc file
+        Invoice snapshot = invoiceService.getSnapshot(id);
+        boolean isAdmin = "ADMIN".equalsIgnoreCase(securityUser.getRoleName());
+        if (!isAdmin && !securityUser.getUserId().equals(snapshot.getCustomerId())) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Bạn không có quyền xem hóa đơn này.");
+        }
+        RenderedInvoice document = invoiceService.getDocument(snapshot, documentFormat);
+
+        String etag = "\"" + document.getKey() + "\"";
+        CacheControl cacheControl = CacheControl.maxAge(1, TimeUnit.HOURS).cachePrivate();
+        if (etag.equals(ifNoneMatch)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).cacheControl(cacheControl).build();
+        }
+
+        Resource body = new FileSystemResource(document.getPath());
+        return ResponseEntity.ok()
+                .eTag(etag)
+                .cacheControl(cacheControl)
+                .header(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.inline()
+                        .filename("hoa-don-" + id + "." + documentFormat.getExtension())
+                        .build()
+                        .toString())
+                .contentType(MediaType.parseMediaType(documentFormat.getContentType()))
+                .body(body);
+    }
+
+    @PostMapping("/bulk-render")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> startBulkRender(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestParam String month,
+            @RequestParam(required = false) List<String> formats) {
+        try {
+            YearMonth yearMonth = YearMonth.parse(month); // định dạng yyyy-MM
+            List<Format> selected = (formats == null || formats.isEmpty())
+                    ? List.of(Format.values())
+                    : formats.stream().map(Format::from).toList();
+            BulkRenderJob job = invoiceService.startMonthlyRender(yearMonth, selected);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(job);
+        } catch (DateTimeParseException | IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Tham số không hợp lệ: " + e.getMessage());
+        }
+    }
+
+    @GetMapping("/bulk-render/{jobId}")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<BulkRenderJob> getBulkRenderJob(
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @PathVariable String jobId) {
+        return invoiceService.getJob(jobId)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
 }
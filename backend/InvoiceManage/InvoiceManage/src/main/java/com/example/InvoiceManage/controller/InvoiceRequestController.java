@@ -12,7 +12,9 @@ import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.bind.annotation.*;
 
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.List;
 import java.util.Map;
 
@@ -45,9 +47,17 @@ public class InvoiceRequestController {
     }
     @GetMapping
     public ResponseEntity<List<InvoiceRequestResponse>> getAll(
-            @AuthenticationPrincipal SecurityUser securityUser) {
+            @AuthenticationPrincipal SecurityUser securityUser,
+            @RequestParam(required = false) String from,
+            @RequestParam(required = false) String to) {
 
-        List<InvoiceRequestResponse> responseDTOs = invoiceRequestService.getAll();
+        // Không truyền khoảng thời gian: chỉ trả về dữ liệu đang dùng (dữ liệu cũ đã lưu trữ cần hỏi theo khoảng)
+        if (from == null && to == null) {
+            return ResponseEntity.ok(invoiceRequestService.getAll());
+        }
+        LocalDateTime start = from == null ? LocalDate.now().minusYears(1).atStartOfDay() : LocalDate.parse(from).atStartOfDay();
+        LocalDateTime end = to == null ? LocalDateTime.now() : LocalDate.parse(to).atTime(LocalTime.MAX);
+        List<InvoiceRequestResponse> responseDTOs = invoiceRequestService.getAll(start, end);
         return ResponseEntity.ok(responseDTOs);
     }
 
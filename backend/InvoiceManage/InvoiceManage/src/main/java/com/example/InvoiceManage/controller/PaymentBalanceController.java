@@ -0,0 +1,94 @@
+package com.example.InvoiceManage.controller;
+
+import com.example.InvoiceManage.DTO.response.CustomerBalanceDTO;
+import com.example.InvoiceManage.DTO.response.OrderBalanceDTO;
+import com.example.InvoiceManage.config.constants.SecurityConstants;
+import com.example.InvoiceManage.entity.SecurityUser;
+import com.example.InvoiceManage.service.PaymentSummaryService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+@RequestMapping(SecurityConstants.API_PREFIX + "/payments")
+@CrossOrigin(origins = "http://localhost:3000")
+@RequiredArgsConstructor
+public class PaymentBalanceController {
+
+    private static final int MAX_LIMIT = 500;
+
+    private final PaymentSummaryService paymentSummaryService;
+
+    // Người dùng thường chỉ xem được đơn của mình; quản trị xem mọi đơn
+    @GetMapping("/orders/{orderId}/balance")
+    public ResponseEntity<OrderBalanceDTO> balance(@AuthenticationPrincipal SecurityUser securityUser,
+                                                   @PathVariable Integer orderId) {
+        OrderBalanceDTO balance = paymentSummaryService.getBalance(orderId, scopeUserId(securityUser))
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Không tìm thấy đơn hàng với ID: " + orderId));
+        return ResponseEntity.ok(balance);
+    }
+
+    @GetMapping("/outstanding")
+    public ResponseEntity<List<OrderBalanceDTO>> outstanding(@AuthenticationPrincipal SecurityUser securityUser,
+                                                             @RequestParam(required = false) Integer userId,
+                                                             @RequestParam(defaultValue = "100") int limit) {
+        Integer scope = scopeUserId(securityUser);
+        if (scope == null) {
+            scope = userId;
+        }
+        return ResponseEntity.ok(paymentSummaryService.getOutstandingOrders(scope, clamp(limit)));
+    }
+
+    @GetMapping("/outstanding/customers")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<List<CustomerBalanceDTO>> outstandingByCustomer(@AuthenticationPrincipal SecurityUser securityUser,
+                                                                          @RequestParam(defaultValue = "100") int limit) {
+        return ResponseEntity.ok(paymentSummaryService.getOutstandingByCustomer(clamp(limit)));
+    }
+
+    // Dựng lại toàn bộ bảng tổng hợp từ bảng payment, chạy ở nền
+    @PostMapping("/summary/rebuild")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> rebuild(@AuthenticationPrincipal SecurityUser securityUser) {
+        if (!paymentSummaryService.startRebuild()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Đang có một lượt dựng lại/kiểm tra khác chạy.");
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of("running", true));
+    }
+
+    @PostMapping("/summary/check")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> check(@AuthenticationPrincipal SecurityUser securityUser,
+                                   @RequestParam(defaultValue = "false") boolean repair) {
+        if (!paymentSummaryService.startCheck(repair)) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Đang có một lượt dựng lại/kiểm tra khác chạy.");
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of("running", true));
+    }
+
+    @GetMapping("/summary/status")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> status(@AuthenticationPrincipal SecurityUser securityUser) {
+        Map<String, Object> body = new HashMap<>();
+        body.put("running", paymentSummaryService.isRunning());
+        body.put("lastRebuild", paymentSummaryService.getLastRebuild());
+        body.put("lastCheck", paymentSummaryService.getLastCheck());
+        return ResponseEntity.ok(body);
+    }
+
+    private static Integer scopeUserId(SecurityUser securityUser) {
+        return "ADMIN".equalsIgnoreCase(securityUser.getRoleName()) ? null : securityUser.getUserId();
+    }
+
+    private static int clamp(int limit) {
+        return Math.max(1, Math.min(limit, MAX_LIMIT));
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.InvoiceManage.controller;
+
+import com.example.InvoiceManage.service.StripeWebhookService;
+import com.stripe.exception.SignatureVerificationException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.Map;
+
+@RestController
+@RequestMapping("${api.prefix}/stripe")
+@RequiredArgsConstructor
+@Slf4j
+public class StripeWebhookController {
+
+    private final StripeWebhookService stripeWebhookService;
+
+    // Stripe ký trên đúng chuỗi byte của body nên phải nhận body dạng String, không để Jackson parse lại
+    @PostMapping("/webhook")
+    public ResponseEntity<?> webhook(@RequestBody String payload,
+                                     @RequestHeader(value = "Stripe-Signature", required = false) String signature) {
+        if (signature == null) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Missing Stripe-Signature header");
+        }
+        try {
+            StripeWebhookService.AcceptResult result = stripeWebhookService.accept(payload, signature);
+            // Trả 2xx cho cả sự kiện trùng/bỏ qua để Stripe ngừng gửi lại
+            return ResponseEntity.ok(Map.of("received", true, "result", result.name()));
+        } catch (SignatureVerificationException e) {
+            log.warn("Rejected Stripe webhook with invalid signature: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body("Invalid signature");
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.example.InvoiceManage.controller;
 import com.example.InvoiceManage.DTO.VnPayIpnData;
 import com.example.InvoiceManage.DTO.request.PaymentRequest;
 import com.example.InvoiceManage.entity.SecurityUser;
+import com.example.InvoiceManage.service.PaymentReconciliationService;
 import com.example.InvoiceManage.service.VnPaySerivce;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.servlet.http.HttpServletRequest;
@@ -10,10 +11,12 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 
 
@@ -25,6 +28,9 @@ public class VnPayController {
     @Autowired
     private VnPaySerivce vnPaySerivce;
 
+    @Autowired
+    private PaymentReconciliationService reconciliationService;
+
     @PostMapping("/create-order")
     public ResponseEntity<?> createOrder(
             @RequestBody PaymentRequest paymentRequest,
@@ -34,8 +40,28 @@ public class VnPayController {
     }
 
     @GetMapping("/IPN")
-    public ResponseEntity<Void> ipn(@RequestParam Map<String, String> params) {
-        vnPaySerivce.ipn(params);
-        return null;
+    public ResponseEntity<Map<String, String>> ipn(@RequestParam Map<String, String> params) {
+        // Trả nguyên RspCode cho VNPay để VNPay ngừng gửi lại khi đã xác nhận
+        return vnPaySerivce.ipn(params);
+    }
+
+    // Chạy đối soát với API querydr của VNPay ngay (ngoài lịch định kỳ), xử lý ở nền
+    @PostMapping("/reconcile")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<?> reconcile(@AuthenticationPrincipal SecurityUser securityUser) {
+        if (!reconciliationService.startAsync()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body("Đang có một lượt đối soát khác chạy.");
+        }
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(Map.of("running", true));
+    }
+
+    @GetMapping("/reconcile/report")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<Map<String, Object>> reconcileReport(@AuthenticationPrincipal SecurityUser securityUser) {
+        PaymentReconciliationService.ReconciliationReport report = reconciliationService.getLastReport();
+        Map<String, Object> body = new HashMap<>();
+        body.put("running", reconciliationService.isRunning());
+        body.put("report", report);
+        return ResponseEntity.ok(body);
     }
 }
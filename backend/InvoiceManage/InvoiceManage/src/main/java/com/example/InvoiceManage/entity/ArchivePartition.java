@@ -0,0 +1,31 @@
+package com.example.InvoiceManage.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Danh mục các phân vùng lưu trữ theo tháng (ví dụ 202401 -> order_archive_202401, ...).
+ * Phía đọc dựa vào bảng này để biết khoảng thời gian nào cần ghép thêm bảng lưu trữ.
+ */
+@Entity
+@Table(name = "archive_partition")
+@Getter
+@Setter
+public class ArchivePartition {
+
+    @Id
+    @Column(name = "period", length = 6)
+    private String period; // yyyyMM
+
+    @Column(name = "order_count", nullable = false)
+    private Long orderCount;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt;
+}
@@ -18,6 +18,10 @@ public class Invoice {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Integer id;
 
+    // Số hóa đơn theo luật: liên tục, không trùng, do InvoiceNumberService cấp
+    @Column(name = "invoice_no", unique = true)
+    private Long invoiceNo;
+
     @OneToOne
     @JoinColumn(name = "invoice_request_id", nullable = false)
     private InvoiceRequest invoiceRequest;
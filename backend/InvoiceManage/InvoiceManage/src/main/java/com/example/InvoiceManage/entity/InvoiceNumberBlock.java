@@ -0,0 +1,39 @@
+package com.example.InvoiceManage.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Block số [startValue, endValue) mà một node đang giữ trong bộ nhớ.
+ * Nếu node dừng đột ngột, lần khởi động sau sẽ dựa vào bảng này để thu hồi các số chưa dùng.
+ */
+@Entity
+@Table(name = "invoice_number_block")
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class InvoiceNumberBlock {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "node_id", nullable = false, length = 100)
+    private String nodeId;
+
+    @Column(nullable = false, length = 20)
+    private String series;
+
+    @Column(name = "start_value", nullable = false)
+    private Long startValue;
+
+    @Column(name = "end_value", nullable = false)
+    private Long endValue;
+
+    @Column(name = "reserved_at", nullable = false)
+    private LocalDateTime reservedAt;
+}
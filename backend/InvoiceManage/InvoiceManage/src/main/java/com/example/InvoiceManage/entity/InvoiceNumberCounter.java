@@ -0,0 +1,25 @@
+package com.example.InvoiceManage.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * Bộ đếm số hóa đơn theo dãy (series). Mỗi node chỉ khóa dòng này trong một giao dịch ngắn
+ * để đặt trước cả một block số, không khóa theo từng hóa đơn.
+ */
+@Entity
+@Table(name = "invoice_number_counter")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class InvoiceNumberCounter {
+
+    @Id
+    @Column(length = 20)
+    private String series;
+
+    // Số đầu tiên chưa được cấp cho block nào
+    @Column(name = "next_value", nullable = false)
+    private Long nextValue;
+}
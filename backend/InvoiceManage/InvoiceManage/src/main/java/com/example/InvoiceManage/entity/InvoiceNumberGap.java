@@ -0,0 +1,38 @@
+package com.example.InvoiceManage.entity;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Số hóa đơn đã được đặt trước nhưng chưa dùng (block còn dư khi tắt node, giao dịch bị rollback...).
+ * Các số này được cấp lại trước khi cấp số mới để dãy số không bị thủng.
+ * nodeId khác null nghĩa là số đang được node đó giữ trong bộ nhớ.
+ */
+@Entity
+@Table(name = "invoice_number_gap",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"series", "number"}))
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class InvoiceNumberGap {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false, length = 20)
+    private String series;
+
+    @Column(nullable = false)
+    private Long number;
+
+    @Column(name = "node_id", length = 100)
+    private String nodeId;
+
+    @Column(name = "released_at", nullable = false)
+    private LocalDateTime releasedAt;
+}
@@ -0,0 +1,41 @@
+package com.example.InvoiceManage.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Tổng hợp thanh toán theo đơn hàng (read model), được cập nhật cùng giao dịch với mỗi lần ghi payment.
+ * Đọc số đã trả/còn nợ từ đây thay vì SUM(payment.amount) cho từng đơn.
+ */
+@Entity
+@Table(name = "order_payment_summary")
+@Getter
+@Setter
+public class OrderPaymentSummary {
+
+    @Id
+    @Column(name = "order_id")
+    private Integer orderId;
+
+    @Column(name = "paid_amount", nullable = false, precision = 14, scale = 2)
+    private BigDecimal paidAmount = BigDecimal.ZERO;
+
+    @Column(name = "payment_count", nullable = false)
+    private Integer paymentCount = 0;
+
+    @Column(name = "last_paid_at")
+    private LocalDateTime lastPaidAt;
+
+    @Column(name = "last_method", length = 100)
+    private String lastMethod;
+
+    @Column(name = "last_provider", length = 20)
+    private String lastProvider;
+
+    @Column(name = "updated_at", nullable = false)
+    private LocalDateTime updatedAt = LocalDateTime.now();
+}
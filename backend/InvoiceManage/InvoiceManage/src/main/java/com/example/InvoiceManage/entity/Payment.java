@@ -29,4 +29,15 @@ public class Payment {
     @Column(name = "payment_method", length = 100)
     private String paymentMethod; // Ví dụ: momo, cash, bank transfer
 
+    public static final String PROVIDER_VNPAY = "VNPAY";
+    public static final String PROVIDER_STRIPE = "STRIPE";
+
+    // Cổng thanh toán đã thu tiền (VNPAY, STRIPE); dòng cũ trước khi có cột này để trống
+    @Column(length = 20)
+    private String provider;
+
+    // Mã giao dịch phía cổng thanh toán (vnp_TransactionNo, Stripe payment_intent); unique để một giao dịch chỉ ghi nhận một lần
+    @Column(name = "transaction_no", length = 64, unique = true)
+    private String transactionNo;
+
 }
@@ -0,0 +1,61 @@
+package com.example.InvoiceManage.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Refresh token đã cấp. Chỉ lưu băm SHA-256 của token, không lưu token gốc.
+ * Mọi token sinh ra từ cùng một lần đăng nhập thuộc một "họ" (familyId): mỗi lần làm mới,
+ * token cũ chuyển sang ROTATED và token mới cùng họ được cấp. Một token ROTATED bị dùng lại
+ * nghĩa là token đã lộ, cả họ bị thu hồi. Hạn của mọi token trong họ không vượt quá
+ * familyStartedAt + thời gian sống tối đa của họ, nên xoay vòng không kéo dài phiên mãi mãi.
+ */
+@Entity
+@Table(name = "refresh_token", indexes = {
+        @Index(name = "idx_refresh_token_family", columnList = "family_id"),
+        @Index(name = "idx_refresh_token_user", columnList = "user_id"),
+        @Index(name = "idx_refresh_token_expires", columnList = "expires_at")
+})
+@Getter
+@Setter
+public class RefreshToken {
+
+    public enum Status { ACTIVE, ROTATED, REVOKED }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "token_hash", nullable = false, unique = true, length = 64)
+    private String tokenHash;
+
+    @Column(name = "family_id", nullable = false, length = 36)
+    private String familyId;
+
+    @Column(name = "user_id", nullable = false)
+    private Integer userId;
+
+    @Column(name = "user_email", nullable = false)
+    private String userEmail;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status = Status.ACTIVE;
+
+    @Column(name = "issued_at", nullable = false)
+    private LocalDateTime issuedAt = LocalDateTime.now();
+
+    // Thời điểm đăng nhập mở họ token; giới hạn tổng thời gian sống của cả họ.
+    // Cho phép null với các dòng cũ (khi đó dùng issuedAt)
+    @Column(name = "family_started_at")
+    private LocalDateTime familyStartedAt;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    @Column(name = "used_at")
+    private LocalDateTime usedAt;
+}
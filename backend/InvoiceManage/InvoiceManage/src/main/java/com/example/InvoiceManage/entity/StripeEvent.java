@@ -0,0 +1,67 @@
+package com.example.InvoiceManage.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Sự kiện webhook Stripe đã xác thực chữ ký. Bảng vừa chống nhận trùng theo event id (Stripe gửi lại
+ * một sự kiện nhiều lần), vừa là hàng đợi bền cho tiến trình nền ghi thanh toán theo lô.
+ * Chỉ lưu các trường cần để ghi thanh toán, không lưu nguyên payload.
+ */
+@Entity
+@Table(name = "stripe_event", indexes = @Index(name = "idx_stripe_event_status", columnList = "status, id"))
+@Getter
+@Setter
+public class StripeEvent {
+
+    public enum Status { PENDING, PROCESSING, DONE, FAILED }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "event_id", nullable = false, unique = true, length = 100)
+    private String eventId;
+
+    @Column(name = "event_type", nullable = false, length = 100)
+    private String eventType;
+
+    @Column(name = "order_id", nullable = false)
+    private Integer orderId;
+
+    // payment_intent của checkout session; dùng làm transaction_no của payment
+    @Column(name = "transaction_no", nullable = false, length = 64)
+    private String transactionNo;
+
+    @Column(nullable = false)
+    private BigDecimal amount;
+
+    @Column(length = 10)
+    private String currency;
+
+    @Column(name = "event_created_at", nullable = false)
+    private LocalDateTime eventCreatedAt;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status = Status.PENDING;
+
+    @Column(nullable = false)
+    private Integer attempts = 0;
+
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+
+    @Column(name = "received_at", nullable = false)
+    private LocalDateTime receivedAt = LocalDateTime.now();
+
+    @Column(name = "claimed_at")
+    private LocalDateTime claimedAt;
+
+    @Column(name = "processed_at")
+    private LocalDateTime processedAt;
+}
@@ -0,0 +1,48 @@
+package com.example.InvoiceManage.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.time.LocalDateTime;
+
+/**
+ * Một bản ghi thu hồi JWT: hoặc một token cụ thể (theo jti), hoặc mọi token của một người dùng
+ * được cấp trước thời điểm notBefore (vd: khi bị chặn).
+ * Các node đọc bảng này tăng dần theo id để cập nhật danh sách thu hồi trong bộ nhớ.
+ * Khi qua expiresAt, mọi token bị ảnh hưởng đã tự hết hạn nên bản ghi có thể xóa.
+ */
+@Entity
+@Table(name = "token_revocation", indexes = @Index(name = "idx_token_revocation_expires", columnList = "expires_at"))
+@Getter
+@Setter
+public class TokenRevocation {
+
+    public enum Type { TOKEN, USER }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 10)
+    private Type type;
+
+    // jti của token bị thu hồi (type = TOKEN)
+    @Column(name = "token_id", length = 36)
+    private String tokenId;
+
+    // email (subject của JWT) của người dùng bị thu hồi (type = USER)
+    @Column(name = "subject")
+    private String subject;
+
+    // Token của subject có iat không sau thời điểm này đều bị từ chối (type = USER)
+    @Column(name = "not_before")
+    private LocalDateTime notBefore;
+
+    @Column(name = "expires_at", nullable = false)
+    private LocalDateTime expiresAt;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+}
@@ -0,0 +1,60 @@
+package com.example.InvoiceManage.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Hàng đợi bền (bảng staging) cho IPN của VNPay: endpoint IPN chỉ xác thực, ghi một dòng vào đây
+ * rồi trả lời VNPay ngay; việc ghi thanh toán do tiến trình nền xử lý theo lô.
+ */
+@Entity
+@Table(name = "vnpay_ipn_inbox", indexes = @Index(name = "idx_vnpay_ipn_inbox_status", columnList = "status, id"))
+@Getter
+@Setter
+public class VnPayIpnInbox {
+
+    public enum Status { PENDING, PROCESSING, DONE, FAILED }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    // Mỗi giao dịch VNPay chỉ vào hàng đợi một lần
+    @Column(name = "transaction_no", nullable = false, unique = true, length = 64)
+    private String transactionNo;
+
+    @Column(name = "txn_ref", nullable = false, length = 100)
+    private String txnRef;
+
+    @Column(name = "order_id", nullable = false)
+    private Integer orderId;
+
+    @Column(nullable = false)
+    private BigDecimal amount;
+
+    @Column(name = "bank_code", length = 100)
+    private String bankCode;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status = Status.PENDING;
+
+    @Column(nullable = false)
+    private Integer attempts = 0;
+
+    @Column(name = "last_error", length = 500)
+    private String lastError;
+
+    @Column(name = "received_at", nullable = false)
+    private LocalDateTime receivedAt = LocalDateTime.now();
+
+    @Column(name = "claimed_at")
+    private LocalDateTime claimedAt;
+
+    @Column(name = "processed_at")
+    private LocalDateTime processedAt;
+}
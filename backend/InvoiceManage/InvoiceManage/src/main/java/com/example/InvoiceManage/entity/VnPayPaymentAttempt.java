@@ -0,0 +1,55 @@
+package com.example.InvoiceManage.entity;
+
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.Setter;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Mỗi lần tạo URL thanh toán VNPay. Lưu vnp_TxnRef và vnp_CreateDate để đối soát bằng API querydr
+ * khi IPN không đến (mất kết nối, VNPay ngừng gửi lại, ...).
+ */
+@Entity
+@Table(name = "vnpay_payment_attempt", indexes = @Index(name = "idx_vnpay_attempt_status", columnList = "status, id"))
+@Getter
+@Setter
+public class VnPayPaymentAttempt {
+
+    // OPEN: chưa rõ kết quả; PAID: đã có thanh toán; UNPAID: VNPay xác nhận không thanh toán, ngừng đối soát
+    public enum Status { OPEN, PAID, UNPAID }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "order_id", nullable = false)
+    private Integer orderId;
+
+    @Column(name = "txn_ref", nullable = false, unique = true, length = 100)
+    private String txnRef;
+
+    @Column(nullable = false)
+    private BigDecimal amount;
+
+    // vnp_CreateDate đã gửi cho VNPay (yyyyMMddHHmmss, giờ Việt Nam), dùng làm vnp_TransactionDate khi truy vấn
+    @Column(name = "vnp_create_date", nullable = false, length = 14)
+    private String vnpCreateDate;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status = Status.OPEN;
+
+    @Column(name = "check_count", nullable = false)
+    private Integer checkCount = 0;
+
+    @Column(name = "last_checked_at")
+    private LocalDateTime lastCheckedAt;
+
+    @Column(name = "transaction_no", length = 64)
+    private String transactionNo;
+}
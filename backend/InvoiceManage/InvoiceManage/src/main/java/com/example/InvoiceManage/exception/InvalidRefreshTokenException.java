@@ -0,0 +1,11 @@
+package com.example.InvoiceManage.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.UNAUTHORIZED) // Refresh token không hợp lệ, hết hạn hoặc đã bị thu hồi: client phải đăng nhập lại
+public class InvalidRefreshTokenException extends RuntimeException {
+    public InvalidRefreshTokenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.InvoiceManage.exception;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@Getter
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE) // Dịch vụ phía sau (vd: model chatbot) đang quá tải: trả về HTTP 503
+public class ServiceUnavailableException extends RuntimeException {
+
+    // Gợi ý cho header Retry-After
+    private final long retryAfterSeconds;
+
+    public ServiceUnavailableException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
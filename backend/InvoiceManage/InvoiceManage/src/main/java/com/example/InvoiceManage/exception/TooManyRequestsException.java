@@ -0,0 +1,18 @@
+package com.example.InvoiceManage.exception;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@Getter
+@ResponseStatus(HttpStatus.TOO_MANY_REQUESTS) // Bị giới hạn tốc độ hoặc hệ thống quá tải: trả về HTTP 429
+public class TooManyRequestsException extends RuntimeException {
+
+    // Gợi ý cho header Retry-After
+    private final long retryAfterSeconds;
+
+    public TooManyRequestsException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.InvoiceManage.repository;
+
+import com.example.InvoiceManage.entity.ArchivePartition;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface ArchivePartitionRepository extends JpaRepository<ArchivePartition, String> {
+
+    // period dạng yyyyMM nên so sánh chuỗi cũng đúng thứ tự thời gian
+    @Query("SELECT p.period FROM ArchivePartition p WHERE p.period BETWEEN :from AND :to ORDER BY p.period")
+    List<String> findPeriodsBetween(@Param("from") String from, @Param("to") String to);
+
+    List<ArchivePartition> findAllByOrderByPeriodDesc();
+}
@@ -0,0 +1,108 @@
+package com.example.InvoiceManage.repository;
+
+import com.example.InvoiceManage.DTO.response.InvoiceRequestResponse;
+import com.example.InvoiceManage.entity.Order;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.Query;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Truy vấn đọc ghép dữ liệu đang dùng với các bảng lưu trữ theo tháng.
+ * Chỉ những tháng có trong danh mục archive_partition VÀ nằm trong khoảng được hỏi mới được UNION vào,
+ * nên truy vấn trên dữ liệu gần đây vẫn chỉ chạm tới bảng chính.
+ */
+@Repository
+@RequiredArgsConstructor
+public class ArchiveReadRepository {
+
+    public static final DateTimeFormatter PERIOD_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
+    // Cột của bảng `order` khớp với entity Order, liệt kê rõ để UNION không phụ thuộc thứ tự cột
+    private static final String ORDER_COLUMNS = "id, total, status, `date`, created_by";
+    private static final String INVOICE_REQUEST_COLUMNS = "id, order_id, user_id, status_id, created_at";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ArchivePartitionRepository partitionRepository;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Các tháng đã có dữ liệu lưu trữ giao với khoảng [from, to].
+     */
+    public List<String> periodsOverlapping(LocalDateTime from, LocalDateTime to) {
+        return partitionRepository.findPeriodsBetween(
+                YearMonth.from(from).format(PERIOD_FORMAT),
+                YearMonth.from(to).format(PERIOD_FORMAT));
+    }
+
+    /**
+     * Đơn hàng trong khoảng thời gian, gồm cả đơn đã lưu trữ.
+     * Đơn lấy từ bảng lưu trữ chỉ dùng để đọc: chi tiết đơn của chúng nằm trong bảng lưu trữ
+     * nên quan hệ orderDetails sẽ rỗng.
+     */
+    @SuppressWarnings("unchecked")
+    public List<Order> findOrdersBetween(LocalDateTime from, LocalDateTime to, List<String> periods) {
+        StringBuilder sql = new StringBuilder("SELECT " + ORDER_COLUMNS + " FROM `order` WHERE `date` BETWEEN ?1 AND ?2");
+        for (String period : periods) {
+            sql.append(" UNION ALL SELECT ").append(ORDER_COLUMNS)
+                    .append(" FROM ").append(archiveTable("order", period))
+                    .append(" WHERE `date` BETWEEN ?1 AND ?2");
+        }
+        Query query = entityManager.createNativeQuery(sql.toString(), Order.class)
+                .setParameter(1, from)
+                .setParameter(2, to);
+        List<Order> orders = query.getResultList();
+        if (!periods.isEmpty()) {
+            // Không để Hibernate theo dõi (và vô tình ghi) các bản ghi lấy từ bảng lưu trữ
+            orders.forEach(entityManager::detach);
+        }
+        return orders;
+    }
+
+    /**
+     * Yêu cầu hóa đơn tạo trong khoảng thời gian, gồm cả các yêu cầu đã lưu trữ.
+     * Yêu cầu được lưu trữ theo tháng của created_at (không theo tháng của đơn) nên chỉ cần các tháng giao với khoảng.
+     */
+    public List<InvoiceRequestResponse> findInvoiceRequestsBetween(LocalDateTime from, LocalDateTime to, List<String> periods) {
+        StringBuilder union = new StringBuilder("SELECT " + INVOICE_REQUEST_COLUMNS + " FROM invoice_request WHERE created_at BETWEEN ? AND ?");
+        List<Object> args = new ArrayList<>(List.of(Timestamp.valueOf(from), Timestamp.valueOf(to)));
+        for (String period : periods) {
+            union.append(" UNION ALL SELECT ").append(INVOICE_REQUEST_COLUMNS)
+                    .append(" FROM ").append(archiveTable("invoice_request", period))
+                    .append(" WHERE created_at BETWEEN ? AND ?");
+            args.add(Timestamp.valueOf(from));
+            args.add(Timestamp.valueOf(to));
+        }
+        String sql = "SELECT r.id, r.order_id, u.name, s.id AS status_id, s.status_name, r.created_at " +
+                "FROM (" + union + ") r " +
+                "JOIN `user` u ON u.id = r.user_id " +
+                "JOIN status s ON s.id = r.status_id " +
+                "ORDER BY r.id";
+        return jdbcTemplate.query(sql, (rs, rowNum) -> InvoiceRequestResponse.builder()
+                .id(rs.getLong("id"))
+                .orderId(rs.getInt("order_id"))
+                .userName(rs.getString("name"))
+                .statusId(rs.getInt("status_id"))
+                .statusName(rs.getString("status_name"))
+                .createdAt(rs.getTimestamp("created_at").toLocalDateTime())
+                .build(), args.toArray());
+    }
+
+    public static String archiveTable(String baseTable, String period) {
+        if (!period.matches("\\d{6}")) {
+            throw new IllegalArgumentException("Invalid archive period: " + period);
+        }
+        return "`" + baseTable + "_archive_" + period + "`";
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.InvoiceManage.repository;
+
+import com.example.InvoiceManage.entity.InvoiceNumberBlock;
+import org.springframework.data.jpa.repository.JpaRepository;
+
+import java.util.List;
+
+public interface InvoiceNumberBlockRepository extends JpaRepository<InvoiceNumberBlock, Long> {
+
+    List<InvoiceNumberBlock> findByNodeIdAndSeries(String nodeId, String series);
+
+    void deleteByNodeIdAndSeries(String nodeId, String series);
+}
@@ -0,0 +1,18 @@
+package com.example.InvoiceManage.repository;
+
+import com.example.InvoiceManage.entity.InvoiceNumberCounter;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Optional;
+
+public interface InvoiceNumberCounterRepository extends JpaRepository<InvoiceNumberCounter, String> {
+
+    // SELECT ... FOR UPDATE: chỉ giữ khóa trong giao dịch đặt block
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT c FROM InvoiceNumberCounter c WHERE c.series = :series")
+    Optional<InvoiceNumberCounter> findForUpdate(@Param("series") String series);
+}
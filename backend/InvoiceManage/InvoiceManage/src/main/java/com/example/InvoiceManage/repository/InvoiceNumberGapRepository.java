@@ -0,0 +1,25 @@
+package com.example.InvoiceManage.repository;
+
+import com.example.InvoiceManage.entity.InvoiceNumberGap;
+import jakarta.persistence.LockModeType;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.List;
+
+public interface InvoiceNumberGapRepository extends JpaRepository<InvoiceNumberGap, Long> {
+
+    // Khóa các khoảng trống chưa có node nào nhận, số nhỏ nhất trước
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT g FROM InvoiceNumberGap g WHERE g.series = :series AND g.nodeId IS NULL ORDER BY g.number")
+    List<InvoiceNumberGap> findUnclaimedForUpdate(@Param("series") String series, Pageable pageable);
+
+    List<InvoiceNumberGap> findBySeriesAndNodeId(String series, String nodeId);
+
+    // Số khoảng trống (đã nhận hay chưa) nằm trong [start, end)
+    @Query("SELECT g.number FROM InvoiceNumberGap g WHERE g.series = :series AND g.number >= :start AND g.number < :end")
+    List<Long> findNumbersInRange(@Param("series") String series, @Param("start") long start, @Param("end") long end);
+}
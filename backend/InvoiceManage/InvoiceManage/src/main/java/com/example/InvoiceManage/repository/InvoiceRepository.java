@@ -1,7 +1,40 @@
 package com.example.InvoiceManage.repository;
 
 import com.example.InvoiceManage.entity.Invoice;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 
 public interface InvoiceRepository extends JpaRepository<Invoice, Integer> {
-}
\ No newline at end of file
+
+    // Nạp hóa đơn cùng đơn hàng, khách hàng và chi tiết sản phẩm trong 1 query để render
+    @Query("SELECT DISTINCT i FROM Invoice i " +
+            "JOIN FETCH i.invoiceRequest r " +
+            "JOIN FETCH r.order o " +
+            "JOIN FETCH o.createdBy u " +
+            "LEFT JOIN FETCH o.orderDetails od " +
+            "LEFT JOIN FETCH od.product p " +
+            "WHERE i.id IN :ids")
+    List<Invoice> findAllForRendering(@Param("ids") Collection<Integer> ids);
+
+    // Phân trang theo khóa (keyset) để duyệt hóa đơn trong một tháng mà không dùng OFFSET
+    @Query("SELECT i.id FROM Invoice i " +
+            "WHERE i.issuedAt >= :from AND i.issuedAt < :to AND i.id > :afterId " +
+            "ORDER BY i.id")
+    List<Integer> findIdsIssuedBetween(@Param("from") LocalDateTime from,
+                                       @Param("to") LocalDateTime to,
+                                       @Param("afterId") Integer afterId,
+                                       Pageable pageable);
+
+    // Những số hóa đơn trong danh sách đã thực sự được gán cho hóa đơn
+    @Query("SELECT i.invoiceNo FROM Invoice i WHERE i.invoiceNo IN :numbers")
+    List<Long> findUsedInvoiceNos(@Param("numbers") Collection<Long> numbers);
+
+    @Query("SELECT MAX(i.invoiceNo) FROM Invoice i")
+    Long findMaxInvoiceNo();
+}
@@ -0,0 +1,62 @@
+package com.example.InvoiceManage.repository;
+
+import com.example.InvoiceManage.DTO.response.CustomerBalanceDTO;
+import com.example.InvoiceManage.DTO.response.OrderBalanceDTO;
+import com.example.InvoiceManage.entity.OrderPaymentSummary;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+public interface OrderPaymentSummaryRepository extends JpaRepository<OrderPaymentSummary, Integer> {
+
+    // Cộng dồn vào tổng của đơn. MySQL gán cột theo thứ tự từ trái sang, nên last_method/last_provider
+    // phải được so sánh với last_paid_at cũ trước khi last_paid_at bị ghi đè
+    @Modifying
+    @Query(value = "INSERT INTO order_payment_summary " +
+            "(order_id, paid_amount, payment_count, last_paid_at, last_method, last_provider, updated_at) " +
+            "VALUES (:orderId, :amount, :count, :paidAt, :method, :provider, NOW()) " +
+            "ON DUPLICATE KEY UPDATE " +
+            "last_method = IF(last_paid_at IS NULL OR VALUES(last_paid_at) >= last_paid_at, VALUES(last_method), last_method), " +
+            "last_provider = IF(last_paid_at IS NULL OR VALUES(last_paid_at) >= last_paid_at, VALUES(last_provider), last_provider), " +
+            "last_paid_at = IF(last_paid_at IS NULL OR VALUES(last_paid_at) >= last_paid_at, VALUES(last_paid_at), last_paid_at), " +
+            "paid_amount = paid_amount + VALUES(paid_amount), " +
+            "payment_count = payment_count + VALUES(payment_count), " +
+            "updated_at = NOW()",
+            nativeQuery = true)
+    int addPayments(@Param("orderId") Integer orderId,
+                    @Param("amount") BigDecimal amount,
+                    @Param("count") int count,
+                    @Param("paidAt") LocalDateTime paidAt,
+                    @Param("method") String method,
+                    @Param("provider") String provider);
+
+    // userId = null: không giới hạn theo người tạo đơn (quản trị)
+    @Query("SELECT new com.example.InvoiceManage.DTO.response.OrderBalanceDTO(" +
+            "o.id, o.date, o.total, COALESCE(s.paidAmount, 0), s.lastPaidAt, s.lastMethod) " +
+            "FROM Order o LEFT JOIN OrderPaymentSummary s ON s.orderId = o.id " +
+            "WHERE o.id = :orderId AND (:userId IS NULL OR o.createdBy.id = :userId)")
+    Optional<OrderBalanceDTO> findBalance(@Param("orderId") Integer orderId, @Param("userId") Integer userId);
+
+    @Query("SELECT new com.example.InvoiceManage.DTO.response.OrderBalanceDTO(" +
+            "o.id, o.date, o.total, COALESCE(s.paidAmount, 0), s.lastPaidAt, s.lastMethod) " +
+            "FROM Order o LEFT JOIN OrderPaymentSummary s ON s.orderId = o.id " +
+            "WHERE (:userId IS NULL OR o.createdBy.id = :userId) AND o.total > COALESCE(s.paidAmount, 0) " +
+            "ORDER BY o.date DESC")
+    List<OrderBalanceDTO> findOutstanding(@Param("userId") Integer userId, Pageable pageable);
+
+    // Chỉ cộng phần còn nợ của từng đơn: đơn trả dư không bù cho đơn khác
+    @Query("SELECT new com.example.InvoiceManage.DTO.response.CustomerBalanceDTO(" +
+            "u.id, u.name, COUNT(o), SUM(o.total - COALESCE(s.paidAmount, 0))) " +
+            "FROM Order o JOIN o.createdBy u LEFT JOIN OrderPaymentSummary s ON s.orderId = o.id " +
+            "WHERE o.total > COALESCE(s.paidAmount, 0) " +
+            "GROUP BY u.id, u.name " +
+            "ORDER BY SUM(o.total - COALESCE(s.paidAmount, 0)) DESC")
+    List<CustomerBalanceDTO> findOutstandingByCustomer(Pageable pageable);
+}
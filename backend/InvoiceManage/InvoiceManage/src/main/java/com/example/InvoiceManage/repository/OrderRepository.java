@@ -6,6 +6,7 @@ import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Map;
@@ -30,4 +31,8 @@ public interface OrderRepository extends JpaRepository<Order, Integer> {
             "JOIN FETCH o.status s " +
             "JOIN FETCH o.createdBy u")
     List<Order> findAllWithDetails();
+
+    // Chỉ lấy tổng tiền, không nạp trạng thái và người tạo (EAGER) của đơn
+    @Query("SELECT o.total FROM Order o WHERE o.id = :id")
+    Optional<BigDecimal> findTotalById(@Param("id") Integer id);
 }
@@ -1,7 +1,23 @@
 package com.example.InvoiceManage.repository;
 
 import com.example.InvoiceManage.entity.Payment;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 public interface PaymentRepository extends JpaRepository<Payment, Integer> {
-}
\ No newline at end of file
+
+    boolean existsByTransactionNo(String transactionNo);
+
+    @Query("SELECT p.transactionNo FROM Payment p WHERE p.transactionNo IN :transactionNos")
+    List<String> findExistingTransactionNos(@Param("transactionNos") Collection<String> transactionNos);
+
+    // Duyệt theo khóa id để nạp mã giao dịch vào bloom filter mà không giữ cả bảng trong bộ nhớ
+    @Query("SELECT p.id, p.transactionNo FROM Payment p " +
+            "WHERE p.id > :afterId AND p.transactionNo IS NOT NULL ORDER BY p.id")
+    List<Object[]> findTransactionNosAfter(@Param("afterId") Integer afterId, Pageable pageable);
+}
@@ -0,0 +1,44 @@
+package com.example.InvoiceManage.repository;
+
+import com.example.InvoiceManage.entity.RefreshToken;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+public interface RefreshTokenRepository extends JpaRepository<RefreshToken, Long> {
+
+    Optional<RefreshToken> findByTokenHash(String tokenHash);
+
+    // Chỉ một request (trên bất kỳ node nào) đổi được ACTIVE -> ROTATED; request còn lại nhận 0 dòng
+    @Modifying
+    @Query("UPDATE RefreshToken t SET t.status = :rotated, t.usedAt = :now " +
+            "WHERE t.tokenHash = :hash AND t.status = :active")
+    int markRotated(@Param("hash") String tokenHash,
+                    @Param("active") RefreshToken.Status active,
+                    @Param("rotated") RefreshToken.Status rotated,
+                    @Param("now") LocalDateTime now);
+
+    @Query("SELECT t.tokenHash FROM RefreshToken t WHERE t.familyId = :familyId")
+    List<String> findHashesByFamilyId(@Param("familyId") String familyId);
+
+    @Query("SELECT t.tokenHash FROM RefreshToken t WHERE t.userId = :userId AND t.status <> :revoked")
+    List<String> findLiveHashesByUserId(@Param("userId") Integer userId,
+                                        @Param("revoked") RefreshToken.Status revoked);
+
+    @Modifying
+    @Query("UPDATE RefreshToken t SET t.status = :revoked WHERE t.familyId = :familyId AND t.status <> :revoked")
+    int revokeFamily(@Param("familyId") String familyId, @Param("revoked") RefreshToken.Status revoked);
+
+    @Modifying
+    @Query("UPDATE RefreshToken t SET t.status = :revoked WHERE t.userId = :userId AND t.status <> :revoked")
+    int revokeAllForUser(@Param("userId") Integer userId, @Param("revoked") RefreshToken.Status revoked);
+
+    @Modifying
+    @Query("DELETE FROM RefreshToken t WHERE t.expiresAt < :before")
+    int deleteExpired(@Param("before") LocalDateTime before);
+}
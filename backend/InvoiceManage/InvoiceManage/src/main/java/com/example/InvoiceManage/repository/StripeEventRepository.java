@@ -0,0 +1,45 @@
+package com.example.InvoiceManage.repository;
+
+import com.example.InvoiceManage.entity.StripeEvent;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface StripeEventRepository extends JpaRepository<StripeEvent, Long> {
+
+    @Query(value = "SELECT id FROM stripe_event WHERE status = 'PENDING' ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED",
+            nativeQuery = true)
+    List<Long> lockPendingIds(@Param("limit") int limit);
+
+    @Modifying
+    @Query("UPDATE StripeEvent e SET e.status = :status, e.claimedAt = :now WHERE e.id IN :ids")
+    int claim(@Param("ids") Collection<Long> ids,
+              @Param("status") StripeEvent.Status status,
+              @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("UPDATE StripeEvent e SET e.status = :status, e.processedAt = :now WHERE e.id IN :ids")
+    int markDone(@Param("ids") Collection<Long> ids,
+                 @Param("status") StripeEvent.Status status,
+                 @Param("now") LocalDateTime now);
+
+    // Ghi nhận một lần xử lý lỗi; status là PENDING (thử lại) hoặc FAILED (bỏ cuộc)
+    @Modifying
+    @Query("UPDATE StripeEvent e SET e.status = :status, e.attempts = e.attempts + 1, e.lastError = :error WHERE e.id IN :ids")
+    int markAttempt(@Param("ids") Collection<Long> ids,
+                    @Param("status") StripeEvent.Status status,
+                    @Param("error") String error);
+
+    @Modifying
+    @Query("UPDATE StripeEvent e SET e.status = :pending WHERE e.status = :processing AND e.claimedAt < :before")
+    int releaseStale(@Param("pending") StripeEvent.Status pending,
+                     @Param("processing") StripeEvent.Status processing,
+                     @Param("before") LocalDateTime before);
+
+    long countByStatus(StripeEvent.Status status);
+}
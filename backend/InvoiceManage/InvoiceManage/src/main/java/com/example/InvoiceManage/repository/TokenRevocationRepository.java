@@ -0,0 +1,24 @@
+package com.example.InvoiceManage.repository;
+
+import com.example.InvoiceManage.entity.TokenRevocation;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+public interface TokenRevocationRepository extends JpaRepository<TokenRevocation, Long> {
+
+    // Đọc tăng dần theo id (keyset), chỉ các bản ghi còn hiệu lực
+    @Query("SELECT r FROM TokenRevocation r WHERE r.id > :afterId AND r.expiresAt > :now ORDER BY r.id")
+    List<TokenRevocation> findActiveAfter(@Param("afterId") long afterId,
+                                          @Param("now") LocalDateTime now,
+                                          Pageable pageable);
+
+    @Modifying
+    @Query("DELETE FROM TokenRevocation r WHERE r.expiresAt < :before")
+    int deleteExpired(@Param("before") LocalDateTime before);
+}
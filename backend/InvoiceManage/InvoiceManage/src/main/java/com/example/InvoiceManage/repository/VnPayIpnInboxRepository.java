@@ -0,0 +1,47 @@
+package com.example.InvoiceManage.repository;
+
+import com.example.InvoiceManage.entity.VnPayIpnInbox;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface VnPayIpnInboxRepository extends JpaRepository<VnPayIpnInbox, Long> {
+
+    // SKIP LOCKED: nhiều node cùng tiêu thụ thì mỗi node nhận một phần khác nhau, không chờ nhau
+    @Query(value = "SELECT id FROM vnpay_ipn_inbox WHERE status = 'PENDING' ORDER BY id LIMIT :limit FOR UPDATE SKIP LOCKED",
+            nativeQuery = true)
+    List<Long> lockPendingIds(@Param("limit") int limit);
+
+    @Modifying
+    @Query("UPDATE VnPayIpnInbox i SET i.status = :status, i.claimedAt = :now WHERE i.id IN :ids")
+    int claim(@Param("ids") Collection<Long> ids,
+              @Param("status") VnPayIpnInbox.Status status,
+              @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("UPDATE VnPayIpnInbox i SET i.status = :status, i.processedAt = :now WHERE i.id IN :ids")
+    int markDone(@Param("ids") Collection<Long> ids,
+                 @Param("status") VnPayIpnInbox.Status status,
+                 @Param("now") LocalDateTime now);
+
+    // Ghi nhận một lần xử lý lỗi; status là PENDING (thử lại) hoặc FAILED (bỏ cuộc)
+    @Modifying
+    @Query("UPDATE VnPayIpnInbox i SET i.status = :status, i.attempts = i.attempts + 1, i.lastError = :error WHERE i.id IN :ids")
+    int markAttempt(@Param("ids") Collection<Long> ids,
+                    @Param("status") VnPayIpnInbox.Status status,
+                    @Param("error") String error);
+
+    // Trả lại hàng đợi các dòng bị bỏ dở (node dừng giữa chừng khi đang xử lý)
+    @Modifying
+    @Query("UPDATE VnPayIpnInbox i SET i.status = :pending WHERE i.status = :processing AND i.claimedAt < :before")
+    int releaseStale(@Param("pending") VnPayIpnInbox.Status pending,
+                     @Param("processing") VnPayIpnInbox.Status processing,
+                     @Param("before") LocalDateTime before);
+
+    long countByStatus(VnPayIpnInbox.Status status);
+}
@@ -0,0 +1,40 @@
+package com.example.InvoiceManage.repository;
+
+import com.example.InvoiceManage.entity.VnPayPaymentAttempt;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface VnPayPaymentAttemptRepository extends JpaRepository<VnPayPaymentAttempt, Long> {
+
+    // Duyệt theo khóa id các lần thanh toán còn mở của đơn chưa có thanh toán nào
+    @Query("SELECT a FROM VnPayPaymentAttempt a " +
+            "WHERE a.id > :afterId AND a.status = com.example.InvoiceManage.entity.VnPayPaymentAttempt.Status.OPEN " +
+            "AND a.createdAt BETWEEN :from AND :to " +
+            "AND NOT EXISTS (SELECT p.id FROM Payment p WHERE p.order.id = a.orderId) " +
+            "ORDER BY a.id")
+    List<VnPayPaymentAttempt> findOpenAfter(@Param("afterId") Long afterId,
+                                            @Param("from") LocalDateTime from,
+                                            @Param("to") LocalDateTime to,
+                                            Pageable pageable);
+
+    @Modifying
+    @Query("UPDATE VnPayPaymentAttempt a SET a.status = :status, a.checkCount = a.checkCount + 1, a.lastCheckedAt = :now " +
+            "WHERE a.id IN :ids")
+    int markChecked(@Param("ids") Collection<Long> ids,
+                    @Param("status") VnPayPaymentAttempt.Status status,
+                    @Param("now") LocalDateTime now);
+
+    @Modifying
+    @Query("UPDATE VnPayPaymentAttempt a SET a.status = com.example.InvoiceManage.entity.VnPayPaymentAttempt.Status.PAID, " +
+            "a.transactionNo = :transactionNo, a.checkCount = a.checkCount + 1, a.lastCheckedAt = :now WHERE a.id = :id")
+    int markPaid(@Param("id") Long id,
+                 @Param("transactionNo") String transactionNo,
+                 @Param("now") LocalDateTime now);
+}
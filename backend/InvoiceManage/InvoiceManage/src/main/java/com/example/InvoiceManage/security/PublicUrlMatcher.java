@@ -0,0 +1,169 @@
+package com.example.InvoiceManage.security;
+
+import com.example.InvoiceManage.config.constants.SecurityConstants;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.server.PathContainer;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.stereotype.Component;
+import org.springframework.web.util.pattern.PathPattern;
+import org.springframework.web.util.pattern.PathPatternParser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * So khớp đường dẫn request với các mẫu URL công khai, biên dịch một lần lúc khởi động.
+ *
+ * Mẫu literal ("/api/auth/login") và tiền tố literal kết thúc bằng "/**" ("/api/swagger-ui/**")
+ * được lưu trong một trie theo segment, nên đường dẫn chỉ được duyệt một lần, từng segment,
+ * không tách mẫu thành token và không cắt chuỗi con. Kết quả giống AntPathMatcher trước đây:
+ * bỏ qua segment rỗng ("//") và dấu "/" ở cuối phải khớp với mẫu. Mẫu dùng wildcard khác
+ * ("*", "?", "{var}") dùng {@link PathPattern} biên dịch sẵn.
+ *
+ * Cùng một instance được dùng bởi {@link com.example.InvoiceManage.security.filter.JwtAuthenticationFilter}
+ * (bỏ qua kiểm tra JWT) và {@link SecurityConfig} (permitAll), nên hai nơi luôn thống nhất URL nào là công khai.
+ */
+@Component
+public class PublicUrlMatcher implements RequestMatcher {
+
+    private final Node root = new Node("");
+    private final List<PathPattern> wildcardPatterns = new ArrayList<>();
+    private final List<String> patterns;
+
+    @Autowired
+    public PublicUrlMatcher() {
+        this(SecurityConstants.PUBLIC_URLS);
+    }
+
+    public PublicUrlMatcher(String... patterns) {
+        this.patterns = List.of(patterns);
+        PathPatternParser parser = new PathPatternParser();
+        for (String pattern : patterns) {
+            if (!pattern.startsWith("/")) {
+                throw new IllegalArgumentException("Public URL pattern must start with '/': " + pattern);
+            }
+            String literal = pattern.endsWith("/**") ? pattern.substring(0, pattern.length() - 3) : pattern;
+            if (hasWildcard(literal)) {
+                wildcardPatterns.add(parser.parse(pattern));
+            } else {
+                insert(literal, pattern.endsWith("/**"));
+            }
+        }
+    }
+
+    @Override
+    public boolean matches(HttpServletRequest request) {
+        return matches(request.getServletPath());
+    }
+
+    /**
+     * @param path servlet path của request, ví dụ "/api/auth/login"
+     */
+    public boolean matches(String path) {
+        if (path == null || path.isEmpty() || path.charAt(0) != '/') {
+            return false;
+        }
+        if (matchesTrie(path)) {
+            return true;
+        }
+        if (wildcardPatterns.isEmpty()) {
+            return false;
+        }
+        PathContainer container = PathContainer.parsePath(path);
+        for (PathPattern pattern : wildcardPatterns) {
+            if (pattern.matches(container)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<String> patterns() {
+        return patterns;
+    }
+
+    private boolean matchesTrie(String path) {
+        Node node = root;
+        int start = 1;
+        int length = path.length();
+        while (true) {
+            if (node.subtree) {
+                // "/prefix/**" khớp chính tiền tố và mọi đường dẫn bên dưới
+                return true;
+            }
+            // Bỏ qua segment rỗng ("/api//auth") như AntPathMatcher
+            while (start < length && path.charAt(start) == '/') {
+                start++;
+            }
+            if (start >= length) {
+                // "/api/auth/login/" chỉ khớp mẫu cũng kết thúc bằng "/"
+                return path.charAt(length - 1) == '/' ? node.terminalWithSlash : node.terminal;
+            }
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = length;
+            }
+            node = node.child(path, start, end - start);
+            if (node == null) {
+                return false;
+            }
+            start = end + 1;
+        }
+    }
+
+    private void insert(String literal, boolean subtree) {
+        Node node = root;
+        // "/a/b" -> ["a", "b"]; segment rỗng bị bỏ qua nên mẫu "/" ứng với chính gốc
+        for (String segment : literal.split("/")) {
+            if (!segment.isEmpty()) {
+                node = node.childOrCreate(segment);
+            }
+        }
+        if (subtree) {
+            node.subtree = true;
+        } else if (literal.endsWith("/")) {
+            node.terminalWithSlash = true;
+        } else {
+            node.terminal = true;
+        }
+    }
+
+    private static boolean hasWildcard(String pattern) {
+        return pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0 || pattern.indexOf('{') >= 0;
+    }
+
+    private static final class Node {
+        private final String segment;
+        private Node[] children = new Node[0];
+        private boolean terminal;
+        private boolean terminalWithSlash;
+        private boolean subtree;
+
+        private Node(String segment) {
+            this.segment = segment;
+        }
+
+        // Mẫu công khai ít nên duyệt tuyến tính với regionMatches nhanh hơn băm một chuỗi con vừa cắt
+        private Node child(String path, int offset, int length) {
+            for (Node child : children) {
+                if (child.segment.length() == length && path.regionMatches(offset, child.segment, 0, length)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        private Node childOrCreate(String segment) {
+            Node existing = child(segment, 0, segment.length());
+            if (existing != null) {
+                return existing;
+            }
+            Node created = new Node(segment);
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = created;
+            return created;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.example.InvoiceManage.config.constants.SecurityConstants;
 import com.example.InvoiceManage.security.filter.JwtAuthenticationFilter;
 import com.example.InvoiceManage.service.CustomUserDetailsService;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -32,6 +33,11 @@ import java.util.Arrays;
 public class SecurityConfig {
     private final JwtAuthenticationFilter jwtAuthFilter;
     private final CustomUserDetailsService userDetailsService;
+    private final PublicUrlMatcher publicUrlMatcher;
+
+    // Tăng cost thì mật khẩu cũ được băm lại với cost mới ở lần đăng nhập thành công kế tiếp
+    @Value("${auth.bcrypt.strength:10}")
+    private int bcryptStrength;
 
     // ... (Các bean khác giữ nguyên, không cần thay đổi)
     @Bean
@@ -54,7 +60,7 @@ public class SecurityConfig {
 
     @Bean
     public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+        return new BCryptPasswordEncoder(bcryptStrength);
     }
 
     @Bean
@@ -76,7 +82,7 @@ public class SecurityConfig {
                 .cors(Customizer.withDefaults())
                 .authorizeHttpRequests(auth -> auth
                         .requestMatchers(HttpMethod.OPTIONS, "/**").permitAll()
-                        .requestMatchers(SecurityConstants.PUBLIC_URLS).permitAll() // Dành cho login, register...
+                        .requestMatchers(publicUrlMatcher).permitAll() // Dành cho login, register... (cùng bộ so khớp với JwtAuthenticationFilter)
 
                         // --- THAY ĐỔI QUAN TRỌNG NẰM Ở ĐÂY ---
                         // Bỏ 2 dòng .permitAll() cũ và thay bằng 1 dòng .hasAnyRole()
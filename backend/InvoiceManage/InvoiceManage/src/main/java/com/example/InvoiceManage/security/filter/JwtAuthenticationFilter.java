@@ -1,8 +1,10 @@
 package com.example.InvoiceManage.security.filter; // Adjust package if different
 
-import com.example.InvoiceManage.config.constants.SecurityConstants; // IMPORT THIS
+import com.example.InvoiceManage.security.PublicUrlMatcher;
 import com.example.InvoiceManage.security.jwt.JwtService;
+import com.example.InvoiceManage.security.jwt.VerifiedClaims;
 import com.example.InvoiceManage.service.CustomUserDetailsService; // Corrected import for your UserDetailsService
+import com.example.InvoiceManage.service.TokenRevocationService;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -12,15 +14,14 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Component;
-import org.springframework.util.AntPathMatcher; // Import this for path matching
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 
 
 import io.jsonwebtoken.ExpiredJwtException;
-import io.jsonwebtoken.MalformedJwtException;
-import io.jsonwebtoken.security.SignatureException;
+import io.jsonwebtoken.JwtException;
 
 import java.io.IOException;
 
@@ -30,7 +31,8 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
     private final JwtService jwtService;
     private final CustomUserDetailsService userDetailsService; // Autowire your CustomUserDetailsService
-    private final AntPathMatcher antPathMatcher = new AntPathMatcher(); // Initialize AntPathMatcher
+    private final PublicUrlMatcher publicUrlMatcher; // Compiled once at startup, shared with SecurityConfig
+    private final TokenRevocationService revocationService; // In-memory denylist, no DB query per request
 
     @Override
     protected void doFilterInternal(
@@ -45,13 +47,10 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         // CRITICAL LOGIC: Check if the request path matches any of the public URLs
         // If it's a public URL, skip the JWT validation and proceed to the next filter
         // =========================================================================
-        for (String publicUrlPattern : SecurityConstants.PUBLIC_URLS) {
-            if (antPathMatcher.match(publicUrlPattern, requestPath)) {
-                // If the current request path matches a public URL pattern
-                // System.out.println("Skipping JWT validation for public URL: " + requestPath); // Optional: for debugging
-                filterChain.doFilter(request, response); // Proceed to the next filter in the chain
-                return; // IMPORTANT: Immediately stop processing in this filter
-            }
+        if (publicUrlMatcher.matches(requestPath)) {
+            // System.out.println("Skipping JWT validation for public URL: " + requestPath); // Optional: for debugging
+            filterChain.doFilter(request, response); // Proceed to the next filter in the chain
+            return; // IMPORTANT: Immediately stop processing in this filter
         }
 
         // If we reach here, it means the URL is NOT public, so proceed with JWT validation
@@ -70,12 +69,27 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
         jwt = authHeader.substring(7); // Extract token after "Bearer "
 
         try {
-            userEmail = jwtService.extractUsername(jwt);
+            // Chữ ký và hạn chỉ được kiểm tra một lần ở đây; các claim được dùng lại bên dưới
+            VerifiedClaims claims = jwtService.verify(jwt);
+            userEmail = claims.subject();
+            if (revocationService.isRevoked(claims)) {
+                response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+                response.getWriter().write("JWT token has been revoked");
+                return;
+            }
             // If user email is extracted and no authentication is currently set in context
             if (userEmail != null && SecurityContextHolder.getContext().getAuthentication() == null) {
-                UserDetails userDetails = this.userDetailsService.loadUserByUsername(userEmail);
+                // Principal lấy từ cache TTL ngắn: request ổn định không truy vấn bảng user
+                UserDetails userDetails = this.userDetailsService.loadCachedPrincipal(userEmail);
+
+                if (!userDetails.isEnabled()) {
+                    // Tài khoản bị chặn: ban/unban xóa cache nên có hiệu lực ngay với token đã cấp
+                    response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+                    response.getWriter().write("User account is deactivated");
+                    return;
+                }
 
-                if (jwtService.isTokenValid(jwt, userDetails)) {
+                if (jwtService.isTokenValid(claims, userDetails)) {
                     UsernamePasswordAuthenticationToken authToken = new UsernamePasswordAuthenticationToken(
                             userDetails,
                             null, // credentials (password) are not needed here once authenticated
@@ -95,7 +109,11 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
             response.setStatus(HttpServletResponse.SC_UNAUTHORIZED); // CORRECTED HERE
             response.getWriter().write("JWT token has expired");
             return;
-        } catch (MalformedJwtException | SignatureException | IllegalArgumentException e) {
+        } catch (UsernameNotFoundException e) {
+            response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+            response.getWriter().write("User of JWT token no longer exists");
+            return;
+        } catch (JwtException | IllegalArgumentException e) {
             response.setStatus(HttpServletResponse.SC_UNAUTHORIZED); // CORRECTED HERE
             response.getWriter().write("Invalid JWT token: " + e.getMessage());
             return;
@@ -1,16 +1,25 @@
 package com.example.InvoiceManage.security.jwt;
 
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.Map;
-import java.util.function.Function;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.stereotype.Service;
 
+import com.example.InvoiceManage.util.TtlCache;
+
 import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import io.jsonwebtoken.io.Decoders;
@@ -18,22 +27,63 @@ import io.jsonwebtoken.security.Keys;
 @Service
 public class JwtService {
 
-    @Value("${jwt.secret}")
-    private String secret;
+    private final long jwtExpiration;
 
-    @Value("${jwt.expiration}")
-    private long jwtExpiration;
+    // Dựng một lần: giải mã secret và dựng parser cho từng lần gọi từng tốn chi phí trên mọi request
+    private final Key signingKey;
+    private final JwtParser parser;
 
-    @Value("${jwt.refresh-token.expiration}")
-    private long refreshTokenExpiration;
+    // Các token vừa xác thực, khóa theo SHA-256 của toàn bộ chuỗi token (không giữ token gốc trong bộ nhớ).
+    // Không khóa theo riêng phần chữ ký, vì header/payload giả mạo có thể dùng lại chữ ký đã cache.
+    private final TtlCache<String, VerifiedClaims> verifiedTokens;
 
-    public String extractUsername(String token) {
-        return extractClaim(token, Claims::getSubject);
+    public JwtService(@Value("${jwt.secret}") String secret,
+                      @Value("${jwt.expiration}") long jwtExpiration,
+                      @Value("${jwt.verified-cache.ttl-seconds:300}") long verifiedCacheTtlSeconds,
+                      @Value("${jwt.verified-cache.max-size:10000}") int verifiedCacheMaxSize) {
+        this.jwtExpiration = jwtExpiration;
+        this.signingKey = Keys.hmacShaKeyFor(Decoders.BASE64.decode(secret));
+        this.parser = Jwts.parserBuilder().setSigningKey(signingKey).build();
+        this.verifiedTokens = new TtlCache<>(verifiedCacheTtlSeconds, TimeUnit.SECONDS, verifiedCacheMaxSize);
+    }
+
+    /**
+     * Kiểm tra chữ ký và hạn của token một lần rồi trả về các claim.
+     * Token vừa xác thực gần đây được lấy từ cache, không tính lại HMAC, miễn là chưa hết hạn.
+     *
+     * @throws io.jsonwebtoken.JwtException token sai định dạng, bị sửa hoặc đã hết hạn
+     */
+    public VerifiedClaims verify(String token) {
+        String key = digest(token);
+        VerifiedClaims claims = verifiedTokens.get(key, k -> parseAndVerify(token));
+        if (claims.isExpired(Instant.now())) {
+            verifiedTokens.invalidate(key);
+            // Parse lại để nơi gọi nhận ExpiredJwtException như bình thường
+            return parseAndVerify(token);
+        }
+        return claims;
+    }
+
+    private static String digest(String token) {
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(sha256.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
     }
 
-    public <T> T extractClaim(String token, Function<Claims, T> claimsResolver) {
-        final Claims claims = extractAllClaims(token);
-        return claimsResolver.apply(claims);
+    private VerifiedClaims parseAndVerify(String token) {
+        Claims claims = parser.parseClaimsJws(token).getBody();
+        return new VerifiedClaims(
+                claims.getId(),
+                claims.getSubject(),
+                claims.getIssuedAt() == null ? null : claims.getIssuedAt().toInstant(),
+                claims.getExpiration() == null ? null : claims.getExpiration().toInstant());
+    }
+
+    public String extractUsername(String token) {
+        return verify(token).subject();
     }
 
     public String generateToken(UserDetails userDetails) {
@@ -44,47 +94,21 @@ public class JwtService {
         return Jwts
                 .builder()
                 .setClaims(extraClaims)
+                .setId(UUID.randomUUID().toString()) // jti: cho phép thu hồi riêng từng token
                 .setSubject(userDetails.getUsername())
                 .setIssuedAt(new Date(System.currentTimeMillis()))
                 .setExpiration(new Date(System.currentTimeMillis() + jwtExpiration))
-                .signWith(getSignInKey(), SignatureAlgorithm.HS256)
-                .compact();
-    }
-
-    public String generateRefreshToken(UserDetails userDetails) {
-        return Jwts
-                .builder()
-                .setSubject(userDetails.getUsername())
-                .setIssuedAt(new Date(System.currentTimeMillis()))
-                .setExpiration(new Date(System.currentTimeMillis() + refreshTokenExpiration))
-                .signWith(getSignInKey(), SignatureAlgorithm.HS256)
+                .signWith(signingKey, SignatureAlgorithm.HS256)
                 .compact();
     }
 
     public boolean isTokenValid(String token, UserDetails userDetails) {
-        final String username = extractUsername(token);
-        return (username.equals(userDetails.getUsername())) && !isTokenExpired(token);
-    }
-
-    private boolean isTokenExpired(String token) {
-        return extractExpiration(token).before(new Date());
-    }
-
-    private Date extractExpiration(String token) {
-        return extractClaim(token, Claims::getExpiration);
-    }
-
-    private Claims extractAllClaims(String token) {
-        return Jwts
-                .parserBuilder()
-                .setSigningKey(getSignInKey())
-                .build()
-                .parseClaimsJws(token)
-                .getBody();
+        return isTokenValid(verify(token), userDetails);
     }
 
-    private Key getSignInKey() {
-        byte[] keyBytes = Decoders.BASE64.decode(secret);
-        return Keys.hmacShaKeyFor(keyBytes);
+    public boolean isTokenValid(VerifiedClaims claims, UserDetails userDetails) {
+        return claims.subject() != null
+                && claims.subject().equals(userDetails.getUsername())
+                && !claims.isExpired(Instant.now());
     }
 }
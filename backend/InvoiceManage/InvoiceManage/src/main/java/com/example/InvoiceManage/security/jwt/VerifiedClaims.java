@@ -0,0 +1,15 @@
+package com.example.InvoiceManage.security.jwt;
+
+import java.time.Instant;
+
+/**
+ * Các claim (bất biến) của một JWT đã được kiểm tra chữ ký.
+ * Chỉ giữ những claim ứng dụng cần đọc, nên rẻ để cache và dùng chung giữa các luồng.
+ * tokenId là claim "jti"; bằng null với token phát hành trước khi có mã token.
+ */
+public record VerifiedClaims(String tokenId, String subject, Instant issuedAt, Instant expiresAt) {
+
+    public boolean isExpired(Instant now) {
+        return expiresAt != null && !now.isBefore(expiresAt);
+    }
+}
@@ -0,0 +1,385 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.entity.ArchivePartition;
+import com.example.InvoiceManage.repository.ArchivePartitionRepository;
+import com.example.InvoiceManage.repository.ArchiveReadRepository;
+import com.example.InvoiceManage.util.NamedThreadFactory;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static com.example.InvoiceManage.repository.ArchiveReadRepository.PERIOD_FORMAT;
+import static com.example.InvoiceManage.repository.ArchiveReadRepository.archiveTable;
+
+/**
+ * Chuyển đơn hàng đã đóng (cùng chi tiết đơn, yêu cầu hóa đơn và thanh toán) cũ hơn một mốc thời gian
+ * sang các bảng lưu trữ theo tháng: order_archive_yyyyMM, order_detail_archive_yyyyMM, ...
+ * Dòng tổng hợp thanh toán của đơn (order_payment_summary) đi cùng đơn.
+ * Yêu cầu hóa đơn và thanh toán được xếp vào tháng theo ngày của chính dòng đó (created_at, paid_at)
+ * để truy vấn đọc theo khoảng thời gian chỉ cần ghép đúng các tháng giao với khoảng được hỏi.
+ *
+ * - Mỗi lô chỉ vài trăm đơn trong một giao dịch ngắn, chỉ khóa đúng các dòng được chuyển,
+ *   giữa các lô có nghỉ để không chặn các giao dịch ghi khác.
+ * - Đơn đã xuất hóa đơn được giữ lại: bảng invoice tham chiếu invoice_request và là chứng từ phải tra cứu được.
+ * - Nhiều node cùng chạy thì chỉ một node được lưu trữ nhờ khóa GET_LOCK của MySQL.
+ */
+@Slf4j
+@Service
+public class ArchiveService {
+
+    private static final String LOCK_NAME = "invoice_manage_archive";
+
+    // Bảng con tham chiếu `order`, chuyển trước khi xóa đơn; cột là khóa ngoại tới đơn hàng
+    private static final Map<String, String> CHILD_TABLES = new LinkedHashMap<>();
+    static {
+        CHILD_TABLES.put("order_detail", "order_id");
+        CHILD_TABLES.put("payment", "order_id");
+        CHILD_TABLES.put("invoice_request", "order_id");
+        CHILD_TABLES.put("order_payment_summary", "order_id");
+    }
+
+    // Bảng con có ngày riêng: lưu trữ theo tháng của cột này thay vì tháng của đơn
+    private static final Map<String, String> DATED_CHILD_TABLES = Map.of(
+            "payment", "paid_at",
+            "invoice_request", "created_at");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbc;
+    private final DataSource dataSource;
+    private final ArchivePartitionRepository partitionRepository;
+    private final TransactionTemplate chunkTx;
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(new NamedThreadFactory("order-archive-"));
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final boolean enabled;
+    private final int horizonMonths;
+    private final int chunkSize;
+    private final long pauseMs;
+    private final List<String> closedStatuses;
+
+    public ArchiveService(JdbcTemplate jdbcTemplate,
+                          DataSource dataSource,
+                          ArchivePartitionRepository partitionRepository,
+                          PlatformTransactionManager transactionManager,
+                          @Value("${archive.enabled:true}") boolean enabled,
+                          @Value("${archive.horizon-months:12}") int horizonMonths,
+                          @Value("${archive.chunk-size:500}") int chunkSize,
+                          @Value("${archive.pause-ms:50}") long pauseMs,
+                          @Value("${archive.closed-statuses:paid,rejected}") List<String> closedStatuses) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbc = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.dataSource = dataSource;
+        this.partitionRepository = partitionRepository;
+        this.chunkTx = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.horizonMonths = horizonMonths;
+        this.chunkSize = chunkSize;
+        this.pauseMs = pauseMs;
+        this.closedStatuses = List.copyOf(closedStatuses);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        runner.shutdownNow();
+    }
+
+    @Scheduled(cron = "${archive.cron:0 30 2 * * *}")
+    public void scheduledRun() {
+        if (enabled) {
+            runArchive();
+        }
+    }
+
+    /**
+     * Chạy lưu trữ ở nền (dùng cho API quản trị). Trả về false nếu đang có lượt chạy khác.
+     * Giành cờ trước khi gửi việc, để request thứ hai nhận false thay vì được nhận rồi bị bỏ qua.
+     */
+    public boolean startAsync() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            runner.execute(this::doArchive);
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+            throw e;
+        }
+        return true;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public List<ArchivePartition> getPartitions() {
+        return partitionRepository.findAllByOrderByPeriodDesc();
+    }
+
+    /**
+     * Một lượt lưu trữ: duyệt các đơn đủ điều kiện theo khóa id tăng dần và chuyển từng lô.
+     */
+    public ArchiveResult runArchive() {
+        if (!running.compareAndSet(false, true)) {
+            log.info("Archive run skipped: another run is in progress");
+            return new ArchiveResult(0, 0, false);
+        }
+        return doArchive();
+    }
+
+    // Chỉ gọi khi đã giữ cờ running; nhả cờ khi xong
+    private ArchiveResult doArchive() {
+        LocalDateTime cutoff = YearMonth.now().minusMonths(horizonMonths).atDay(1).atStartOfDay();
+        // Giữ một kết nối riêng suốt lượt chạy để giữ khóa GET_LOCK
+        try (Connection lockConnection = dataSource.getConnection()) {
+            if (!acquireLock(lockConnection)) {
+                log.info("Archive run skipped: another node holds the archive lock");
+                return new ArchiveResult(0, 0, false);
+            }
+            try {
+                return archiveBefore(cutoff);
+            } finally {
+                releaseLock(lockConnection);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("Không thể lấy kết nối cho việc lưu trữ", e);
+        } finally {
+            running.set(false);
+        }
+    }
+
+    private ArchiveResult archiveBefore(LocalDateTime cutoff) {
+        long started = System.currentTimeMillis();
+        Set<String> ensuredTables = new HashSet<>();
+        Map<String, String> columnLists = new LinkedHashMap<>();
+        int archived = 0;
+        int chunks = 0;
+        int afterId = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Candidate> candidates = findCandidates(cutoff, afterId);
+            if (candidates.isEmpty()) {
+                break;
+            }
+            afterId = candidates.get(candidates.size() - 1).id();
+
+            Map<String, List<Integer>> byPeriod = candidates.stream().collect(Collectors.groupingBy(
+                    c -> YearMonth.from(c.date()).format(PERIOD_FORMAT),
+                    LinkedHashMap::new,
+                    Collectors.mapping(Candidate::id, Collectors.toList())));
+            // DDL tự commit trong MySQL nên tạo bảng lưu trữ trước, ngoài giao dịch của lô
+            Set<String> periods = new TreeSet<>(byPeriod.keySet());
+            childPeriods(candidates.stream().map(Candidate::id).toList()).values().forEach(periods::addAll);
+            for (String period : periods) {
+                ensureArchiveTables(period, ensuredTables);
+            }
+            for (Map.Entry<String, List<Integer>> entry : byPeriod.entrySet()) {
+                Integer moved = chunkTx.execute(status ->
+                        moveChunk(entry.getKey(), entry.getValue(), cutoff, columnLists, ensuredTables));
+                archived += moved == null ? 0 : moved;
+            }
+            chunks++;
+            if (pauseMs > 0) {
+                try {
+                    Thread.sleep(pauseMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        log.info("Archived {} orders older than {} in {} chunks ({} ms)",
+                archived, cutoff, chunks, System.currentTimeMillis() - started);
+        return new ArchiveResult(archived, chunks, true);
+    }
+
+    private List<Candidate> findCandidates(LocalDateTime cutoff, int afterId) {
+        String sql = "SELECT o.id, o.`date` FROM `order` o " +
+                "JOIN status s ON s.id = o.status " +
+                "WHERE o.`date` < :cutoff AND o.id > :afterId AND s.status_name IN (:closed) " +
+                // Bỏ qua đơn đã có hóa đơn hoặc còn yêu cầu hóa đơn chưa đóng
+                "AND NOT EXISTS (SELECT 1 FROM invoice_request r JOIN invoice i ON i.invoice_request_id = r.id WHERE r.order_id = o.id) " +
+                "AND NOT EXISTS (SELECT 1 FROM invoice_request r JOIN status rs ON rs.id = r.status_id " +
+                "                WHERE r.order_id = o.id AND rs.status_name NOT IN (:closed)) " +
+                "ORDER BY o.id LIMIT :limit";
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("cutoff", Timestamp.valueOf(cutoff))
+                .addValue("afterId", afterId)
+                .addValue("closed", closedStatuses)
+                .addValue("limit", chunkSize);
+        return namedJdbc.query(sql, params, (rs, rowNum) ->
+                new Candidate(rs.getInt("id"), rs.getTimestamp("date").toLocalDateTime()));
+    }
+
+    /**
+     * Chuyển một lô đơn hàng của cùng một tháng. Các dòng được khóa lại và kiểm tra lại điều kiện
+     * trong giao dịch, phòng khi đơn vừa đổi trạng thái sau lúc chọn.
+     */
+    private int moveChunk(String period, List<Integer> ids, LocalDateTime cutoff, Map<String, String> columnLists,
+                          Set<String> ensuredTables) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("ids", ids)
+                .addValue("cutoff", Timestamp.valueOf(cutoff))
+                .addValue("closed", closedStatuses);
+        List<Integer> locked = namedJdbc.queryForList(
+                "SELECT o.id FROM `order` o JOIN status s ON s.id = o.status " +
+                        "WHERE o.id IN (:ids) AND o.`date` < :cutoff AND s.status_name IN (:closed) " +
+                        "AND NOT EXISTS (SELECT 1 FROM invoice_request r JOIN invoice i ON i.invoice_request_id = r.id WHERE r.order_id = o.id) " +
+                        "FOR UPDATE", params, Integer.class);
+        if (locked.isEmpty()) {
+            return 0;
+        }
+        MapSqlParameterSource lockedIds = new MapSqlParameterSource("ids", locked);
+
+        // Dòng con mới thêm sau lúc chọn có thể rơi vào tháng chưa có bảng lưu trữ: để lượt sau chuyển
+        Map<String, List<String>> childPeriods = childPeriods(locked);
+        for (Map.Entry<String, List<String>> child : childPeriods.entrySet()) {
+            for (String childPeriod : child.getValue()) {
+                if (!ensuredTables.contains(archiveTable(child.getKey(), childPeriod))) {
+                    log.warn("Archive chunk of period {} skipped: {} rows of {} have no archive table yet",
+                            period, child.getKey(), childPeriod);
+                    return 0;
+                }
+            }
+        }
+
+        for (Map.Entry<String, String> child : CHILD_TABLES.entrySet()) {
+            String columns = columnLists.computeIfAbsent(child.getKey(), this::columnList);
+            String select = "SELECT " + columns + " FROM `" + child.getKey() + "` WHERE " + child.getValue() + " IN (:ids)";
+            String dateColumn = DATED_CHILD_TABLES.get(child.getKey());
+            if (dateColumn == null) {
+                namedJdbc.update("INSERT INTO " + archiveTable(child.getKey(), period) + " (" + columns + ") " + select, lockedIds);
+                continue;
+            }
+            for (String childPeriod : childPeriods.get(child.getKey())) {
+                namedJdbc.update("INSERT INTO " + archiveTable(child.getKey(), childPeriod) + " (" + columns + ") " +
+                                select + " AND DATE_FORMAT(`" + dateColumn + "`, '%Y%m') = :period",
+                        new MapSqlParameterSource("ids", locked).addValue("period", childPeriod));
+            }
+        }
+        String orderColumns = columnLists.computeIfAbsent("order", this::columnList);
+        namedJdbc.update("INSERT INTO " + archiveTable("order", period) + " (" + orderColumns + ") " +
+                "SELECT " + orderColumns + " FROM `order` WHERE id IN (:ids)", lockedIds);
+
+        for (Map.Entry<String, String> child : CHILD_TABLES.entrySet()) {
+            namedJdbc.update("DELETE FROM `" + child.getKey() + "` WHERE " + child.getValue() + " IN (:ids)", lockedIds);
+        }
+        namedJdbc.update("DELETE FROM `order` WHERE id IN (:ids)", lockedIds);
+
+        jdbcTemplate.update("INSERT INTO archive_partition (period, order_count, created_at, updated_at) " +
+                "VALUES (?, ?, NOW(), NOW()) " +
+                "ON DUPLICATE KEY UPDATE order_count = order_count + VALUES(order_count), updated_at = NOW()",
+                period, locked.size());
+        // Tháng chỉ có dòng con vẫn phải có trong danh mục để truy vấn đọc ghép vào
+        childPeriods.values().stream()
+                .flatMap(List::stream)
+                .filter(childPeriod -> !childPeriod.equals(period))
+                .distinct()
+                .forEach(childPeriod -> jdbcTemplate.update("INSERT INTO archive_partition (period, order_count, created_at, updated_at) " +
+                        "VALUES (?, 0, NOW(), NOW()) ON DUPLICATE KEY UPDATE updated_at = NOW()", childPeriod));
+        return locked.size();
+    }
+
+    // Các tháng (yyyyMM) của dòng con có ngày riêng thuộc các đơn đã cho, theo bảng
+    private Map<String, List<String>> childPeriods(List<Integer> orderIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", orderIds);
+        Map<String, List<String>> periods = new LinkedHashMap<>();
+        for (Map.Entry<String, String> child : DATED_CHILD_TABLES.entrySet()) {
+            periods.put(child.getKey(), namedJdbc.queryForList(
+                    "SELECT DISTINCT DATE_FORMAT(`" + child.getValue() + "`, '%Y%m') FROM `" + child.getKey() + "` " +
+                            "WHERE " + CHILD_TABLES.get(child.getKey()) + " IN (:ids)", params, String.class));
+        }
+        return periods;
+    }
+
+    /**
+     * Tạo bảng lưu trữ của tháng nếu chưa có (CREATE TABLE ... LIKE giữ nguyên cột và chỉ mục, không kèm khóa ngoại).
+     * Nếu bảng chính đã được thêm cột sau khi tạo bảng lưu trữ thì bổ sung các cột còn thiếu.
+     */
+    private void ensureArchiveTables(String period, Set<String> ensured) {
+        List<String> tables = new ArrayList<>(CHILD_TABLES.keySet());
+        tables.add("order");
+        for (String table : tables) {
+            String archive = archiveTable(table, period);
+            if (!ensured.add(archive)) {
+                continue;
+            }
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + archive + " LIKE `" + table + "`");
+            List<Map<String, Object>> missing = jdbcTemplate.queryForList(
+                    "SELECT c.COLUMN_NAME, c.COLUMN_TYPE FROM information_schema.COLUMNS c " +
+                            "WHERE c.TABLE_SCHEMA = DATABASE() AND c.TABLE_NAME = ? " +
+                            "AND c.COLUMN_NAME NOT IN (SELECT a.COLUMN_NAME FROM information_schema.COLUMNS a " +
+                            "                         WHERE a.TABLE_SCHEMA = DATABASE() AND a.TABLE_NAME = ?) " +
+                            "ORDER BY c.ORDINAL_POSITION",
+                    table, table + "_archive_" + period);
+            for (Map<String, Object> column : missing) {
+                jdbcTemplate.execute("ALTER TABLE " + archive + " ADD COLUMN `" + column.get("COLUMN_NAME") + "` "
+                        + column.get("COLUMN_TYPE") + " NULL");
+            }
+        }
+    }
+
+    // Danh sách cột của bảng chính, dùng cho INSERT ... SELECT để không phụ thuộc thứ tự cột
+    private String columnList(String table) {
+        return jdbcTemplate.queryForList(
+                        "SELECT COLUMN_NAME FROM information_schema.COLUMNS " +
+                                "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? ORDER BY ORDINAL_POSITION",
+                        String.class, table)
+                .stream()
+                .map(column -> "`" + column + "`")
+                .collect(Collectors.joining(", "));
+    }
+
+    private static boolean acquireLock(Connection connection) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT GET_LOCK(?, 0)")) {
+            ps.setString(1, LOCK_NAME);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getInt(1) == 1;
+            }
+        }
+    }
+
+    private static void releaseLock(Connection connection) throws SQLException {
+        try (PreparedStatement ps = connection.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+            ps.setString(1, LOCK_NAME);
+            ps.execute();
+        }
+    }
+
+    private record Candidate(int id, LocalDateTime date) {}
+
+    @Getter
+    @AllArgsConstructor
+    public static class ArchiveResult {
+        private final int archivedOrders;
+        private final int chunks;
+        private final boolean executed;
+    }
+}
@@ -1,156 +1,368 @@
 package com.example.InvoiceManage.service;
-import org.apache.poi.xwpf.extractor.XWPFWordExtractor;
-import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import com.example.InvoiceManage.service.chat.Bm25Index;
+import com.example.InvoiceManage.service.chat.ChatAnswerCache;
+import com.example.InvoiceManage.service.chat.ContextCollection;
+import com.example.InvoiceManage.service.chat.ContextCollectionStore;
+import com.example.InvoiceManage.service.chat.DocumentExtractor;
+import com.example.InvoiceManage.service.chat.HnswIndex;
+import com.example.InvoiceManage.service.chat.TextEmbedder;
+import com.example.InvoiceManage.service.chat.TokenChunker;
+import com.example.InvoiceManage.util.NamedThreadFactory;
+import com.example.InvoiceManage.util.TtlCache;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
+
+/**
+ * Ngữ cảnh tài liệu cho chatbot. Mỗi người dùng có các bộ ngữ cảnh riêng (theo tên, mặc định "default"),
+ * mỗi bộ chứa nhiều tài liệu; nạp tài liệu vào bộ của mình không ảnh hưởng tới người khác.
+ * Lưu trữ, chỉ mục và giới hạn bộ nhớ do {@link ContextCollectionStore} đảm nhận.
+ * Mỗi khi bộ ngữ cảnh thay đổi, các câu trả lời đã cache cho bộ đó ({@link ChatAnswerCache}) bị bỏ.
+ *
+ * Nạp tài liệu chạy ở nền ({@link IngestionJob}, xem tiến độ qua {@link #getIngestionJob}): bộ trích xuất theo loại
+ * file ({@link DocumentExtractor}: DOCX, XLSX, PDF, TXT/CSV) đọc theo luồng từng đoạn văn, {@link TokenChunker} gom
+ * thành chunk theo ngân sách token có chồng lấn. Bộ ngữ cảnh chỉ được thay (nguyên tử) khi đã đọc xong cả tài liệu;
+ * trong lúc nạp, câu hỏi vẫn dùng bản cũ.
+ *
+ * Tìm đoạn liên quan theo chat.retrieval.mode:
+ * - bm25 (mặc định): theo từ khóa.
+ * - dense: theo embedding (bắt được câu hỏi diễn đạt khác với tài liệu). Embedding của các đoạn được tính
+ *   khi nạp tài liệu; mỗi câu hỏi chỉ tốn một lần gọi embedding và một lần tìm trên đồ thị HNSW.
+ *   Không tính được embedding (Ollama lỗi, bộ nạp khi chưa bật) thì quay về bm25.
+ */
+@Slf4j
 @Service
 public class ChatContextService {
-    // Lưu trữ các đoạn văn bản (chunks) từ tài liệu trong bộ nhớ.
-// Dữ liệu này sẽ bị mất khi ứng dụng khởi động lại.
-    private List<String> documentChunks = new ArrayList<>();
+    public static final String DEFAULT_COLLECTION = "default";
+    private static final int MAX_CONTEXT_CHUNKS = 3;
+
+    private final ContextCollectionStore collectionStore;
+    private final ChatAnswerCache answerCache;
+    private final TextEmbedder embedder;
+    private final boolean denseRetrieval;
+    private final int chunkTokens;
+    private final int overlapTokens;
+    private final int maxChunks;
+    // Thư mục duy nhất được phép nạp tài liệu theo đường dẫn trên server; null = tắt tính năng
+    private final Path ingestBaseDir;
+    // phần mở rộng file -> bộ trích xuất
+    private final Map<String, DocumentExtractor> extractors = new HashMap<>();
+
+    private final ExecutorService ingestExecutor;
+    // Job đang chờ/chạy được giữ tới khi xong, không hết hạn dù hàng đợi dài hay tài liệu lớn
+    private final Map<String, IngestionJob> activeJobs = new ConcurrentHashMap<>();
+    // Job đã xong vẫn giữ một thời gian (tính từ lúc xong) để client đọc kết quả
+    private final TtlCache<String, IngestionJob> finishedJobs = new TtlCache<>(1, TimeUnit.HOURS, 1000);
+
+    public ChatContextService(ContextCollectionStore collectionStore,
+                              ChatAnswerCache answerCache,
+                              TextEmbedder embedder,
+                              List<DocumentExtractor> extractors,
+                              @Value("${chat.retrieval.mode:bm25}") String retrievalMode,
+                              @Value("${chat.ingest.chunk-tokens:256}") int chunkTokens,
+                              @Value("${chat.ingest.overlap-tokens:32}") int overlapTokens,
+                              @Value("${chat.ingest.max-chunks:20000}") int maxChunks,
+                              @Value("${chat.ingest.workers:2}") int ingestWorkers,
+                              @Value("${chat.ingest.base-dir:}") String ingestBaseDir) {
+        this.collectionStore = collectionStore;
+        this.answerCache = answerCache;
+        this.embedder = embedder;
+        this.denseRetrieval = "dense".equalsIgnoreCase(retrievalMode);
+        TokenChunker.validate(chunkTokens, overlapTokens);
+        this.chunkTokens = chunkTokens;
+        this.overlapTokens = overlapTokens;
+        this.maxChunks = maxChunks;
+        this.ingestBaseDir = ingestBaseDir.isBlank() ? null : Paths.get(ingestBaseDir).toAbsolutePath().normalize();
+        for (DocumentExtractor extractor : extractors) {
+            extractor.extensions().forEach(extension -> this.extractors.put(extension, extractor));
+        }
+        this.ingestExecutor = Executors.newFixedThreadPool(ingestWorkers, new NamedThreadFactory("chat-ingest-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ingestExecutor.shutdownNow();
+    }
 
     /**
-     * Nạp và xử lý tài liệu từ một file được tải lên.
+     * Bắt đầu nạp một file được tải lên vào bộ ngữ cảnh của người dùng; tài liệu cùng tên trong bộ sẽ được thay thế.
+     * File được chép ra thư mục tạm trước khi request kết thúc, việc đọc và chia đoạn chạy ở nền.
      *
-     * @param file File MultipartFile từ request.
-     * @throws Exception nếu có lỗi khi đọc file.
+     * @param owner      Email người dùng sở hữu bộ ngữ cảnh.
+     * @param collection Tên bộ ngữ cảnh.
+     * @param file       File MultipartFile từ request.
+     * @return Job nạp tài liệu, trả về ngay.
      */
-    public void loadDocument(MultipartFile file) throws Exception {
+    public IngestionJob startIngestion(String owner, String collection, MultipartFile file) throws IOException {
         if (file == null || file.isEmpty()) {
             throw new IllegalArgumentException("Uploaded file is empty.");
         }
-        try (InputStream inputStream = file.getInputStream()) {
-            processInputStream(inputStream);
+        checkCollectionName(collection);
+        String name = file.getOriginalFilename() != null ? file.getOriginalFilename() : "document";
+        DocumentExtractor extractor = extractorFor(name);
+        Path copy = Files.createTempFile("chat-ingest-", ".upload");
+        try {
+            file.transferTo(copy);
+            return submit(owner, collection, name, extractor, copy, true);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(copy);
+            throw e;
         }
     }
 
     /**
-     * Nạp và xử lý tài liệu từ một đường dẫn file trên server.
+     * Bắt đầu nạp tài liệu từ một đường dẫn file trên server vào bộ ngữ cảnh của người dùng.
+     * Chỉ đọc được file nằm trong {@code chat.ingest.base-dir} (sau khi chuẩn hóa và giải symlink),
+     * để endpoint không thành lỗ hổng đọc file tùy ý trên server.
      *
-     * @param filePath Đường dẫn tuyệt đối đến file.
-     * @throws Exception nếu file không tồn tại hoặc có lỗi khi đọc.
+     * @param filePath Đường dẫn tương đối so với chat.ingest.base-dir (đường dẫn tuyệt đối cũng phải nằm trong thư mục đó).
+     * @throws IllegalArgumentException tính năng bị tắt, file không tồn tại hoặc nằm ngoài thư mục cho phép.
      */
-    public void loadDocumentFromPath(String filePath) throws Exception {
-        File file = new File(filePath);
-        if (!file.exists() || file.isDirectory()) {
-            throw new IllegalArgumentException("File not found or is a directory at path: " + filePath);
+    public IngestionJob startIngestionFromPath(String owner, String collection, String filePath) {
+        if (ingestBaseDir == null) {
+            throw new IllegalArgumentException("Loading documents from a server path is disabled.");
+        }
+        checkCollectionName(collection);
+        Path path;
+        try {
+            Path baseDir = ingestBaseDir.toRealPath();
+            path = baseDir.resolve(filePath).normalize().toRealPath();
+            if (!path.startsWith(baseDir)) {
+                throw new IllegalArgumentException("Path is outside the allowed document directory: " + filePath);
+            }
+        } catch (IOException | InvalidPathException e) {
+            throw new IllegalArgumentException("File not found at path: " + filePath);
         }
-        try (InputStream inputStream = new FileInputStream(file)) {
-            processInputStream(inputStream);
+        if (!Files.isRegularFile(path)) {
+            throw new IllegalArgumentException("File not found or is a directory at path: " + filePath);
         }
+        String name = path.getFileName().toString();
+        return submit(owner, collection, name, extractorFor(name), path, false);
     }
 
     /**
-     * Logic chung để xử lý một InputStream: đọc văn bản và chia thành các đoạn.
-     *
-     * @param inputStream Dữ liệu đầu vào của file.
-     * @throws Exception nếu có lỗi trong quá trình xử lý.
+     * Trạng thái một job nạp tài liệu; chỉ người tạo job xem được.
      */
-    private void processInputStream(InputStream inputStream) throws Exception {
-        clearContext(); // Xóa ngữ cảnh cũ trước khi nạp cái mới
-        try (XWPFDocument document = new XWPFDocument(inputStream);
-             XWPFWordExtractor extractor = new XWPFWordExtractor(document)) {
-
-            String text = extractor.getText();
-            // Chia văn bản thành các đoạn dựa trên các dòng trống
-            this.documentChunks = Arrays.stream(text.split("\\n\\s*\\n"))
-                    .map(String::trim) // Loại bỏ khoảng trắng thừa
-                    .filter(chunk -> !chunk.isEmpty()) // Bỏ qua các đoạn rỗng
-                    .collect(Collectors.toList());
-
-            System.out.println("Document loaded and split into " + documentChunks.size() + " chunks.");
-        }
+    public Optional<IngestionJob> getIngestionJob(String owner, String jobId) {
+        // Job xong được đưa vào finishedJobs trước khi bỏ khỏi activeJobs, nên đọc theo thứ tự này không bị hụt
+        return Optional.ofNullable(activeJobs.get(jobId))
+                .or(() -> Optional.ofNullable(finishedJobs.getIfPresent(jobId)))
+                .filter(job -> job.owner.equals(owner));
     }
 
     /**
-     * Tìm kiếm và trả về các đoạn văn bản có liên quan nhất đến câu hỏi của người dùng.
-     * Sử dụng thuật toán tính điểm để tăng độ chính xác.
+     * Tìm kiếm và trả về các đoạn văn bản có liên quan nhất đến câu hỏi của người dùng,
+     * trên mọi tài liệu của bộ ngữ cảnh: theo embedding nếu bật dense, ngược lại chấm điểm BM25 trên chỉ mục đảo.
      *
      * @param userQuery Câu hỏi của người dùng.
      * @return Một chuỗi chứa các đoạn văn bản liên quan nhất, được sắp xếp theo điểm.
      */
-    public String findRelevantContext(String userQuery) {
-        if (documentChunks.isEmpty()) {
-            return "";
-        }
-
-        // Tách câu hỏi thành các từ khóa, loại bỏ các từ vô nghĩa (stop words)
-        final List<String> keywords = Arrays.stream(userQuery.toLowerCase().split("\\s+"))
-                .filter(word -> word.length() > 2 && !isStopWord(word))
-                .collect(Collectors.toList());
-
-        if (keywords.isEmpty()) {
-            return ""; // Không có từ khóa hợp lệ để tìm kiếm
-        }
-
-        // Chấm điểm, sắp xếp và lấy các đoạn văn bản tốt nhất
-        return documentChunks.stream()
-                .map(chunk -> {
-                    long score = calculateScore(chunk, keywords);
-                    return new AbstractMap.SimpleEntry<>(chunk, score);
-                })
-                .filter(entry -> entry.getValue() > 0) // Chỉ giữ lại các đoạn có điểm > 0
-                .sorted(Comparator.comparing(Map.Entry<String, Long>::getValue).reversed()) // Sắp xếp điểm từ cao xuống thấp
-                .limit(3) // Giới hạn chỉ lấy 3 đoạn tốt nhất để tránh làm prompt quá dài
-                .map(Map.Entry::getKey)
+    public String findRelevantContext(String owner, String collection, String userQuery) {
+        ContextCollection current = collectionStore.get(owner, collection); // snapshot: không bị thay giữa chừng
+        List<Integer> chunks = denseRetrieval && current.vectors() != null ? searchDense(current, userQuery) : null;
+        if (chunks == null) {
+            chunks = current.index().search(userQuery, MAX_CONTEXT_CHUNKS).stream() // Giới hạn 3 đoạn tốt nhất để tránh làm prompt quá dài
+                    .map(Bm25Index.Hit::chunk)
+                    .collect(Collectors.toList());
+        }
+        return chunks.stream()
+                .map(chunk -> current.index().chunk(chunk))
                 .collect(Collectors.joining("\n\n---\n\n")); // Nối các đoạn lại với nhau
     }
 
+    // null nếu không tìm theo embedding được, để quay về BM25
+    private List<Integer> searchDense(ContextCollection current, String userQuery) {
+        try {
+            float[] query = embedder.embed(userQuery);
+            return current.vectors().search(query, MAX_CONTEXT_CHUNKS).stream()
+                    .map(HnswIndex.Hit::chunk)
+                    .collect(Collectors.toList());
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Dense retrieval failed, falling back to BM25: {}", e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    public ContextCollection getCollection(String owner, String collection) {
+        return collectionStore.get(owner, collection);
+    }
+
+    public List<String> listCollections(String owner) {
+        return collectionStore.list(owner);
+    }
+
     /**
-     * Xóa ngữ cảnh hiện tại khỏi bộ nhớ.
+     * Bỏ một tài liệu khỏi bộ ngữ cảnh.
      */
-    public void clearContext() {
-        this.documentChunks.clear();
-        System.out.println("Context has been cleared.");
+    public ContextCollection removeDocument(String owner, String collection, String documentName) {
+        ContextCollection updated = collectionStore.update(owner, collection, current -> current.withoutDocument(documentName));
+        answerCache.invalidate(owner, collection);
+        return updated;
     }
 
-// ================== CÁC PHƯƠNG THỨC HỖ TRỢ ==================
+    /**
+     * Xóa toàn bộ bộ ngữ cảnh (cả trên đĩa).
+     */
+    public void clearContext(String owner, String collection) {
+        collectionStore.update(owner, collection, current -> ContextCollection.EMPTY);
+        answerCache.forget(owner, collection);
+        log.info("Context '{}' has been cleared.", collection);
+    }
+
+    private IngestionJob submit(String owner, String collection, String name, DocumentExtractor extractor,
+                                Path source, boolean deleteSource) {
+        IngestionJob job = new IngestionJob(UUID.randomUUID().toString(), owner, collection, name);
+        try {
+            job.totalBytes = Files.size(source);
+        } catch (IOException e) {
+            job.totalBytes = -1;
+        }
+        activeJobs.put(job.getId(), job);
+        try {
+            ingestExecutor.execute(() -> runIngestion(job, extractor, source, deleteSource));
+        } catch (RejectedExecutionException e) {
+            activeJobs.remove(job.getId());
+            throw new IllegalStateException("Document ingestion is shutting down", e);
+        }
+        return job;
+    }
 
     /**
-     * Tính điểm cho một đoạn văn bản dựa trên sự xuất hiện của các từ khóa.
-     *
-     * @param chunk    Đoạn văn bản cần tính điểm.
-     * @param keywords Danh sách các từ khóa để tìm kiếm.
-     * @return Điểm số của đoạn văn bản.
+     * Đọc tài liệu theo luồng, chia thành các chunk rồi mới thay tài liệu trong bộ ngữ cảnh (một lần, nguyên tử).
+     * Lỗi giữa chừng thì bộ ngữ cảnh giữ nguyên như trước.
      */
-    private long calculateScore(String chunk, List<String> keywords) {
-        long score = 0;
-        String lowerCaseChunk = chunk.toLowerCase();
-
-        // Cộng điểm cho mỗi từ khóa được tìm thấy
-        for (String keyword : keywords) {
-            if (lowerCaseChunk.contains(keyword)) {
-                score++;
+    private void runIngestion(IngestionJob job, DocumentExtractor extractor, Path source, boolean deleteSource) {
+        job.status = "RUNNING";
+        job.startedAt = LocalDateTime.now();
+        try {
+            List<String> chunks = new ArrayList<>();
+            TokenChunker chunker = new TokenChunker(chunkTokens, overlapTokens, chunk -> {
+                // Giới hạn trên cho bộ nhớ: các chunk phải nằm trong bộ nhớ cho tới khi dựng chỉ mục
+                if (chunks.size() >= maxChunks) {
+                    throw new IllegalArgumentException("Document is too large: more than " + maxChunks + " chunks.");
+                }
+                chunks.add(chunk);
+                job.chunks.incrementAndGet();
+            });
+            extractor.extract(source, paragraph -> {
+                job.paragraphs.incrementAndGet();
+                chunker.accept(paragraph);
+            }, progress -> job.extracted = progress);
+            chunker.finish();
+
+            // Tính embedding xong mới vào khóa ghi của bộ; chỉ dựng lại chỉ mục là nằm trong khóa
+            List<float[]> vectors = denseRetrieval ? embedChunks(job.document, chunks) : null;
+            ContextCollection updated = collectionStore.update(job.owner, job.collection,
+                    current -> current.withDocument(job.document, chunks, vectors));
+            answerCache.invalidate(job.owner, job.collection);
+
+            job.status = "COMPLETED";
+            log.info("Document '{}' loaded into context '{}' as {} chunks ({} documents, {} chunks total{}).",
+                    job.document, job.collection, chunks.size(), updated.documents().size(), updated.index().size(),
+                    updated.vectors() != null ? ", with embeddings" : "");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.status = "FAILED";
+            job.error = "Ingestion was interrupted.";
+        } catch (Exception e) {
+            log.warn("Failed to load document '{}' into context '{}': {}", job.document, job.collection, e.toString());
+            job.status = "FAILED";
+            job.error = e.getMessage();
+        } finally {
+            job.finishedAt = LocalDateTime.now();
+            finishedJobs.put(job.getId(), job);
+            activeJobs.remove(job.getId());
+            if (deleteSource) {
+                try {
+                    Files.deleteIfExists(source);
+                } catch (IOException e) {
+                    log.warn("Could not delete temporary upload {}: {}", source, e.getMessage());
+                }
             }
         }
+    }
 
-        // Thưởng điểm cho các đoạn văn bản quan trọng (ví dụ: nằm ở đầu tài liệu)
-        // Điều này giúp ưu tiên các phần như "Tóm tắt" hay "Giới thiệu"
-        int indexInDocument = documentChunks.indexOf(chunk);
-        if (indexInDocument != -1 && indexInDocument < 10) { // Nếu là một trong 10 đoạn đầu tiên
-            score += 2; // Cộng thêm 2 điểm thưởng
+    private DocumentExtractor extractorFor(String name) {
+        int dot = name.lastIndexOf('.');
+        DocumentExtractor extractor = dot < 0 ? null : extractors.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        if (extractor == null) {
+            throw new IllegalArgumentException("Unsupported document type: " + name + " (supported: "
+                    + new TreeSet<>(extractors.keySet()) + ").");
         }
+        return extractor;
+    }
 
-        return score;
+    private static void checkCollectionName(String collection) {
+        if (!ContextCollectionStore.isValidName(collection)) {
+            throw new IllegalArgumentException("Invalid context collection name: " + collection);
+        }
+    }
+
+    // Embedding theo lô, song song (xem TextEmbedder); lỗi thì tài liệu vẫn được nạp, chỉ tìm theo từ khóa
+    private List<float[]> embedChunks(String name, List<String> chunks) throws InterruptedException {
+        try {
+            return embedder.embed(chunks);
+        } catch (IOException e) {
+            log.warn("Could not compute embeddings for '{}', the context falls back to BM25: {}", name, e.getMessage());
+            return null;
+        }
     }
 
     /**
-     * Kiểm tra xem một từ có phải là "stop word" (từ phổ biến, ít mang ý nghĩa) hay không.
-     *
-     * @param word Từ cần kiểm tra.
-     * @return true nếu là stop word, ngược lại là false.
+     * Một lượt nạp tài liệu chạy ở nền. Tiến độ: phần tài liệu đã đọc (theo byte, sheet hoặc trang tùy loại file),
+     * số đoạn văn và chunk.
      */
-    private boolean isStopWord(String word) {
-        // Danh sách các stop words tiếng Việt cơ bản. Có thể mở rộng để kết quả tốt hơn.
-        List<String> stopWords = Arrays.asList(
-                "là", "gì", "cái", "này", "về", "của", "và", "được", "trong", "một", "có", "không", "để",
-                "tôi", "bạn", "nó", "họ", "khi", "thì", "mà", "tại", "cho", "với", "như", "làm"
-        );
-        return stopWords.contains(word.toLowerCase());
-    }
-}
\ No newline at end of file
+    @Getter
+    public static class IngestionJob {
+        private final String id;
+        @Getter(lombok.AccessLevel.NONE) private final String owner;
+        private final String collection;
+        private final String document;
+        private volatile String status = "QUEUED";
+        private volatile long totalBytes;
+        private volatile LocalDateTime startedAt;
+        private volatile LocalDateTime finishedAt;
+        private volatile String error;
+        @Getter(lombok.AccessLevel.NONE) private volatile double extracted;
+        @Getter(lombok.AccessLevel.NONE) private final AtomicInteger paragraphs = new AtomicInteger();
+        @Getter(lombok.AccessLevel.NONE) private final AtomicInteger chunks = new AtomicInteger();
+
+        IngestionJob(String id, String owner, String collection, String document) {
+            this.id = id;
+            this.owner = owner;
+            this.collection = collection;
+            this.document = document;
+        }
+
+        public int getParagraphs() { return paragraphs.get(); }
+        public int getChunks() { return chunks.get(); }
+
+        // 0..1; chỉ đạt 1 khi tài liệu đã vào bộ ngữ cảnh
+        public double getProgress() {
+            if ("COMPLETED".equals(status)) {
+                return 1;
+            }
+            return Math.min(0.99, extracted);
+        }
+    }
+}
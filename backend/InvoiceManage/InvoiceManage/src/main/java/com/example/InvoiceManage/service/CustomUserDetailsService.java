@@ -4,18 +4,44 @@ package com.example.InvoiceManage.service;
 import com.example.InvoiceManage.entity.User;
 import com.example.InvoiceManage.repository.UserRepository;
 import com.example.InvoiceManage.entity.SecurityUser; // Your SecurityUser class
-import lombok.RequiredArgsConstructor;
+import com.example.InvoiceManage.util.TtlCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.TimeUnit;
+
 @Service
-@RequiredArgsConstructor // For constructor injection of UserRepository
 public class CustomUserDetailsService implements UserDetailsService {
 
     private final UserRepository userRepository; // Inject UserRepository
 
+    // Principal đã dựng cho các request mang JWT, theo email (subject của token)
+    private final TtlCache<String, SecurityUser> principalCache;
+
+    public CustomUserDetailsService(UserRepository userRepository,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${auth.principal-cache.ttl-seconds:60}") long ttlSeconds,
+                                    @Value("${auth.principal-cache.max-size:10000}") int maxSize) {
+        this.userRepository = userRepository;
+        this.principalCache = new TtlCache<>(ttlSeconds, TimeUnit.SECONDS, maxSize);
+
+        FunctionCounter.builder("auth.principal.cache.hits", principalCache, TtlCache::hits).register(meterRegistry);
+        FunctionCounter.builder("auth.principal.cache.misses", principalCache, TtlCache::misses).register(meterRegistry);
+        FunctionCounter.builder("auth.principal.cache.evictions", principalCache, TtlCache::evictions).register(meterRegistry);
+        Gauge.builder("auth.principal.cache.size", principalCache, TtlCache::size).register(meterRegistry);
+        Gauge.builder("auth.principal.cache.hit.ratio", principalCache, cache -> {
+            long total = cache.hits() + cache.misses();
+            return total == 0 ? 0 : (double) cache.hits() / total;
+        }).register(meterRegistry);
+    }
+
+    // Luôn đọc CSDL: dùng cho đăng nhập bằng mật khẩu
     @Override
     public UserDetails loadUserByUsername(String email) throws UsernameNotFoundException { // Parameter name changed to email for clarity
         // CORRECTED HERE: Load user by email, matching SecurityUser's getUsername()
@@ -24,4 +50,20 @@ public class CustomUserDetailsService implements UserDetailsService {
 
         return SecurityUser.build(user);
     }
-}
\ No newline at end of file
+
+    /**
+     * Principal cho request đã có JWT hợp lệ, lấy từ cache (TTL ngắn) để không truy vấn user ở mỗi request.
+     * Khi trạng thái/quyền của user đổi, gọi evict() để có hiệu lực ngay.
+     */
+    public SecurityUser loadCachedPrincipal(String email) throws UsernameNotFoundException {
+        return principalCache.get(email, key -> (SecurityUser) loadUserByUsername(key));
+    }
+
+    public void evict(String email) {
+        principalCache.invalidate(email);
+    }
+
+    public void evictAll() {
+        principalCache.invalidateAll();
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.DTO.Invoice;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.poi.xwpf.usermodel.ParagraphAlignment;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.text.Normalizer;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Xuất hóa đơn ra DOCX và PDF từ các mẫu đã được "biên dịch" sẵn khi khởi động.
+ * Mẫu DOCX được dựng một lần thành mảng byte và ghi nhớ vị trí các ô giữ chỗ,
+ * mẫu PDF được tính sẵn bố cục; mỗi lần render chỉ còn việc điền dữ liệu.
+ * Lớp này không giữ trạng thái thay đổi nên có thể gọi song song từ nhiều worker.
+ */
+@Component
+public class InvoiceDocumentRenderer {
+
+    // Tăng số này mỗi khi đổi mẫu để vô hiệu hóa các file đã cache
+    public static final int TEMPLATE_REVISION = 2;
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM/yyyy HH:mm");
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+    public enum Format {
+        DOCX("docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document"),
+        PDF("pdf", "application/pdf");
+
+        private final String extension;
+        private final String contentType;
+
+        Format(String extension, String contentType) {
+            this.extension = extension;
+            this.contentType = contentType;
+        }
+
+        public String getExtension() { return extension; }
+        public String getContentType() { return contentType; }
+
+        public static Format from(String value) {
+            for (Format format : values()) {
+                if (format.extension.equalsIgnoreCase(value)) {
+                    return format;
+                }
+            }
+            throw new IllegalArgumentException("Định dạng hóa đơn không được hỗ trợ: " + value);
+        }
+    }
+
+    // Các trường được điền vào mẫu, dùng chung cho DOCX và PDF
+    private enum Field {
+        INVOICE_ID("Số hóa đơn", inv -> inv.getInvoiceNumber() != null ? inv.getInvoiceNumber() : "#" + inv.getId()),
+        ORDER_ID("Mã đơn hàng", inv -> String.valueOf(inv.getOrderId())),
+        ISSUED_AT("Ngày lập", inv -> inv.getIssuedAt() == null ? "" : DATE_FORMAT.format(inv.getIssuedAt())),
+        CUSTOMER("Khách hàng", Invoice::getCustomerName),
+        EMAIL("Email", Invoice::getCustomerEmail),
+        STATUS("Trạng thái", Invoice::getStatusName);
+
+        private final String label;
+        private final Function<Invoice, String> extractor;
+
+        Field(String label, Function<Invoice, String> extractor) {
+            this.label = label;
+            this.extractor = extractor;
+        }
+
+        String valueOf(Invoice invoice) {
+            String value = extractor.apply(invoice);
+            return value == null ? "" : value;
+        }
+    }
+
+    private static final String TITLE = "HÓA ĐƠN BÁN HÀNG";
+    private static final String[] TABLE_HEADER = {"Sản phẩm", "SL", "Đơn giá", "Thành tiền"};
+    private static final String TOTAL_LABEL = "Tổng cộng";
+
+    private final DocxTemplate docxTemplate = DocxTemplate.compile();
+    private final PdfLayout pdfLayout = new PdfLayout();
+
+    public byte[] render(Invoice invoice, Format format) {
+        try {
+            return format == Format.DOCX ? docxTemplate.render(invoice) : pdfLayout.render(invoice);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Không thể xuất hóa đơn #" + invoice.getId(), e);
+        }
+    }
+
+    private static String money(BigDecimal amount) {
+        return amount == null ? "" : String.format(Locale.US, "%,.2f", amount);
+    }
+
+    // ================== MẪU DOCX ==================
+
+    /**
+     * Mẫu DOCX: khung tài liệu được dựng sẵn và lưu dưới dạng byte,
+     * kèm vị trí (đoạn văn, run) của từng ô giữ chỗ để khỏi phải tìm kiếm khi render.
+     */
+    private static final class DocxTemplate {
+        private final byte[] skeleton;
+        private final int[] slotParagraphs;
+        private final Field[] slotFields;
+
+        private DocxTemplate(byte[] skeleton, int[] slotParagraphs, Field[] slotFields) {
+            this.skeleton = skeleton;
+            this.slotParagraphs = slotParagraphs;
+            this.slotFields = slotFields;
+        }
+
+        static DocxTemplate compile() {
+            try (XWPFDocument document = new XWPFDocument();
+                 ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+                XWPFParagraph title = document.createParagraph();
+                title.setAlignment(ParagraphAlignment.CENTER);
+                XWPFRun titleRun = title.createRun();
+                titleRun.setBold(true);
+                titleRun.setFontSize(16);
+                titleRun.setText(TITLE);
+
+                Field[] fields = Field.values();
+                int[] paragraphs = new int[fields.length];
+                for (int i = 0; i < fields.length; i++) {
+                    XWPFParagraph paragraph = document.createParagraph();
+                    XWPFRun label = paragraph.createRun();
+                    label.setBold(true);
+                    label.setText(fields[i].label + ": ");
+                    paragraph.createRun(); // run thứ 2 là ô giữ chỗ cho giá trị
+                    paragraphs[i] = document.getParagraphs().size() - 1;
+                }
+
+                XWPFTable table = document.createTable(1, TABLE_HEADER.length);
+                for (int i = 0; i < TABLE_HEADER.length; i++) {
+                    table.getRow(0).getCell(i).setText(TABLE_HEADER[i]);
+                }
+
+                document.write(out);
+                return new DocxTemplate(out.toByteArray(), paragraphs, fields);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Không thể dựng mẫu hóa đơn DOCX", e);
+            }
+        }
+
+        byte[] render(Invoice invoice) throws IOException {
+            try (XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(skeleton));
+                 ByteArrayOutputStream out = new ByteArrayOutputStream(skeleton.length * 2)) {
+                List<XWPFParagraph> paragraphs = document.getParagraphs();
+                for (int i = 0; i < slotFields.length; i++) {
+                    paragraphs.get(slotParagraphs[i]).getRuns().get(1).setText(slotFields[i].valueOf(invoice), 0);
+                }
+
+                XWPFTable table = document.getTables().get(0);
+                for (Invoice.Line line : invoice.getLines()) {
+                    XWPFTableRow row = table.createRow();
+                    row.getCell(0).setText(line.getProductName());
+                    row.getCell(1).setText(String.valueOf(line.getQuantity()));
+                    row.getCell(2).setText(money(line.getPrice()));
+                    row.getCell(3).setText(money(line.getSubtotal()));
+                }
+                XWPFTableRow totalRow = table.createRow();
+                totalRow.getCell(0).setText(TOTAL_LABEL);
+                totalRow.getCell(3).setText(money(invoice.getTotal()));
+
+                document.write(out);
+                return out.toByteArray();
+            }
+        }
+    }
+
+    // ================== BỐ CỤC PDF ==================
+
+    /**
+     * Bố cục PDF được tính sẵn: nhãn tĩnh đã chuyển sang ASCII và tọa độ cố định.
+     * Font chuẩn của PDF (Helvetica) không có dấu tiếng Việt nên mọi chuỗi đều được bỏ dấu.
+     */
+    private static final class PdfLayout {
+        private static final float MARGIN = 50;
+        private static final float LINE_HEIGHT = 16;
+        private static final float[] COLUMNS = {MARGIN, 330, 380, 470};
+        private static final int MAX_NAME_CHARS = 48;
+
+        private final String title = toPdfText(TITLE);
+        private final String[] labels;
+        private final String[] header;
+        private final String totalLabel = toPdfText(TOTAL_LABEL);
+
+        PdfLayout() {
+            Field[] fields = Field.values();
+            labels = new String[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                labels[i] = toPdfText(fields[i].label) + ": ";
+            }
+            header = new String[TABLE_HEADER.length];
+            for (int i = 0; i < TABLE_HEADER.length; i++) {
+                header[i] = toPdfText(TABLE_HEADER[i]);
+            }
+        }
+
+        byte[] render(Invoice invoice) throws IOException {
+            try (PDDocument document = new PDDocument();
+                 ByteArrayOutputStream out = new ByteArrayOutputStream(8 * 1024)) {
+                PDType1Font regular = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+                PDType1Font bold = new PDType1Font(Standard14Fonts.FontName.HELVETICA_BOLD);
+
+                PDPage page = new PDPage(PDRectangle.A4);
+                document.addPage(page);
+                PDPageContentStream content = new PDPageContentStream(document, page);
+                float top = page.getMediaBox().getHeight() - MARGIN;
+                float y = top;
+
+                text(content, bold, 16, MARGIN, y, title);
+                y -= LINE_HEIGHT * 2;
+
+                Field[] fields = Field.values();
+                for (int i = 0; i < fields.length; i++) {
+                    text(content, bold, 11, MARGIN, y, labels[i]);
+                    text(content, regular, 11, MARGIN + 110, y, toPdfText(fields[i].valueOf(invoice)));
+                    y -= LINE_HEIGHT;
+                }
+
+                y -= LINE_HEIGHT;
+                y = row(content, bold, y, header);
+
+                for (Invoice.Line line : invoice.getLines()) {
+                    if (y < MARGIN + LINE_HEIGHT * 2) {
+                        // Hết trang: đóng trang hiện tại, mở trang mới và vẽ lại tiêu đề bảng
+                        content.close();
+                        page = new PDPage(PDRectangle.A4);
+                        document.addPage(page);
+                        content = new PDPageContentStream(document, page);
+                        y = row(content, bold, top, header);
+                    }
+                    y = row(content, regular, y, new String[]{
+                            truncate(toPdfText(line.getProductName())),
+                            String.valueOf(line.getQuantity()),
+                            money(line.getPrice()),
+                            money(line.getSubtotal())
+                    });
+                }
+
+                y -= LINE_HEIGHT / 2;
+                text(content, bold, 12, COLUMNS[0], y, totalLabel);
+                text(content, bold, 12, COLUMNS[3], y, money(invoice.getTotal()));
+                content.close();
+
+                document.save(out);
+                return out.toByteArray();
+            }
+        }
+
+        private static float row(PDPageContentStream content, PDType1Font font, float y, String[] cells) throws IOException {
+            for (int i = 0; i < cells.length; i++) {
+                text(content, font, 10, COLUMNS[i], y, cells[i]);
+            }
+            return y - LINE_HEIGHT;
+        }
+
+        private static void text(PDPageContentStream content, PDType1Font font, float size,
+                                 float x, float y, String value) throws IOException {
+            content.beginText();
+            content.setFont(font, size);
+            content.newLineAtOffset(x, y);
+            content.showText(value);
+            content.endText();
+        }
+
+        private static String truncate(String value) {
+            return value.length() <= MAX_NAME_CHARS ? value : value.substring(0, MAX_NAME_CHARS - 3) + "...";
+        }
+
+        private static String toPdfText(String value) {
+            if (value == null) {
+                return "";
+            }
+            String folded = Normalizer.normalize(value, Normalizer.Form.NFD);
+            folded = COMBINING_MARKS.matcher(folded).replaceAll("")
+                    .replace('đ', 'd')
+                    .replace('Đ', 'D');
+            StringBuilder sb = new StringBuilder(folded.length());
+            for (int i = 0; i < folded.length(); i++) {
+                char c = folded.charAt(i);
+                sb.append(c >= 0x20 && c < 0x7F ? c : '?');
+            }
+            return sb.toString();
+        }
+    }
+}
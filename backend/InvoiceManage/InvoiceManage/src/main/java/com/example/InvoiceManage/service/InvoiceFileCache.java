@@ -0,0 +1,112 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.DTO.Invoice;
+import com.example.InvoiceManage.service.InvoiceDocumentRenderer.Format;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+
+/**
+ * Bộ nhớ đệm trên đĩa cho các file hóa đơn đã render, đánh địa chỉ theo nội dung.
+ * Khóa là SHA-256 của (mã hóa đơn, phiên bản dữ liệu, định dạng, phiên bản mẫu):
+ * khi hóa đơn đổi dữ liệu hoặc mẫu đổi thì khóa đổi theo, file cũ không bao giờ bị đọc nhầm.
+ * Khóa này cũng được dùng làm ETag khi trả file cho client.
+ */
+@Slf4j
+@Component
+public class InvoiceFileCache {
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    private final Path root;
+
+    public InvoiceFileCache(@Value("${invoice.render.cache-dir:./data/invoice-cache}") String cacheDir) throws IOException {
+        this.root = Paths.get(cacheDir).toAbsolutePath().normalize();
+        Files.createDirectories(root);
+    }
+
+    /**
+     * Phiên bản dữ liệu của hóa đơn: dấu vân tay của mọi trường được in ra file.
+     */
+    public static String version(Invoice invoice) {
+        StringBuilder sb = new StringBuilder(256)
+                .append(invoice.getId()).append('|')
+                .append(invoice.getInvoiceNumber()).append('|')
+                .append(invoice.getOrderId()).append('|')
+                .append(invoice.getCustomerName()).append('|')
+                .append(invoice.getCustomerEmail()).append('|')
+                .append(invoice.getStatusName()).append('|')
+                .append(invoice.getIssuedAt()).append('|')
+                .append(plain(invoice.getTotal()));
+        for (Invoice.Line line : invoice.getLines()) {
+            sb.append('|').append(line.getProductName())
+                    .append(';').append(line.getQuantity())
+                    .append(';').append(plain(line.getPrice()))
+                    .append(';').append(plain(line.getSubtotal()));
+        }
+        return sha256(sb.toString()).substring(0, 16);
+    }
+
+    public static String key(Invoice invoice, Format format) {
+        return sha256(invoice.getId() + ":" + version(invoice) + ":" + format.getExtension()
+                + ":" + InvoiceDocumentRenderer.TEMPLATE_REVISION);
+    }
+
+    public Optional<Path> find(String key, Format format) {
+        Path path = pathOf(key, format);
+        return Files.isRegularFile(path) ? Optional.of(path) : Optional.empty();
+    }
+
+    /**
+     * Ghi file vào cache theo kiểu nguyên tử: ghi ra file tạm rồi đổi tên,
+     * nên người đọc song song không bao giờ thấy file ghi dở.
+     */
+    public Path store(String key, Format format, byte[] content) throws IOException {
+        Path target = pathOf(key, format);
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), key, ".tmp");
+        try {
+            Files.write(temp, content);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        log.debug("Stored rendered invoice {} ({} bytes)", target.getFileName(), content.length);
+        return target;
+    }
+
+    // Chia thư mục con theo 2 ký tự đầu để tránh một thư mục chứa hàng trăm nghìn file
+    private Path pathOf(String key, Format format) {
+        return root.resolve(key.substring(0, 2)).resolve(key + "." + format.getExtension());
+    }
+
+    private static String plain(BigDecimal value) {
+        return value == null ? "" : value.stripTrailingZeros().toPlainString();
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HEX.formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
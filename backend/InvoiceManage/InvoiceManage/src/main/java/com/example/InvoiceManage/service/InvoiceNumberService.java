@@ -0,0 +1,273 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.entity.InvoiceNumberBlock;
+import com.example.InvoiceManage.entity.InvoiceNumberCounter;
+import com.example.InvoiceManage.entity.InvoiceNumberGap;
+import com.example.InvoiceManage.repository.InvoiceNumberBlockRepository;
+import com.example.InvoiceManage.repository.InvoiceNumberCounterRepository;
+import com.example.InvoiceManage.repository.InvoiceNumberGapRepository;
+import com.example.InvoiceManage.repository.InvoiceRepository;
+import com.example.InvoiceManage.util.InvoiceNumberAllocator;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.LongStream;
+
+/**
+ * Cấp số hóa đơn liên tục, không trùng, cho nhiều node cùng chạy.
+ *
+ * Thay vì SELECT MAX()+1 dưới khóa cho từng hóa đơn (mọi lượt duyệt phải xếp hàng),
+ * mỗi node khóa dòng bộ đếm trong một giao dịch ngắn để đặt trước một block số,
+ * sau đó cấp số trong bộ nhớ qua {@link InvoiceNumberAllocator} mà không cần khóa.
+ *
+ * Quy tắc để dãy số không bị thủng:
+ * - Giao dịch duyệt bị rollback thì số của nó được trả lại và cấp lại trước tiên.
+ * - Khi tắt, phần chưa dùng của block và các số đã trả lại được ghi vào bảng khoảng trống.
+ * - Dòng block chỉ bị xóa khi mọi số trong block đã thuộc một hóa đơn hoặc đã nằm trong bảng khoảng trống;
+ *   block đã cấp hết nhưng còn số trong giao dịch chưa kết thúc vẫn được giữ lại.
+ * - Khi khởi động lại sau sự cố, các block còn lại của node được đối chiếu với bảng hóa đơn để thu hồi số chưa dùng.
+ * - Khoảng trống trong bảng được các node nhận về và cấp lại trước khi cấp số mới.
+ */
+@Slf4j
+@Service
+public class InvoiceNumberService {
+
+    private final InvoiceNumberCounterRepository counterRepository;
+    private final InvoiceNumberBlockRepository blockRepository;
+    private final InvoiceNumberGapRepository gapRepository;
+    private final InvoiceRepository invoiceRepository;
+    // Giao dịch riêng (REQUIRES_NEW) để khóa bộ đếm được nhả ngay, không kéo dài theo giao dịch duyệt
+    private final TransactionTemplate newTx;
+
+    private final String series;
+    private final int blockSize;
+    private final String nodeId;
+    private final InvoiceNumberAllocator allocator;
+
+    public InvoiceNumberService(InvoiceNumberCounterRepository counterRepository,
+                                InvoiceNumberBlockRepository blockRepository,
+                                InvoiceNumberGapRepository gapRepository,
+                                InvoiceRepository invoiceRepository,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${invoice.numbering.series:HD}") String series,
+                                @Value("${invoice.numbering.block-size:50}") int blockSize,
+                                @Value("${invoice.numbering.node-id:}") String nodeId) {
+        this.counterRepository = counterRepository;
+        this.blockRepository = blockRepository;
+        this.gapRepository = gapRepository;
+        this.invoiceRepository = invoiceRepository;
+        this.newTx = new TransactionTemplate(transactionManager);
+        this.newTx.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.series = series;
+        this.blockSize = blockSize;
+        this.nodeId = nodeId.isBlank() ? hostName() : nodeId;
+        this.allocator = new InvoiceNumberAllocator(this::reserveBlock, blockSize);
+    }
+
+    @PostConstruct
+    void recover() {
+        newTx.executeWithoutResult(status -> {
+            // Block còn sót lại từ lần chạy trước bị dừng đột ngột: số nào chưa gán cho hóa đơn thì thành khoảng trống
+            for (InvoiceNumberBlock block : blockRepository.findByNodeIdAndSeries(nodeId, series)) {
+                List<Long> unused = unaccounted(block);
+                saveGaps(unused);
+                log.warn("Recovered {} unused invoice numbers from orphan block [{}, {})",
+                        unused.size(), block.getStartValue(), block.getEndValue());
+            }
+            blockRepository.deleteByNodeIdAndSeries(nodeId, series);
+            releaseClaimedGaps();
+        });
+        allocator.addReusable(newTx.execute(status -> claimGaps()));
+        log.info("Invoice numbering ready: series={}, node={}, reusable numbers={}",
+                series, nodeId, allocator.releasedCount());
+    }
+
+    @PreDestroy
+    void shutdown() {
+        List<Long> unused = allocator.drainUnused();
+        newTx.executeWithoutResult(status -> {
+            Set<Long> claimed = releaseClaimedGaps();
+            List<Long> fresh = unused.stream().filter(n -> !claimed.contains(n)).toList();
+            saveGaps(withoutUsed(fresh));
+            // Block còn số nằm trong giao dịch chưa kết thúc thì giữ lại, lần khởi động sau sẽ đối chiếu
+            reconcileBlocks(null);
+        });
+        log.info("Invoice numbering stopped: returned {} unused numbers", unused.size());
+    }
+
+    /**
+     * Cấp số hóa đơn tiếp theo. Nếu đang trong giao dịch và giao dịch đó rollback,
+     * số được trả lại để cấp cho hóa đơn kế tiếp.
+     */
+    public long nextNumber() {
+        long number = allocator.next();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK) {
+                        allocator.release(number);
+                    }
+                }
+            });
+        }
+        return number;
+    }
+
+    /**
+     * Dạng hiển thị của số hóa đơn, ví dụ HD00000042.
+     */
+    public String format(Long invoiceNo) {
+        return invoiceNo == null ? null : series + String.format("%08d", invoiceNo);
+    }
+
+    // Được allocator gọi (dưới khóa nạp block) khi block hiện tại đã cạn
+    private InvoiceNumberAllocator.Block reserveBlock(int size) {
+        List<Long> claimed = new ArrayList<>();
+        InvoiceNumberAllocator.Block block;
+        try {
+            block = newTx.execute(status -> doReserveBlock(size, claimed));
+        } catch (DataIntegrityViolationException e) {
+            // Node khác vừa tạo dòng bộ đếm cùng lúc: thử lại, lần này dòng đã tồn tại
+            claimed.clear();
+            block = newTx.execute(status -> doReserveBlock(size, claimed));
+        }
+        // Chỉ đưa khoảng trống vào bộ nhớ sau khi việc nhận đã commit
+        allocator.addReusable(claimed);
+        return block;
+    }
+
+    private InvoiceNumberAllocator.Block doReserveBlock(int size, List<Long> claimed) {
+        InvoiceNumberCounter counter = counterRepository.findForUpdate(series)
+                .orElseGet(this::createCounter);
+        long start = counter.getNextValue();
+        counter.setNextValue(start + size);
+
+        blockRepository.save(InvoiceNumberBlock.builder()
+                .nodeId(nodeId)
+                .series(series)
+                .startValue(start)
+                .endValue(start + size)
+                .reservedAt(LocalDateTime.now())
+                .build());
+        // Block trước đã cấp hết nhưng số của nó có thể còn trong giao dịch chưa commit: chỉ xóa khi đã đối chiếu đủ
+        reconcileBlocks(start);
+
+        // Tranh thủ nhận các khoảng trống do node khác trả về
+        claimed.addAll(claimGaps());
+        log.debug("Reserved invoice numbers [{}, {}) for node {}", start, start + size, nodeId);
+        return new InvoiceNumberAllocator.Block(start, start + size);
+    }
+
+    private InvoiceNumberCounter createCounter() {
+        Long max = invoiceRepository.findMaxInvoiceNo();
+        InvoiceNumberCounter counter = new InvoiceNumberCounter(series, max == null ? 1L : max + 1);
+        counterRepository.saveAndFlush(counter);
+        return counterRepository.findForUpdate(series).orElseThrow();
+    }
+
+    private List<Long> claimGaps() {
+        List<InvoiceNumberGap> gaps = gapRepository.findUnclaimedForUpdate(series, PageRequest.of(0, blockSize));
+        List<Long> numbers = new ArrayList<>(gaps.size());
+        for (InvoiceNumberGap gap : gaps) {
+            gap.setNodeId(nodeId);
+            numbers.add(gap.getNumber());
+        }
+        gapRepository.saveAll(gaps);
+        return numbers;
+    }
+
+    /**
+     * Xử lý các khoảng trống node này đang giữ: số nào đã dùng thì xóa, số nào chưa dùng thì trả về chung.
+     * Trả về tập số của các khoảng trống đó để không ghi trùng.
+     */
+    private Set<Long> releaseClaimedGaps() {
+        List<InvoiceNumberGap> claimed = gapRepository.findBySeriesAndNodeId(series, nodeId);
+        Set<Long> numbers = new HashSet<>();
+        if (claimed.isEmpty()) {
+            return numbers;
+        }
+        Set<Long> used = new HashSet<>(invoiceRepository.findUsedInvoiceNos(
+                claimed.stream().map(InvoiceNumberGap::getNumber).toList()));
+        List<InvoiceNumberGap> consumed = new ArrayList<>();
+        for (InvoiceNumberGap gap : claimed) {
+            numbers.add(gap.getNumber());
+            if (used.contains(gap.getNumber())) {
+                consumed.add(gap);
+            } else {
+                gap.setNodeId(null);
+                gap.setReleasedAt(LocalDateTime.now());
+            }
+        }
+        gapRepository.deleteAll(consumed);
+        claimed.removeAll(consumed);
+        gapRepository.saveAll(claimed);
+        return numbers;
+    }
+
+    /**
+     * Xóa các block của node (trừ block đang cấp, bắt đầu tại currentStart) mà mọi số đã được tính đến.
+     */
+    private void reconcileBlocks(Long currentStart) {
+        for (InvoiceNumberBlock block : blockRepository.findByNodeIdAndSeries(nodeId, series)) {
+            if (block.getStartValue().equals(currentStart)) {
+                continue;
+            }
+            if (unaccounted(block).isEmpty()) {
+                blockRepository.delete(block);
+            }
+        }
+    }
+
+    // Các số của block chưa thuộc hóa đơn nào và cũng chưa nằm trong bảng khoảng trống
+    private List<Long> unaccounted(InvoiceNumberBlock block) {
+        List<Long> numbers = LongStream.range(block.getStartValue(), block.getEndValue()).boxed().toList();
+        Set<Long> accounted = new HashSet<>(invoiceRepository.findUsedInvoiceNos(numbers));
+        accounted.addAll(gapRepository.findNumbersInRange(series, block.getStartValue(), block.getEndValue()));
+        return numbers.stream().filter(n -> !accounted.contains(n)).toList();
+    }
+
+    private List<Long> withoutUsed(List<Long> numbers) {
+        if (numbers.isEmpty()) {
+            return numbers;
+        }
+        Set<Long> used = new HashSet<>(invoiceRepository.findUsedInvoiceNos(numbers));
+        return numbers.stream().filter(n -> !used.contains(n)).toList();
+    }
+
+    private void saveGaps(List<Long> numbers) {
+        LocalDateTime now = LocalDateTime.now();
+        gapRepository.saveAll(numbers.stream()
+                .map(n -> InvoiceNumberGap.builder()
+                        .series(series)
+                        .number(n)
+                        .releasedAt(now)
+                        .build())
+                .toList());
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "local";
+        }
+    }
+}
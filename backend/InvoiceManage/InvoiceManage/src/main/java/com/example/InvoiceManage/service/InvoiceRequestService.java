@@ -27,6 +27,9 @@ public class InvoiceRequestService {
     private final InvoiceRepository invoiceRepository;
     private final OrderRepository orderRepository;
     private final UserRepository userRepository;
+    private final InvoiceService invoiceService;
+    private final InvoiceNumberService invoiceNumberService;
+    private final ArchiveReadRepository archiveReadRepository;
 
     public List<InvoiceRequestPendingDTO> getPendingInvoiceRequests() {
         Status pendingStatus = statusRepository.findByStatusName("pending");
@@ -60,12 +63,16 @@ public class InvoiceRequestService {
         // Tạo hóa đơn mới với trạng thái chờ thanh toán
         Invoice invoice = Invoice.builder()
                 .invoiceRequest(request)
+                .invoiceNo(invoiceNumberService.nextNumber()) // số bị trả lại nếu giao dịch rollback
                 .issuedAt(LocalDateTime.now())
                 .status(awaitingPaymentStatus)
                 .total(request.getOrder().getTotal())
                 .build();
 
         invoiceRepository.save(invoice);
+
+        // Render sẵn file hóa đơn ở nền sau khi giao dịch commit
+        invoiceService.renderAfterCommit(invoice.getId());
     }
 
     @Transactional
@@ -93,6 +100,15 @@ public class InvoiceRequestService {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Yêu cầu hóa đơn tạo trong khoảng thời gian. Yêu cầu đã được lưu trữ chỉ được
+     * đọc thêm khi khoảng thời gian chạm tới các tháng đã lưu trữ.
+     */
+    public List<InvoiceRequestResponse> getAll(LocalDateTime from, LocalDateTime to) {
+        List<String> periods = archiveReadRepository.periodsOverlapping(from, to);
+        return archiveReadRepository.findInvoiceRequestsBetween(from, to, periods);
+    }
+
     /**
      * Hàm trợ giúp để chuyển đổi một InvoiceRequest (Entity) sang InvoiceRequestResponseDTO.
      * @param request Entity nguồn
@@ -1,4 +1,386 @@
 package com.example.InvoiceManage.service;
 
+import com.example.InvoiceManage.DTO.Invoice;
+import com.example.InvoiceManage.entity.InvoiceRequest;
+import com.example.InvoiceManage.entity.Order;
+import com.example.InvoiceManage.entity.OrderDetail;
+import com.example.InvoiceManage.entity.User;
+import com.example.InvoiceManage.exception.ResourceNotFoundException;
+import com.example.InvoiceManage.repository.InvoiceRepository;
+import com.example.InvoiceManage.service.InvoiceDocumentRenderer.Format;
+import com.example.InvoiceManage.util.NamedThreadFactory;
+import jakarta.annotation.PreDestroy;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Dịch vụ xuất file hóa đơn (DOCX/PDF).
+ * - Việc render chạy trên pool worker riêng có giới hạn, không chạy trên luồng request.
+ * - File đã render được lưu vào {@link InvoiceFileCache}; cùng một khóa chỉ render một lần kể cả khi nhiều request đến cùng lúc.
+ * - Render hàng loạt theo tháng được điều phối bởi một luồng riêng, giới hạn số việc đang chờ
+ *   để luôn chừa chỗ trong hàng đợi cho các request tải hóa đơn của khách hàng.
+ */
+@Slf4j
+@Service
 public class InvoiceService {
+
+    private static final Duration JOB_RETENTION = Duration.ofHours(24);
+
+    private final InvoiceRepository invoiceRepository;
+    private final InvoiceDocumentRenderer renderer;
+    private final InvoiceFileCache fileCache;
+    private final InvoiceNumberService invoiceNumberService;
+    private final TransactionTemplate readOnlyTx;
+
+    private final ThreadPoolExecutor renderExecutor;
+    private final ExecutorService bulkDispatcher;
+    private final Semaphore bulkPermits;
+    private final int bulkInFlight;
+    private final int bulkChunkSize;
+    private final long renderTimeoutMs;
+
+    // Các lần render đang chạy, theo khóa cache, để gộp các request trùng nhau
+    private final Map<String, CompletableFuture<Path>> inFlight = new ConcurrentHashMap<>();
+    // Job đang chạy và job đã xong trong JOB_RETENTION gần nhất
+    private final Map<String, BulkRenderJob> jobs = new ConcurrentHashMap<>();
+
+    public InvoiceService(InvoiceRepository invoiceRepository,
+                          InvoiceDocumentRenderer renderer,
+                          InvoiceFileCache fileCache,
+                          InvoiceNumberService invoiceNumberService,
+                          PlatformTransactionManager transactionManager,
+                          @Value("${invoice.render.workers:0}") int workers,
+                          @Value("${invoice.render.bulk-chunk-size:500}") int bulkChunkSize,
+                          @Value("${invoice.render.timeout-ms:15000}") long renderTimeoutMs) {
+        this.invoiceRepository = invoiceRepository;
+        this.renderer = renderer;
+        this.fileCache = fileCache;
+        this.invoiceNumberService = invoiceNumberService;
+        this.readOnlyTx = new TransactionTemplate(transactionManager);
+        this.readOnlyTx.setReadOnly(true);
+
+        int threads = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        // Hàng đợi gấp 8 lần số luồng; render hàng loạt chỉ được chiếm tối đa 1/4 số chỗ đó
+        this.renderExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 8),
+                new NamedThreadFactory("invoice-render-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.bulkDispatcher = Executors.newSingleThreadExecutor(new NamedThreadFactory("invoice-bulk-"));
+        this.bulkInFlight = threads * 2;
+        this.bulkPermits = new Semaphore(bulkInFlight);
+        this.bulkChunkSize = bulkChunkSize;
+        this.renderTimeoutMs = renderTimeoutMs;
+    }
+
+    /**
+     * Ảnh chụp dữ liệu của hóa đơn (không render gì); dùng để kiểm tra quyền trước khi gọi {@link #getDocument(Invoice, Format)}.
+     */
+    public Invoice getSnapshot(Integer invoiceId) {
+        return loadSnapshots(List.of(invoiceId)).stream()
+                .findFirst()
+                .orElseThrow(() -> new ResourceNotFoundException("Invoice", "id", invoiceId));
+    }
+
+    /**
+     * Trả về file hóa đơn đã render, render mới nếu chưa có trong cache.
+     */
+    public RenderedInvoice getDocument(Integer invoiceId, Format format) {
+        return getDocument(getSnapshot(invoiceId), format);
+    }
+
+    /**
+     * Như {@link #getDocument(Integer, Format)} với ảnh chụp đã nạp sẵn.
+     */
+    public RenderedInvoice getDocument(Invoice snapshot, Format format) {
+        String key = InvoiceFileCache.key(snapshot, format);
+        Optional<Path> cached = fileCache.find(key, format);
+        Path path = cached.isPresent() ? cached.get() : await(renderAsync(snapshot, format, key));
+        return new RenderedInvoice(snapshot, format, key, path);
+    }
+
+    /**
+     * Render sẵn hóa đơn sau khi giao dịch tạo hóa đơn commit thành công.
+     * Đây chỉ là tối ưu: nếu pool đang bận thì bỏ qua, file sẽ được render khi có người tải.
+     */
+    public void renderAfterCommit(Integer invoiceId) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    prerender(invoiceId);
+                }
+            });
+        } else {
+            prerender(invoiceId);
+        }
+    }
+
+    /**
+     * Bắt đầu render toàn bộ hóa đơn phát hành trong một tháng. Trả về ngay, tiến độ xem qua {@link #getJob(String)}.
+     */
+    public BulkRenderJob startMonthlyRender(YearMonth month, List<Format> formats) {
+        // Job đã xong quá JOB_RETENTION thì bỏ, để map không lớn dần theo thời gian chạy
+        LocalDateTime expired = LocalDateTime.now().minus(JOB_RETENTION);
+        jobs.values().removeIf(finished -> finished.getFinishedAt() != null && finished.getFinishedAt().isBefore(expired));
+        BulkRenderJob job = new BulkRenderJob(UUID.randomUUID().toString(), month, List.copyOf(formats));
+        jobs.put(job.getId(), job);
+        bulkDispatcher.execute(() -> runBulk(job));
+        return job;
+    }
+
+    public Optional<BulkRenderJob> getJob(String jobId) {
+        return Optional.ofNullable(jobs.get(jobId));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        bulkDispatcher.shutdownNow();
+        renderExecutor.shutdown();
+    }
+
+    // ================== CÁC PHƯƠNG THỨC HỖ TRỢ ==================
+
+    private void prerender(Integer invoiceId) {
+        try {
+            renderExecutor.execute(() -> {
+                for (Invoice snapshot : loadSnapshots(List.of(invoiceId))) {
+                    for (Format format : Format.values()) {
+                        String key = InvoiceFileCache.key(snapshot, format);
+                        if (fileCache.find(key, format).isEmpty()) {
+                            renderToCache(snapshot, format, key);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            log.info("Render pool is busy, invoice {} will be rendered on first download", invoiceId);
+        }
+    }
+
+    private void runBulk(BulkRenderJob job) {
+        job.status = "RUNNING";
+        job.startedAt = LocalDateTime.now();
+        LocalDateTime from = job.getMonth().atDay(1).atStartOfDay();
+        LocalDateTime to = job.getMonth().plusMonths(1).atDay(1).atStartOfDay();
+        Integer afterId = 0;
+        try {
+            while (true) {
+                List<Integer> ids = invoiceRepository.findIdsIssuedBetween(from, to, afterId, PageRequest.of(0, bulkChunkSize));
+                if (ids.isEmpty()) {
+                    break;
+                }
+                afterId = ids.get(ids.size() - 1);
+                for (Invoice snapshot : loadSnapshots(ids)) {
+                    for (Format format : job.getFormats()) {
+                        job.total.incrementAndGet();
+                        String key = InvoiceFileCache.key(snapshot, format);
+                        if (fileCache.find(key, format).isPresent()) {
+                            job.skipped.incrementAndGet();
+                            continue;
+                        }
+                        submitBulk(job, snapshot, format, key);
+                    }
+                }
+            }
+            // Chờ các việc còn lại hoàn tất bằng cách lấy lại toàn bộ permit
+            bulkPermits.acquire(bulkInFlight);
+            bulkPermits.release(bulkInFlight);
+            job.status = "DONE";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.status = "CANCELLED";
+        } catch (Exception e) {
+            log.error("Bulk invoice rendering for {} failed", job.getMonth(), e);
+            job.status = "FAILED";
+            job.error = e.getMessage();
+        } finally {
+            job.finishedAt = LocalDateTime.now();
+            log.info("Bulk invoice rendering {} for {} finished: {} rendered, {} cached, {} failed",
+                    job.getId(), job.getMonth(), job.getRendered(), job.getSkipped(), job.getFailed());
+        }
+    }
+
+    private void submitBulk(BulkRenderJob job, Invoice snapshot, Format format, String key) throws InterruptedException {
+        bulkPermits.acquire();
+        while (true) {
+            CompletableFuture<Path> future = renderAsync(snapshot, format, key);
+            if (future.isCompletedExceptionally() && isRejected(future)) {
+                // Hàng đợi đầy do request của khách hàng: nhường chỗ rồi thử lại
+                TimeUnit.MILLISECONDS.sleep(20);
+                continue;
+            }
+            future.whenComplete((path, error) -> {
+                bulkPermits.release();
+                if (error == null) {
+                    job.rendered.incrementAndGet();
+                } else {
+                    job.failed.incrementAndGet();
+                }
+            });
+            return;
+        }
+    }
+
+    private CompletableFuture<Path> renderAsync(Invoice snapshot, Format format, String key) {
+        CompletableFuture<Path> created = new CompletableFuture<>();
+        CompletableFuture<Path> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            return existing;
+        }
+        try {
+            renderExecutor.execute(() -> {
+                try {
+                    created.complete(renderToCache(snapshot, format, key));
+                } catch (Throwable t) {
+                    created.completeExceptionally(t);
+                } finally {
+                    inFlight.remove(key, created);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    private Path renderToCache(Invoice snapshot, Format format, String key) {
+        try {
+            Optional<Path> cached = fileCache.find(key, format);
+            if (cached.isPresent()) {
+                return cached.get();
+            }
+            return fileCache.store(key, format, renderer.render(snapshot, format));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Path await(CompletableFuture<Path> future) {
+        try {
+            return future.get(renderTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Hóa đơn đang được xuất, vui lòng thử lại sau.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RejectedExecutionException) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Hệ thống xuất hóa đơn đang quá tải, vui lòng thử lại sau.");
+            }
+            throw new IllegalStateException("Không thể xuất hóa đơn", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Bị gián đoạn khi chờ xuất hóa đơn", e);
+        }
+    }
+
+    private static boolean isRejected(CompletableFuture<Path> future) {
+        try {
+            future.getNow(null);
+            return false;
+        } catch (Exception e) {
+            return e.getCause() instanceof RejectedExecutionException;
+        }
+    }
+
+    private List<Invoice> loadSnapshots(Collection<Integer> ids) {
+        return readOnlyTx.execute(status -> invoiceRepository.findAllForRendering(ids).stream()
+                .map(this::toSnapshot)
+                .collect(Collectors.toList()));
+    }
+
+    private Invoice toSnapshot(com.example.InvoiceManage.entity.Invoice invoice) {
+        InvoiceRequest request = invoice.getInvoiceRequest();
+        Order order = request.getOrder();
+        User customer = order.getCreatedBy();
+        List<Invoice.Line> lines = order.getOrderDetails().stream()
+                .sorted(Comparator.comparing(OrderDetail::getId))
+                .map(detail -> new Invoice.Line(
+                        detail.getProduct().getProductName(),
+                        detail.getQuantity(),
+                        detail.getPrice(),
+                        detail.getSubtotal()))
+                .collect(Collectors.toList());
+        return Invoice.builder()
+                .id(invoice.getId())
+                .invoiceNumber(invoiceNumberService.format(invoice.getInvoiceNo()))
+                .orderId(order.getId())
+                .customerId(customer.getId())
+                .customerName(customer.getName())
+                .customerEmail(customer.getEmail())
+                .statusName(invoice.getStatus() != null ? invoice.getStatus().getStatusName() : null)
+                .issuedAt(invoice.getIssuedAt())
+                .total(invoice.getTotal())
+                .lines(lines)
+                .build();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class RenderedInvoice {
+        private final Invoice invoice;
+        private final Format format;
+        private final String key;
+        private final Path path;
+    }
+
+    @Getter
+    public static class BulkRenderJob {
+        private final String id;
+        private final YearMonth month;
+        private final List<Format> formats;
+        private volatile String status = "QUEUED";
+        private volatile LocalDateTime startedAt;
+        private volatile LocalDateTime finishedAt;
+        private volatile String error;
+        @Getter(lombok.AccessLevel.NONE) private final AtomicInteger total = new AtomicInteger();
+        @Getter(lombok.AccessLevel.NONE) private final AtomicInteger rendered = new AtomicInteger();
+        @Getter(lombok.AccessLevel.NONE) private final AtomicInteger skipped = new AtomicInteger();
+        @Getter(lombok.AccessLevel.NONE) private final AtomicInteger failed = new AtomicInteger();
+
+        BulkRenderJob(String id, YearMonth month, List<Format> formats) {
+            this.id = id;
+            this.month = month;
+            this.formats = formats;
+        }
+
+        public int getTotal() { return total.get(); }
+        public int getRendered() { return rendered.get(); }
+        public int getSkipped() { return skipped.get(); }
+        public int getFailed() { return failed.get(); }
+    }
 }
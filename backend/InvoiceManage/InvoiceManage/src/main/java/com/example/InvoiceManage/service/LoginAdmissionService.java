@@ -0,0 +1,63 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.exception.TooManyRequestsException;
+import com.example.InvoiceManage.util.StripedRateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.Locale;
+
+/**
+ * Kiểm soát lượt đăng nhập trước khi chạm tới CSDL hay BCrypt: giới hạn tốc độ theo IP và theo tài khoản.
+ * - Theo IP: chặn một máy thử hàng loạt tài khoản (credential stuffing).
+ * - Theo tài khoản: chặn dò mật khẩu một tài khoản từ nhiều IP.
+ * Vượt giới hạn thì trả 429 ngay, chi phí chỉ là một lần tra map.
+ */
+@Service
+public class LoginAdmissionService {
+
+    private static final int STRIPES = 16;
+
+    private final StripedRateLimiter perIp;
+    private final StripedRateLimiter perAccount;
+    private final Counter shed;
+
+    public LoginAdmissionService(MeterRegistry meterRegistry,
+                                 @Value("${auth.login.ip.permits-per-second:1.0}") double ipRate,
+                                 @Value("${auth.login.ip.burst:10}") int ipBurst,
+                                 @Value("${auth.login.account.permits-per-second:0.2}") double accountRate,
+                                 @Value("${auth.login.account.burst:5}") int accountBurst,
+                                 @Value("${auth.login.max-tracked-keys:100000}") int maxTrackedKeys) {
+        this.perIp = new StripedRateLimiter(STRIPES, maxTrackedKeys, ipRate, ipBurst);
+        this.perAccount = new StripedRateLimiter(STRIPES, maxTrackedKeys, accountRate, accountBurst);
+
+        this.shed = Counter.builder("auth.login.shed").register(meterRegistry);
+        Gauge.builder("auth.login.tracked.ips", perIp, StripedRateLimiter::size).register(meterRegistry);
+        Gauge.builder("auth.login.tracked.accounts", perAccount, StripedRateLimiter::size).register(meterRegistry);
+    }
+
+    /**
+     * @throws TooManyRequestsException IP hoặc tài khoản đã vượt giới hạn
+     */
+    public void admit(String clientIp, String email) {
+        if (!perIp.tryAcquire(clientIp)) {
+            shed.increment();
+            throw new TooManyRequestsException("Quá nhiều lần đăng nhập, vui lòng thử lại sau.", perIp.retryAfterSeconds());
+        }
+        if (email != null && !perAccount.tryAcquire(email.trim().toLowerCase(Locale.ROOT))) {
+            shed.increment();
+            throw new TooManyRequestsException("Quá nhiều lần đăng nhập vào tài khoản này, vui lòng thử lại sau.",
+                    perAccount.retryAfterSeconds());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${auth.login.purge-ms:60000}")
+    public void purgeIdle() {
+        perIp.purgeIdle();
+        perAccount.purgeIdle();
+    }
+}
@@ -48,9 +48,16 @@ public class OrderService {
     @Autowired
 
     private OrderMapper orderMapper; // Inject Mapper
+    @Autowired
+    private ArchiveReadRepository archiveReadRepository;
 
     public List<Order> getOrdersByDateRange(LocalDateTime startDate, LocalDateTime endDate) {
-        return orderRepository.findByDateBetween(startDate, endDate);
+        // Chỉ ghép bảng lưu trữ khi khoảng thời gian chạm tới các tháng đã lưu trữ
+        List<String> periods = archiveReadRepository.periodsOverlapping(startDate, endDate);
+        if (periods.isEmpty()) {
+            return orderRepository.findByDateBetween(startDate, endDate);
+        }
+        return archiveReadRepository.findOrdersBetween(startDate, endDate, periods);
     }
 
     public List<Order> getAllOrders() {
@@ -0,0 +1,104 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.exception.TooManyRequestsException;
+import com.example.InvoiceManage.util.NamedThreadFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Chạy BCrypt (kiểm tra và băm mật khẩu) trên pool riêng, số luồng bằng số CPU và hàng đợi có giới hạn.
+ * Một đợt dò mật khẩu hàng loạt chỉ chiếm được pool này; các API khác vẫn còn CPU để chạy.
+ * Hàng đợi đầy hoặc chờ quá lâu thì từ chối ngay bằng 429 thay vì xếp hàng vô hạn.
+ */
+@Slf4j
+@Service
+public class PasswordHashingService {
+
+    /**
+     * Kết quả kiểm tra mật khẩu. upgradedHash khác null khi mật khẩu đúng nhưng băm cũ dùng cost thấp hơn cấu hình hiện tại.
+     */
+    public record Verification(boolean matches, String upgradedHash) {}
+
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final long timeoutMs;
+    private final Counter rejected;
+
+    public PasswordHashingService(PasswordEncoder passwordEncoder,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${auth.bcrypt.workers:0}") int workers,
+                                  @Value("${auth.bcrypt.queue-capacity:64}") int queueCapacity,
+                                  @Value("${auth.bcrypt.timeout-ms:3000}") long timeoutMs) {
+        this.passwordEncoder = passwordEncoder;
+        int threads = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                new NamedThreadFactory("bcrypt-"),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.timeoutMs = timeoutMs;
+
+        this.rejected = Counter.builder("auth.bcrypt.rejected").register(meterRegistry);
+        Gauge.builder("auth.bcrypt.queue.size", executor, e -> e.getQueue().size()).register(meterRegistry);
+        Gauge.builder("auth.bcrypt.active", executor, ThreadPoolExecutor::getActiveCount).register(meterRegistry);
+    }
+
+    /**
+     * Kiểm tra mật khẩu; nếu đúng và cần nâng cost thì băm lại luôn trong cùng lượt chạy trên pool.
+     */
+    public Verification verify(String rawPassword, String encodedPassword) {
+        return run(() -> {
+            if (!passwordEncoder.matches(rawPassword, encodedPassword)) {
+                return new Verification(false, null);
+            }
+            String upgraded = passwordEncoder.upgradeEncoding(encodedPassword) ? passwordEncoder.encode(rawPassword) : null;
+            return new Verification(true, upgraded);
+        });
+    }
+
+    public String encode(String rawPassword) {
+        return run(() -> passwordEncoder.encode(rawPassword));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private <T> T run(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            throw new TooManyRequestsException("Hệ thống đang bận, vui lòng thử lại sau.", 1);
+        }
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            rejected.increment();
+            throw new TooManyRequestsException("Hệ thống đang bận, vui lòng thử lại sau.", 1);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Không thể kiểm tra mật khẩu", e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Bị gián đoạn khi kiểm tra mật khẩu", e);
+        }
+    }
+}
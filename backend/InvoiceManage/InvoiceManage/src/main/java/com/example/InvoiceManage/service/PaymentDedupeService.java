@@ -0,0 +1,212 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.entity.Payment;
+import com.example.InvoiceManage.repository.PaymentRepository;
+import com.example.InvoiceManage.util.BloomFilter;
+import com.example.InvoiceManage.util.DuplicateKeys;
+import com.example.InvoiceManage.util.RecentSet;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Ghi nhận thanh toán đúng một lần theo mã giao dịch của cổng thanh toán.
+ *
+ * Đường kiểm tra từ nhanh tới chậm:
+ * 1. Bộ nhớ các mã vừa xử lý gần đây: lần gửi lại (retry) của cổng thanh toán được trả lời ngay, không chạm CSDL.
+ * 2. Bloom filter chứa mọi mã đã ghi: nếu chắc chắn chưa có thì ghi luôn, bỏ qua bước SELECT kiểm tra.
+ * 3. Chỉ khi bloom filter trả lời "có thể có" mới hỏi CSDL.
+ * Ràng buộc unique trên payment.transaction_no là chốt chặn cuối cùng, kể cả khi nhiều node cùng nhận IPN.
+ * Các request trùng mã đến cùng lúc trên một node sẽ chờ chung kết quả của request đầu tiên.
+ * Tổng hợp thanh toán theo đơn (order_payment_summary) được cập nhật trong cùng giao dịch ghi payment.
+ */
+@Slf4j
+@Service
+public class PaymentDedupeService {
+
+    public enum Outcome { RECORDED, DUPLICATE }
+
+    private static final int WARMUP_PAGE_SIZE = 5_000;
+
+    private final PaymentRepository paymentRepository;
+    private final PaymentSummaryService paymentSummaryService;
+    private final TransactionTemplate transactionTemplate;
+    private final BloomFilter bloomFilter;
+    private final RecentSet<String> recent;
+    private final Map<String, CompletableFuture<Outcome>> inFlight = new ConcurrentHashMap<>();
+
+    public PaymentDedupeService(PaymentRepository paymentRepository,
+                                PaymentSummaryService paymentSummaryService,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${payment.dedupe.expected-transactions:1000000}") long expectedTransactions,
+                                @Value("${payment.dedupe.false-positive-rate:0.01}") double falsePositiveRate,
+                                @Value("${payment.dedupe.recent-capacity:10000}") int recentCapacity) {
+        this.paymentRepository = paymentRepository;
+        this.paymentSummaryService = paymentSummaryService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.bloomFilter = new BloomFilter(expectedTransactions, falsePositiveRate);
+        this.recent = new RecentSet<>(recentCapacity);
+    }
+
+    @PostConstruct
+    void warmUp() {
+        int afterId = 0;
+        long loaded = 0;
+        while (true) {
+            List<Object[]> page = paymentRepository.findTransactionNosAfter(afterId, PageRequest.of(0, WARMUP_PAGE_SIZE));
+            if (page.isEmpty()) {
+                break;
+            }
+            for (Object[] row : page) {
+                bloomFilter.put((String) row[1]);
+            }
+            afterId = (Integer) page.get(page.size() - 1)[0];
+            loaded += page.size();
+        }
+        log.info("Payment dedupe filter warmed with {} transactions ({} bits, {} hashes)",
+                loaded, bloomFilter.bitSize(), bloomFilter.hashCount());
+    }
+
+    /**
+     * Mã giao dịch vừa được xử lý gần đây trên node này (không hỏi CSDL).
+     */
+    public boolean isRecentlyProcessed(String transactionNo) {
+        return recent.contains(transactionNo);
+    }
+
+    /**
+     * Ghi thanh toán nếu mã giao dịch chưa từng được ghi.
+     * paymentFactory chỉ được gọi khi thật sự cần ghi, nên các lần gửi trùng không phải nạp đơn hàng.
+     */
+    public Outcome recordPayment(String transactionNo, Supplier<Payment> paymentFactory) {
+        if (recent.contains(transactionNo)) {
+            return Outcome.DUPLICATE;
+        }
+        CompletableFuture<Outcome> mine = new CompletableFuture<>();
+        CompletableFuture<Outcome> existing = inFlight.putIfAbsent(transactionNo, mine);
+        if (existing != null) {
+            try {
+                // Một request khác đang ghi cùng mã: dù nó vừa ghi hay phát hiện trùng, request này đều là bản trùng
+                existing.join();
+                return Outcome.DUPLICATE;
+            } catch (CompletionException e) {
+                // Request kia lỗi: tự thử lại từ đầu
+                return recordPayment(transactionNo, paymentFactory);
+            }
+        }
+        try {
+            Outcome outcome = doRecord(transactionNo, paymentFactory);
+            recent.add(transactionNo);
+            mine.complete(outcome);
+            return outcome;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(transactionNo, mine);
+        }
+    }
+
+    /**
+     * Ghi một lô thanh toán (theo mã giao dịch) trong một giao dịch: lọc trùng bằng bộ nhớ gần đây,
+     * bloom filter và một câu SELECT ... IN duy nhất, rồi ghi phần còn lại cùng lúc.
+     * Nếu node khác ghi chen vào giữa (vi phạm unique) thì quay về ghi từng dòng.
+     */
+    public Map<String, Outcome> recordBatch(Map<String, Supplier<Payment>> payments) {
+        Map<String, Outcome> outcomes = new HashMap<>();
+        List<String> maybeExisting = new ArrayList<>();
+        List<String> fresh = new ArrayList<>();
+        for (String transactionNo : payments.keySet()) {
+            if (recent.contains(transactionNo)) {
+                outcomes.put(transactionNo, Outcome.DUPLICATE);
+            } else if (bloomFilter.mightContain(transactionNo)) {
+                maybeExisting.add(transactionNo);
+            } else {
+                fresh.add(transactionNo);
+            }
+        }
+        if (!maybeExisting.isEmpty()) {
+            Set<String> existing = new HashSet<>(paymentRepository.findExistingTransactionNos(maybeExisting));
+            for (String transactionNo : maybeExisting) {
+                if (existing.contains(transactionNo)) {
+                    outcomes.put(transactionNo, Outcome.DUPLICATE);
+                    recent.add(transactionNo);
+                } else {
+                    fresh.add(transactionNo);
+                }
+            }
+        }
+        if (fresh.isEmpty()) {
+            return outcomes;
+        }
+
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                List<Payment> batch = new ArrayList<>(fresh.size());
+                for (String transactionNo : fresh) {
+                    Payment payment = payments.get(transactionNo).get();
+                    payment.setTransactionNo(transactionNo);
+                    batch.add(payment);
+                }
+                paymentRepository.saveAll(batch);
+                paymentRepository.flush();
+                paymentSummaryService.applyPayments(batch);
+            });
+        } catch (DataIntegrityViolationException e) {
+            if (!DuplicateKeys.isDuplicateKey(e)) {
+                throw e;
+            }
+            log.info("Batch of {} payments hit a concurrent insert, retrying one by one", fresh.size());
+            for (String transactionNo : fresh) {
+                outcomes.put(transactionNo, recordPayment(transactionNo, payments.get(transactionNo)));
+            }
+            return outcomes;
+        }
+        for (String transactionNo : fresh) {
+            bloomFilter.put(transactionNo);
+            recent.add(transactionNo);
+            outcomes.put(transactionNo, Outcome.RECORDED);
+        }
+        return outcomes;
+    }
+
+    private Outcome doRecord(String transactionNo, Supplier<Payment> paymentFactory) {
+        if (bloomFilter.mightContain(transactionNo) && paymentRepository.existsByTransactionNo(transactionNo)) {
+            return Outcome.DUPLICATE;
+        }
+        Payment payment = paymentFactory.get();
+        payment.setTransactionNo(transactionNo);
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                paymentRepository.saveAndFlush(payment);
+                paymentSummaryService.applyPayments(List.of(payment));
+            });
+        } catch (DataIntegrityViolationException e) {
+            // Chỉ coi là trùng khi vi phạm unique và dòng cùng mã giao dịch thật sự đã có;
+            // vi phạm unique ở bảng khác (ví dụ tổng hợp theo đơn) hay lỗi toàn vẹn khác vẫn được ném ra
+            if (!DuplicateKeys.isDuplicateKey(e) || !paymentRepository.existsByTransactionNo(transactionNo)) {
+                throw e;
+            }
+            log.info("Transaction {} was recorded concurrently by another node", transactionNo);
+            return Outcome.DUPLICATE;
+        }
+        bloomFilter.put(transactionNo);
+        return Outcome.RECORDED;
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.entity.Order;
+import com.example.InvoiceManage.entity.Payment;
+import com.example.InvoiceManage.entity.VnPayPaymentAttempt;
+import com.example.InvoiceManage.repository.OrderRepository;
+import com.example.InvoiceManage.repository.VnPayPaymentAttemptRepository;
+import com.example.InvoiceManage.util.NamedThreadFactory;
+import com.example.InvoiceManage.util.TokenBucket;
+import com.example.InvoiceManage.util.VnPayQueryClient;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Đối soát thanh toán VNPay: tìm các lần thanh toán chưa có kết quả (IPN bị mất) và hỏi lại VNPay bằng API querydr.
+ *
+ * - Duyệt theo lô (keyset trên id), mỗi lô truy vấn song song trên một pool luồng có giới hạn,
+ *   tốc độ gọi API bị chặn bởi token bucket để không vượt hạn mức của VNPay.
+ * - Giao dịch đã thanh toán được ghi bù theo lô qua PaymentDedupeService (không ghi trùng với IPN đến muộn).
+ * - Kết quả mỗi lượt chạy được giữ lại dưới dạng báo cáo cho API quản trị.
+ */
+@Slf4j
+@Service
+public class PaymentReconciliationService {
+
+    private static final int MAX_REPORTED_TRANSACTIONS = 1_000;
+
+    private final VnPayPaymentAttemptRepository attemptRepository;
+    private final OrderRepository orderRepository;
+    private final PaymentDedupeService paymentDedupeService;
+    private final TransactionTemplate transactionTemplate;
+    private final VnPayQueryClient queryClient;
+    private final TokenBucket rateLimiter;
+    private final ExecutorService workers;
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(new NamedThreadFactory("vnpay-reconcile-run-"));
+    private final AtomicBoolean running = new AtomicBoolean();
+
+    private final boolean enabled;
+    private final int chunkSize;
+    private final Duration minAge;
+    private final Duration lookback;
+
+    private volatile ReconciliationReport lastReport;
+
+    @Autowired
+    public PaymentReconciliationService(VnPayPaymentAttemptRepository attemptRepository,
+                                        OrderRepository orderRepository,
+                                        PaymentDedupeService paymentDedupeService,
+                                        PlatformTransactionManager transactionManager,
+                                        @Value("${vnpay.api-url:#{T(com.example.InvoiceManage.util.Config).vnp_ApiUrl}}") String apiUrl,
+                                        @Value("${vnpay.tmn-code:#{T(com.example.InvoiceManage.util.Config).vnp_TmnCode}}") String tmnCode,
+                                        @Value("${vnpay.hash-secret:#{T(com.example.InvoiceManage.util.Config).secretKey}}") String hashSecret,
+                                        @Value("${vnpay.reconcile.ip-addr:127.0.0.1}") String ipAddr,
+                                        @Value("${vnpay.reconcile.enabled:true}") boolean enabled,
+                                        @Value("${vnpay.reconcile.threads:8}") int threads,
+                                        @Value("${vnpay.reconcile.rate-per-second:10}") double ratePerSecond,
+                                        @Value("${vnpay.reconcile.chunk-size:200}") int chunkSize,
+                                        @Value("${vnpay.reconcile.timeout-ms:10000}") long timeoutMs,
+                                        @Value("${vnpay.reconcile.min-age-minutes:20}") long minAgeMinutes,
+                                        @Value("${vnpay.reconcile.lookback-days:7}") long lookbackDays) {
+        this(attemptRepository, orderRepository, paymentDedupeService, transactionManager,
+                new VnPayQueryClient(apiUrl, tmnCode, hashSecret, ipAddr, Duration.ofMillis(timeoutMs)),
+                enabled, threads, ratePerSecond, chunkSize, Duration.ofMinutes(minAgeMinutes), Duration.ofDays(lookbackDays));
+    }
+
+    PaymentReconciliationService(VnPayPaymentAttemptRepository attemptRepository,
+                                 OrderRepository orderRepository,
+                                 PaymentDedupeService paymentDedupeService,
+                                 PlatformTransactionManager transactionManager,
+                                 VnPayQueryClient queryClient,
+                                 boolean enabled, int threads, double ratePerSecond, int chunkSize,
+                                 Duration minAge, Duration lookback) {
+        this.attemptRepository = attemptRepository;
+        this.orderRepository = orderRepository;
+        this.paymentDedupeService = paymentDedupeService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.queryClient = queryClient;
+        this.rateLimiter = new TokenBucket(ratePerSecond, Math.max(1, (int) ratePerSecond));
+        this.workers = Executors.newFixedThreadPool(threads, new NamedThreadFactory("vnpay-reconcile-"));
+        this.enabled = enabled;
+        this.chunkSize = chunkSize;
+        this.minAge = minAge;
+        this.lookback = lookback;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        runner.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    @Scheduled(cron = "${vnpay.reconcile.cron:0 */30 * * * *}")
+    public void scheduledRun() {
+        if (enabled) {
+            reconcile();
+        }
+    }
+
+    /**
+     * Chạy đối soát ở nền (dùng cho API quản trị). Trả về false nếu đang có lượt chạy khác.
+     */
+    public boolean startAsync() {
+        // Giành cờ trước khi gửi việc: hai request đồng thời không thể cùng nhận 202
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            runner.execute(this::runReconciliation);
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+            throw e;
+        }
+        return true;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public ReconciliationReport getLastReport() {
+        return lastReport;
+    }
+
+    public ReconciliationReport reconcile() {
+        if (!running.compareAndSet(false, true)) {
+            log.info("Reconciliation skipped: another run is in progress");
+            return lastReport;
+        }
+        return runReconciliation();
+    }
+
+    // Chỉ gọi khi đã giữ cờ running; nhả cờ khi xong
+    private ReconciliationReport runReconciliation() {
+        ReconciliationReport report = new ReconciliationReport();
+        try {
+            LocalDateTime now = LocalDateTime.now();
+            LocalDateTime from = now.minus(lookback);
+            LocalDateTime to = now.minus(minAge);
+            long afterId = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                List<VnPayPaymentAttempt> chunk = attemptRepository.findOpenAfter(afterId, from, to, PageRequest.of(0, chunkSize));
+                if (chunk.isEmpty()) {
+                    break;
+                }
+                reconcileChunk(chunk, report);
+                afterId = chunk.get(chunk.size() - 1).getId();
+            }
+        } catch (RuntimeException e) {
+            log.error("Reconciliation run failed", e);
+            report.failure = e.getMessage();
+        } finally {
+            report.finishedAt = LocalDateTime.now();
+            lastReport = report;
+            running.set(false);
+        }
+        log.info("Reconciliation finished: scanned={}, repaired={}, alreadyRecorded={}, unpaid={}, stillOpen={}, errors={}, amountMismatches={}",
+                report.scanned, report.repaired, report.alreadyRecorded, report.unpaid, report.stillOpen,
+                report.errors, report.amountMismatches);
+        return report;
+    }
+
+    private void reconcileChunk(List<VnPayPaymentAttempt> chunk, ReconciliationReport report) {
+        report.scanned += chunk.size();
+
+        // Truy vấn song song; mỗi lời gọi phải lấy token trước nên tổng tốc độ không vượt rate-per-second
+        List<CompletableFuture<VnPayQueryClient.QueryResult>> futures = chunk.stream()
+                .map(attempt -> CompletableFuture.supplyAsync(() -> query(attempt), workers))
+                .toList();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .exceptionally(e -> null)
+                .join();
+
+        Map<Integer, Order> orders = orderRepository.findAllById(
+                        chunk.stream().map(VnPayPaymentAttempt::getOrderId).collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(Order::getId, Function.identity()));
+
+        Map<String, Supplier<Payment>> payments = new HashMap<>();
+        Map<String, VnPayPaymentAttempt> paidAttempts = new HashMap<>();
+        List<Long> unpaidIds = new ArrayList<>();
+        List<Long> openIds = new ArrayList<>();
+        for (int i = 0; i < chunk.size(); i++) {
+            VnPayPaymentAttempt attempt = chunk.get(i);
+            CompletableFuture<VnPayQueryClient.QueryResult> future = futures.get(i);
+            if (future.isCompletedExceptionally()) {
+                report.errors++;
+                openIds.add(attempt.getId());
+                continue;
+            }
+            VnPayQueryClient.QueryResult result = future.join();
+            Order order = orders.get(attempt.getOrderId());
+            if (result.isPaid() && order != null) {
+                if (result.amount() == null || result.amount().compareTo(attempt.getAmount()) != 0) {
+                    // Vẫn ghi nhận số tiền VNPay đã thu, nhưng đưa vào báo cáo để kiểm tra tay
+                    report.amountMismatches++;
+                    log.warn("Amount mismatch for txnRef {}: expected {}, VNPay reports {}",
+                            attempt.getTxnRef(), attempt.getAmount(), result.amount());
+                }
+                paidAttempts.put(result.transactionNo(), attempt);
+                payments.put(result.transactionNo(), () -> {
+                    Payment payment = new Payment();
+                    payment.setOrder(order);
+                    payment.setAmount(result.amount());
+                    payment.setPaymentMethod(result.bankCode());
+                    payment.setProvider(Payment.PROVIDER_VNPAY);
+                    payment.setPaidAt(result.payDate() != null ? result.payDate() : LocalDateTime.now());
+                    return payment;
+                });
+            } else if (result.isNotFound() || result.isUnpaid()) {
+                // URL thanh toán hết hạn sau 15 phút (vnp_ExpireDate) và chỉ lần cũ hơn min-age mới được quét,
+                // nên VNPay báo chưa thanh toán là kết quả cuối cùng
+                unpaidIds.add(attempt.getId());
+            } else {
+                report.errors++;
+                if (result.isPaid()) {
+                    log.error("VNPay reports txnRef {} paid but order ID {} no longer exists", attempt.getTxnRef(), attempt.getOrderId());
+                } else {
+                    log.warn("VNPay query for txnRef {} failed: {} {}", attempt.getTxnRef(), result.responseCode(), result.message());
+                }
+                openIds.add(attempt.getId());
+            }
+        }
+
+        Map<String, PaymentDedupeService.Outcome> outcomes = payments.isEmpty()
+                ? Map.of()
+                : paymentDedupeService.recordBatch(payments);
+        LocalDateTime now = LocalDateTime.now();
+        transactionTemplate.executeWithoutResult(status -> {
+            outcomes.keySet().forEach(transactionNo ->
+                    attemptRepository.markPaid(paidAttempts.get(transactionNo).getId(), transactionNo, now));
+            if (!unpaidIds.isEmpty()) {
+                attemptRepository.markChecked(unpaidIds, VnPayPaymentAttempt.Status.UNPAID, now);
+            }
+            if (!openIds.isEmpty()) {
+                attemptRepository.markChecked(openIds, VnPayPaymentAttempt.Status.OPEN, now);
+            }
+        });
+
+        outcomes.forEach((transactionNo, outcome) -> {
+            if (outcome == PaymentDedupeService.Outcome.RECORDED) {
+                report.repaired++;
+                if (report.repairedTransactions.size() < MAX_REPORTED_TRANSACTIONS) {
+                    report.repairedTransactions.add(transactionNo);
+                }
+            } else {
+                report.alreadyRecorded++;
+            }
+        });
+        report.unpaid += unpaidIds.size();
+        report.stillOpen += openIds.size();
+    }
+
+    private VnPayQueryClient.QueryResult query(VnPayPaymentAttempt attempt) {
+        try {
+            rateLimiter.acquire();
+            return queryClient.query(attempt.getTxnRef(), attempt.getVnpCreateDate());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while querying VNPay", e);
+        } catch (Exception e) {
+            log.warn("VNPay query for txnRef {} failed: {}", attempt.getTxnRef(), e.getMessage());
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Báo cáo một lượt đối soát.
+     */
+    @Getter
+    public static class ReconciliationReport {
+        private final LocalDateTime startedAt = LocalDateTime.now();
+        private LocalDateTime finishedAt;
+        private int scanned;
+        private int repaired;
+        private int alreadyRecorded;
+        private int unpaid;
+        private int stillOpen;
+        private int errors;
+        private int amountMismatches;
+        private String failure;
+        private final List<String> repairedTransactions = new ArrayList<>();
+    }
+}
@@ -11,6 +11,9 @@ import java.math.BigDecimal;
 @Service
 public class PaymentService {
 
+    // Tiền tệ của mọi phiên thanh toán; webhook đối chiếu với giá trị này trước khi ghi nhận
+    public static final String CHECKOUT_CURRENCY = "usd";
+
     /**
      * Tạo một phiên thanh toán Stripe cho một đơn hàng.
      * @param order Đơn hàng cần thanh toán.
@@ -31,8 +34,8 @@ public class PaymentService {
                 .addLineItem(SessionCreateParams.LineItem.builder()
                         .setQuantity(1L)
                         .setPriceData(SessionCreateParams.LineItem.PriceData.builder()
-                                // Thay đổi 'usd' thành 'vnd' nếu tài khoản Stripe của bạn hỗ trợ
-                                .setCurrency("usd")
+                                // Thay đổi CHECKOUT_CURRENCY thành 'vnd' nếu tài khoản Stripe của bạn hỗ trợ
+                                .setCurrency(CHECKOUT_CURRENCY)
                                 .setUnitAmount(amountInCents)
                                 .setProductData(SessionCreateParams.LineItem.PriceData.ProductData.builder()
                                         .setName("Thanh toán cho Đơn hàng #" + order.getId())
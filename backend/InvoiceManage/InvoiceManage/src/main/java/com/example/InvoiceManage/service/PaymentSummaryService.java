@@ -0,0 +1,357 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.DTO.response.CustomerBalanceDTO;
+import com.example.InvoiceManage.DTO.response.OrderBalanceDTO;
+import com.example.InvoiceManage.entity.Payment;
+import com.example.InvoiceManage.repository.OrderPaymentSummaryRepository;
+import com.example.InvoiceManage.util.NamedThreadFactory;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntBinaryOperator;
+import java.util.function.Supplier;
+
+/**
+ * Read model tổng hợp thanh toán theo đơn hàng (bảng order_payment_summary).
+ *
+ * - applyPayments() chạy trong cùng giao dịch ghi payment (VNPay, Stripe, đối soát), nên tổng luôn khớp với payment đã commit.
+ * - Các API số dư/công nợ chỉ đọc bảng tổng hợp, không SUM lại bảng payment.
+ * - rebuild() dựng lại toàn bộ từ bảng payment, chia theo khoảng order_id và chạy song song;
+ *   check() so sánh tổng hợp với SUM thực tế theo từng khoảng và có thể sửa các đơn lệch.
+ */
+@Slf4j
+@Service
+public class PaymentSummaryService {
+
+    private static final int MAX_REPORTED_MISMATCHES = 100;
+    private static final int MAX_RETRIES = 3;
+
+    private static final String INSERT_FROM_PAYMENTS = "INSERT INTO order_payment_summary " +
+            "(order_id, paid_amount, payment_count, last_paid_at, last_method, last_provider, updated_at) " +
+            "SELECT p.order_id, SUM(p.amount), COUNT(*), MAX(p.paid_at), " +
+            "(SELECT p2.payment_method FROM payment p2 WHERE p2.order_id = p.order_id ORDER BY p2.paid_at DESC, p2.id DESC LIMIT 1), " +
+            "(SELECT p2.provider FROM payment p2 WHERE p2.order_id = p.order_id ORDER BY p2.paid_at DESC, p2.id DESC LIMIT 1), " +
+            "NOW() FROM payment p ";
+
+    private final OrderPaymentSummaryRepository summaryRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbc;
+    private final TransactionTemplate chunkTx;
+    private final ExecutorService workers;
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(new NamedThreadFactory("payment-summary-run-"));
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final int chunkSize;
+
+    private volatile RebuildResult lastRebuild;
+    private volatile CheckResult lastCheck;
+
+    public PaymentSummaryService(OrderPaymentSummaryRepository summaryRepository,
+                                 JdbcTemplate jdbcTemplate,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${payment.summary.threads:4}") int threads,
+                                 @Value("${payment.summary.chunk-size:2000}") int chunkSize) {
+        this.summaryRepository = summaryRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbc = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.chunkTx = new TransactionTemplate(transactionManager);
+        this.workers = Executors.newFixedThreadPool(threads, new NamedThreadFactory("payment-summary-"));
+        this.chunkSize = chunkSize;
+    }
+
+    @PreDestroy
+    void shutdown() {
+        runner.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * Cộng các payment vừa ghi vào tổng hợp của đơn. Phải được gọi trong giao dịch đã ghi các payment đó.
+     * Mỗi đơn một câu upsert; cập nhật theo thứ tự order_id để các lô chạy đồng thời luôn khóa cùng thứ tự.
+     */
+    public void applyPayments(Collection<Payment> payments) {
+        Map<Integer, List<Payment>> byOrder = new TreeMap<>();
+        for (Payment payment : payments) {
+            byOrder.computeIfAbsent(payment.getOrder().getId(), id -> new ArrayList<>()).add(payment);
+        }
+        byOrder.forEach((orderId, orderPayments) -> {
+            BigDecimal amount = orderPayments.stream().map(Payment::getAmount).reduce(BigDecimal.ZERO, BigDecimal::add);
+            // paid_at có thể trống ở dòng nhập tay: dòng có thời điểm luôn được ưu tiên là "mới nhất"
+            Payment latest = Collections.max(orderPayments,
+                    Comparator.comparing(Payment::getPaidAt, Comparator.nullsFirst(Comparator.naturalOrder())));
+            summaryRepository.addPayments(orderId, amount, orderPayments.size(),
+                    latest.getPaidAt(), latest.getPaymentMethod(), latest.getProvider());
+        });
+    }
+
+    /**
+     * @param userId null nếu người xem là quản trị (xem mọi đơn)
+     */
+    public Optional<OrderBalanceDTO> getBalance(Integer orderId, Integer userId) {
+        return summaryRepository.findBalance(orderId, userId);
+    }
+
+    public List<OrderBalanceDTO> getOutstandingOrders(Integer userId, int limit) {
+        return summaryRepository.findOutstanding(userId, PageRequest.of(0, limit));
+    }
+
+    public List<CustomerBalanceDTO> getOutstandingByCustomer(int limit) {
+        return summaryRepository.findOutstandingByCustomer(PageRequest.of(0, limit));
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public RebuildResult getLastRebuild() {
+        return lastRebuild;
+    }
+
+    public CheckResult getLastCheck() {
+        return lastCheck;
+    }
+
+    public boolean startRebuild() {
+        return startAsync(this::doRebuild);
+    }
+
+    public boolean startCheck(boolean repair) {
+        return startAsync(() -> doCheck(repair));
+    }
+
+    // Giành cờ trước khi gửi việc, để request thứ hai nhận false (409) thay vì 202 rồi bị bỏ qua
+    private boolean startAsync(Runnable task) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        try {
+            runner.execute(task);
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+            throw e;
+        }
+        return true;
+    }
+
+    // Lần đầu triển khai: bảng tổng hợp còn trống trong khi đã có thanh toán thì dựng lại ở nền
+    @EventListener(ApplicationReadyEvent.class)
+    public void bootstrap() {
+        Boolean hasPayments = jdbcTemplate.queryForObject("SELECT EXISTS(SELECT 1 FROM payment)", Boolean.class);
+        if (Boolean.TRUE.equals(hasPayments) && summaryRepository.count() == 0) {
+            log.info("Payment summary table is empty, starting initial rebuild");
+            startRebuild();
+        }
+    }
+
+    @Scheduled(cron = "${payment.summary.check-cron:0 0 3 * * *}")
+    public void scheduledCheck() {
+        check(false);
+    }
+
+    /**
+     * Dựng lại toàn bộ bảng tổng hợp từ bảng payment, mỗi khoảng order_id trong một giao dịch riêng.
+     */
+    public RebuildResult rebuild() {
+        if (!running.compareAndSet(false, true)) {
+            log.info("Payment summary rebuild skipped: another run is in progress");
+            return lastRebuild;
+        }
+        return doRebuild();
+    }
+
+    // Chỉ gọi khi đã giữ cờ running; nhả cờ khi xong
+    private RebuildResult doRebuild() {
+        RebuildResult result = new RebuildResult();
+        try {
+            AtomicInteger rows = new AtomicInteger();
+            result.chunks = forEachRange((from, to) -> {
+                int inserted = withRetry(() -> chunkTx.execute(status -> {
+                    jdbcTemplate.update("DELETE FROM order_payment_summary WHERE order_id BETWEEN ? AND ?", from, to);
+                    return jdbcTemplate.update(INSERT_FROM_PAYMENTS +
+                            "WHERE p.order_id BETWEEN ? AND ? GROUP BY p.order_id", from, to);
+                }));
+                rows.addAndGet(inserted);
+                return inserted;
+            });
+            result.orders = rows.get();
+        } catch (RuntimeException e) {
+            log.error("Payment summary rebuild failed", e);
+            result.failure = e.getMessage();
+        } finally {
+            result.finishedAt = LocalDateTime.now();
+            lastRebuild = result;
+            running.set(false);
+        }
+        log.info("Payment summary rebuilt for {} orders in {} chunks", result.orders, result.chunks);
+        return result;
+    }
+
+    /**
+     * So sánh tổng hợp với SUM/COUNT thực tế của bảng payment. Mỗi khoảng là một câu truy vấn
+     * (đọc trên cùng một snapshot) nên thanh toán đang ghi dở không bị báo lệch nhầm.
+     *
+     * @param repair dựng lại tổng hợp cho các đơn bị lệch
+     */
+    public CheckResult check(boolean repair) {
+        if (!running.compareAndSet(false, true)) {
+            log.info("Payment summary check skipped: another run is in progress");
+            return lastCheck;
+        }
+        return doCheck(repair);
+    }
+
+    private CheckResult doCheck(boolean repair) {
+        CheckResult result = new CheckResult();
+        try {
+            result.chunks = forEachRange((from, to) -> {
+                List<Mismatch> mismatches = findMismatches(from, to);
+                if (mismatches.isEmpty()) {
+                    return 0;
+                }
+                synchronized (result) {
+                    result.mismatches += mismatches.size();
+                    for (Mismatch mismatch : mismatches) {
+                        if (result.samples.size() < MAX_REPORTED_MISMATCHES) {
+                            result.samples.add(mismatch);
+                        }
+                    }
+                }
+                if (repair) {
+                    List<Integer> orderIds = mismatches.stream().map(Mismatch::orderId).toList();
+                    withRetry(() -> chunkTx.execute(status -> repairOrders(orderIds)));
+                    synchronized (result) {
+                        result.repaired += orderIds.size();
+                    }
+                }
+                return mismatches.size();
+            });
+        } catch (RuntimeException e) {
+            log.error("Payment summary check failed", e);
+            result.failure = e.getMessage();
+        } finally {
+            result.finishedAt = LocalDateTime.now();
+            lastCheck = result;
+            running.set(false);
+        }
+        if (result.mismatches > 0) {
+            log.warn("Payment summary check found {} inconsistent orders ({} repaired)", result.mismatches, result.repaired);
+        } else {
+            log.info("Payment summary check passed ({} chunks)", result.chunks);
+        }
+        return result;
+    }
+
+    private List<Mismatch> findMismatches(int from, int to) {
+        String sql = "SELECT k.order_id, COALESCE(s.paid_amount, 0) AS summary_amount, COALESCE(a.amount, 0) AS actual_amount, " +
+                "COALESCE(s.payment_count, 0) AS summary_count, COALESCE(a.cnt, 0) AS actual_count " +
+                "FROM (SELECT order_id FROM order_payment_summary WHERE order_id BETWEEN :from AND :to " +
+                "      UNION SELECT order_id FROM payment WHERE order_id BETWEEN :from AND :to) k " +
+                "LEFT JOIN order_payment_summary s ON s.order_id = k.order_id " +
+                "LEFT JOIN (SELECT order_id, SUM(amount) AS amount, COUNT(*) AS cnt FROM payment " +
+                "           WHERE order_id BETWEEN :from AND :to GROUP BY order_id) a ON a.order_id = k.order_id " +
+                "WHERE COALESCE(s.paid_amount, 0) <> COALESCE(a.amount, 0) OR COALESCE(s.payment_count, 0) <> COALESCE(a.cnt, 0)";
+        MapSqlParameterSource params = new MapSqlParameterSource().addValue("from", from).addValue("to", to);
+        return namedJdbc.query(sql, params, (rs, rowNum) -> new Mismatch(
+                rs.getInt("order_id"),
+                rs.getBigDecimal("summary_amount"),
+                rs.getBigDecimal("actual_amount"),
+                rs.getInt("summary_count"),
+                rs.getInt("actual_count")));
+    }
+
+    private int repairOrders(List<Integer> orderIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource("ids", orderIds);
+        namedJdbc.update("DELETE FROM order_payment_summary WHERE order_id IN (:ids)", params);
+        return namedJdbc.update(INSERT_FROM_PAYMENTS + "WHERE p.order_id IN (:ids) GROUP BY p.order_id", params);
+    }
+
+    /**
+     * Chia [min, max] order_id (gồm cả order_id chỉ còn trong bảng tổng hợp) thành các khoảng chunk-size
+     * và chạy song song trên pool. Trả về số khoảng đã chạy.
+     */
+    private int forEachRange(IntBinaryOperator task) {
+        Map<String, Object> bounds = jdbcTemplate.queryForMap(
+                "SELECT LEAST(COALESCE((SELECT MIN(id) FROM `order`), 2147483647), " +
+                        "             COALESCE((SELECT MIN(order_id) FROM order_payment_summary), 2147483647)) AS min_id, " +
+                        "       GREATEST(COALESCE((SELECT MAX(id) FROM `order`), 0), " +
+                        "                COALESCE((SELECT MAX(order_id) FROM order_payment_summary), 0)) AS max_id");
+        long min = ((Number) bounds.get("min_id")).longValue();
+        long max = ((Number) bounds.get("max_id")).longValue();
+        if (min > max) {
+            return 0;
+        }
+        List<CompletableFuture<Integer>> futures = new ArrayList<>();
+        for (long start = min; start <= max; start += chunkSize) {
+            int from = (int) start;
+            int to = (int) Math.min(max, start + chunkSize - 1);
+            futures.add(CompletableFuture.supplyAsync(() -> task.applyAsInt(from, to), workers));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        return futures.size();
+    }
+
+    // Ghi song song với thanh toán đang đến có thể gặp deadlock của InnoDB: thử lại vài lần
+    private static int withRetry(Supplier<Integer> work) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Integer result = work.get();
+                return result == null ? 0 : result;
+            } catch (PessimisticLockingFailureException e) {
+                if (attempt >= MAX_RETRIES) {
+                    throw e;
+                }
+                log.info("Payment summary chunk hit a lock conflict, retrying ({}/{})", attempt, MAX_RETRIES);
+            }
+        }
+    }
+
+    public record Mismatch(int orderId, BigDecimal summaryAmount, BigDecimal actualAmount, int summaryCount, int actualCount) {}
+
+    @Getter
+    public static class RebuildResult {
+        private final LocalDateTime startedAt = LocalDateTime.now();
+        private LocalDateTime finishedAt;
+        private int chunks;
+        private int orders;
+        private String failure;
+    }
+
+    @Getter
+    public static class CheckResult {
+        private final LocalDateTime startedAt = LocalDateTime.now();
+        private LocalDateTime finishedAt;
+        private int chunks;
+        private int mismatches;
+        private int repaired;
+        private String failure;
+        private final List<Mismatch> samples = new ArrayList<>();
+    }
+}
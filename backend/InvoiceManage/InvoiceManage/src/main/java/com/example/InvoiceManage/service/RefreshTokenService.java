@@ -0,0 +1,265 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.DTO.response.TokenRefreshResponse;
+import com.example.InvoiceManage.entity.RefreshToken;
+import com.example.InvoiceManage.entity.SecurityUser;
+import com.example.InvoiceManage.entity.User;
+import com.example.InvoiceManage.exception.InvalidRefreshTokenException;
+import com.example.InvoiceManage.exception.UserAccountDeactivatedException;
+import com.example.InvoiceManage.repository.RefreshTokenRepository;
+import com.example.InvoiceManage.security.jwt.JwtService;
+import com.example.InvoiceManage.util.TtlCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Cấp và làm mới (xoay vòng) refresh token, để client lấy access token mới mà không phải đăng nhập lại
+ * (tránh một lần kiểm tra BCrypt ~100 ms mỗi khi access token hết hạn).
+ *
+ * - Token là chuỗi ngẫu nhiên 256 bit; CSDL chỉ lưu băm SHA-256 của nó.
+ * - Mỗi lần làm mới, token cũ bị đánh dấu ROTATED và một token mới cùng họ (family) được cấp.
+ *   Dùng lại một token đã ROTATED là dấu hiệu token bị lộ: cả họ bị thu hồi, mọi phiên từ lần đăng nhập đó phải đăng nhập lại.
+ * - Chỉ mục nóng trong bộ nhớ (theo băm token) giúp tra cứu và phát hiện dùng lại không cần đọc CSDL;
+ *   CSDL vẫn là nguồn chuẩn: lệnh UPDATE có điều kiện ACTIVE -> ROTATED đảm bảo chỉ một node xoay được một token.
+ * - Họ token có thời gian sống tối đa tính từ lần đăng nhập: hạn của token mới bị chặn ở mốc đó,
+ *   quá mốc thì phải đăng nhập lại dù vẫn xoay vòng đều đặn.
+ */
+@Slf4j
+@Service
+public class RefreshTokenService {
+
+    private static final int TOKEN_BYTES = 32;
+
+    private final RefreshTokenRepository refreshTokenRepository;
+    private final CustomUserDetailsService userDetailsService;
+    private final JwtService jwtService;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration refreshTtl;
+    private final Duration maxFamilyLifetime;
+    private final SecureRandom random = new SecureRandom();
+
+    // Băm token -> trạng thái token đã cấp gần đây; hụt cache thì nạp lại từ CSDL
+    private final TtlCache<String, IndexedToken> index;
+
+    private final Counter issued;
+    private final Counter rotated;
+    private final Counter reuseDetected;
+
+    public RefreshTokenService(RefreshTokenRepository refreshTokenRepository,
+                               CustomUserDetailsService userDetailsService,
+                               JwtService jwtService,
+                               PlatformTransactionManager transactionManager,
+                               MeterRegistry meterRegistry,
+                               @Value("${jwt.refresh-token.expiration}") long refreshTokenExpiration,
+                               @Value("${auth.refresh.max-family-lifetime-days:30}") long maxFamilyLifetimeDays,
+                               @Value("${auth.refresh.index-ttl-seconds:3600}") long indexTtlSeconds,
+                               @Value("${auth.refresh.index-max-size:100000}") int indexMaxSize) {
+        this.refreshTokenRepository = refreshTokenRepository;
+        this.userDetailsService = userDetailsService;
+        this.jwtService = jwtService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.refreshTtl = Duration.ofMillis(refreshTokenExpiration);
+        this.maxFamilyLifetime = Duration.ofDays(maxFamilyLifetimeDays);
+        this.index = new TtlCache<>(indexTtlSeconds, TimeUnit.SECONDS, indexMaxSize);
+
+        this.issued = Counter.builder("auth.refresh.issued").register(meterRegistry);
+        this.rotated = Counter.builder("auth.refresh.rotated").register(meterRegistry);
+        this.reuseDetected = Counter.builder("auth.refresh.reuse.detected").register(meterRegistry);
+        Gauge.builder("auth.refresh.index.size", index, TtlCache::size).register(meterRegistry);
+    }
+
+    /**
+     * Cấp refresh token cho một lần đăng nhập mới (mở một họ token mới).
+     */
+    public String issue(User user) {
+        return issue(user.getId(), user.getEmail(), UUID.randomUUID().toString(), LocalDateTime.now());
+    }
+
+    /**
+     * Đổi refresh token lấy access token mới và refresh token mới cùng họ.
+     *
+     * @throws InvalidRefreshTokenException token không tồn tại, hết hạn, đã thu hồi hoặc bị dùng lại
+     * @throws UserAccountDeactivatedException tài khoản đã bị chặn
+     */
+    public TokenRefreshResponse rotate(String presentedToken) {
+        String hash = hash(presentedToken);
+        IndexedToken token = lookup(hash);
+        if (token == null) {
+            throw new InvalidRefreshTokenException("Refresh token không hợp lệ");
+        }
+        if (token.isExpired()) {
+            throw new InvalidRefreshTokenException("Refresh token đã hết hạn");
+        }
+        if (token.status.get() == RefreshToken.Status.REVOKED) {
+            throw new InvalidRefreshTokenException("Refresh token đã bị thu hồi");
+        }
+        if (!token.status.compareAndSet(RefreshToken.Status.ACTIVE, RefreshToken.Status.ROTATED)) {
+            // Token đã được xoay trước đó trên node này
+            throw reuse(token);
+        }
+
+        SecurityUser principal;
+        try {
+            principal = userDetailsService.loadCachedPrincipal(token.email);
+        } catch (UsernameNotFoundException e) {
+            revokeFamily(token.familyId);
+            throw new InvalidRefreshTokenException("Người dùng của refresh token không còn tồn tại");
+        }
+        if (!principal.isEnabled()) {
+            revokeFamily(token.familyId);
+            throw new UserAccountDeactivatedException("Tài khoản của bạn đã bị quản trị viên chặn.");
+        }
+
+        String next;
+        try {
+            next = transactionTemplate.execute(status -> {
+                int updated = refreshTokenRepository.markRotated(hash,
+                        RefreshToken.Status.ACTIVE, RefreshToken.Status.ROTATED, LocalDateTime.now());
+                if (updated == 0) {
+                    return null;
+                }
+                return issue(token.userId, token.email, token.familyId, token.familyStartedAt);
+            });
+        } catch (RuntimeException e) {
+            // Lỗi CSDL: trả token về trạng thái dùng được để client thử lại
+            token.status.compareAndSet(RefreshToken.Status.ROTATED, RefreshToken.Status.ACTIVE);
+            throw e;
+        }
+        if (next == null) {
+            // Node khác đã xoay (hoặc thu hồi) token này trước
+            throw reuse(token);
+        }
+        rotated.increment();
+        return new TokenRefreshResponse(jwtService.generateToken(principal), next);
+    }
+
+    /**
+     * Đăng xuất: thu hồi cả họ token chứa refresh token này. Token không tồn tại thì bỏ qua.
+     */
+    public void revoke(String presentedToken) {
+        IndexedToken token = lookup(hash(presentedToken));
+        if (token != null) {
+            revokeFamily(token.familyId);
+        }
+    }
+
+    /**
+     * Thu hồi mọi refresh token của người dùng (vd: khi bị chặn), buộc đăng nhập lại ở mọi thiết bị.
+     */
+    public void revokeAllForUser(Integer userId) {
+        List<String> hashes = refreshTokenRepository.findLiveHashesByUserId(userId, RefreshToken.Status.REVOKED);
+        transactionTemplate.executeWithoutResult(status ->
+                refreshTokenRepository.revokeAllForUser(userId, RefreshToken.Status.REVOKED));
+        hashes.forEach(index::invalidate);
+    }
+
+    @Scheduled(cron = "${auth.refresh.cleanup-cron:0 30 3 * * *}")
+    public void purgeExpired() {
+        Integer deleted = transactionTemplate.execute(status ->
+                refreshTokenRepository.deleteExpired(LocalDateTime.now()));
+        if (deleted != null && deleted > 0) {
+            log.info("Purged {} expired refresh tokens", deleted);
+        }
+    }
+
+    private String issue(Integer userId, String email, String familyId, LocalDateTime familyStartedAt) {
+        byte[] bytes = new byte[TOKEN_BYTES];
+        random.nextBytes(bytes);
+        String value = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        String hash = hash(value);
+        LocalDateTime expiresAt = LocalDateTime.now().plus(refreshTtl);
+        LocalDateTime familyDeadline = familyStartedAt.plus(maxFamilyLifetime);
+        if (familyDeadline.isBefore(expiresAt)) {
+            expiresAt = familyDeadline;
+        }
+
+        RefreshToken entity = new RefreshToken();
+        entity.setTokenHash(hash);
+        entity.setFamilyId(familyId);
+        entity.setUserId(userId);
+        entity.setUserEmail(email);
+        entity.setFamilyStartedAt(familyStartedAt);
+        entity.setExpiresAt(expiresAt);
+        refreshTokenRepository.save(entity);
+
+        IndexedToken indexed = new IndexedToken(familyId, familyStartedAt, userId, email, expiresAt, RefreshToken.Status.ACTIVE);
+        index.get(hash, key -> indexed);
+        issued.increment();
+        return value;
+    }
+
+    private IndexedToken lookup(String hash) {
+        return index.get(hash, key -> refreshTokenRepository.findByTokenHash(key)
+                .map(t -> new IndexedToken(t.getFamilyId(),
+                        t.getFamilyStartedAt() != null ? t.getFamilyStartedAt() : t.getIssuedAt(),
+                        t.getUserId(), t.getUserEmail(), t.getExpiresAt(), t.getStatus()))
+                .orElse(null));
+    }
+
+    private InvalidRefreshTokenException reuse(IndexedToken token) {
+        reuseDetected.increment();
+        log.warn("Refresh token reuse detected for user {} (family {}), revoking the family", token.userId, token.familyId);
+        revokeFamily(token.familyId);
+        return new InvalidRefreshTokenException("Refresh token đã được sử dụng, vui lòng đăng nhập lại");
+    }
+
+    private void revokeFamily(String familyId) {
+        transactionTemplate.executeWithoutResult(status ->
+                refreshTokenRepository.revokeFamily(familyId, RefreshToken.Status.REVOKED));
+        // Lần tra cứu sau nạp lại từ CSDL và thấy REVOKED
+        refreshTokenRepository.findHashesByFamilyId(familyId).forEach(index::invalidate);
+    }
+
+    static String hash(String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static final class IndexedToken {
+        private final String familyId;
+        private final LocalDateTime familyStartedAt;
+        private final Integer userId;
+        private final String email;
+        private final LocalDateTime expiresAt;
+        private final AtomicReference<RefreshToken.Status> status;
+
+        private IndexedToken(String familyId, LocalDateTime familyStartedAt, Integer userId, String email,
+                             LocalDateTime expiresAt, RefreshToken.Status status) {
+            this.familyId = familyId;
+            this.familyStartedAt = familyStartedAt;
+            this.userId = userId;
+            this.email = email;
+            this.expiresAt = expiresAt;
+            this.status = new AtomicReference<>(status);
+        }
+
+        private boolean isExpired() {
+            return !expiresAt.isAfter(LocalDateTime.now());
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.entity.Order;
+import com.example.InvoiceManage.entity.Payment;
+import com.example.InvoiceManage.entity.StripeEvent;
+import com.example.InvoiceManage.repository.OrderRepository;
+import com.example.InvoiceManage.repository.StripeEventRepository;
+import com.example.InvoiceManage.util.DuplicateKeys;
+import com.example.InvoiceManage.util.RecentSet;
+import com.stripe.exception.EventDataObjectDeserializationException;
+import com.stripe.exception.SignatureVerificationException;
+import com.stripe.model.Event;
+import com.stripe.model.StripeObject;
+import com.stripe.model.checkout.Session;
+import com.stripe.net.Webhook;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Nhận webhook Stripe và ghi thanh toán vào cùng bảng payment với VNPay.
+ *
+ * Request webhook chỉ xác thực chữ ký (Stripe-Signature), trích các trường cần thiết và ghi một dòng vào stripe_event;
+ * event id unique nên sự kiện Stripe gửi lại được nhận biết ngay ở câu INSERT.
+ * Số tiền và tiền tệ của session phải khớp với tổng tiền của đơn, nếu không sự kiện bị từ chối (REJECTED).
+ * Tiến trình nền lấy các sự kiện PENDING theo lô và ghi thanh toán qua PaymentDedupeService
+ * (khóa chống trùng là payment_intent, nên hai sự kiện khác nhau của cùng một lần thanh toán chỉ ghi một lần).
+ */
+@Slf4j
+@Service
+public class StripeWebhookService {
+
+    // REJECTED: sự kiện hợp lệ nhưng không được ghi nhận (sai số tiền/tiền tệ, không có đơn...), cần kiểm tra tay
+    public enum AcceptResult { QUEUED, DUPLICATE, IGNORED, REJECTED }
+
+    private static final String CHECKOUT_COMPLETED = "checkout.session.completed";
+    private static final String CHECKOUT_ASYNC_SUCCEEDED = "checkout.session.async_payment_succeeded";
+
+    // Tiền tệ không có đơn vị lẻ: Stripe gửi số tiền nguyên, không nhân 100
+    private static final Set<String> ZERO_DECIMAL_CURRENCIES = Set.of(
+            "bif", "clp", "djf", "gnf", "jpy", "kmf", "krw", "mga", "pyg", "rwf", "ugx", "vnd", "vuv", "xaf", "xof", "xpf");
+
+    // Độ dài cột stripe_event.transaction_no và payment.transaction_no
+    static final int MAX_TRANSACTION_NO_LENGTH = 64;
+
+    private final StripeEventRepository eventRepository;
+    private final OrderRepository orderRepository;
+    private final PaymentDedupeService paymentDedupeService;
+    private final TransactionTemplate transactionTemplate;
+    private final RecentSet<String> seenEvents;
+    private final ReentrantLock drainLock = new ReentrantLock();
+
+    private final String webhookSecret;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long leaseMs;
+    private volatile long lastLeaseCheck;
+
+    private final AtomicLong pendingDepth = new AtomicLong();
+    private final Counter processedCounter;
+    private final Counter failedCounter;
+    private final Counter duplicateCounter;
+    private final Counter rejectedCounter;
+
+    public StripeWebhookService(StripeEventRepository eventRepository,
+                                OrderRepository orderRepository,
+                                PaymentDedupeService paymentDedupeService,
+                                PlatformTransactionManager transactionManager,
+                                MeterRegistry meterRegistry,
+                                @Value("${stripe.webhook-secret:}") String webhookSecret,
+                                @Value("${stripe.webhook.batch-size:200}") int batchSize,
+                                @Value("${stripe.webhook.max-attempts:5}") int maxAttempts,
+                                @Value("${stripe.webhook.lease-ms:60000}") long leaseMs,
+                                @Value("${payment.dedupe.recent-capacity:10000}") int recentCapacity) {
+        this.eventRepository = eventRepository;
+        this.orderRepository = orderRepository;
+        this.paymentDedupeService = paymentDedupeService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.seenEvents = new RecentSet<>(recentCapacity);
+        this.webhookSecret = webhookSecret;
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.leaseMs = leaseMs;
+
+        Gauge.builder("stripe.webhook.pending", pendingDepth, AtomicLong::get)
+                .description("Stripe events waiting to be applied")
+                .register(meterRegistry);
+        this.processedCounter = Counter.builder("stripe.webhook.processed").register(meterRegistry);
+        this.failedCounter = Counter.builder("stripe.webhook.failed").register(meterRegistry);
+        this.duplicateCounter = Counter.builder("stripe.webhook.duplicates").register(meterRegistry);
+        this.rejectedCounter = Counter.builder("stripe.webhook.rejected").register(meterRegistry);
+    }
+
+    /**
+     * Xác thực và đưa sự kiện vào hàng đợi.
+     *
+     * @throws SignatureVerificationException chữ ký không hợp lệ hoặc quá hạn
+     */
+    public AcceptResult accept(String payload, String signatureHeader) throws SignatureVerificationException {
+        if (webhookSecret.isEmpty()) {
+            throw new IllegalStateException("stripe.webhook-secret is not configured");
+        }
+        Event event = Webhook.constructEvent(payload, signatureHeader, webhookSecret);
+        if (seenEvents.contains(event.getId())) {
+            duplicateCounter.increment();
+            return AcceptResult.DUPLICATE;
+        }
+        if (!CHECKOUT_COMPLETED.equals(event.getType()) && !CHECKOUT_ASYNC_SUCCEEDED.equals(event.getType())) {
+            return AcceptResult.IGNORED;
+        }
+
+        Session session = toSession(event);
+        if (session == null) {
+            log.warn("Stripe event {} has no readable checkout session", event.getId());
+            return AcceptResult.IGNORED;
+        }
+        // Thanh toán bất đồng bộ (chuyển khoản...) hoàn tất sau, qua sự kiện async_payment_succeeded
+        if (!"paid".equals(session.getPaymentStatus())) {
+            log.info("Stripe session {} completed with payment status {}, waiting for payment", session.getId(), session.getPaymentStatus());
+            return AcceptResult.IGNORED;
+        }
+        String orderId = session.getMetadata() == null ? null : session.getMetadata().get("orderId");
+        if (orderId == null || session.getAmountTotal() == null) {
+            log.warn("Stripe session {} is missing orderId metadata or amount", session.getId());
+            return AcceptResult.IGNORED;
+        }
+
+        StripeEvent entry = new StripeEvent();
+        entry.setEventId(event.getId());
+        entry.setEventType(event.getType());
+        try {
+            entry.setOrderId(Integer.valueOf(orderId));
+        } catch (NumberFormatException e) {
+            log.warn("Stripe session {} has invalid orderId metadata '{}'", session.getId(), orderId);
+            return AcceptResult.IGNORED;
+        }
+        // Session không có payment_intent (ví dụ đơn 0 đồng) thì dùng id của session, nhưng phải vừa cột transaction_no
+        String transactionNo = session.getPaymentIntent() != null ? session.getPaymentIntent() : session.getId();
+        if (transactionNo == null || transactionNo.length() > MAX_TRANSACTION_NO_LENGTH) {
+            log.error("Stripe session {} has no usable transaction id", session.getId());
+            return reject();
+        }
+        BigDecimal amount = toMajorUnits(session.getAmountTotal(), session.getCurrency());
+        if (!PaymentService.CHECKOUT_CURRENCY.equalsIgnoreCase(session.getCurrency())) {
+            log.error("Stripe session {} for order {} is in {}, expected {}",
+                    session.getId(), orderId, session.getCurrency(), PaymentService.CHECKOUT_CURRENCY);
+            return reject();
+        }
+        BigDecimal orderTotal = orderRepository.findTotalById(entry.getOrderId()).orElse(null);
+        if (orderTotal == null || orderTotal.compareTo(amount) != 0) {
+            log.error("Stripe session {} paid {} {} but order {} total is {}",
+                    session.getId(), amount, session.getCurrency(), orderId, orderTotal);
+            return reject();
+        }
+        entry.setTransactionNo(transactionNo);
+        entry.setCurrency(session.getCurrency());
+        entry.setAmount(amount);
+        entry.setEventCreatedAt(LocalDateTime.ofInstant(Instant.ofEpochSecond(event.getCreated()), ZoneId.systemDefault()));
+        try {
+            eventRepository.saveAndFlush(entry);
+        } catch (DataIntegrityViolationException e) {
+            // Chỉ trùng event_id mới là Stripe gửi lại; lỗi khác ném ra để trả 5xx và Stripe thử lại
+            if (!DuplicateKeys.isDuplicateKey(e)) {
+                throw e;
+            }
+            seenEvents.add(event.getId());
+            duplicateCounter.increment();
+            return AcceptResult.DUPLICATE;
+        }
+        seenEvents.add(event.getId());
+        pendingDepth.incrementAndGet();
+        return AcceptResult.QUEUED;
+    }
+
+    private AcceptResult reject() {
+        rejectedCounter.increment();
+        return AcceptResult.REJECTED;
+    }
+
+    private static Session toSession(Event event) {
+        StripeObject object = event.getDataObjectDeserializer().getObject().orElse(null);
+        if (object == null) {
+            // Phiên bản API của sự kiện khác với thư viện: vẫn đọc được các trường cơ bản của session
+            try {
+                object = event.getDataObjectDeserializer().deserializeUnsafe();
+            } catch (EventDataObjectDeserializationException e) {
+                return null;
+            }
+        }
+        return object instanceof Session session ? session : null;
+    }
+
+    static BigDecimal toMajorUnits(long amount, String currency) {
+        BigDecimal value = BigDecimal.valueOf(amount);
+        return currency != null && ZERO_DECIMAL_CURRENCIES.contains(currency.toLowerCase())
+                ? value
+                : value.movePointLeft(2);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void replayOnStartup() {
+        int released = releaseStale();
+        long pending = eventRepository.countByStatus(StripeEvent.Status.PENDING);
+        log.info("Stripe event queue: {} pending events to replay ({} released from stale leases)", pending, released);
+        drain();
+    }
+
+    @Scheduled(fixedDelayString = "${stripe.webhook.poll-ms:500}")
+    public void drain() {
+        if (!drainLock.tryLock()) {
+            return;
+        }
+        try {
+            if (System.currentTimeMillis() - lastLeaseCheck >= leaseMs) {
+                releaseStale();
+            }
+            // Lô lỗi thì dừng lượt này: các sự kiện đã về PENDING, lần poll sau mới thử lại (không quay vòng liên tục)
+            int processed;
+            do {
+                processed = processBatch();
+            } while (processed == batchSize);
+            pendingDepth.set(eventRepository.countByStatus(StripeEvent.Status.PENDING));
+        } catch (RuntimeException e) {
+            log.error("Stripe event drain failed", e);
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    private int releaseStale() {
+        lastLeaseCheck = System.currentTimeMillis();
+        Integer released = transactionTemplate.execute(status -> eventRepository.releaseStale(
+                StripeEvent.Status.PENDING,
+                StripeEvent.Status.PROCESSING,
+                LocalDateTime.now().minusNanos(leaseMs * 1_000_000)));
+        if (released != null && released > 0) {
+            log.warn("Released {} Stripe events with expired lease", released);
+        }
+        return released == null ? 0 : released;
+    }
+
+    /**
+     * Xử lý một lô. Trả về số sự kiện đã lấy ra, hoặc 0 nếu ghi lô thất bại để vòng drain dừng lại.
+     */
+    private int processBatch() {
+        List<StripeEvent> batch = transactionTemplate.execute(status -> {
+            List<Long> ids = eventRepository.lockPendingIds(batchSize);
+            if (ids.isEmpty()) {
+                return List.of();
+            }
+            eventRepository.claim(ids, StripeEvent.Status.PROCESSING, LocalDateTime.now());
+            return eventRepository.findAllById(ids);
+        });
+        if (batch == null || batch.isEmpty()) {
+            return 0;
+        }
+
+        Map<Integer, Order> orders = orderRepository.findAllById(
+                        batch.stream().map(StripeEvent::getOrderId).collect(Collectors.toSet()))
+                .stream()
+                .collect(Collectors.toMap(Order::getId, Function.identity()));
+
+        // completed và async_payment_succeeded của cùng payment_intent có thể nằm chung lô: chỉ giữ một
+        Map<String, Supplier<Payment>> payments = new HashMap<>();
+        List<StripeEvent> applicable = new ArrayList<>();
+        List<StripeEvent> orphaned = new ArrayList<>();
+        for (StripeEvent entry : batch) {
+            Order order = orders.get(entry.getOrderId());
+            if (order == null) {
+                orphaned.add(entry);
+                continue;
+            }
+            applicable.add(entry);
+            payments.putIfAbsent(entry.getTransactionNo(), () -> {
+                Payment payment = new Payment();
+                payment.setOrder(order);
+                payment.setAmount(entry.getAmount());
+                payment.setPaymentMethod("stripe");
+                payment.setProvider(Payment.PROVIDER_STRIPE);
+                payment.setPaidAt(entry.getEventCreatedAt());
+                return payment;
+            });
+        }
+        if (!orphaned.isEmpty()) {
+            orphaned.forEach(entry -> log.error("Stripe event {} references missing order ID {}",
+                    entry.getEventId(), entry.getOrderId()));
+            markFailed(orphaned, "Order not found", true);
+        }
+        if (applicable.isEmpty()) {
+            return batch.size();
+        }
+
+        try {
+            Map<String, PaymentDedupeService.Outcome> outcomes = paymentDedupeService.recordBatch(payments);
+            long recorded = outcomes.values().stream()
+                    .filter(outcome -> outcome == PaymentDedupeService.Outcome.RECORDED)
+                    .count();
+            List<Long> doneIds = applicable.stream().map(StripeEvent::getId).toList();
+            transactionTemplate.executeWithoutResult(status ->
+                    eventRepository.markDone(doneIds, StripeEvent.Status.DONE, LocalDateTime.now()));
+            processedCounter.increment(recorded);
+            duplicateCounter.increment(applicable.size() - recorded);
+            log.info("Applied {} Stripe events ({} new payments)", applicable.size(), recorded);
+        } catch (RuntimeException e) {
+            log.error("Failed to apply batch of {} Stripe events", applicable.size(), e);
+            markFailed(applicable, e.getMessage(), false);
+            return 0;
+        }
+        return batch.size();
+    }
+
+    // Cập nhật hàng loạt theo id trong giao dịch riêng; các entity của lô đã tách khỏi giao dịch lấy lô
+    private void markFailed(List<StripeEvent> entries, String error, boolean permanent) {
+        String message = error == null ? "unknown error" : error.length() > 500 ? error.substring(0, 500) : error;
+        List<Long> retryIds = new ArrayList<>();
+        List<Long> failedIds = new ArrayList<>();
+        for (StripeEvent entry : entries) {
+            boolean giveUp = permanent || entry.getAttempts() + 1 >= maxAttempts;
+            (giveUp ? failedIds : retryIds).add(entry.getId());
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!retryIds.isEmpty()) {
+                eventRepository.markAttempt(retryIds, StripeEvent.Status.PENDING, message);
+            }
+            if (!failedIds.isEmpty()) {
+                eventRepository.markAttempt(failedIds, StripeEvent.Status.FAILED, message);
+            }
+        });
+        failedCounter.increment(failedIds.size());
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.entity.TokenRevocation;
+import com.example.InvoiceManage.repository.TokenRevocationRepository;
+import com.example.InvoiceManage.security.jwt.VerifiedClaims;
+import com.example.InvoiceManage.util.BloomFilter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Thu hồi JWT đã cấp: theo từng token (jti) hoặc theo người dùng (mọi token cấp trước một thời điểm).
+ *
+ * Kiểm tra thu hồi ở mỗi request chỉ đọc bộ nhớ, không truy vấn CSDL:
+ * - Người dùng bị thu hồi: map email -> notBefore (thường rất nhỏ, thường rỗng).
+ * - Token bị thu hồi: bloom filter đứng trước tập chính xác; với token bình thường bloom filter
+ *   trả lời "chắc chắn không có" mà không cần tra tập.
+ * Bảng token_revocation là nguồn chuẩn; mỗi node đọc tăng dần theo id để nhận các thu hồi từ node khác.
+ * Bản ghi hết hạn (mọi token liên quan đã tự hết hạn) được xóa định kỳ và bộ nhớ được dựng lại
+ * (bloom filter không xóa được phần tử).
+ */
+@Slf4j
+@Service
+public class TokenRevocationService {
+
+    private static final ZoneId ZONE = ZoneId.systemDefault();
+    private static final int SYNC_PAGE_SIZE = 1_000;
+    // Đọc lại một ít id phía trước mốc đã đọc: id IDENTITY có thể commit không theo thứ tự giữa các node
+    private static final long SYNC_OVERLAP = 100;
+
+    private final TokenRevocationRepository revocationRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final Duration accessTokenTtl;
+    private final long expectedTokens;
+    private final double falsePositiveRate;
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final Counter rejected;
+
+    private volatile State state;
+    private volatile long lastSeenId;
+
+    private record State(BloomFilter tokenFilter, Set<String> tokens, Map<String, Instant> userNotBefore) {}
+
+    public TokenRevocationService(TokenRevocationRepository revocationRepository,
+                                  PlatformTransactionManager transactionManager,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${jwt.expiration}") long jwtExpiration,
+                                  @Value("${auth.revocation.expected-tokens:100000}") long expectedTokens,
+                                  @Value("${auth.revocation.false-positive-rate:0.001}") double falsePositiveRate) {
+        this.revocationRepository = revocationRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.accessTokenTtl = Duration.ofMillis(jwtExpiration);
+        this.expectedTokens = expectedTokens;
+        this.falsePositiveRate = falsePositiveRate;
+        this.state = emptyState();
+
+        this.rejected = Counter.builder("auth.revocation.rejected").register(meterRegistry);
+        Gauge.builder("auth.revocation.tokens", this, s -> s.state.tokens().size()).register(meterRegistry);
+        Gauge.builder("auth.revocation.users", this, s -> s.state.userNotBefore().size()).register(meterRegistry);
+    }
+
+    /**
+     * Token đã bị thu hồi (theo jti hoặc theo người dùng). Chỉ đọc bộ nhớ.
+     */
+    public boolean isRevoked(VerifiedClaims claims) {
+        State current = state;
+        if (!current.userNotBefore().isEmpty() && claims.subject() != null) {
+            Instant notBefore = current.userNotBefore().get(claims.subject());
+            if (notBefore != null && (claims.issuedAt() == null || !claims.issuedAt().isAfter(notBefore))) {
+                rejected.increment();
+                return true;
+            }
+        }
+        String tokenId = claims.tokenId();
+        if (tokenId != null && current.tokenFilter().mightContain(tokenId) && current.tokens().contains(tokenId)) {
+            rejected.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Thu hồi một token cụ thể (vd: đăng xuất). Bản ghi tự hết hiệu lực khi token hết hạn.
+     */
+    public void revokeToken(VerifiedClaims claims) {
+        if (claims.tokenId() == null) {
+            // Token cũ không có jti: chỉ thu hồi được theo người dùng
+            return;
+        }
+        TokenRevocation revocation = new TokenRevocation();
+        revocation.setType(TokenRevocation.Type.TOKEN);
+        revocation.setTokenId(claims.tokenId());
+        Instant expiresAt = claims.expiresAt() != null ? claims.expiresAt() : Instant.now().plus(accessTokenTtl);
+        revocation.setExpiresAt(LocalDateTime.ofInstant(expiresAt, ZONE));
+        apply(state, save(revocation));
+    }
+
+    /**
+     * Thu hồi mọi token của người dùng đã cấp tới thời điểm hiện tại (vd: khi bị chặn).
+     * Token cấp sau đó (đăng nhập lại sau khi được mở chặn) không bị ảnh hưởng.
+     */
+    public void revokeUser(String email) {
+        // iat của JWT tính theo giây nên mốc cũng làm tròn xuống giây
+        Instant notBefore = Instant.now().truncatedTo(ChronoUnit.SECONDS);
+        TokenRevocation revocation = new TokenRevocation();
+        revocation.setType(TokenRevocation.Type.USER);
+        revocation.setSubject(email);
+        revocation.setNotBefore(LocalDateTime.ofInstant(notBefore, ZONE));
+        revocation.setExpiresAt(LocalDateTime.ofInstant(notBefore.plus(accessTokenTtl), ZONE));
+        apply(state, save(revocation));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        sync();
+        log.info("Token revocation list loaded: {} tokens, {} users",
+                state.tokens().size(), state.userNotBefore().size());
+    }
+
+    /**
+     * Nhận các thu hồi mới (kể cả từ node khác) theo id tăng dần.
+     */
+    @Scheduled(fixedDelayString = "${auth.revocation.sync-ms:2000}")
+    public void sync() {
+        if (!syncLock.tryLock()) {
+            return;
+        }
+        try {
+            lastSeenId = loadInto(state, Math.max(0, lastSeenId - SYNC_OVERLAP), lastSeenId);
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Xóa bản ghi hết hạn rồi dựng lại danh sách trong bộ nhớ từ đầu.
+     */
+    @Scheduled(cron = "${auth.revocation.cleanup-cron:0 */30 * * * *}")
+    public void purgeExpired() {
+        Integer deleted = transactionTemplate.execute(status ->
+                revocationRepository.deleteExpired(LocalDateTime.now()));
+        syncLock.lock();
+        try {
+            State fresh = emptyState();
+            long maxId = loadInto(fresh, 0, 0);
+            state = fresh;
+            lastSeenId = maxId;
+        } finally {
+            syncLock.unlock();
+        }
+        // Thu hồi ghi trong lúc dựng lại đã nằm trong CSDL: lần đồng bộ kế tiếp sẽ nhận
+        sync();
+        if (deleted != null && deleted > 0) {
+            log.info("Purged {} expired token revocations, {} remain in memory", deleted,
+                    state.tokens().size() + state.userNotBefore().size());
+        }
+    }
+
+    private long loadInto(State target, long afterId, long maxId) {
+        long cursor = afterId;
+        while (true) {
+            List<TokenRevocation> page = revocationRepository.findActiveAfter(
+                    cursor, LocalDateTime.now(), PageRequest.of(0, SYNC_PAGE_SIZE));
+            for (TokenRevocation revocation : page) {
+                apply(target, revocation);
+            }
+            if (!page.isEmpty()) {
+                cursor = page.get(page.size() - 1).getId();
+                maxId = Math.max(maxId, cursor);
+            }
+            if (page.size() < SYNC_PAGE_SIZE) {
+                return maxId;
+            }
+        }
+    }
+
+    private TokenRevocation save(TokenRevocation revocation) {
+        return transactionTemplate.execute(status -> revocationRepository.save(revocation));
+    }
+
+    private static void apply(State target, TokenRevocation revocation) {
+        if (revocation.getType() == TokenRevocation.Type.TOKEN) {
+            target.tokenFilter().put(revocation.getTokenId());
+            target.tokens().add(revocation.getTokenId());
+        } else {
+            Instant notBefore = revocation.getNotBefore().atZone(ZONE).toInstant();
+            // Giữ mốc muộn nhất nếu người dùng bị thu hồi nhiều lần
+            target.userNotBefore().merge(revocation.getSubject(), notBefore,
+                    (existing, incoming) -> existing.isAfter(incoming) ? existing : incoming);
+        }
+    }
+
+    private State emptyState() {
+        return new State(new BloomFilter(expectedTokens, falsePositiveRate),
+                ConcurrentHashMap.newKeySet(), new ConcurrentHashMap<>());
+    }
+}
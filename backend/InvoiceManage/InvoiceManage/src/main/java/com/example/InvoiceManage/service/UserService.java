@@ -14,7 +14,6 @@ import com.example.InvoiceManage.exception.ResourceNotFoundException; // <-- IMP
 import com.example.InvoiceManage.security.jwt.JwtService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.stereotype.Service;
 
 import java.util.Optional;
@@ -36,19 +35,35 @@ public class UserService {
     @Autowired
     private CustomUserDetailsService userDetailsService;
 
-    private final BCryptPasswordEncoder passwordEncoder = new BCryptPasswordEncoder();
+    @Autowired
+    private RefreshTokenService refreshTokenService;
+
+    @Autowired
+    private TokenRevocationService tokenRevocationService;
+
+    // BCrypt chạy trên pool riêng có giới hạn, không chạy trên luồng request
+    @Autowired
+    private PasswordHashingService passwordHashingService;
+
+    @Autowired
+    private LoginAdmissionService loginAdmissionService;
 
     public List<User> getUsers(){
         return userRepository.findAll();
     }
 
-    public Optional<UserResponse> login(LoginRequest request) {
+    public Optional<UserResponse> login(LoginRequest request, String clientIp) {
+        // 0. Giới hạn tốc độ theo IP và tài khoản, trước mọi truy vấn CSDL và BCrypt
+        loginAdmissionService.admit(clientIp, request.getEmail());
+
         Optional<User> userOpt = userRepository.findByEmail(request.getEmail());
         if (userOpt.isPresent()) {
             User user = userOpt.get();
 
             // 1. Kiểm tra mật khẩu trước
-            if (!passwordEncoder.matches(request.getPassword(), user.getPassword())) {
+            PasswordHashingService.Verification verification =
+                    passwordHashingService.verify(request.getPassword(), user.getPassword());
+            if (!verification.matches()) {
                 return Optional.empty(); // Mật khẩu không đúng
             }
 
@@ -58,11 +73,18 @@ public class UserService {
                 throw new UserAccountDeactivatedException("Tài khoản của bạn đã bị quản trị viên chặn.");
             }
 
+            // Băm cũ dùng cost thấp hơn cấu hình hiện tại: lưu băm mới (đã tính sẵn trên pool BCrypt)
+            if (verification.upgradedHash() != null) {
+                user.setPassword(verification.upgradedHash());
+                userRepository.save(user);
+            }
+
             // 3. Nếu mọi thứ đều OK, tiến hành đăng nhập thành công
             UserDetails userDetails = userDetailsService.loadUserByUsername(user.getEmail());
 
             String accessToken = jwtService.generateToken(userDetails);
-            String refreshToken = jwtService.generateRefreshToken(userDetails); // Giả sử bạn có RefreshToken
+            // Refresh token mở một họ token mới; các lần làm mới sau không cần kiểm tra mật khẩu
+            String refreshToken = refreshTokenService.issue(user);
 
             UserResponse loginResponse = new UserResponse();
             loginResponse.setId(Long.valueOf(user.getId()));
@@ -70,6 +92,7 @@ public class UserService {
             loginResponse.setName(user.getName());
             loginResponse.setRole(user.getRole());
             loginResponse.setAccessToken(accessToken);
+            loginResponse.setRefreshToken(refreshToken);
 
             return Optional.of(loginResponse);
         }
@@ -90,7 +113,7 @@ public class UserService {
 
         User user = new User();
         user.setEmail(request.getEmail());
-        user.setPassword(passwordEncoder.encode(request.getPassword()));
+        user.setPassword(passwordHashingService.encode(request.getPassword()));
         user.setName(request.getUsername());
         user.setActive(true);
 
@@ -103,13 +126,19 @@ public class UserService {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new ResourceNotFoundException("User not found with ID: " + userId));
         user.setActive(false); // Set active to false (0)
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        userDetailsService.evict(saved.getEmail()); // token đã cấp bị từ chối ngay, không chờ hết TTL cache
+        refreshTokenService.revokeAllForUser(saved.getId()); // không cho làm mới access token nữa
+        tokenRevocationService.revokeUser(saved.getEmail()); // access token đã cấp bị từ chối trên mọi node
+        return saved;
     }
 
     public User unbanUser(Integer userId) {
         User user = userRepository.findById(userId)
                 .orElseThrow(() -> new ResourceNotFoundException("User not found with ID: " + userId));
         user.setActive(true); // Set active to true (1)
-        return userRepository.save(user);
+        User saved = userRepository.save(user);
+        userDetailsService.evict(saved.getEmail());
+        return saved;
     }
 }
\ No newline at end of file
@@ -0,0 +1,286 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.entity.Order;
+import com.example.InvoiceManage.entity.Payment;
+import com.example.InvoiceManage.entity.VnPayIpnInbox;
+import com.example.InvoiceManage.repository.OrderRepository;
+import com.example.InvoiceManage.repository.VnPayIpnInboxRepository;
+import com.example.InvoiceManage.util.DuplicateKeys;
+import com.example.InvoiceManage.util.RecentSet;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Hàng đợi bền cho IPN của VNPay.
+ *
+ * Endpoint IPN chỉ ghi một dòng vào bảng vnpay_ipn_inbox (một câu INSERT) rồi trả lời VNPay ngay.
+ * Tiến trình nền lấy các dòng PENDING theo lô (SELECT ... FOR UPDATE SKIP LOCKED), nạp đơn hàng một lần cho cả lô
+ * và ghi thanh toán qua PaymentDedupeService. Giao hàng ít nhất một lần: dòng chỉ được đánh dấu DONE sau khi
+ * thanh toán đã ghi; nếu node dừng giữa chừng, dòng PROCESSING quá hạn thuê (lease) được trả lại hàng đợi
+ * và việc ghi lại đã được chống trùng theo mã giao dịch.
+ */
+@Slf4j
+@Service
+public class VnPayIpnInboxService {
+
+    public enum AppendResult { ACCEPTED, DUPLICATE }
+
+    private final VnPayIpnInboxRepository inboxRepository;
+    private final OrderRepository orderRepository;
+    private final PaymentDedupeService paymentDedupeService;
+    private final TransactionTemplate transactionTemplate;
+    private final RecentSet<String> accepted;
+    private final ReentrantLock drainLock = new ReentrantLock();
+
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long leaseMs;
+    private volatile long lastLeaseCheck;
+
+    private final AtomicLong pendingDepth = new AtomicLong();
+    private final Counter processedCounter;
+    private final Counter failedCounter;
+    private final Counter duplicateCounter;
+
+    public VnPayIpnInboxService(VnPayIpnInboxRepository inboxRepository,
+                                OrderRepository orderRepository,
+                                PaymentDedupeService paymentDedupeService,
+                                PlatformTransactionManager transactionManager,
+                                MeterRegistry meterRegistry,
+                                @Value("${vnpay.ipn.batch-size:200}") int batchSize,
+                                @Value("${vnpay.ipn.max-attempts:5}") int maxAttempts,
+                                @Value("${vnpay.ipn.lease-ms:60000}") long leaseMs,
+                                @Value("${payment.dedupe.recent-capacity:10000}") int recentCapacity) {
+        this.inboxRepository = inboxRepository;
+        this.orderRepository = orderRepository;
+        this.paymentDedupeService = paymentDedupeService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.accepted = new RecentSet<>(recentCapacity);
+        this.batchSize = batchSize;
+        this.maxAttempts = maxAttempts;
+        this.leaseMs = leaseMs;
+
+        Gauge.builder("vnpay.ipn.inbox.pending", pendingDepth, AtomicLong::get)
+                .description("IPN notifications waiting to be applied")
+                .register(meterRegistry);
+        this.processedCounter = Counter.builder("vnpay.ipn.inbox.processed").register(meterRegistry);
+        this.failedCounter = Counter.builder("vnpay.ipn.inbox.failed").register(meterRegistry);
+        this.duplicateCounter = Counter.builder("vnpay.ipn.inbox.duplicates").register(meterRegistry);
+    }
+
+    /**
+     * Ghi IPN đã xác thực vào hàng đợi. Chỉ một câu INSERT (tự commit) trên đường trả lời VNPay.
+     *
+     * @return DUPLICATE nếu mã giao dịch đã từng được nhận vào hàng đợi
+     */
+    public AppendResult append(String transactionNo, String txnRef, Integer orderId, BigDecimal amount, String bankCode) {
+        if (accepted.contains(transactionNo)) {
+            return AppendResult.DUPLICATE;
+        }
+        VnPayIpnInbox entry = new VnPayIpnInbox();
+        entry.setTransactionNo(transactionNo);
+        entry.setTxnRef(txnRef);
+        entry.setOrderId(orderId);
+        entry.setAmount(amount);
+        entry.setBankCode(bankCode);
+        try {
+            inboxRepository.saveAndFlush(entry);
+        } catch (DataIntegrityViolationException e) {
+            // Chỉ trùng unique trên transaction_no mới là lần gửi lại của VNPay (hoặc node khác đã nhận trước);
+            // lỗi ràng buộc khác (NOT NULL, độ dài...) phải báo lên để VNPay gửi lại sau
+            if (!DuplicateKeys.isDuplicateKey(e)) {
+                throw e;
+            }
+            accepted.add(transactionNo);
+            return AppendResult.DUPLICATE;
+        }
+        accepted.add(transactionNo);
+        pendingDepth.incrementAndGet();
+        return AppendResult.ACCEPTED;
+    }
+
+    /**
+     * Phát lại khi khởi động: trả các dòng bị bỏ dở về hàng đợi rồi xử lý hết phần còn tồn.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void replayOnStartup() {
+        int released = releaseStale();
+        long pending = inboxRepository.countByStatus(VnPayIpnInbox.Status.PENDING);
+        log.info("VNPay IPN inbox: {} pending notifications to replay ({} released from stale leases)", pending, released);
+        drain();
+    }
+
+    @Scheduled(fixedDelayString = "${vnpay.ipn.poll-ms:500}")
+    public void drain() {
+        if (!drainLock.tryLock()) {
+            return;
+        }
+        try {
+            if (System.currentTimeMillis() - lastLeaseCheck >= leaseMs) {
+                releaseStale();
+            }
+            // Lô lỗi thì dừng lượt này: các dòng đã về PENDING, lần poll sau mới thử lại (không quay vòng liên tục)
+            int processed;
+            do {
+                processed = processBatch();
+            } while (processed == batchSize);
+            pendingDepth.set(inboxRepository.countByStatus(VnPayIpnInbox.Status.PENDING));
+        } catch (RuntimeException e) {
+            log.error("VNPay IPN inbox drain failed", e);
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    private int releaseStale() {
+        lastLeaseCheck = System.currentTimeMillis();
+        Integer released = transactionTemplate.execute(status -> inboxRepository.releaseStale(
+                VnPayIpnInbox.Status.PENDING,
+                VnPayIpnInbox.Status.PROCESSING,
+                LocalDateTime.now().minusNanos(leaseMs * 1_000_000)));
+        if (released != null && released > 0) {
+            log.warn("Released {} VNPay IPN notifications with expired lease", released);
+        }
+        return released == null ? 0 : released;
+    }
+
+    /**
+     * Xử lý một lô. Trả về số dòng đã xong (ghi được thanh toán hoặc bỏ cuộc vĩnh viễn),
+     * nhỏ hơn kích thước lô (0 nếu không ghi được dòng nào) khi có lỗi để vòng drain dừng lại.
+     */
+    private int processBatch() {
+        // Giao dịch ngắn chỉ để nhận lô; phần ghi thanh toán chạy trong giao dịch riêng của PaymentDedupeService
+        List<VnPayIpnInbox> batch = transactionTemplate.execute(status -> {
+            List<Long> ids = inboxRepository.lockPendingIds(batchSize);
+            if (ids.isEmpty()) {
+                return List.of();
+            }
+            inboxRepository.claim(ids, VnPayIpnInbox.Status.PROCESSING, LocalDateTime.now());
+            return inboxRepository.findAllById(ids);
+        });
+        if (batch == null || batch.isEmpty()) {
+            return 0;
+        }
+
+        Set<Integer> orderIds = batch.stream().map(VnPayIpnInbox::getOrderId).collect(Collectors.toSet());
+        Map<Integer, Order> orders = orderRepository.findAllById(orderIds).stream()
+                .collect(Collectors.toMap(Order::getId, Function.identity()));
+
+        Map<String, Supplier<Payment>> payments = new HashMap<>();
+        List<VnPayIpnInbox> applicable = new ArrayList<>();
+        List<VnPayIpnInbox> orphaned = new ArrayList<>();
+        for (VnPayIpnInbox entry : batch) {
+            Order order = orders.get(entry.getOrderId());
+            if (order == null) {
+                orphaned.add(entry);
+                continue;
+            }
+            applicable.add(entry);
+            payments.put(entry.getTransactionNo(), () -> {
+                Payment payment = new Payment();
+                payment.setOrder(order);
+                payment.setAmount(entry.getAmount());
+                payment.setPaymentMethod(entry.getBankCode()); // Lưu lại mã ngân hàng/ví
+                payment.setProvider(Payment.PROVIDER_VNPAY);
+                payment.setPaidAt(entry.getReceivedAt());
+                return payment;
+            });
+        }
+        if (!orphaned.isEmpty()) {
+            // Không thử lại: đơn hàng không tồn tại thì lần sau cũng vậy
+            orphaned.forEach(entry -> log.error("IPN for transaction {} references missing order ID {}",
+                    entry.getTransactionNo(), entry.getOrderId()));
+            markFailed(orphaned, "Order not found", true);
+        }
+        if (applicable.isEmpty()) {
+            return batch.size();
+        }
+
+        try {
+            Map<String, PaymentDedupeService.Outcome> outcomes = paymentDedupeService.recordBatch(payments);
+            long duplicates = outcomes.values().stream()
+                    .filter(outcome -> outcome == PaymentDedupeService.Outcome.DUPLICATE)
+                    .count();
+            markDone(applicable.stream().map(VnPayIpnInbox::getId).toList(), duplicates);
+            log.info("Applied {} VNPay IPN notifications ({} duplicates)", applicable.size(), duplicates);
+        } catch (RuntimeException e) {
+            // Một dòng hỏng không được kéo cả lô vào vòng thử lại: ghi lại từng dòng
+            log.warn("Failed to apply batch of {} VNPay IPN notifications, retrying one by one", applicable.size(), e);
+            return orphaned.size() + applyOneByOne(applicable, payments);
+        }
+        return batch.size();
+    }
+
+    private int applyOneByOne(List<VnPayIpnInbox> entries, Map<String, Supplier<Payment>> payments) {
+        List<Long> doneIds = new ArrayList<>();
+        long duplicates = 0;
+        for (VnPayIpnInbox entry : entries) {
+            try {
+                PaymentDedupeService.Outcome outcome = paymentDedupeService.recordPayment(
+                        entry.getTransactionNo(), payments.get(entry.getTransactionNo()));
+                if (outcome == PaymentDedupeService.Outcome.DUPLICATE) {
+                    duplicates++;
+                }
+                doneIds.add(entry.getId());
+            } catch (RuntimeException e) {
+                log.error("Failed to apply VNPay IPN for transaction {}", entry.getTransactionNo(), e);
+                markFailed(List.of(entry), e.getMessage(), false);
+            }
+        }
+        if (!doneIds.isEmpty()) {
+            markDone(doneIds, duplicates);
+        }
+        return doneIds.size();
+    }
+
+    private void markDone(List<Long> doneIds, long duplicates) {
+        transactionTemplate.executeWithoutResult(status ->
+                inboxRepository.markDone(doneIds, VnPayIpnInbox.Status.DONE, LocalDateTime.now()));
+        processedCounter.increment(doneIds.size() - duplicates);
+        duplicateCounter.increment(duplicates);
+    }
+
+    // Tăng số lần thử; quá max-attempts (hoặc lỗi vĩnh viễn) thì dừng ở FAILED để người vận hành xem xét.
+    // Cập nhật hàng loạt theo id trong giao dịch riêng; các entity của lô đã tách khỏi giao dịch lấy lô
+    private void markFailed(List<VnPayIpnInbox> entries, String error, boolean permanent) {
+        String message = error == null ? "unknown error" : error.length() > 500 ? error.substring(0, 500) : error;
+        List<Long> retryIds = new ArrayList<>();
+        List<Long> failedIds = new ArrayList<>();
+        for (VnPayIpnInbox entry : entries) {
+            boolean giveUp = permanent || entry.getAttempts() + 1 >= maxAttempts;
+            (giveUp ? failedIds : retryIds).add(entry.getId());
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!retryIds.isEmpty()) {
+                inboxRepository.markAttempt(retryIds, VnPayIpnInbox.Status.PENDING, message);
+            }
+            if (!failedIds.isEmpty()) {
+                inboxRepository.markAttempt(failedIds, VnPayIpnInbox.Status.FAILED, message);
+            }
+        });
+        failedCounter.increment(failedIds.size());
+    }
+}
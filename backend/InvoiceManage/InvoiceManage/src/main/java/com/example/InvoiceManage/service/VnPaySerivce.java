@@ -2,28 +2,25 @@ package com.example.InvoiceManage.service;
 
 import com.example.InvoiceManage.DTO.request.PaymentRequest;
 import com.example.InvoiceManage.entity.Order;
-import com.example.InvoiceManage.entity.Payment;
 import com.example.InvoiceManage.entity.SecurityUser;
+import com.example.InvoiceManage.entity.VnPayPaymentAttempt;
 import com.example.InvoiceManage.repository.OrderRepository;
-import com.example.InvoiceManage.repository.PaymentRepository;
+import com.example.InvoiceManage.repository.VnPayPaymentAttemptRepository;
 import com.example.InvoiceManage.util.Config; // Giả sử đây là class chứa các hằng số của bạn
+import com.example.InvoiceManage.util.VnPaySigner;
 import jakarta.persistence.EntityNotFoundException;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
-import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
-import java.time.LocalDateTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 
 @Service
@@ -34,7 +31,16 @@ public class VnPaySerivce {
     private OrderRepository orderRepository; // SỬ DỤNG OrderRepository
 
     @Autowired
-    private PaymentRepository paymentRepository;
+    private PaymentDedupeService paymentDedupeService;
+
+    @Autowired
+    private VnPayIpnInboxService ipnInboxService;
+
+    @Autowired
+    private VnPayPaymentAttemptRepository attemptRepository;
+
+    // Mac đã nạp khóa sẵn, dùng chung cho cả ký URL thanh toán và xác thực IPN
+    private final VnPaySigner vnPaySigner = new VnPaySigner(Config.secretKey);
 
     public Map<String, String> createOrder(PaymentRequest paymentRequest, SecurityUser securityUser) {
         // Kiểm tra xem Order có tồn tại không
@@ -59,7 +65,7 @@ public class VnPaySerivce {
         String vnp_TmnCode = Config.vnp_TmnCode;
         String vnp_ReturnUrl = Config.vnp_ReturnUrl;
 
-        Map<String, String> vnp_Params = new HashMap<>();
+        Map<String, String> vnp_Params = new HashMap<>(16);
         vnp_Params.put("vnp_Version", "2.1.0");
         vnp_Params.put("vnp_Command", "pay");
         vnp_Params.put("vnp_TmnCode", vnp_TmnCode);
@@ -76,74 +82,37 @@ public class VnPaySerivce {
             vnp_Params.put("vnp_BankCode", bankCode);
         }
 
-        Calendar cld = Calendar.getInstance(TimeZone.getTimeZone("Etc/GMT+7"));
-        SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMddHHmmss");
-        String vnp_CreateDate = formatter.format(cld.getTime());
+        Instant now = Instant.now();
+        String vnp_CreateDate = VnPaySigner.VNPAY_DATE.format(now);
         vnp_Params.put("vnp_CreateDate", vnp_CreateDate);
+        vnp_Params.put("vnp_ExpireDate", VnPaySigner.VNPAY_DATE.format(now.plus(15, ChronoUnit.MINUTES)));
 
-        cld.add(Calendar.MINUTE, 15);
-        String vnp_ExpireDate = formatter.format(cld.getTime());
-        vnp_Params.put("vnp_ExpireDate", vnp_ExpireDate);
-
-        // --- Phần còn lại của logic giữ nguyên ---
-        List<String> fieldNames = new ArrayList<>(vnp_Params.keySet());
-        Collections.sort(fieldNames);
-        StringBuilder hashData = new StringBuilder();
-        StringBuilder query = new StringBuilder();
-        try {
-            for (String fieldName : fieldNames) {
-                String fieldValue = vnp_Params.get(fieldName);
-                if ((fieldValue != null) && (fieldValue.length() > 0)) {
-                    hashData.append(fieldName);
-                    hashData.append('=');
-                    hashData.append(URLEncoder.encode(fieldValue, StandardCharsets.US_ASCII.toString()));
-                    query.append(URLEncoder.encode(fieldName, StandardCharsets.US_ASCII.toString()));
-                    query.append('=');
-                    query.append(URLEncoder.encode(fieldValue, StandardCharsets.US_ASCII.toString()));
-                    query.append('&');
-                    hashData.append('&');
-                }
-            }
-            if (query.length() > 0) {
-                query.setLength(query.length() - 1);
-            }
-            if (hashData.length() > 0) {
-                hashData.setLength(hashData.length() - 1);
-            }
-        } catch (UnsupportedEncodingException e) {
-            log.error("Error encoding VNPAY params", e);
-            throw new RuntimeException(e);
-        }
+        // Lưu lại để đối soát bằng API querydr nếu IPN không đến
+        VnPayPaymentAttempt attempt = new VnPayPaymentAttempt();
+        attempt.setOrderId(order.getId());
+        attempt.setTxnRef(vnp_TxnRef);
+        attempt.setAmount(BigDecimal.valueOf(paymentRequest.getAmount()));
+        attempt.setVnpCreateDate(vnp_CreateDate);
+        attemptRepository.save(attempt);
 
-        String queryUrl = query.toString();
-        String vnp_SecureHash = Config.hmacSHA512(Config.secretKey, hashData.toString());
-        queryUrl += "&vnp_SecureHash=" + vnp_SecureHash;
-        String paymentUrl = Config.vnp_PayUrl + "?" + queryUrl;
+        // Sắp xếp, mã hóa URL và ký trong một lượt; chuỗi băm chính là chuỗi truy vấn
+        String paymentUrl = Config.vnp_PayUrl + "?" + vnPaySigner.signedQuery(vnp_Params);
 
         return Map.of("paymentUrl", paymentUrl);
     }
     // Trong lớp VnPaySerivce.java
 
-    @Transactional
+    // Trả lời nhanh: chỉ xác thực và ghi IPN vào hàng đợi bền (một câu INSERT),
+    // thanh toán được ghi bởi VnPayIpnInboxService ở nền theo lô
     public ResponseEntity<Map<String, String>> ipn(@RequestParam Map<String, String> params) {
         log.info("IPN request received from VNPay with params: {}", params);
 
         // BƯỚC 1: XÁC THỰC CHỮ KÝ (SECURITY CHECK - QUAN TRỌNG)
         // Để đảm bảo request đến từ VNPay và dữ liệu không bị thay đổi.
-        // Bạn cần tự hoàn thiện logic này dựa trên tài liệu của VNPay.
-    /*
-    String vnp_SecureHash = params.get("vnp_SecureHash");
-    if (vnp_SecureHash == null || vnp_SecureHash.isEmpty()) {
-        log.error("IPN Security Error: vnp_SecureHash is missing.");
-        return ResponseEntity.ok(Map.of("RspCode", "97", "Message", "Invalid Checksum"));
-    }
-
-    // Logic để tạo lại checksum từ các tham số nhận được
-    if (!isSignatureValid(params, vnp_SecureHash)) { // isSignatureValid là một phương thức bạn tự viết
-        log.error("IPN Security Error: Invalid signature.");
-        return ResponseEntity.ok(Map.of("RspCode", "97", "Message", "Invalid Checksum"));
-    }
-    */
+        if (!vnPaySigner.verify(params)) {
+            log.error("IPN Security Error: missing or invalid vnp_SecureHash.");
+            return ResponseEntity.ok(Map.of("RspCode", "97", "Message", "Invalid Checksum"));
+        }
 
         // BƯỚC 2: KIỂM TRA MÃ THAM CHIẾU GIAO DỊCH (vnp_TxnRef)
         String vnp_TxnRef = params.get("vnp_TxnRef");
@@ -153,7 +122,7 @@ public class VnPaySerivce {
             return ResponseEntity.ok(Map.of("RspCode", "01", "Message", "Order not found"));
         }
 
-        // BƯỚC 3: TRÍCH XUẤT ORDER ID VÀ TÌM ĐƠN HÀNG MỘT CÁCH AN TOÀN
+        // BƯỚC 3: TRÍCH XUẤT ORDER ID MỘT CÁCH AN TOÀN
         Integer orderId;
         try {
             orderId = Integer.parseInt(vnp_TxnRef.split("_")[0]);
@@ -163,15 +132,6 @@ public class VnPaySerivce {
             return ResponseEntity.ok(Map.of("RspCode", "01", "Message", "Order not found"));
         }
 
-        // Tìm đơn hàng trong CSDL
-        Optional<Order> orderOptional = orderRepository.findById(orderId);
-        if (orderOptional.isEmpty()) {
-            log.error("IPN Logic Error: Order with ID {} not found in the database.", orderId);
-            // Mã lỗi "01": Đơn hàng không tồn tại
-            return ResponseEntity.ok(Map.of("RspCode", "01", "Message", "Order not found"));
-        }
-        Order order = orderOptional.get();
-
         // BƯỚC 4: KIỂM TRA TRÙNG LẶP GIAO DỊCH
         // Sử dụng mã giao dịch của VNPay (vnp_TransactionNo) để đảm bảo mỗi giao dịch chỉ được xử lý một lần.
         String vnpTransactionNo = params.get("vnp_TransactionNo");
@@ -179,37 +139,39 @@ public class VnPaySerivce {
             log.error("IPN Logic Error: vnp_TransactionNo is missing.");
             return ResponseEntity.ok(Map.of("RspCode", "99", "Message", "Input data required"));
         }
-
+        // VNPay gửi lại IPN nhiều lần: lần gửi lại được xác nhận ngay, không chạm CSDL
+        if (paymentDedupeService.isRecentlyProcessed(vnpTransactionNo)) {
+            log.debug("IPN replay for transaction {} acknowledged from cache", vnpTransactionNo);
+            return ResponseEntity.ok(Map.of("RspCode", "02", "Message", "Order already confirmed"));
+        }
 
         // BƯỚC 5: XỬ LÝ KẾT QUẢ GIAO DỊCH DỰA TRÊN MÃ PHẢN HỒI
         String vnp_ResponseCode = params.get("vnp_ResponseCode");
-        if ("00".equals(vnp_ResponseCode)) {
-            // --- GIAO DỊCH THÀNH CÔNG ---
-            log.info("Payment for order ID {} was successful. Creating payment record.", orderId);
-
-            // Tạo một bản ghi thanh toán mới
-            Payment payment = new Payment();
-            BigDecimal amount = new BigDecimal(params.get("vnp_Amount")).divide(new BigDecimal(100));
-
-            payment.setOrder(order); // Liên kết thanh toán với đơn hàng
-            payment.setAmount(amount);
-            payment.setPaymentMethod(params.get("vnp_BankCode")); // Lưu lại mã ngân hàng/ví
-            payment.setPaidAt(LocalDateTime.now());
-
-            // Lưu vào cơ sở dữ liệu
-            paymentRepository.save(payment);
-
-
-
-            log.info("Successfully created payment record for order ID {}.", orderId);
-
-            // Trả về cho VNPay biết đã xử lý thành công
-            return ResponseEntity.ok(Map.of("RspCode", "00", "Message", "Confirm Success"));
-
-        } else {
+        if (!"00".equals(vnp_ResponseCode)) {
             // --- GIAO DỊCH THẤT BẠI ---
             log.warn("Payment for order ID {} failed. VNPay response code: {}", orderId, vnp_ResponseCode);
             return ResponseEntity.ok(Map.of("RspCode", "00", "Message", "Confirm Success"));
         }
+
+        // --- GIAO DỊCH THÀNH CÔNG ---
+        BigDecimal amount;
+        try {
+            amount = new BigDecimal(params.get("vnp_Amount")).divide(new BigDecimal(100));
+        } catch (NumberFormatException | NullPointerException e) {
+            log.error("IPN Logic Error: invalid vnp_Amount '{}'", params.get("vnp_Amount"));
+            return ResponseEntity.ok(Map.of("RspCode", "04", "Message", "Invalid amount"));
+        }
+
+        // Việc kiểm tra đơn hàng tồn tại và ghi thanh toán chuyển sang tiến trình nền
+        VnPayIpnInboxService.AppendResult result = ipnInboxService.append(
+                vnpTransactionNo, vnp_TxnRef, orderId, amount, params.get("vnp_BankCode"));
+        if (result == VnPayIpnInboxService.AppendResult.DUPLICATE) {
+            log.info("Duplicate IPN for transaction {} (order ID {}) ignored.", vnpTransactionNo, orderId);
+            return ResponseEntity.ok(Map.of("RspCode", "02", "Message", "Order already confirmed"));
+        }
+
+        log.info("Queued payment for order ID {} (transaction {}).", orderId, vnpTransactionNo);
+        // Trả về cho VNPay biết đã nhận thành công
+        return ResponseEntity.ok(Map.of("RspCode", "00", "Message", "Confirm Success"));
     }
 }
\ No newline at end of file
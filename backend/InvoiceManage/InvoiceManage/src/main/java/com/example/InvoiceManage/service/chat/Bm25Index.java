@@ -0,0 +1,411 @@
+package com.example.InvoiceManage.service.chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Chỉ mục đảo (inverted index) bất biến trên các đoạn văn bản, chấm điểm theo BM25.
+ *
+ * Dựng một lần khi nạp tài liệu: mỗi từ -> danh sách (đoạn, tần suất) lưu liền nhau,
+ * độ dài mỗi đoạn và IDF mỗi từ được tính sẵn. Khi tìm kiếm chỉ duyệt danh sách của các từ trong câu hỏi
+ * rồi lấy top-k bằng heap, nên thời gian tìm tăng theo số từ của câu hỏi (và độ dài danh sách của chúng),
+ * không theo tổng số đoạn của tài liệu.
+ *
+ * Toàn bộ chỉ mục (cả văn bản các đoạn) nằm trong một vùng nhớ nhị phân liền mạch với bố cục cố định,
+ * nên cùng một định dạng vừa dùng trong bộ nhớ vừa ghi ra file; {@link #open(Path)} ánh xạ file (mmap)
+ * và đọc trực tiếp, dữ liệu nằm ngoài heap và dùng được ngay khi khởi động, không phải đọc lại DOCX.
+ * Bất biến nên an toàn khi nhiều luồng cùng đọc; thay tài liệu bằng cách thay cả đối tượng.
+ *
+ * Bố cục (int/float 4 byte, big-endian): header | chunkOffsets[N+1] | lengthNorm[N] | termOffsets[T+1]
+ * | idf[T] | postingStart[T+1] | postingChunks[P] | postingFreqs[P] | termData | chunkData.
+ * Các từ được sắp theo thứ tự byte UTF-8 để tra bằng tìm kiếm nhị phân.
+ */
+public final class Bm25Index {
+
+    public static final Bm25Index EMPTY = build(List.of());
+
+    private static final long MAGIC = 0x4354584944583031L; // "CTXIDX01"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 24;
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    public record Hit(int chunk, float score) {}
+
+    private final ByteBuffer data;
+    private final int chunkCount;
+    private final int termCount;
+    private final int chunkOffsetsAt;
+    private final int lengthNormAt;
+    private final int termOffsetsAt;
+    private final int idfAt;
+    private final int postingStartAt;
+    private final int postingChunksAt;
+    private final int postingFreqsAt;
+    private final int termDataAt;
+    private final int chunkDataAt;
+
+    private Bm25Index(ByteBuffer data) {
+        if (data.capacity() < HEADER_BYTES || data.getLong(0) != MAGIC || data.getInt(8) != VERSION) {
+            throw new IllegalArgumentException("Not a chat context index");
+        }
+        int chunks = data.getInt(12);
+        int terms = data.getInt(16);
+        int postingCount = data.getInt(20);
+        if (chunks < 0 || terms < 0 || postingCount < 0) {
+            throw corrupt();
+        }
+        // Tính vị trí bằng long: số đếm trong header hỏng không được làm tràn int rồi "khớp" nhầm với dung lượng
+        long capacity = data.capacity();
+        long chunkOffsets = HEADER_BYTES;
+        long lengthNorm = chunkOffsets + 4L * (chunks + 1L);
+        long termOffsets = lengthNorm + 4L * chunks;
+        long idf = termOffsets + 4L * (terms + 1L);
+        long postingStart = idf + 4L * terms;
+        long postingChunks = postingStart + 4L * (terms + 1L);
+        long postingFreqs = postingChunks + 4L * postingCount;
+        long termData = postingFreqs + 4L * postingCount;
+        if (termData > capacity || data.getInt((int) (postingStart + 4L * terms)) != postingCount) {
+            throw corrupt();
+        }
+        int termDataLength = data.getInt((int) (termOffsets + 4L * terms));
+        int chunkDataLength = data.getInt((int) (chunkOffsets + 4L * chunks));
+        if (termDataLength < 0 || chunkDataLength < 0 || termData + termDataLength + chunkDataLength != capacity) {
+            throw corrupt();
+        }
+        this.data = data;
+        this.chunkCount = chunks;
+        this.termCount = terms;
+        this.chunkOffsetsAt = (int) chunkOffsets;
+        this.lengthNormAt = (int) lengthNorm;
+        this.termOffsetsAt = (int) termOffsets;
+        this.idfAt = (int) idf;
+        this.postingStartAt = (int) postingStart;
+        this.postingChunksAt = (int) postingChunks;
+        this.postingFreqsAt = (int) postingFreqs;
+        this.termDataAt = (int) termData;
+        this.chunkDataAt = (int) (termData + termDataLength);
+    }
+
+    private static IllegalArgumentException corrupt() {
+        return new IllegalArgumentException("Chat context index is truncated or corrupt");
+    }
+
+    public static Bm25Index build(List<String> chunks) {
+        int n = chunks.size();
+        Map<String, Integer> termIds = new HashMap<>();
+        List<int[]> postings = new ArrayList<>(); // mỗi từ: [số phần tử, đoạn0, tần suất0, đoạn1, tần suất1, ...]
+        int[] lengths = new int[n];
+        long totalLength = 0;
+
+        for (int doc = 0; doc < n; doc++) {
+            List<String> tokens = TextTokenizer.tokenize(chunks.get(doc));
+            lengths[doc] = tokens.size();
+            totalLength += tokens.size();
+            Map<String, Integer> freqs = new HashMap<>();
+            for (String token : tokens) {
+                freqs.merge(token, 1, Integer::sum);
+            }
+            for (Map.Entry<String, Integer> entry : freqs.entrySet()) {
+                int term = termIds.computeIfAbsent(entry.getKey(), k -> {
+                    postings.add(new int[9]);
+                    return postings.size() - 1;
+                });
+                int[] list = postings.get(term);
+                int size = list[0];
+                if (2 * size + 3 > list.length) {
+                    list = Arrays.copyOf(list, list.length * 2 + 1);
+                    postings.set(term, list);
+                }
+                list[2 * size + 1] = doc;
+                list[2 * size + 2] = entry.getValue();
+                list[0] = size + 1;
+            }
+        }
+
+        // Sắp các từ theo byte UTF-8 (không dấu) để tra bằng tìm kiếm nhị phân trên dữ liệu đã ghi
+        int termCount = termIds.size();
+        byte[][] termBytes = new byte[termCount][];
+        int[] order = new int[termCount];
+        for (Map.Entry<String, Integer> entry : termIds.entrySet()) {
+            termBytes[entry.getValue()] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        }
+        Integer[] sorted = new Integer[termCount];
+        for (int t = 0; t < termCount; t++) {
+            sorted[t] = t;
+        }
+        Arrays.sort(sorted, (a, b) -> Arrays.compareUnsigned(termBytes[a], termBytes[b]));
+        for (int t = 0; t < termCount; t++) {
+            order[t] = sorted[t];
+        }
+
+        byte[][] chunkBytes = new byte[n][];
+        long chunkDataLength = 0;
+        for (int doc = 0; doc < n; doc++) {
+            chunkBytes[doc] = chunks.get(doc).getBytes(StandardCharsets.UTF_8);
+            chunkDataLength += chunkBytes[doc].length;
+        }
+        long termDataLength = 0;
+        long postingCount = 0;
+        for (int t = 0; t < termCount; t++) {
+            termDataLength += termBytes[t].length;
+            postingCount += postings.get(t)[0];
+        }
+        long total = HEADER_BYTES + 4L * (n + 1) + 4L * n + 4L * (termCount + 1) + 4L * termCount
+                + 4L * (termCount + 1) + 8L * postingCount + termDataLength + chunkDataLength;
+        if (total > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Document is too large for a single context index (" + total + " bytes)");
+        }
+
+        ByteBuffer out = ByteBuffer.allocate((int) total);
+        out.putLong(MAGIC).putInt(VERSION).putInt(n).putInt(termCount).putInt((int) postingCount);
+        int offset = 0;
+        for (int doc = 0; doc < n; doc++) {
+            out.putInt(offset);
+            offset += chunkBytes[doc].length;
+        }
+        out.putInt(offset);
+        float avgLength = n == 0 ? 0 : (float) totalLength / n;
+        for (int doc = 0; doc < n; doc++) {
+            // k1 * (1 - b + b * độ dài đoạn / độ dài trung bình)
+            out.putFloat(avgLength == 0 ? K1 : K1 * (1 - B + B * lengths[doc] / avgLength));
+        }
+        offset = 0;
+        for (int t : order) {
+            out.putInt(offset);
+            offset += termBytes[t].length;
+        }
+        out.putInt(offset);
+        for (int t : order) {
+            int df = postings.get(t)[0];
+            out.putFloat((float) Math.log(1 + (n - df + 0.5) / (df + 0.5)));
+        }
+        offset = 0;
+        for (int t : order) {
+            out.putInt(offset);
+            offset += postings.get(t)[0];
+        }
+        out.putInt(offset);
+        for (int t : order) {
+            int[] list = postings.get(t);
+            for (int i = 0; i < list[0]; i++) {
+                out.putInt(list[2 * i + 1]);
+            }
+        }
+        for (int t : order) {
+            int[] list = postings.get(t);
+            for (int i = 0; i < list[0]; i++) {
+                out.putInt(list[2 * i + 2]);
+            }
+        }
+        for (int t : order) {
+            out.put(termBytes[t]);
+        }
+        for (byte[] bytes : chunkBytes) {
+            out.put(bytes);
+        }
+        return new Bm25Index(out);
+    }
+
+    /**
+     * Mở chỉ mục đã ghi bằng {@link #writeTo(Path)} qua ánh xạ bộ nhớ (chỉ đọc).
+     * Vùng ánh xạ tồn tại tới khi đối tượng bị thu gom, kể cả khi file đã bị xóa hay thay thế.
+     */
+    public static Bm25Index open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Chat context index is too large: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                return new Bm25Index(mapped);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                // Header trỏ ra ngoài file: file bị cắt cụt hoặc không phải chỉ mục
+                throw new IOException("Invalid chat context index " + file + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Ghi chỉ mục ra file: ghi vào file tạm rồi đổi tên, nên file đích luôn là một chỉ mục hoàn chỉnh.
+     */
+    public void writeTo(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer view = data.duplicate().clear();
+            while (view.hasRemaining()) {
+                channel.write(view);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Tối đa k đoạn có điểm BM25 cao nhất (điểm > 0), điểm giảm dần.
+     */
+    public List<Hit> search(String query, int k) {
+        if (chunkCount == 0 || k <= 0) {
+            return List.of();
+        }
+        // Mỗi từ trong câu hỏi chỉ tính một lần
+        List<Integer> terms = new ArrayList<>();
+        long postings = 0;
+        for (String token : new LinkedHashSet<>(TextTokenizer.tokenize(query))) {
+            int term = findTerm(token.getBytes(StandardCharsets.UTF_8));
+            if (term >= 0) {
+                terms.add(term);
+                postings += data.getInt(postingStartAt + 4 * (term + 1)) - data.getInt(postingStartAt + 4 * term);
+            }
+        }
+        if (terms.isEmpty()) {
+            return List.of();
+        }
+
+        // Bảng điểm chỉ lớn bằng số đoạn có thể chạm tới, cấp phát theo từng lần tìm:
+        // không giữ mảng N phần tử cho mỗi chỉ mục x mỗi luồng (luồng ảo mỗi request một luồng)
+        ScoreTable scores = new ScoreTable((int) Math.min(postings, chunkCount));
+        for (int term : terms) {
+            float termIdf = data.getFloat(idfAt + 4 * term);
+            int from = data.getInt(postingStartAt + 4 * term);
+            int to = data.getInt(postingStartAt + 4 * (term + 1));
+            for (int p = from; p < to; p++) {
+                int doc = data.getInt(postingChunksAt + 4 * p);
+                int tf = data.getInt(postingFreqsAt + 4 * p);
+                scores.add(doc, termIdf * tf * (K1 + 1) / (tf + data.getFloat(lengthNormAt + 4 * doc)));
+            }
+        }
+
+        PriorityQueue<Hit> top = new PriorityQueue<>(k + 1, Bm25Index::compareHits);
+        for (int slot = 0; slot < scores.docs.length; slot++) {
+            if (scores.docs[slot] == 0) {
+                continue;
+            }
+            Hit hit = new Hit(scores.docs[slot] - 1, scores.values[slot]);
+            if (hit.score() <= 0) {
+                continue;
+            }
+            if (top.size() < k) {
+                top.add(hit);
+            } else if (compareHits(hit, top.peek()) > 0) {
+                top.poll();
+                top.add(hit);
+            }
+        }
+        List<Hit> result = new ArrayList<>(top);
+        result.sort((a, b) -> compareHits(b, a));
+        return result;
+    }
+
+    public String chunk(int index) {
+        if (index < 0 || index >= chunkCount) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        int from = data.getInt(chunkOffsetsAt + 4 * index);
+        int to = data.getInt(chunkOffsetsAt + 4 * (index + 1));
+        byte[] bytes = new byte[to - from];
+        data.get(chunkDataAt + from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public List<String> chunks() {
+        List<String> all = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            all.add(chunk(i));
+        }
+        return all;
+    }
+
+    public int size() {
+        return chunkCount;
+    }
+
+    public int termCount() {
+        return termCount;
+    }
+
+    /**
+     * Dung lượng của chỉ mục (byte), gồm cả văn bản các đoạn.
+     */
+    public long byteSize() {
+        return data.capacity();
+    }
+
+    private int findTerm(byte[] term) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareTerm(mid, term);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    // So sánh từ thứ index (đã ghi) với term theo thứ tự byte không dấu, không sao chép dữ liệu
+    private int compareTerm(int index, byte[] term) {
+        int from = termDataAt + data.getInt(termOffsetsAt + 4 * index);
+        int length = data.getInt(termOffsetsAt + 4 * (index + 1)) - data.getInt(termOffsetsAt + 4 * index);
+        int common = Math.min(length, term.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Integer.compare(data.get(from + i) & 0xFF, term[i] & 0xFF);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return Integer.compare(length, term.length);
+    }
+
+    // Điểm cao hơn đứng trước; cùng điểm thì đoạn nằm trước trong tài liệu được ưu tiên
+    private static int compareHits(Hit a, Hit b) {
+        int byScore = Float.compare(a.score(), b.score());
+        return byScore != 0 ? byScore : Integer.compare(b.chunk(), a.chunk());
+    }
+
+    // Bảng băm địa chỉ mở đoạn -> điểm; lưu (đoạn + 1) để 0 nghĩa là ô trống
+    private static final class ScoreTable {
+        private final int[] docs;
+        private final float[] values;
+        private final int mask;
+
+        private ScoreTable(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(2, expected) * 2 - 1) << 1;
+            this.docs = new int[capacity];
+            this.values = new float[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private void add(int doc, float value) {
+            int h = doc * 0x9E3779B9;
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (docs[slot] != 0 && docs[slot] != doc + 1) {
+                slot = (slot + 1) & mask;
+            }
+            docs[slot] = doc + 1;
+            values[slot] += value;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.InvoiceManage.service.chat;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Đọc từng dòng như BufferedReader.readLine nhưng dòng dài quá {@code maxChars} ký tự bị cắt thành nhiều dòng,
+ * để file không có xuống dòng (log, CSV xuất lỗi) không bị đọc nguyên vào một String.
+ */
+final class BoundedLineReader {
+
+    private final Reader reader;
+    private final int maxChars;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private boolean skipLineFeed;
+
+    BoundedLineReader(Reader reader, int maxChars) {
+        this.reader = reader;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Dòng tiếp theo (không gồm ký tự xuống dòng), hoặc null khi hết dữ liệu.
+     */
+    String readLine() throws IOException {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            if (position == limit) {
+                limit = reader.read(buffer, 0, buffer.length);
+                position = 0;
+                if (limit <= 0) {
+                    limit = 0;
+                    return line.length() > 0 ? line.toString() : null;
+                }
+            }
+            char c = buffer[position++];
+            if (skipLineFeed) {
+                skipLineFeed = false;
+                if (c == '\n') {
+                    continue;
+                }
+            }
+            if (c == '\n' || c == '\r') {
+                skipLineFeed = c == '\r';
+                return line.toString();
+            }
+            line.append(c);
+            if (line.length() >= maxChars) {
+                return line.toString();
+            }
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.InvoiceManage.service.chat;
+
+import com.example.InvoiceManage.util.TtlCache;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Cache câu trả lời của chatbot, để câu hỏi lặp lại trên cùng tài liệu không phải gọi model (mất vài giây) nữa.
+ *
+ * Khóa gồm: bộ ngữ cảnh (chủ sở hữu + tên bộ, kèm thế hệ), model, câu hỏi đã chuẩn hóa, mã băm của các đoạn
+ * ngữ cảnh tìm được và temperature. Câu trả lời không dùng chéo giữa các người dùng.
+ * Khi bộ ngữ cảnh đổi (nạp/bỏ tài liệu) thì bộ nhận một thế hệ mới: các câu trả lời cũ không còn khớp khóa
+ * nào và tự rơi khỏi cache theo TTL/kích thước, không cần quét cache.
+ * Thế hệ lấy từ một bộ đếm chung, không bao giờ lặp lại, nên khi bộ bị xóa hẳn có thể bỏ luôn mục của nó
+ * (về thế hệ 0) mà khóa cũ của bộ vẫn không khớp lại.
+ */
+@Component
+public class ChatAnswerCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern TRAILING_PUNCTUATION = Pattern.compile("[\\s?!.…]+$");
+
+    /**
+     * Khóa của một câu trả lời; lấy bằng {@link #key} trước khi gọi model, lưu lại bằng {@link #put}.
+     */
+    public record Key(String scope, long generation, String model, String query, String contextHash, double temperature) {}
+
+    private record CachedAnswer(String answer, long modelNanos) {}
+
+    private final TtlCache<Key, CachedAnswer> answers;
+    // chủ sở hữu + tên bộ -> thế hệ hiện tại; bộ chưa từng đổi hoặc đã xóa thì không có mục (thế hệ 0)
+    private final Map<String, Long> generations = new ConcurrentHashMap<>();
+    private final AtomicLong nextGeneration = new AtomicLong();
+    private final Counter savedSeconds;
+
+    public ChatAnswerCache(MeterRegistry meterRegistry,
+                           @Value("${chat.answer-cache.ttl-seconds:1800}") long ttlSeconds,
+                           @Value("${chat.answer-cache.max-size:2000}") int maxSize) {
+        this.answers = new TtlCache<>(ttlSeconds, TimeUnit.SECONDS, maxSize);
+
+        FunctionCounter.builder("chat.answer.cache.hits", answers, TtlCache::hits).register(meterRegistry);
+        FunctionCounter.builder("chat.answer.cache.misses", answers, TtlCache::misses).register(meterRegistry);
+        FunctionCounter.builder("chat.answer.cache.evictions", answers, TtlCache::evictions).register(meterRegistry);
+        Gauge.builder("chat.answer.cache.size", answers, TtlCache::size).register(meterRegistry);
+        Gauge.builder("chat.answer.cache.hit.ratio", answers, cache -> {
+            long total = cache.hits() + cache.misses();
+            return total == 0 ? 0 : (double) cache.hits() / total;
+        }).register(meterRegistry);
+        // Tổng thời gian model lẽ ra phải chạy cho các lượt trúng cache
+        this.savedSeconds = Counter.builder("chat.answer.cache.saved.model.time").baseUnit("seconds").register(meterRegistry);
+    }
+
+    public Key key(String owner, String collection, String model, String query, String context, double temperature) {
+        String scope = scope(owner, collection);
+        return new Key(scope, generations.getOrDefault(scope, 0L), model, normalize(query), sha256(context), temperature);
+    }
+
+    /**
+     * Câu trả lời đã lưu cho khóa, hoặc null.
+     */
+    public String get(Key key) {
+        CachedAnswer cached = answers.getIfPresent(key);
+        if (cached == null) {
+            return null;
+        }
+        savedSeconds.increment(cached.modelNanos() / 1e9);
+        return cached.answer();
+    }
+
+    /**
+     * @param modelNanos thời gian model đã chạy để có câu trả lời này (dùng cho số liệu thời gian tiết kiệm được)
+     */
+    public void put(Key key, String answer, long modelNanos) {
+        // Bộ ngữ cảnh đã đổi trong lúc chờ model: câu trả lời dựa trên ngữ cảnh cũ, không lưu
+        if (generations.getOrDefault(key.scope(), 0L) == key.generation()) {
+            answers.put(key, new CachedAnswer(answer, modelNanos));
+        }
+    }
+
+    /**
+     * Bỏ mọi câu trả lời đã lưu của một bộ ngữ cảnh.
+     */
+    public void invalidate(String owner, String collection) {
+        generations.put(scope(owner, collection), nextGeneration.incrementAndGet());
+    }
+
+    /**
+     * Bộ ngữ cảnh đã bị xóa: bỏ luôn mục thế hệ của bộ, để map không lớn dần theo số bộ từng tạo.
+     */
+    public void forget(String owner, String collection) {
+        generations.remove(scope(owner, collection));
+    }
+
+    public int size() {
+        return answers.size();
+    }
+
+    // Chuẩn hóa nhẹ để các cách gõ khác nhau của cùng câu hỏi trùng khóa: NFC, chữ thường, gộp khoảng trắng, bỏ dấu câu cuối
+    static String normalize(String query) {
+        String normalized = Normalizer.normalize(query == null ? "" : query, Normalizer.Form.NFC).toLowerCase(Locale.ROOT);
+        normalized = WHITESPACE.matcher(normalized.trim()).replaceAll(" ");
+        return TRAILING_PUNCTUATION.matcher(normalized).replaceAll("");
+    }
+
+    private static String scope(String owner, String collection) {
+        return owner + '\n' + collection;
+    }
+
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
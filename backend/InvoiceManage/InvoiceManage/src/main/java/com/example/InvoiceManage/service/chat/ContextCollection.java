@@ -0,0 +1,150 @@
+package com.example.InvoiceManage.service.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Một bộ ngữ cảnh chatbot gồm nhiều tài liệu, là snapshot bất biến: mọi thay đổi (thêm/bỏ tài liệu)
+ * tạo ra một snapshot mới với chỉ mục dựng lại, còn luồng đang đọc vẫn dùng snapshot cũ mà không cần khóa.
+ * Các đoạn của mọi tài liệu nằm chung một {@link Bm25Index}, theo thứ tự tài liệu;
+ * mỗi tài liệu giữ khoảng [firstChunk, firstChunk + chunkCount) của mình.
+ * Khi bật tìm kiếm theo embedding, bộ còn có {@link HnswIndex} với vector của từng đoạn (cùng thứ tự);
+ * vector của các tài liệu cũ được dùng lại khi dựng lại chỉ mục, chỉ tài liệu mới cần tính embedding.
+ */
+public final class ContextCollection {
+
+    public static final ContextCollection EMPTY = new ContextCollection(List.of(), Bm25Index.EMPTY, null);
+
+    public record Document(String name, int firstChunk, int chunkCount) {}
+
+    private final List<Document> documents;
+    private final Bm25Index index;
+    private final HnswIndex vectors;
+
+    /**
+     * @param vectors chỉ mục vector của các đoạn, null nếu bộ chỉ tìm theo từ khóa
+     */
+    public ContextCollection(List<Document> documents, Bm25Index index, HnswIndex vectors) {
+        int total = documents.stream().mapToInt(Document::chunkCount).sum();
+        if (total != index.size()) {
+            throw new IllegalArgumentException("Documents cover " + total + " chunks but the index has " + index.size());
+        }
+        if (vectors != null && vectors.size() != index.size()) {
+            throw new IllegalArgumentException("Vector index has " + vectors.size() + " vectors for " + index.size() + " chunks");
+        }
+        this.documents = List.copyOf(documents);
+        this.index = index;
+        this.vectors = vectors;
+    }
+
+    /**
+     * Snapshot mới có thêm tài liệu (thay tài liệu cùng tên nếu đã có).
+     *
+     * @param chunkVectors embedding của từng đoạn mới, hoặc null. Chỉ mục vector chỉ được giữ khi mọi tài liệu
+     *                     đều có vector cùng số chiều; nếu không, bộ quay về chỉ tìm theo từ khóa.
+     */
+    public ContextCollection withDocument(String name, List<String> chunks, List<float[]> chunkVectors) {
+        boolean keepVectors = canKeepVectors(name, chunks, chunkVectors);
+        List<String> allChunks = new ArrayList<>();
+        List<float[]> allVectors = new ArrayList<>();
+        List<Document> docs = new ArrayList<>();
+        for (Document document : documents) {
+            if (!document.name().equals(name)) {
+                docs.add(new Document(document.name(), allChunks.size(), document.chunkCount()));
+                allChunks.addAll(chunksOf(document));
+                if (keepVectors) {
+                    allVectors.addAll(vectorsOf(document));
+                }
+            }
+        }
+        docs.add(new Document(name, allChunks.size(), chunks.size()));
+        allChunks.addAll(chunks);
+        if (keepVectors) {
+            allVectors.addAll(chunkVectors);
+        }
+        return new ContextCollection(docs, Bm25Index.build(allChunks), keepVectors ? HnswIndex.build(allVectors) : null);
+    }
+
+    public ContextCollection withDocument(String name, List<String> chunks) {
+        return withDocument(name, chunks, null);
+    }
+
+    /**
+     * Snapshot mới không còn tài liệu này; trả về chính nó nếu không có tài liệu tên đó.
+     */
+    public ContextCollection withoutDocument(String name) {
+        if (documents.stream().noneMatch(d -> d.name().equals(name))) {
+            return this;
+        }
+        List<String> allChunks = new ArrayList<>();
+        List<float[]> allVectors = new ArrayList<>();
+        List<Document> docs = new ArrayList<>();
+        for (Document document : documents) {
+            if (!document.name().equals(name)) {
+                docs.add(new Document(document.name(), allChunks.size(), document.chunkCount()));
+                allChunks.addAll(chunksOf(document));
+                if (vectors != null) {
+                    allVectors.addAll(vectorsOf(document));
+                }
+            }
+        }
+        return docs.isEmpty() ? EMPTY
+                : new ContextCollection(docs, Bm25Index.build(allChunks), vectors != null ? HnswIndex.build(allVectors) : null);
+    }
+
+    public List<Document> documents() {
+        return documents;
+    }
+
+    public Bm25Index index() {
+        return index;
+    }
+
+    /**
+     * Chỉ mục vector, hoặc null nếu bộ chỉ tìm theo từ khóa.
+     */
+    public HnswIndex vectors() {
+        return vectors;
+    }
+
+    public boolean isEmpty() {
+        return documents.isEmpty();
+    }
+
+    /**
+     * Dung lượng bộ nhớ của các chỉ mục (byte).
+     */
+    public long byteSize() {
+        return index.byteSize() + (vectors != null ? vectors.byteSize() : 0);
+    }
+
+    private boolean canKeepVectors(String replaced, List<String> chunks, List<float[]> chunkVectors) {
+        if (chunkVectors == null || chunkVectors.size() != chunks.size()) {
+            return false;
+        }
+        if (documents.stream().allMatch(d -> d.name().equals(replaced))) {
+            return true; // không còn tài liệu cũ nào
+        }
+        if (vectors == null) {
+            return false; // tài liệu cũ được nạp khi chưa bật embedding
+        }
+        // Đổi model embedding thì số chiều khác, không trộn được với vector cũ
+        return chunkVectors.isEmpty() || vectors.size() == 0 || chunkVectors.get(0).length == vectors.dimensions();
+    }
+
+    private List<String> chunksOf(Document document) {
+        List<String> chunks = new ArrayList<>(document.chunkCount());
+        for (int i = document.firstChunk(); i < document.firstChunk() + document.chunkCount(); i++) {
+            chunks.add(index.chunk(i));
+        }
+        return chunks;
+    }
+
+    private List<float[]> vectorsOf(Document document) {
+        List<float[]> result = new ArrayList<>(document.chunkCount());
+        for (int i = document.firstChunk(); i < document.firstChunk() + document.chunkCount(); i++) {
+            result.add(vectors.vector(i));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,332 @@
+package com.example.InvoiceManage.service.chat;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.UnaryOperator;
+import java.util.regex.Pattern;
+
+/**
+ * Kho các bộ ngữ cảnh chatbot, mỗi bộ thuộc về một chủ sở hữu (người dùng) và có tên riêng.
+ *
+ * - Đọc không khóa: snapshot hiện tại của mỗi bộ nằm trong một biến volatile.
+ * - Ghi (thêm/bỏ tài liệu) tuần tự theo từng bộ: dựng snapshot mới, ghi xuống đĩa rồi mới công bố,
+ *   nên trên đĩa luôn có bản mới nhất.
+ * - Bộ nhớ có giới hạn: tổng dung lượng các bộ đang mở vượt ngưỡng thì bộ lâu không dùng nhất bị đóng (LRU);
+ *   vì đã có trên đĩa nên lần dùng sau chỉ cần ánh xạ lại file.
+ *
+ * Bố cục trên đĩa: {storeDir}/{sha256(chủ sở hữu)}/{tên bộ}.idx (chỉ mục), .docs (danh sách tài liệu)
+ * và .vec (chỉ mục vector, chỉ có khi bật tìm kiếm theo embedding).
+ */
+@Slf4j
+@Component
+public class ContextCollectionStore {
+
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+    private static final String INDEX_SUFFIX = ".idx";
+    private static final String DOCS_SUFFIX = ".docs";
+    private static final String VECTORS_SUFFIX = ".vec";
+
+    private static final class Slot {
+        private final ReentrantLock writeLock = new ReentrantLock();
+        private volatile ContextCollection snapshot;
+        private volatile long lastAccess;
+        private long residentBytes;
+    }
+
+    private final Path storeDir;
+    private final long maxResidentBytes;
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private final AtomicLong residentBytes = new AtomicLong();
+
+    public ContextCollectionStore(@Value("${chat.context.store-dir:./data/chat-context}") String storeDir,
+                                  @Value("${chat.context.max-resident-mb:256}") long maxResidentMb) {
+        this.storeDir = Paths.get(storeDir);
+        this.maxResidentBytes = maxResidentMb * 1024 * 1024;
+    }
+
+    public static boolean isValidName(String name) {
+        return name != null && NAME.matcher(name).matches();
+    }
+
+    /**
+     * Snapshot hiện tại của bộ ngữ cảnh; bộ chưa từng tạo thì trả về bộ rỗng.
+     */
+    public ContextCollection get(String owner, String name) {
+        String key = key(owner, name);
+        Slot slot = slots.get(key);
+        ContextCollection snapshot = slot == null ? null : slot.snapshot;
+        if (snapshot != null) {
+            slot.lastAccess = System.nanoTime();
+            return snapshot;
+        }
+        return load(owner, name, key);
+    }
+
+    /**
+     * Thay đổi bộ ngữ cảnh theo kiểu copy-on-write. update nhận snapshot hiện tại và trả về snapshot mới.
+     */
+    public ContextCollection update(String owner, String name, UnaryOperator<ContextCollection> update) {
+        String key = key(owner, name);
+        while (true) {
+            Slot slot = slots.computeIfAbsent(key, k -> new Slot());
+            slot.writeLock.lock();
+            try {
+                if (slots.get(key) != slot) {
+                    continue; // bộ vừa bị đóng (evict) trong lúc chờ khóa: lấy slot mới
+                }
+                ContextCollection current = slot.snapshot != null ? slot.snapshot : readFromDisk(owner, name);
+                ContextCollection next = update.apply(current);
+                if (next != current) {
+                    next = persist(owner, name, next);
+                }
+                if (next.isEmpty()) {
+                    // Bộ rỗng không có trên đĩa: không giữ slot trong bộ nhớ
+                    discard(key, slot);
+                } else {
+                    publish(slot, next);
+                }
+                return next;
+            } finally {
+                slot.writeLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Tên các bộ ngữ cảnh (đã lưu) của chủ sở hữu.
+     */
+    public List<String> list(String owner) {
+        List<String> names = new ArrayList<>();
+        Path dir = ownerDir(owner);
+        if (!Files.isDirectory(dir)) {
+            return names;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + INDEX_SUFFIX)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                names.add(fileName.substring(0, fileName.length() - INDEX_SUFFIX.length()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        names.sort(String::compareTo);
+        return names;
+    }
+
+    public int residentCount() {
+        return (int) slots.values().stream().filter(s -> s.snapshot != null).count();
+    }
+
+    public long residentBytes() {
+        return residentBytes.get();
+    }
+
+    private ContextCollection load(String owner, String name, String key) {
+        while (true) {
+            Slot slot = slots.get(key);
+            if (slot == null) {
+                if (!Files.exists(indexFile(owner, name))) {
+                    // Bộ chưa từng lưu: trả bộ rỗng, không tạo slot cho mỗi tên được hỏi tới
+                    return ContextCollection.EMPTY;
+                }
+                slot = slots.computeIfAbsent(key, k -> new Slot());
+            }
+            slot.writeLock.lock();
+            try {
+                if (slots.get(key) != slot) {
+                    continue; // bộ vừa bị đóng hoặc bỏ trong lúc chờ khóa: lấy slot mới
+                }
+                if (slot.snapshot == null) {
+                    ContextCollection loaded = readFromDisk(owner, name);
+                    if (loaded.isEmpty()) {
+                        // File vừa bị xóa hoặc không mở được
+                        discard(key, slot);
+                        return loaded;
+                    }
+                    publish(slot, loaded);
+                }
+                slot.lastAccess = System.nanoTime();
+                return slot.snapshot;
+            } finally {
+                slot.writeLock.unlock();
+            }
+        }
+    }
+
+    // Gọi khi đang giữ khóa của slot
+    private void discard(String key, Slot slot) {
+        slots.remove(key, slot);
+        slot.snapshot = null;
+        residentBytes.addAndGet(-slot.residentBytes);
+        slot.residentBytes = 0;
+    }
+
+    // Gọi khi đang giữ khóa của slot
+    private void publish(Slot slot, ContextCollection snapshot) {
+        long bytes = snapshot.byteSize();
+        residentBytes.addAndGet(bytes - slot.residentBytes);
+        slot.residentBytes = bytes;
+        slot.snapshot = snapshot;
+        slot.lastAccess = System.nanoTime();
+        evictIfOverBudget(slot);
+    }
+
+    private void evictIfOverBudget(Slot keep) {
+        while (residentBytes.get() > maxResidentBytes) {
+            Map.Entry<String, Slot> coldest = null;
+            for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+                Slot candidate = entry.getValue();
+                if (candidate != keep && candidate.snapshot != null
+                        && (coldest == null || candidate.lastAccess < coldest.getValue().lastAccess)) {
+                    coldest = entry;
+                }
+            }
+            if (coldest == null || !coldest.getValue().writeLock.tryLock()) {
+                return; // chỉ còn bộ đang dùng, hoặc bộ lạnh nhất đang được ghi: để lần sau
+            }
+            Slot victim = coldest.getValue();
+            try {
+                // Đã có trên đĩa: chỉ cần bỏ tham chiếu, người đang đọc snapshot cũ vẫn đọc được
+                discard(coldest.getKey(), victim);
+                log.debug("Evicted chat context {} from memory", coldest.getKey());
+            } finally {
+                victim.writeLock.unlock();
+            }
+        }
+    }
+
+    private ContextCollection readFromDisk(String owner, String name) {
+        Path indexFile = indexFile(owner, name);
+        if (!Files.exists(indexFile)) {
+            return ContextCollection.EMPTY;
+        }
+        try {
+            Bm25Index index = Bm25Index.open(indexFile);
+            List<ContextCollection.Document> documents = readDocuments(ownerDir(owner).resolve(name + DOCS_SUFFIX));
+            HnswIndex vectors = readVectors(ownerDir(owner).resolve(name + VECTORS_SUFFIX), index.size());
+            try {
+                return new ContextCollection(documents, index, vectors);
+            } catch (IllegalArgumentException e) {
+                // Danh sách tài liệu không khớp chỉ mục (ghi dở lúc tắt máy): vẫn giữ nội dung dưới một tên chung
+                log.warn("Chat context {}/{} has an inconsistent document list, treating it as one document", owner, name);
+                return new ContextCollection(List.of(new ContextCollection.Document("document", 0, index.size())), index, vectors);
+            }
+        } catch (IOException e) {
+            log.warn("Could not open chat context {}/{}, starting empty", owner, name, e);
+            return ContextCollection.EMPTY;
+        }
+    }
+
+    private ContextCollection persist(String owner, String name, ContextCollection collection) {
+        Path dir = ownerDir(owner);
+        Path indexFile = dir.resolve(name + INDEX_SUFFIX);
+        Path docsFile = dir.resolve(name + DOCS_SUFFIX);
+        Path vectorsFile = dir.resolve(name + VECTORS_SUFFIX);
+        try {
+            if (collection.isEmpty()) {
+                Files.deleteIfExists(indexFile);
+                Files.deleteIfExists(docsFile);
+                Files.deleteIfExists(vectorsFile);
+                return ContextCollection.EMPTY;
+            }
+            Files.createDirectories(dir);
+            StringBuilder docs = new StringBuilder();
+            for (ContextCollection.Document document : collection.documents()) {
+                docs.append(document.chunkCount()).append('\t').append(document.name().replace('\n', ' ')).append('\n');
+            }
+            Path tmp = dir.resolve(name + DOCS_SUFFIX + ".tmp");
+            Files.writeString(tmp, docs, StandardCharsets.UTF_8);
+            collection.index().writeTo(indexFile);
+            if (collection.vectors() != null) {
+                collection.vectors().writeTo(vectorsFile);
+            } else {
+                Files.deleteIfExists(vectorsFile);
+            }
+            Files.move(tmp, docsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // Công bố bản ánh xạ từ file để dữ liệu (cả vector) nằm ngoài heap
+            return new ContextCollection(collection.documents(), Bm25Index.open(indexFile),
+                    collection.vectors() != null ? HnswIndex.open(vectorsFile) : null);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not save chat context " + name, e);
+        }
+    }
+
+    // Thiếu, hỏng hoặc không khớp chỉ mục (ghi dở lúc tắt máy): bộ chỉ tìm theo từ khóa, không mất tài liệu
+    private static HnswIndex readVectors(Path vectorsFile, int chunkCount) {
+        if (!Files.exists(vectorsFile)) {
+            return null;
+        }
+        try {
+            HnswIndex vectors = HnswIndex.open(vectorsFile);
+            if (vectors.size() == chunkCount) {
+                return vectors;
+            }
+            log.warn("Vector index {} does not match its context index, ignoring it", vectorsFile);
+        } catch (IOException e) {
+            log.warn("Could not open vector index {}, ignoring it", vectorsFile, e);
+        }
+        return null;
+    }
+
+    private static List<ContextCollection.Document> readDocuments(Path docsFile) throws IOException {
+        List<ContextCollection.Document> documents = new ArrayList<>();
+        if (!Files.exists(docsFile)) {
+            return documents;
+        }
+        int first = 0;
+        for (String line : Files.readAllLines(docsFile, StandardCharsets.UTF_8)) {
+            int tab = line.indexOf('\t');
+            if (tab <= 0) {
+                continue;
+            }
+            int count = Integer.parseInt(line.substring(0, tab));
+            documents.add(new ContextCollection.Document(line.substring(tab + 1), first, count));
+            first += count;
+        }
+        return documents;
+    }
+
+    private Path indexFile(String owner, String name) {
+        return ownerDir(owner).resolve(name + INDEX_SUFFIX);
+    }
+
+    private Path ownerDir(String owner) {
+        return storeDir.resolve(sha256(owner));
+    }
+
+    private static String key(String owner, String name) {
+        if (!isValidName(name)) {
+            throw new IllegalArgumentException("Invalid context collection name: " + name);
+        }
+        return owner + '\n' + name;
+    }
+
+    // Tên thư mục không lộ email và không chứa ký tự đặc biệt
+    private static String sha256(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(value.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.InvoiceManage.service.chat;
+
+import com.example.InvoiceManage.DTO.request.ChatMessage;
+import com.example.InvoiceManage.exception.ServiceUnavailableException;
+import com.example.InvoiceManage.util.NamedThreadFactory;
+import com.example.InvoiceManage.util.TtlCache;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bộ nhớ hội thoại của chatbot, để câu hỏi nối tiếp ("nó dùng công nghệ gì?") hiểu được mà prompt không dài ra
+ * theo số lượt trao đổi.
+ *
+ * - Các lượt gần nhất được gửi nguyên văn, không vượt chat.memory.max-tokens (token ước lượng theo từ).
+ *   Khi bản tóm tắt đang có chưa theo kịp, các lượt nằm giữa nó và phần nguyên văn bị lược bỏ (prompt ghi rõ chỗ
+ *   hụt) cho tới khi bản tóm tắt mới xong, để prompt không phình ra trong lúc model bận.
+ * - Các lượt cũ hơn được model tóm tắt thành một đoạn ngắn (tối đa chat.memory.summary-max-tokens). Bản tóm tắt
+ *   được tạo ở nền, cuốn chiếu (bản cũ + các lượt mới phải tóm tắt thêm) và cache theo cuộc hội thoại;
+ *   câu hỏi không phải chờ tóm tắt, trong lúc chờ thì dùng bản tóm tắt trước đó.
+ *
+ * Frontend gửi lại toàn bộ lịch sử mỗi lần hỏi, nên bản tóm tắt chỉ được dùng khi phần lịch sử nó tóm tắt
+ * vẫn y nguyên (so mã băm); lịch sử bị sửa thì tóm tắt lại.
+ */
+@Slf4j
+@Component
+public class ConversationMemory {
+
+    private static final String SUMMARY_PROMPT =
+            "Bạn tóm tắt cuộc trò chuyện giữa người dùng và trợ lý để trợ lý trả lời tiếp các câu hỏi sau. " +
+                    "Giữ lại chủ đề đang hỏi, tên riêng, số liệu và kết luận đã có. Viết bằng tiếng Việt, không quá %d từ, " +
+                    "chỉ trả về nội dung tóm tắt.";
+
+    // Nối sau bản tóm tắt đang chậm hơn phần nguyên văn, để model biết giữa hai phần có lượt bị lược bỏ
+    static final String GAP_NOTE = "(Một số lượt trao đổi sau phần tóm tắt này đã được lược bỏ.)";
+
+    /**
+     * Phần hội thoại đưa vào prompt cho một câu hỏi.
+     *
+     * @param summary     tóm tắt các lượt cũ, hoặc null.
+     * @param recentTurns các lượt gần nhất, nguyên văn, theo thứ tự.
+     * @param fingerprint mã băm của phần trên, để cache câu trả lời phân biệt các hội thoại (rỗng nếu không có gì).
+     */
+    public record Recall(String summary, List<ChatMessage> recentTurns, String fingerprint) {}
+
+    // Tóm tắt coveredMessages tin nhắn đầu tiên của hội thoại; prefixHash là mã băm của các tin nhắn đó
+    private record Summary(int coveredMessages, String prefixHash, String text) {}
+
+    /**
+     * Gọi model để tóm tắt; tách ra để test không cần Ollama.
+     */
+    interface Summarizer {
+        String summarize(String model, List<ChatMessage> prompt) throws IOException, InterruptedException;
+    }
+
+    private final Summarizer summarizer;
+    private final Executor executor;
+    private final int maxTokens;
+    private final int summaryMaxTokens;
+    private final String summaryModel;
+    private final TtlCache<String, Summary> summaries;
+    // Hội thoại đang được tóm tắt, để không chạy trùng
+    private final Set<String> summarizing = ConcurrentHashMap.newKeySet();
+
+    @Autowired
+    public ConversationMemory(OllamaChatClient chatClient,
+                              @Value("${chat.memory.max-tokens:384}") int maxTokens,
+                              @Value("${chat.memory.summary-max-tokens:150}") int summaryMaxTokens,
+                              @Value("${chat.memory.summary-model:}") String summaryModel,
+                              @Value("${chat.memory.summary-ttl-minutes:120}") long summaryTtlMinutes) {
+        // Tóm tắt là việc phụ: ít luồng, hàng đợi ngắn, đầy thì bỏ qua và thử lại ở câu hỏi sau
+        this((model, prompt) -> chatClient.chat(model, prompt, 0.1),
+                new ThreadPoolExecutor(1, 2, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(64),
+                        new NamedThreadFactory("chat-memory-")),
+                maxTokens, summaryMaxTokens, summaryModel, summaryTtlMinutes);
+    }
+
+    ConversationMemory(Summarizer summarizer, Executor executor, int maxTokens, int summaryMaxTokens,
+                       String summaryModel, long summaryTtlMinutes) {
+        this.summarizer = summarizer;
+        this.executor = executor;
+        this.maxTokens = maxTokens;
+        this.summaryMaxTokens = summaryMaxTokens;
+        this.summaryModel = summaryModel == null || summaryModel.isBlank() ? null : summaryModel;
+        this.summaries = new TtlCache<>(summaryTtlMinutes, TimeUnit.MINUTES, 10_000);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (executor instanceof ThreadPoolExecutor pool) {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Chọn phần lịch sử đưa vào prompt. Nếu có lượt cũ chưa được tóm tắt thì bắt đầu tóm tắt ở nền.
+     *
+     * @param conversationId định danh hội thoại do client gửi; null thì lấy theo tin nhắn đầu tiên.
+     * @param model          model đang trả lời (dùng để tóm tắt nếu không cấu hình chat.memory.summary-model).
+     * @param earlier        lịch sử trước câu hỏi hiện tại.
+     */
+    public Recall recall(String owner, String conversationId, String model, List<ChatMessage> earlier) {
+        List<ChatMessage> turns = earlier == null ? List.of() : earlier.stream()
+                .filter(ConversationMemory::isTurn)
+                .toList();
+        if (maxTokens <= 0 || turns.isEmpty()) {
+            return new Recall(null, List.of(), "");
+        }
+
+        // Lùi từ lượt mới nhất cho tới khi hết ngân sách
+        int start = turns.size();
+        int used = 0;
+        while (start > 0) {
+            int tokens = TokenChunker.estimateTokens(turns.get(start - 1).getContent());
+            if (used + tokens > maxTokens) {
+                break;
+            }
+            used += tokens;
+            start--;
+        }
+
+        Summary summary = null;
+        if (start > 0) {
+            String key = owner + '\n' + (conversationId != null && !conversationId.isBlank()
+                    ? conversationId
+                    : "first:" + sha256(turns.subList(0, 1)));
+            summary = summaries.getIfPresent(key);
+            if (summary != null && (summary.coveredMessages() > turns.size()
+                    || !summary.prefixHash().equals(sha256(turns.subList(0, summary.coveredMessages()))))) {
+                summary = null; // lịch sử đã bị sửa
+            }
+            if (summary == null || summary.coveredMessages() < start) {
+                summarizeAsync(key, model, summary, List.copyOf(turns.subList(0, start)));
+            }
+        }
+
+        String summaryText = null;
+        if (summary != null) {
+            // Phần đã tóm tắt không cần gửi nguyên văn nữa. Ngân sách là giới hạn cứng: bản tóm tắt chưa theo kịp
+            // thì các lượt ở giữa bị bỏ (và đánh dấu), không gửi nguyên văn vượt ngân sách
+            summaryText = summary.coveredMessages() < start ? summary.text() + "\n" + GAP_NOTE : summary.text();
+            start = Math.max(start, summary.coveredMessages());
+        }
+        List<ChatMessage> recent = List.copyOf(turns.subList(start, turns.size()));
+        List<ChatMessage> fingerprinted = new ArrayList<>(recent);
+        if (summaryText != null) {
+            fingerprinted.add(0, new ChatMessage("summary", summaryText));
+        }
+        return new Recall(summaryText, recent, sha256(fingerprinted));
+    }
+
+    private void summarizeAsync(String key, String model, Summary previous, List<ChatMessage> older) {
+        if (!summarizing.add(key)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    summarize(key, model, previous, older);
+                } finally {
+                    summarizing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            summarizing.remove(key);
+        }
+    }
+
+    private void summarize(String key, String model, Summary previous, List<ChatMessage> older) {
+        StringBuilder transcript = new StringBuilder();
+        if (previous != null) {
+            transcript.append("TÓM TẮT TRƯỚC ĐÓ:\n").append(previous.text()).append("\n\n");
+        }
+        transcript.append("CÁC LƯỢT TRAO ĐỔI TIẾP THEO:\n");
+        for (ChatMessage message : older.subList(previous != null ? previous.coveredMessages() : 0, older.size())) {
+            transcript.append("user".equals(message.getRole()) ? "Người dùng: " : "Trợ lý: ")
+                    .append(truncate(message.getContent(), maxTokens))
+                    .append('\n');
+        }
+        List<ChatMessage> prompt = List.of(
+                new ChatMessage("system", String.format(SUMMARY_PROMPT, summaryMaxTokens)),
+                new ChatMessage("user", transcript.toString()));
+        try {
+            String text = truncate(summarizer.summarize(summaryModel != null ? summaryModel : model, prompt).trim(), summaryMaxTokens);
+            summaries.put(key, new Summary(older.size(), sha256(older), text));
+        } catch (ServiceUnavailableException e) {
+            log.debug("Model busy, conversation summary postponed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.warn("Could not summarize conversation: {}", e.toString());
+        }
+    }
+
+    private static boolean isTurn(ChatMessage message) {
+        // Chỉ nhận lượt của người dùng/trợ lý: client không được chèn thêm chỉ dẫn "system"
+        return message != null && message.getContent() != null
+                && ("user".equals(message.getRole()) || "assistant".equals(message.getRole()));
+    }
+
+    // Giữ tối đa maxWords từ đầu
+    private static String truncate(String text, int maxWords) {
+        int words = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean space = Character.isWhitespace(text.charAt(i));
+            if (!space && !inWord && ++words > maxWords) {
+                return text.substring(0, i).trim() + " …";
+            }
+            inWord = !space;
+        }
+        return text;
+    }
+
+    private static String sha256(List<ChatMessage> messages) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (ChatMessage message : messages) {
+                digest.update(message.getRole().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+                digest.update(message.getContent().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.InvoiceManage.service.chat;
+
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * File CSV (UTF-8): dòng đầu là tên cột, mỗi dòng sau thành một đoạn văn "Tên cột: giá trị; ..." (xem {@link TableRows}).
+ * Dấu phân cách (',' hoặc ';', Excel tiếng Việt hay xuất ';') đoán từ dòng tiêu đề.
+ * Giá trị trong ngoặc kép được hỗ trợ, trừ giá trị có xuống dòng bên trong.
+ */
+@Component
+public class CsvExtractor implements DocumentExtractor {
+
+    @Override
+    public Set<String> extensions() {
+        return Set.of("csv");
+    }
+
+    @Override
+    public void extract(Path file, Consumer<String> paragraphs, DoubleConsumer progress) throws IOException {
+        long size = Math.max(1, Files.size(file));
+        try (CountingInputStream in = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            BoundedLineReader lines = new BoundedLineReader(new InputStreamReader(in, StandardCharsets.UTF_8), MAX_PARAGRAPH_CHARS);
+            List<String> header = null;
+            char delimiter = ',';
+            String line;
+            while ((line = lines.readLine()) != null) {
+                line = PlainTextExtractor.stripBom(line);
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (header == null) {
+                    delimiter = count(line, ';') > count(line, ',') ? ';' : ',';
+                    header = split(line, delimiter);
+                    continue;
+                }
+                String row = TableRows.describe(null, header, split(line, delimiter));
+                if (!row.isEmpty()) {
+                    paragraphs.accept(row);
+                    progress.accept(Math.min(1, (double) in.count() / size));
+                }
+            }
+        }
+    }
+
+    static List<String> split(String line, char delimiter) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    cell.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    cell.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == delimiter) {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells;
+    }
+
+    private static int count(String line, char c) {
+        int n = 0;
+        for (int i = 0; i < line.length(); i++) {
+            if (line.charAt(i) == c) {
+                n++;
+            }
+        }
+        return n;
+    }
+}
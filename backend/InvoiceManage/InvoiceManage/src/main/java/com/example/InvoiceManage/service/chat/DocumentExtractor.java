@@ -0,0 +1,32 @@
+package com.example.InvoiceManage.service.chat;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Trích văn bản từ một loại tài liệu để nạp vào bộ ngữ cảnh chatbot. Mỗi loại file là một bean riêng;
+ * {@link com.example.InvoiceManage.service.ChatContextService} chọn theo phần mở rộng của tên file.
+ *
+ * Bộ trích xuất đọc theo luồng và gửi từng đoạn văn ngay khi đọc được (sau đó {@link TokenChunker} gom thành chunk),
+ * không giữ cả tài liệu trong bộ nhớ; mỗi đoạn gửi đi có độ dài giới hạn.
+ */
+public interface DocumentExtractor {
+
+    // Đoạn văn dài hơn thì bị cắt thành nhiều đoạn, để bộ nhớ không phụ thuộc vào cách trình bày tài liệu
+    int MAX_PARAGRAPH_CHARS = 8192;
+
+    /**
+     * Phần mở rộng (chữ thường, không có dấu chấm) mà bộ trích xuất đọc được.
+     */
+    Set<String> extensions();
+
+    /**
+     * @param paragraphs nhận từng đoạn văn khác rỗng, theo thứ tự trong tài liệu.
+     * @param progress   nhận tỉ lệ 0..1 phần tài liệu đã đọc.
+     * @throws IllegalArgumentException nếu nội dung file không đúng loại.
+     */
+    void extract(Path file, Consumer<String> paragraphs, DoubleConsumer progress) throws IOException;
+}
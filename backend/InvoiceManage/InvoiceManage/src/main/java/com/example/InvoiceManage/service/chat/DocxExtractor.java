@@ -0,0 +1,117 @@
+package com.example.InvoiceManage.service.chat;
+
+import org.springframework.stereotype.Component;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Đọc lần lượt từng đoạn văn (w:p) của file DOCX mà không dựng cả tài liệu trong bộ nhớ như XWPFDocument:
+ * duyệt file zip tuần tự tới word/document.xml rồi đọc XML bằng StAX. Bộ nhớ chỉ giữ đoạn văn đang đọc.
+ * Trong bảng, mỗi đoạn văn của một ô là một đoạn riêng.
+ */
+@Component
+public class DocxExtractor implements DocumentExtractor {
+
+    private static final String MAIN_PART = "word/document.xml";
+    private static final String W_NS = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+    private static final XMLInputFactory XML = XMLInputFactory.newFactory();
+
+    static {
+        // File do người dùng tải lên: không xử lý DTD / entity ngoài
+        XML.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        XML.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    @Override
+    public Set<String> extensions() {
+        return Set.of("docx");
+    }
+
+    @Override
+    public void extract(Path file, Consumer<String> paragraphs, DoubleConsumer progress) throws IOException {
+        long size = Math.max(1, Files.size(file));
+        try (CountingInputStream in = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            read(in, paragraph -> {
+                paragraphs.accept(paragraph);
+                progress.accept(Math.min(1, (double) in.count() / size));
+            });
+        }
+    }
+
+    /**
+     * Gửi từng đoạn văn khác rỗng (đã trim) cho {@code paragraphs}, theo thứ tự trong tài liệu.
+     *
+     * @throws IllegalArgumentException nếu dữ liệu không phải DOCX.
+     */
+    static void read(InputStream in, Consumer<String> paragraphs) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (MAIN_PART.equals(entry.getName())) {
+                try {
+                    readParagraphs(zip, paragraphs);
+                } catch (XMLStreamException e) {
+                    throw new IOException("Malformed DOCX document body: " + e.getMessage(), e);
+                }
+                return;
+            }
+        }
+        throw new IllegalArgumentException("Not a DOCX document (missing " + MAIN_PART + ").");
+    }
+
+    private static void readParagraphs(InputStream body, Consumer<String> paragraphs) throws XMLStreamException {
+        XMLStreamReader xml = XML.createXMLStreamReader(body);
+        try {
+            StringBuilder paragraph = new StringBuilder();
+            int depth = 0; // w:p lồng nhau (ô chữ, text box) được gộp vào đoạn ngoài cùng
+            boolean inText = false;
+            while (xml.hasNext()) {
+                int event = xml.next();
+                if (event == XMLStreamConstants.START_ELEMENT && W_NS.equals(xml.getNamespaceURI())) {
+                    switch (xml.getLocalName()) {
+                        case "p" -> depth++;
+                        case "t" -> inText = true;
+                        case "tab" -> paragraph.append('\t');
+                        case "br", "cr" -> paragraph.append('\n');
+                        default -> { }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT && W_NS.equals(xml.getNamespaceURI())) {
+                    if ("t".equals(xml.getLocalName())) {
+                        inText = false;
+                    } else if ("p".equals(xml.getLocalName()) && --depth == 0) {
+                        flush(paragraph, paragraphs);
+                    }
+                } else if (inText && (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA)) {
+                    paragraph.append(xml.getText());
+                    if (paragraph.length() >= MAX_PARAGRAPH_CHARS) {
+                        flush(paragraph, paragraphs);
+                    }
+                }
+            }
+        } finally {
+            xml.close(); // không đóng luồng zip bên dưới
+        }
+    }
+
+    private static void flush(StringBuilder paragraph, Consumer<String> paragraphs) {
+        String text = paragraph.toString().trim();
+        if (!text.isEmpty()) {
+            paragraphs.accept(text);
+        }
+        paragraph.setLength(0);
+    }
+}
@@ -0,0 +1,640 @@
+package com.example.InvoiceManage.service.chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Chỉ mục vector (embedding) của các đoạn văn bản, tìm gần đúng các đoạn gần câu hỏi nhất bằng đồ thị HNSW
+ * (Hierarchical Navigable Small World). Độ gần là cosine: vector được chuẩn hóa độ dài 1 khi dựng,
+ * nên chỉ cần tích vô hướng.
+ *
+ * Tìm kiếm đi từ tầng thưa nhất xuống tầng 0, mỗi tầng đi tham lam theo các cạnh tới đỉnh gần câu hỏi hơn,
+ * nên chỉ tính khoảng cách với vài trăm đỉnh thay vì mọi đoạn; với vài chục nghìn đoạn mất dưới 1ms.
+ *
+ * Giống {@link Bm25Index}: toàn bộ vector và cạnh nằm trong một vùng nhớ nhị phân liền mạch, vừa dùng trong bộ nhớ
+ * vừa ghi ra file; {@link #open(Path)} ánh xạ file (mmap) nên vector nằm ngoài heap. Bất biến, an toàn khi
+ * nhiều luồng cùng đọc. Dựng đồ thị dùng seed cố định nên cùng dữ liệu luôn cho cùng đồ thị.
+ *
+ * Bố cục (int/float 4 byte, big-endian): header | vectors[N*D] | levels[N] | upperStart[N]
+ * | level0[N*(1+M0)] | upper[U]. Mỗi danh sách cạnh là [số cạnh, đỉnh1, đỉnh2, ...] với sức chứa cố định
+ * (M0 ở tầng 0, M ở các tầng trên); đỉnh có tầng L > 0 có L danh sách liên tiếp trong upper từ upperStart.
+ */
+public final class HnswIndex {
+
+    public static final HnswIndex EMPTY = build(List.of());
+
+    private static final long MAGIC = 0x4354585645433031L; // "CTXVEC01"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 40;
+
+    private static final int M = 16;
+    private static final int M0 = 2 * M;
+    private static final int EF_CONSTRUCTION = 100;
+    private static final int EF_SEARCH = 64;
+    private static final long SEED = 42;
+
+    public record Hit(int chunk, float score) {}
+
+    // Phần dùng chung giữa lúc dựng (mảng trên heap) và lúc tìm (vùng nhớ đã ghi)
+    private interface Graph {
+        float similarity(float[] query, int node);
+
+        int neighborCount(int node, int level);
+
+        int neighbor(int node, int level, int index);
+    }
+
+    private final ByteBuffer data;
+    private final int size;
+    private final int dimensions;
+    private final int entryPoint;
+    private final int maxLevel;
+    private final FloatBuffer vectors;
+    private final IntBuffer upperStart;
+    private final IntBuffer level0;
+    private final IntBuffer upper;
+    private final Graph graph = new Graph() {
+        @Override
+        public float similarity(float[] query, int node) {
+            int base = node * dimensions;
+            float dot = 0;
+            for (int i = 0; i < dimensions; i++) {
+                dot += query[i] * vectors.get(base + i);
+            }
+            return dot;
+        }
+
+        @Override
+        public int neighborCount(int node, int level) {
+            return level == 0 ? level0.get(node * (1 + M0)) : upper.get(upperStart.get(node) + (level - 1) * (1 + M));
+        }
+
+        @Override
+        public int neighbor(int node, int level, int index) {
+            return level == 0
+                    ? level0.get(node * (1 + M0) + 1 + index)
+                    : upper.get(upperStart.get(node) + (level - 1) * (1 + M) + 1 + index);
+        }
+    };
+
+    private HnswIndex(ByteBuffer data) {
+        if (data.capacity() < HEADER_BYTES || data.getLong(0) != MAGIC || data.getInt(8) != VERSION) {
+            throw new IllegalArgumentException("Not a chat context vector index");
+        }
+        if (data.getInt(20) != M || data.getInt(24) != M0) {
+            throw new IllegalArgumentException("Vector index was built with different graph parameters");
+        }
+        int n = data.getInt(12);
+        int dims = data.getInt(16);
+        int entry = data.getInt(28);
+        int top = data.getInt(32);
+        int upperInts = data.getInt(36);
+        long capacity = data.capacity();
+        if (n < 0 || dims < 0 || upperInts < 0 || top < 0 || entry < 0 || (n > 0 && entry >= n)
+                || (long) n * dims > capacity) {
+            throw corrupt();
+        }
+        // Tính vị trí bằng long: header hỏng không được làm tràn int rồi lọt qua phép so với capacity
+        long vectorsAt = HEADER_BYTES;
+        long upperStartAt = vectorsAt + 4L * n * dims + 4L * n; // bỏ qua levels, chỉ cần khi dựng
+        long level0At = upperStartAt + 4L * n;
+        long upperAt = level0At + 4L * n * (1 + M0);
+        if (upperAt + 4L * upperInts != capacity) {
+            throw corrupt();
+        }
+        this.data = data;
+        this.size = n;
+        this.dimensions = dims;
+        this.entryPoint = entry;
+        this.maxLevel = top;
+        this.vectors = slice(data, (int) vectorsAt, 4 * n * dims).asFloatBuffer();
+        this.upperStart = slice(data, (int) upperStartAt, 4 * n).asIntBuffer();
+        this.level0 = slice(data, (int) level0At, 4 * n * (1 + M0)).asIntBuffer();
+        this.upper = slice(data, (int) upperAt, 4 * upperInts).asIntBuffer();
+    }
+
+    private static IllegalArgumentException corrupt() {
+        return new IllegalArgumentException("Chat context vector index is truncated or corrupt");
+    }
+
+    private static ByteBuffer slice(ByteBuffer data, int from, int length) {
+        return data.duplicate().position(from).limit(from + length).slice();
+    }
+
+    /**
+     * Dựng chỉ mục; vectors[i] là embedding của đoạn i, mọi vector cùng số chiều.
+     */
+    public static HnswIndex build(List<float[]> vectors) {
+        int n = vectors.size();
+        int dims = n == 0 ? 0 : vectors.get(0).length;
+        Builder builder = new Builder(n, dims);
+        for (int i = 0; i < n; i++) {
+            if (vectors.get(i).length != dims) {
+                throw new IllegalArgumentException("Vector " + i + " has " + vectors.get(i).length + " dimensions, expected " + dims);
+            }
+            builder.insert(i, normalize(vectors.get(i)));
+        }
+        return new HnswIndex(builder.serialize());
+    }
+
+    /**
+     * Mở chỉ mục đã ghi bằng {@link #writeTo(Path)} qua ánh xạ bộ nhớ (chỉ đọc).
+     */
+    public static HnswIndex open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Chat context vector index is too large: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            try {
+                return new HnswIndex(mapped);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                throw new IOException("Invalid chat context vector index " + file + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Ghi chỉ mục ra file: ghi vào file tạm rồi đổi tên, nên file đích luôn là một chỉ mục hoàn chỉnh.
+     */
+    public void writeTo(Path file) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer view = data.duplicate().clear();
+            while (view.hasRemaining()) {
+                channel.write(view);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Tối đa k đoạn gần câu hỏi nhất (cosine giảm dần). Kết quả gần đúng: đoạn gần nhất có thể bị bỏ sót
+     * với xác suất nhỏ, đổi lại không phải so với mọi đoạn.
+     */
+    public List<Hit> search(float[] query, int k) {
+        if (size == 0 || k <= 0) {
+            return List.of();
+        }
+        if (query.length != dimensions) {
+            throw new IllegalArgumentException("Query has " + query.length + " dimensions, index has " + dimensions);
+        }
+        float[] q = normalize(query);
+        int current = entryPoint;
+        for (int level = maxLevel; level > 0; level--) {
+            current = greedyClosest(graph, q, current, level);
+        }
+        NodeHeap results = searchLayer(graph, q, current, Math.max(EF_SEARCH, k), 0);
+        while (results.size() > k) {
+            results.pollWorst();
+        }
+        Hit[] hits = new Hit[results.size()];
+        for (int i = hits.length - 1; i >= 0; i--) {
+            hits[i] = new Hit(results.worstNode(), results.worstScore());
+            results.pollWorst();
+        }
+        return Arrays.asList(hits);
+    }
+
+    /**
+     * Vector (đã chuẩn hóa) của đoạn index, dùng để dựng lại chỉ mục mà không phải tính lại embedding.
+     */
+    public float[] vector(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        float[] vector = new float[dimensions];
+        vectors.get(index * dimensions, vector);
+        return vector;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public long byteSize() {
+        return data.capacity();
+    }
+
+    private static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float[] normalized = Arrays.copyOf(vector, vector.length);
+        if (norm > 0) {
+            float scale = (float) (1 / Math.sqrt(norm));
+            for (int i = 0; i < normalized.length; i++) {
+                normalized[i] *= scale;
+            }
+        }
+        return normalized;
+    }
+
+    // Ở các tầng trên chỉ cần đi tới đỉnh gần nhất (ef = 1)
+    private static int greedyClosest(Graph graph, float[] query, int start, int level) {
+        int current = start;
+        float best = graph.similarity(query, current);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            int count = graph.neighborCount(current, level);
+            for (int i = 0; i < count; i++) {
+                int candidate = graph.neighbor(current, level, i);
+                float similarity = graph.similarity(query, candidate);
+                if (similarity > best) {
+                    best = similarity;
+                    current = candidate;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    // Tìm ef đỉnh gần nhất trong một tầng, bắt đầu từ entry; trả về heap kết quả (đỉnh xa nhất ở đỉnh heap)
+    private static NodeHeap searchLayer(Graph graph, float[] query, int entry, int ef, int level) {
+        VisitedSet visited = new VisitedSet(4 * ef);
+        NodeHeap candidates = new NodeHeap(ef, false); // gần nhất trước
+        NodeHeap results = new NodeHeap(ef, true);     // xa nhất trước, để bỏ bớt
+        float entrySimilarity = graph.similarity(query, entry);
+        visited.add(entry);
+        candidates.add(entry, entrySimilarity);
+        results.add(entry, entrySimilarity);
+        while (candidates.size() > 0) {
+            float candidateSimilarity = candidates.bestScore();
+            int candidate = candidates.bestNode();
+            candidates.pollBest();
+            if (results.size() >= ef && candidateSimilarity < results.worstScore()) {
+                break; // mọi ứng viên còn lại đều xa hơn kết quả tệ nhất
+            }
+            int count = graph.neighborCount(candidate, level);
+            for (int i = 0; i < count; i++) {
+                int neighbor = graph.neighbor(candidate, level, i);
+                if (!visited.add(neighbor)) {
+                    continue;
+                }
+                float similarity = graph.similarity(query, neighbor);
+                if (results.size() < ef || similarity > results.worstScore()) {
+                    candidates.add(neighbor, similarity);
+                    results.add(neighbor, similarity);
+                    if (results.size() > ef) {
+                        results.pollWorst();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Dựng đồ thị trên heap theo thuật toán HNSW gốc, chọn cạnh bằng heuristic đa dạng hướng
+     * (bỏ đỉnh nằm "sau" một đỉnh đã chọn) để đồ thị vẫn liên thông với dữ liệu phân cụm.
+     */
+    private static final class Builder implements Graph {
+        private final int dims;
+        private final float[] vectors;
+        private final int[] levels;
+        private final int[][][] links; // links[node][level] = [số cạnh, đỉnh...]
+        private final Random random = new Random(SEED);
+        private final double levelFactor = 1 / Math.log(M);
+        private int entryPoint = -1;
+        private int maxLevel = -1;
+        private int count;
+
+        private Builder(int n, int dims) {
+            this.dims = dims;
+            this.vectors = new float[n * dims];
+            this.levels = new int[n];
+            this.links = new int[n][][];
+        }
+
+        @Override
+        public float similarity(float[] query, int node) {
+            int base = node * dims;
+            float dot = 0;
+            for (int i = 0; i < dims; i++) {
+                dot += query[i] * vectors[base + i];
+            }
+            return dot;
+        }
+
+        private float similarity(int a, int b) {
+            int baseA = a * dims;
+            int baseB = b * dims;
+            float dot = 0;
+            for (int i = 0; i < dims; i++) {
+                dot += vectors[baseA + i] * vectors[baseB + i];
+            }
+            return dot;
+        }
+
+        @Override
+        public int neighborCount(int node, int level) {
+            return links[node][level][0];
+        }
+
+        @Override
+        public int neighbor(int node, int level, int index) {
+            return links[node][level][1 + index];
+        }
+
+        private void insert(int node, float[] vector) {
+            System.arraycopy(vector, 0, vectors, node * dims, dims);
+            int level = (int) (-Math.log(1 - random.nextDouble()) * levelFactor);
+            levels[node] = level;
+            links[node] = new int[level + 1][];
+            for (int l = 0; l <= level; l++) {
+                links[node][l] = new int[1 + (l == 0 ? M0 : M)];
+            }
+            count++;
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return;
+            }
+            int current = entryPoint;
+            for (int l = maxLevel; l > level; l--) {
+                current = greedyClosest(this, vector, current, l);
+            }
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                NodeHeap found = searchLayer(this, vector, current, EF_CONSTRUCTION, l);
+                int[] candidates = new int[found.size()];
+                for (int i = candidates.length - 1; i >= 0; i--) { // gần nhất trước
+                    candidates[i] = found.worstNode();
+                    found.pollWorst();
+                }
+                current = candidates[0];
+                int[] selected = selectNeighbors(node, candidates, M);
+                int[] own = links[node][l];
+                for (int neighbor : selected) {
+                    own[1 + own[0]++] = neighbor;
+                    connect(neighbor, node, l);
+                }
+            }
+            if (level > maxLevel) {
+                entryPoint = node;
+                maxLevel = level;
+            }
+        }
+
+        // Thêm cạnh from -> to; danh sách đầy thì chọn lại bằng heuristic trong số cạnh cũ + cạnh mới
+        private void connect(int from, int to, int level) {
+            int[] list = links[from][level];
+            int capacity = list.length - 1;
+            if (list[0] < capacity) {
+                list[1 + list[0]++] = to;
+                return;
+            }
+            int[] candidates = Arrays.copyOfRange(list, 1, capacity + 2);
+            candidates[capacity] = to;
+            sortBySimilarityTo(from, candidates);
+            int[] selected = selectNeighbors(from, candidates, capacity);
+            list[0] = selected.length;
+            System.arraycopy(selected, 0, list, 1, selected.length);
+        }
+
+        // candidates đã sắp gần base nhất trước; giữ đỉnh gần base hơn mọi đỉnh đã chọn, thiếu thì bù bằng đỉnh bị bỏ
+        private int[] selectNeighbors(int base, int[] candidates, int max) {
+            List<Integer> selected = new ArrayList<>(max);
+            List<Integer> skipped = new ArrayList<>();
+            for (int candidate : candidates) {
+                if (selected.size() >= max) {
+                    break;
+                }
+                float toBase = similarity(base, candidate);
+                boolean diverse = true;
+                for (int chosen : selected) {
+                    if (similarity(candidate, chosen) > toBase) {
+                        diverse = false;
+                        break;
+                    }
+                }
+                if (diverse) {
+                    selected.add(candidate);
+                } else {
+                    skipped.add(candidate);
+                }
+            }
+            for (int i = 0; i < skipped.size() && selected.size() < max; i++) {
+                selected.add(skipped.get(i));
+            }
+            return selected.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        private void sortBySimilarityTo(int base, int[] nodes) {
+            Integer[] order = new Integer[nodes.length];
+            float[] similarities = new float[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                order[i] = i;
+                similarities[i] = similarity(base, nodes[i]);
+            }
+            Arrays.sort(order, (a, b) -> Float.compare(similarities[b], similarities[a]));
+            int[] sorted = new int[nodes.length];
+            for (int i = 0; i < nodes.length; i++) {
+                sorted[i] = nodes[order[i]];
+            }
+            System.arraycopy(sorted, 0, nodes, 0, nodes.length);
+        }
+
+        private ByteBuffer serialize() {
+            int n = count;
+            int upperInts = 0;
+            int[] upperStart = new int[n];
+            for (int node = 0; node < n; node++) {
+                upperStart[node] = upperInts;
+                upperInts += levels[node] * (1 + M);
+            }
+            long total = HEADER_BYTES + 4L * n * dims + 4L * n + 4L * n + 4L * n * (1 + M0) + 4L * upperInts;
+            if (total > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many vectors for a single index (" + total + " bytes)");
+            }
+            ByteBuffer out = ByteBuffer.allocate((int) total);
+            out.putLong(MAGIC).putInt(VERSION).putInt(n).putInt(dims).putInt(M).putInt(M0)
+                    .putInt(Math.max(entryPoint, 0)).putInt(Math.max(maxLevel, 0)).putInt(upperInts);
+            for (float v : vectors) {
+                out.putFloat(v);
+            }
+            for (int node = 0; node < n; node++) {
+                out.putInt(levels[node]);
+            }
+            for (int node = 0; node < n; node++) {
+                out.putInt(upperStart[node]);
+            }
+            for (int node = 0; node < n; node++) {
+                for (int v : links[node][0]) {
+                    out.putInt(v);
+                }
+            }
+            for (int node = 0; node < n; node++) {
+                for (int l = 1; l <= levels[node]; l++) {
+                    for (int v : links[node][l]) {
+                        out.putInt(v);
+                    }
+                }
+            }
+            return out;
+        }
+    }
+
+    // Heap nhị phân trên mảng nguyên thủy (không boxing); worstFirst = true thì đỉnh có độ gần nhỏ nhất ở gốc
+    private static final class NodeHeap {
+        private final boolean worstFirst;
+        private int[] nodes;
+        private float[] scores;
+        private int size;
+
+        private NodeHeap(int capacity, boolean worstFirst) {
+            this.worstFirst = worstFirst;
+            this.nodes = new int[capacity + 1];
+            this.scores = new float[capacity + 1];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int bestNode() {
+            return nodes[0];
+        }
+
+        float bestScore() {
+            return scores[0];
+        }
+
+        int worstNode() {
+            return nodes[0];
+        }
+
+        float worstScore() {
+            return scores[0];
+        }
+
+        void pollBest() {
+            poll();
+        }
+
+        void pollWorst() {
+            poll();
+        }
+
+        // a nằm trên b trong heap
+        private boolean above(float a, float b) {
+            return worstFirst ? a < b : a > b;
+        }
+
+        void add(int node, float score) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                scores = Arrays.copyOf(scores, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!above(score, scores[parent])) {
+                    break;
+                }
+                nodes[i] = nodes[parent];
+                scores[i] = scores[parent];
+                i = parent;
+            }
+            nodes[i] = node;
+            scores[i] = score;
+        }
+
+        private void poll() {
+            int lastNode = nodes[--size];
+            float lastScore = scores[size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && above(scores[child + 1], scores[child])) {
+                    child++;
+                }
+                if (!above(scores[child], lastScore)) {
+                    break;
+                }
+                nodes[i] = nodes[child];
+                scores[i] = scores[child];
+                i = child;
+            }
+            nodes[i] = lastNode;
+            scores[i] = lastScore;
+        }
+    }
+
+    /**
+     * Tập đỉnh đã thăm của một lần tìm: bảng băm địa chỉ mở trên mảng int như ScoreTable của {@link Bm25Index}
+     * (lưu đỉnh + 1, 0 là ô trống). Một lần tìm chỉ thăm vài trăm đỉnh nên bảng nhỏ, cấp phát theo từng lần tìm
+     * thay vì giữ một mảng cỡ toàn chỉ mục cho mỗi luồng.
+     */
+    private static final class VisitedSet {
+        private int[] nodes;
+        private int mask;
+        private int size;
+
+        private VisitedSet(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(2, expected) * 2 - 1) << 1;
+            this.nodes = new int[capacity];
+            this.mask = capacity - 1;
+        }
+
+        // false nếu đỉnh đã có trong tập
+        boolean add(int node) {
+            int slot = slot(node);
+            while (nodes[slot] != 0) {
+                if (nodes[slot] == node + 1) {
+                    return false;
+                }
+                slot = (slot + 1) & mask;
+            }
+            nodes[slot] = node + 1;
+            if (++size * 2 > nodes.length) {
+                grow();
+            }
+            return true;
+        }
+
+        private int slot(int node) {
+            int h = node * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void grow() {
+            int[] old = nodes;
+            nodes = new int[old.length * 2];
+            mask = nodes.length - 1;
+            for (int stored : old) {
+                if (stored != 0) {
+                    int slot = slot(stored - 1);
+                    while (nodes[slot] != 0) {
+                        slot = (slot + 1) & mask;
+                    }
+                    nodes[slot] = stored;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,387 @@
+package com.example.InvoiceManage.service.chat;
+
+import com.example.InvoiceManage.DTO.request.ChatMessage;
+import com.example.InvoiceManage.exception.ServiceUnavailableException;
+import com.example.InvoiceManage.util.NamedThreadFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Client duy nhất để gọi API /api/chat của Ollama.
+ *
+ * - Một HttpClient dùng chung: kết nối HTTP/1.1 keep-alive được giữ trong pool và dùng lại giữa các lượt hỏi,
+ *   có timeout kết nối và timeout chờ phản hồi.
+ * - Giới hạn số request đang chạy trên model (max-in-flight); request vượt quá chờ trong hàng đợi có giới hạn
+ *   (max-queued, tối đa queue-timeout-ms). Hàng đợi đầy hoặc chờ quá lâu thì trả 503 ngay thay vì dồn thêm
+ *   việc cho một model vốn chỉ chạy được vài request cùng lúc.
+ * - Các câu hỏi giống hệt nhau (cùng model, cùng messages, cùng temperature) đang chạy cùng lúc được gộp:
+ *   chỉ một request tới Ollama, mọi người cùng nhận một câu trả lời.
+ *
+ * Chế độ stream: Ollama trả về NDJSON, mỗi dòng một đoạn token. Body được đọc theo từng dòng ngay khi tới
+ * (không chờ cả câu trả lời), nên token đầu tiên tới tay người dùng ngay sau khi model xử lý xong prompt.
+ * Không giữ luồng nào trong lúc chờ: các dòng được đẩy tới listener trên luồng của HttpClient, mỗi lần nhận
+ * một dòng (backpressure theo tốc độ listener). Hủy ({@link ChatStream#cancel()}) đóng kết nối tới Ollama
+ * để model dừng sinh token. Stream không được gộp (mỗi người cần luồng token riêng) nhưng vẫn tính vào max-in-flight.
+ */
+@Slf4j
+@Component
+public class OllamaChatClient {
+
+    /**
+     * Nhận kết quả stream. onToken có thể được gọi nhiều lần, sau đó đúng một trong onComplete/onError
+     * (trừ khi stream bị hủy). Nếu onToken ném lỗi (vd: client đã ngắt kết nối) thì stream bị hủy.
+     */
+    public interface ChatStreamListener {
+        void onToken(String token) throws Exception;
+
+        void onComplete(String content);
+
+        void onError(Throwable error);
+    }
+
+    /**
+     * Ollama trả về HTTP khác 200 (vd: 404 khi model chưa được pull).
+     */
+    public static class OllamaHttpException extends IOException {
+        private final int statusCode;
+
+        public OllamaHttpException(int statusCode, String body) {
+            super("Ollama returned HTTP " + statusCode + ": " + body);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    private final URI chatUrl;
+    private final Duration timeout;
+    private final ExecutorService httpExecutor;
+    private final HttpClient httpClient;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final int maxQueued;
+    private final long queueTimeoutMs;
+    // payload JSON -> câu trả lời đang chờ; payload được dựng tất định nên câu hỏi giống nhau cho cùng chuỗi
+    private final Map<String, CompletableFuture<String>> inFlight = new ConcurrentHashMap<>();
+    private final Counter rejected;
+    private final Counter coalesced;
+
+    public OllamaChatClient(MeterRegistry meterRegistry,
+                            @Value("${ollama.base-url:http://localhost:11434}") String baseUrl,
+                            @Value("${ollama.timeout-seconds:120}") long timeoutSeconds,
+                            @Value("${ollama.connect-timeout-ms:2000}") long connectTimeoutMs,
+                            @Value("${ollama.max-in-flight:2}") int maxInFlight,
+                            @Value("${ollama.max-queued:16}") int maxQueued,
+                            @Value("${ollama.queue-timeout-ms:10000}") long queueTimeoutMs) {
+        this.chatUrl = URI.create(baseUrl.replaceAll("/+$", "") + "/api/chat");
+        this.timeout = Duration.ofSeconds(timeoutSeconds);
+        this.httpExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("ollama-http-"));
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .executor(httpExecutor)
+                .build();
+        this.permits = new Semaphore(maxInFlight, true); // fair: ai chờ trước được chạy trước
+        this.maxQueued = maxQueued;
+        this.queueTimeoutMs = queueTimeoutMs;
+
+        this.rejected = Counter.builder("chat.ollama.rejected").register(meterRegistry);
+        this.coalesced = Counter.builder("chat.ollama.coalesced").register(meterRegistry);
+        Gauge.builder("chat.ollama.in-flight", permits, p -> maxInFlight - p.availablePermits()).register(meterRegistry);
+        Gauge.builder("chat.ollama.queued", waiting, AtomicInteger::get).register(meterRegistry);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        httpExecutor.shutdownNow();
+    }
+
+    /**
+     * Gửi hội thoại tới Ollama ("stream": false) và chờ cả câu trả lời.
+     *
+     * @throws ServiceUnavailableException model đang bận và hàng đợi đã đầy / chờ quá lâu
+     * @throws OllamaHttpException         Ollama trả lỗi HTTP
+     */
+    public String chat(String model, List<ChatMessage> messages, double temperature) throws IOException, InterruptedException {
+        String payload = payload(model, messages, temperature, false);
+        CompletableFuture<String> mine = new CompletableFuture<>();
+        CompletableFuture<String> running = inFlight.putIfAbsent(payload, mine);
+        if (running != null) {
+            coalesced.increment();
+            return await(running);
+        }
+        try {
+            acquire();
+            try {
+                HttpResponse<String> response = httpClient.send(request(payload), HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+                if (response.statusCode() != 200) {
+                    throw new OllamaHttpException(response.statusCode(), response.body());
+                }
+                mine.complete(new JSONObject(response.body()).getJSONObject("message").getString("content"));
+            } finally {
+                permits.release();
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(payload, mine);
+        }
+        return mine.join();
+    }
+
+    /**
+     * Gửi hội thoại tới Ollama với "stream": true và trả về ngay khi request đã được nhận chạy;
+     * token được đẩy dần tới listener.
+     *
+     * @throws ServiceUnavailableException model đang bận và hàng đợi đã đầy / chờ quá lâu
+     */
+    public ChatStream streamChat(String model, List<ChatMessage> messages, double temperature, ChatStreamListener listener)
+            throws InterruptedException {
+        HttpRequest request = request(payload(model, messages, temperature, true));
+        acquire();
+        ChatStream stream = new ChatStream(listener, permits::release);
+        HttpResponse.BodyHandler<String> handler = info -> info.statusCode() == 200
+                ? HttpResponse.BodySubscribers.fromLineSubscriber(stream.lines, lines -> null, StandardCharsets.UTF_8, null)
+                : HttpResponse.BodySubscribers.ofString(StandardCharsets.UTF_8);
+        stream.response = httpClient.sendAsync(request, handler);
+        stream.response.whenComplete(stream::onResponse);
+        return stream;
+    }
+
+    private static String payload(String model, List<ChatMessage> messages, double temperature, boolean stream) {
+        JSONArray jsonMessages = new JSONArray();
+        for (ChatMessage message : messages) {
+            jsonMessages.put(new JSONObject().put("role", message.getRole()).put("content", message.getContent()));
+        }
+        // Thứ tự khóa của JSONObject không cố định: tự ghép phần ngoài để cùng câu hỏi luôn cho cùng chuỗi
+        return "{\"model\":" + JSONObject.quote(model)
+                + ",\"stream\":" + stream
+                + ",\"options\":{\"temperature\":" + temperature + "}"
+                + ",\"messages\":" + jsonMessages + "}";
+    }
+
+    private HttpRequest request(String payload) {
+        return HttpRequest.newBuilder(chatUrl)
+                .timeout(timeout) // thời gian tới khi có header phản hồi; với stream không giới hạn độ dài câu trả lời
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(payload, StandardCharsets.UTF_8))
+                .build();
+    }
+
+    private void acquire() throws InterruptedException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        if (waiting.incrementAndGet() > maxQueued) {
+            waiting.decrementAndGet();
+            throw busy();
+        }
+        try {
+            if (!permits.tryAcquire(queueTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw busy();
+            }
+        } finally {
+            waiting.decrementAndGet();
+        }
+    }
+
+    private ServiceUnavailableException busy() {
+        rejected.increment();
+        return new ServiceUnavailableException("Chatbot đang quá tải, vui lòng thử lại sau.",
+                Math.max(1, TimeUnit.MILLISECONDS.toSeconds(queueTimeoutMs)));
+    }
+
+    // Người đi sau chờ kết quả của request đang chạy, không lâu hơn thời gian chờ hàng đợi + timeout phản hồi
+    private String await(CompletableFuture<String> running) throws IOException, InterruptedException {
+        try {
+            return running.get(queueTimeoutMs + timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out waiting for Ollama", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Một lượt trả lời đang stream.
+     */
+    public static final class ChatStream {
+        private final ChatStreamListener listener;
+        private final Runnable release;
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private final AtomicBoolean released = new AtomicBoolean();
+        private final StringBuilder content = new StringBuilder();
+        private final LineSubscriber lines = new LineSubscriber();
+        private volatile boolean cancelled;
+        private volatile CompletableFuture<HttpResponse<String>> response;
+
+        private ChatStream(ChatStreamListener listener, Runnable release) {
+            this.listener = listener;
+            this.release = release;
+        }
+
+        /**
+         * Dừng stream và đóng kết nối tới Ollama. Gọi nhiều lần hay sau khi đã xong đều không sao.
+         */
+        public void cancel() {
+            cancelled = true;
+            finished.set(true);
+            lines.cancel();
+            CompletableFuture<HttpResponse<String>> pending = response;
+            if (pending != null) {
+                pending.cancel(true); // còn đang chờ header (model đang đọc prompt): hủy luôn request
+            }
+            release();
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        // Trả chỗ cho request khác đúng một lần, dù kết thúc bằng done, lỗi hay hủy
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                release.run();
+            }
+        }
+
+        private void onLine(String line) {
+            if (line.isBlank() || finished.get()) {
+                return;
+            }
+            JSONObject chunk;
+            try {
+                chunk = new JSONObject(line);
+            } catch (JSONException e) {
+                fail(new IOException("Malformed stream chunk from Ollama: " + line, e));
+                return;
+            }
+            if (chunk.has("error")) {
+                fail(new IOException("Error from Ollama: " + chunk.optString("error")));
+                return;
+            }
+            JSONObject message = chunk.optJSONObject("message");
+            String token = message != null ? message.optString("content", "") : "";
+            if (!token.isEmpty()) {
+                content.append(token);
+                try {
+                    listener.onToken(token);
+                } catch (Exception e) {
+                    log.debug("Chat stream listener failed, cancelling: {}", e.toString());
+                    cancel();
+                    return;
+                }
+            }
+            if (chunk.optBoolean("done") && finished.compareAndSet(false, true)) {
+                release();
+                listener.onComplete(content.toString()); // Ollama tự kết thúc body sau dòng done, kết nối được dùng lại
+            }
+        }
+
+        private void onResponse(HttpResponse<String> httpResponse, Throwable error) {
+            if (cancelled) {
+                return;
+            }
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (!(cause instanceof CancellationException)) {
+                    fail(cause);
+                }
+            } else if (httpResponse.statusCode() != 200) {
+                fail(new OllamaHttpException(httpResponse.statusCode(), httpResponse.body()));
+            } else {
+                fail(new IOException("Ollama stream ended before the answer was complete"));
+            }
+        }
+
+        private void fail(Throwable error) {
+            if (finished.compareAndSet(false, true)) {
+                lines.cancel();
+                release();
+                listener.onError(error);
+            }
+        }
+
+        // Nhận từng dòng NDJSON, xin dòng tiếp theo chỉ khi đã xử lý xong dòng trước
+        private final class LineSubscriber implements Flow.Subscriber<String> {
+            private volatile Flow.Subscription subscription;
+            private volatile boolean cancelRequested;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                if (cancelRequested) {
+                    subscription.cancel();
+                } else {
+                    subscription.request(1);
+                }
+            }
+
+            @Override
+            public void onNext(String line) {
+                onLine(line);
+                if (!cancelRequested) {
+                    subscription.request(1);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                // Kết quả lỗi được báo qua future của response (onResponse)
+            }
+
+            @Override
+            public void onComplete() {
+            }
+
+            void cancel() {
+                cancelRequested = true;
+                Flow.Subscription current = subscription;
+                if (current != null) {
+                    current.cancel();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.InvoiceManage.service.chat;
+
+import com.example.InvoiceManage.util.NamedThreadFactory;
+import jakarta.annotation.PreDestroy;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tính embedding qua API /api/embed của Ollama.
+ *
+ * Nhiều đoạn được gửi trong một request (batch-size đoạn mỗi lần), và tối đa parallelism request chạy song song,
+ * nên nạp một tài liệu vài nghìn đoạn chỉ cần vài chục lượt gọi thay vì mỗi đoạn một lượt.
+ */
+@Component
+public class OllamaEmbedder implements TextEmbedder {
+
+    private final URI embedUrl;
+    private final String model;
+    private final int batchSize;
+    private final Duration timeout;
+    private final HttpClient httpClient;
+    private final ExecutorService executor;
+
+    public OllamaEmbedder(@Value("${ollama.base-url:http://localhost:11434}") String baseUrl,
+                          @Value("${chat.embedding.model:nomic-embed-text}") String model,
+                          @Value("${chat.embedding.batch-size:32}") int batchSize,
+                          @Value("${chat.embedding.parallelism:4}") int parallelism,
+                          @Value("${ollama.timeout-seconds:120}") long timeoutSeconds) {
+        this.embedUrl = URI.create(baseUrl.replaceAll("/+$", "") + "/api/embed");
+        this.model = model;
+        this.batchSize = batchSize;
+        this.timeout = Duration.ofSeconds(timeoutSeconds);
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(Math.min(timeoutSeconds, 10)))
+                .build();
+        this.executor = Executors.newFixedThreadPool(parallelism, new NamedThreadFactory("chat-embed-"));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public List<float[]> embed(List<String> texts) throws IOException, InterruptedException {
+        if (texts.size() <= batchSize) {
+            return embedBatch(texts); // câu hỏi (1 đoạn) gọi thẳng, không qua pool
+        }
+        List<Future<List<float[]>>> batches = new ArrayList<>();
+        for (int from = 0; from < texts.size(); from += batchSize) {
+            List<String> batch = texts.subList(from, Math.min(from + batchSize, texts.size()));
+            batches.add(executor.submit(() -> embedBatch(batch)));
+        }
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        try {
+            for (Future<List<float[]>> batch : batches) {
+                vectors.addAll(batch.get());
+            }
+        } catch (ExecutionException e) {
+            batches.forEach(batch -> batch.cancel(true));
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException io ? io : new IOException("Embedding failed", cause);
+        } catch (InterruptedException e) {
+            batches.forEach(batch -> batch.cancel(true));
+            throw e;
+        }
+        return vectors;
+    }
+
+    private List<float[]> embedBatch(List<String> texts) throws IOException, InterruptedException {
+        JSONObject payload = new JSONObject().put("model", model).put("input", new JSONArray(texts));
+        HttpRequest request = HttpRequest.newBuilder(embedUrl)
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(payload.toString(), StandardCharsets.UTF_8))
+                .build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        if (response.statusCode() != 200) {
+            throw new IOException("Ollama embed API returned HTTP " + response.statusCode() + ": " + response.body());
+        }
+        JSONArray embeddings = new JSONObject(response.body()).getJSONArray("embeddings");
+        if (embeddings.length() != texts.size()) {
+            throw new IOException("Ollama returned " + embeddings.length() + " embeddings for " + texts.size() + " inputs");
+        }
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        for (int i = 0; i < embeddings.length(); i++) {
+            JSONArray values = embeddings.getJSONArray(i);
+            float[] vector = new float[values.length()];
+            for (int j = 0; j < vector.length; j++) {
+                vector[j] = (float) values.getDouble(j);
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.InvoiceManage.service.chat;
+
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * File PDF, trích văn bản bằng PDFBox theo từng trang: chỉ văn bản của trang đang xử lý nằm trong bộ nhớ,
+ * file được đọc trực tiếp từ đĩa và bộ đệm của PDFBox dùng file tạm thay vì heap.
+ * Đoạn văn tách theo khoảng cách dòng mà PDFBox nhận ra.
+ */
+@Component
+public class PdfExtractor implements DocumentExtractor {
+
+    private static final Pattern PARAGRAPH_BREAK = Pattern.compile("\\n\\s*\\n");
+    private static final Pattern LINE_BREAK = Pattern.compile("\\s*\\n\\s*");
+
+    @Override
+    public Set<String> extensions() {
+        return Set.of("pdf");
+    }
+
+    @Override
+    public void extract(Path file, Consumer<String> paragraphs, DoubleConsumer progress) throws IOException {
+        PDDocument document;
+        try {
+            document = Loader.loadPDF(file.toFile(), IOUtils.createTempFileOnlyStreamCache());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Not a readable PDF document: " + e.getMessage(), e);
+        }
+        try (document) {
+            PDFTextStripper stripper = new PDFTextStripper();
+            stripper.setSortByPosition(true);
+            stripper.setParagraphEnd("\n\n");
+            int pages = document.getNumberOfPages();
+            for (int page = 1; page <= pages; page++) {
+                stripper.setStartPage(page);
+                stripper.setEndPage(page);
+                for (String paragraph : PARAGRAPH_BREAK.split(stripper.getText(document))) {
+                    // Dòng trong một đoạn do PDF ngắt theo bề rộng trang: nối lại bằng dấu cách
+                    String text = LINE_BREAK.matcher(paragraph.trim()).replaceAll(" ");
+                    for (int from = 0; from < text.length(); from += MAX_PARAGRAPH_CHARS) {
+                        paragraphs.accept(text.substring(from, Math.min(text.length(), from + MAX_PARAGRAPH_CHARS)));
+                    }
+                }
+                progress.accept((double) page / pages);
+            }
+        }
+    }
+}
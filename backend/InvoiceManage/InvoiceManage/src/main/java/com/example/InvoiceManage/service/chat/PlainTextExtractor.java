@@ -0,0 +1,57 @@
+package com.example.InvoiceManage.service.chat;
+
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * File văn bản thuần (UTF-8): đọc từng dòng, các dòng liền nhau là một đoạn văn, đoạn văn cách nhau bởi dòng trống.
+ */
+@Component
+public class PlainTextExtractor implements DocumentExtractor {
+
+    @Override
+    public Set<String> extensions() {
+        return Set.of("txt", "md");
+    }
+
+    @Override
+    public void extract(Path file, Consumer<String> paragraphs, DoubleConsumer progress) throws IOException {
+        long size = Math.max(1, Files.size(file));
+        try (CountingInputStream in = new CountingInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            BoundedLineReader lines = new BoundedLineReader(new InputStreamReader(in, StandardCharsets.UTF_8), MAX_PARAGRAPH_CHARS);
+            StringBuilder paragraph = new StringBuilder();
+            String line;
+            while ((line = lines.readLine()) != null) {
+                line = stripBom(line).trim();
+                if (line.isEmpty() || paragraph.length() + line.length() > MAX_PARAGRAPH_CHARS) {
+                    flush(paragraph, paragraphs);
+                    progress.accept(Math.min(1, (double) in.count() / size));
+                }
+                if (!line.isEmpty()) {
+                    paragraph.append(paragraph.length() > 0 ? "\n" : "").append(line);
+                }
+            }
+            flush(paragraph, paragraphs);
+        }
+    }
+
+    static String stripBom(String line) {
+        return line.startsWith("\uFEFF") ? line.substring(1) : line;
+    }
+
+    private static void flush(StringBuilder paragraph, Consumer<String> paragraphs) {
+        if (paragraph.length() > 0) {
+            paragraphs.accept(paragraph.toString());
+            paragraph.setLength(0);
+        }
+    }
+}
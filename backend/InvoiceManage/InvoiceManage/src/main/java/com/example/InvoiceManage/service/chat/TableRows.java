@@ -0,0 +1,32 @@
+package com.example.InvoiceManage.service.chat;
+
+import java.util.List;
+
+/**
+ * Chuyển một dòng bảng (XLSX, CSV) thành một đoạn văn tự đủ nghĩa: "Bảng | Tên cột: giá trị; ...".
+ * Mỗi dòng mang theo tên cột, nên chunk nào chứa dòng đó cũng trả lời được câu hỏi kiểu "giá của X là bao nhiêu".
+ */
+final class TableRows {
+
+    private TableRows() {
+    }
+
+    static String describe(String table, List<String> header, List<String> cells) {
+        StringBuilder text = new StringBuilder();
+        if (table != null && !table.isBlank()) {
+            text.append(table.trim()).append(" |");
+        }
+        boolean any = false;
+        for (int i = 0; i < cells.size(); i++) {
+            String value = cells.get(i) == null ? "" : cells.get(i).trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            String column = i < header.size() && header.get(i) != null ? header.get(i).trim() : "";
+            text.append(any ? "; " : text.length() > 0 ? " " : "");
+            text.append(column.isEmpty() ? value : column + ": " + value);
+            any = true;
+        }
+        return any ? text.toString() : "";
+    }
+}
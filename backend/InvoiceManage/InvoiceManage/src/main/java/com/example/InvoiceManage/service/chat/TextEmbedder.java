@@ -0,0 +1,16 @@
+package com.example.InvoiceManage.service.chat;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Tính embedding (vector ngữ nghĩa) cho các đoạn văn bản; kết quả theo đúng thứ tự đầu vào, mọi vector cùng số chiều.
+ */
+public interface TextEmbedder {
+
+    List<float[]> embed(List<String> texts) throws IOException, InterruptedException;
+
+    default float[] embed(String text) throws IOException, InterruptedException {
+        return embed(List.of(text)).get(0);
+    }
+}
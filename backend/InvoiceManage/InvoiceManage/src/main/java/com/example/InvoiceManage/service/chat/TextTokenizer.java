@@ -0,0 +1,53 @@
+package com.example.InvoiceManage.service.chat;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Tách văn bản thành các từ để lập chỉ mục và tìm kiếm ngữ cảnh chatbot.
+ * Dùng chung cho tài liệu và câu hỏi nên hai bên luôn được chuẩn hóa giống nhau:
+ * chuẩn Unicode NFC (chữ tiếng Việt gõ tổ hợp hay dựng sẵn đều như nhau), chữ thường,
+ * tách theo ký tự không phải chữ/số, bỏ stop word và từ 1 ký tự (trừ số).
+ */
+public final class TextTokenizer {
+
+    // Danh sách các stop words tiếng Việt cơ bản. Có thể mở rộng để kết quả tốt hơn.
+    private static final Set<String> STOP_WORDS = Set.of(
+            "là", "gì", "cái", "này", "về", "của", "và", "được", "trong", "một", "có", "không", "để",
+            "tôi", "bạn", "nó", "họ", "khi", "thì", "mà", "tại", "cho", "với", "như", "làm"
+    );
+
+    private TextTokenizer() {
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFC).toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                addToken(normalized.substring(start, i), tokens);
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    private static void addToken(String token, List<String> tokens) {
+        if (token.length() < 2 && !Character.isDigit(token.charAt(0))) {
+            return;
+        }
+        if (!STOP_WORDS.contains(token)) {
+            tokens.add(token);
+        }
+    }
+}
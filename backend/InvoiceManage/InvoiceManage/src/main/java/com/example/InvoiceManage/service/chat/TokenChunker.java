@@ -0,0 +1,128 @@
+package com.example.InvoiceManage.service.chat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Gom các đoạn văn thành các đoạn ngữ cảnh (chunk) theo ngân sách token: mỗi chunk tối đa {@code maxTokens},
+ * chunk sau lặp lại {@code overlapTokens} token cuối của chunk trước để câu nằm ở ranh giới vẫn tìm được.
+ * Token được ước lượng theo từ (tách bởi khoảng trắng). Đoạn văn dài hơn ngân sách bị cắt thành nhiều phần.
+ *
+ * Nhận từng đoạn văn một và chỉ giữ chunk đang dựng, nên dùng được với tài liệu đọc theo luồng.
+ */
+public final class TokenChunker {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final int maxTokens;
+    private final int overlapTokens;
+    private final Consumer<String> chunks;
+
+    private final List<String> words = new ArrayList<>();
+    // Vị trí (trong words) bắt đầu mỗi đoạn văn, để nối lại bằng dòng trống
+    private final List<Integer> paragraphStarts = new ArrayList<>();
+    // Số từ đầu chunk hiện tại lặp lại từ chunk trước
+    private int carried;
+    private int emitted;
+
+    public TokenChunker(int maxTokens, int overlapTokens, Consumer<String> chunks) {
+        validate(maxTokens, overlapTokens);
+        this.maxTokens = maxTokens;
+        this.overlapTokens = overlapTokens;
+        this.chunks = chunks;
+    }
+
+    /**
+     * Kiểm tra ngân sách chunk (vd: cấu hình lúc khởi động) mà không cần tạo bộ chia.
+     *
+     * @throws IllegalArgumentException ngân sách dưới 2 token hoặc phần chồng lấn không nhỏ hơn ngân sách
+     */
+    public static void validate(int maxTokens, int overlapTokens) {
+        if (maxTokens < 2 || overlapTokens < 0 || overlapTokens >= maxTokens) {
+            throw new IllegalArgumentException("Invalid chunk budget: " + maxTokens + " tokens with " + overlapTokens + " overlap");
+        }
+    }
+
+    public void accept(String paragraph) {
+        String trimmed = paragraph.trim();
+        if (trimmed.isEmpty()) {
+            return;
+        }
+        String[] tokens = WHITESPACE.split(trimmed);
+        // Mỗi phần cộng với phần chồng lấn vẫn không vượt ngân sách
+        int piece = maxTokens - overlapTokens;
+        for (int from = 0; from < tokens.length; from += piece) {
+            int to = Math.min(tokens.length, from + piece);
+            if (words.size() + (to - from) > maxTokens && words.size() > carried) {
+                emit(true);
+            }
+            if (from == 0) {
+                paragraphStarts.add(words.size());
+            }
+            for (int i = from; i < to; i++) {
+                words.add(tokens[i]);
+            }
+        }
+    }
+
+    /**
+     * Xuất chunk cuối cùng (nếu còn nội dung mới).
+     */
+    public void finish() {
+        if (words.size() > carried) {
+            emit(false);
+        }
+        words.clear();
+        paragraphStarts.clear();
+        carried = 0;
+    }
+
+    public int emitted() {
+        return emitted;
+    }
+
+    /**
+     * Số token ước lượng của một đoạn văn bản, cùng cách đếm với khi chia chunk (số từ).
+     */
+    public static int estimateTokens(String text) {
+        int tokens = 0;
+        boolean inWord = false;
+        for (int i = 0; text != null && i < text.length(); i++) {
+            boolean space = Character.isWhitespace(text.charAt(i));
+            if (!space && !inWord) {
+                tokens++;
+            }
+            inWord = !space;
+        }
+        return tokens;
+    }
+
+    private void emit(boolean keepOverlap) {
+        StringBuilder text = new StringBuilder();
+        int nextStart = 0;
+        for (int i = 0; i < words.size(); i++) {
+            if (i > 0) {
+                while (nextStart < paragraphStarts.size() && paragraphStarts.get(nextStart) < i) {
+                    nextStart++;
+                }
+                boolean newParagraph = nextStart < paragraphStarts.size() && paragraphStarts.get(nextStart) == i;
+                text.append(newParagraph ? "\n\n" : " ");
+            }
+            text.append(words.get(i));
+        }
+        chunks.accept(text.toString());
+        emitted++;
+
+        if (!keepOverlap) {
+            return;
+        }
+        int keep = Math.min(overlapTokens, words.size());
+        int dropped = words.size() - keep;
+        words.subList(0, dropped).clear();
+        paragraphStarts.removeIf(start -> start < dropped);
+        paragraphStarts.replaceAll(start -> start - dropped);
+        carried = keep;
+    }
+}
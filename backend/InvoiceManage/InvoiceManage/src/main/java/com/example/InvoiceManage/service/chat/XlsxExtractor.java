@@ -0,0 +1,128 @@
+package com.example.InvoiceManage.service.chat;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.springframework.stereotype.Component;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * File XLSX, đọc bằng event API (SAX) của POI: từng dòng của từng sheet được xử lý ngay khi đọc tới,
+ * không dựng XSSFWorkbook. Dòng khác rỗng đầu tiên của mỗi sheet là tên cột; các dòng sau thành đoạn văn
+ * "Sheet | Tên cột: giá trị; ..." (xem {@link TableRows}). Giá trị ô lấy theo định dạng hiển thị trong Excel.
+ */
+@Component
+public class XlsxExtractor implements DocumentExtractor {
+
+    // Cột xa hơn thì bỏ qua, để một dòng không phình vô hạn
+    private static final int MAX_COLUMNS = 256;
+
+    @Override
+    public Set<String> extensions() {
+        return Set.of("xlsx");
+    }
+
+    @Override
+    public void extract(Path file, Consumer<String> paragraphs, DoubleConsumer progress) throws IOException {
+        // Mở theo file (không theo InputStream) để POI đọc trực tiếp từ đĩa thay vì nạp cả file zip vào bộ nhớ
+        try (OPCPackage pkg = OPCPackage.open(file.toFile(), PackageAccess.READ)) {
+            XSSFReader reader = new XSSFReader(pkg);
+            // Bảng chuỗi dùng chung vẫn nằm trong bộ nhớ (POI cần để tra giá trị ô), các sheet thì đọc theo luồng
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+            DataFormatter formatter = new DataFormatter();
+
+            // Đếm sheet để báo tiến độ (chỉ mở rồi đóng luồng, không đọc dữ liệu)
+            int sheetCount = 0;
+            for (var it = reader.getSheetsData(); it.hasNext(); sheetCount++) {
+                it.next().close();
+            }
+
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            int sheet = 0;
+            while (sheets.hasNext()) {
+                try (InputStream data = sheets.next()) {
+                    XMLReader parser = XMLHelper.newXMLReader();
+                    parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings,
+                            new RowCollector(sheets.getSheetName(), paragraphs), formatter, false));
+                    parser.parse(new InputSource(data));
+                }
+                progress.accept((double) ++sheet / sheetCount);
+            }
+        } catch (OpenXML4JException e) {
+            throw new IllegalArgumentException("Not an XLSX workbook: " + e.getMessage(), e);
+        } catch (SAXException | ParserConfigurationException e) {
+            throw new IOException("Malformed XLSX sheet: " + e.getMessage(), e);
+        }
+    }
+
+    // Gom các ô của một dòng rồi gửi dòng đó đi khi POI báo hết dòng
+    private static final class RowCollector implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final String sheetName;
+        private final Consumer<String> paragraphs;
+        private final List<String> cells = new ArrayList<>();
+        private List<String> header;
+
+        RowCollector(String sheetName, Consumer<String> paragraphs) {
+            this.sheetName = sheetName;
+            this.paragraphs = paragraphs;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            cells.clear();
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int column = cellReference != null ? new CellReference(cellReference).getCol() : cells.size();
+            if (column >= MAX_COLUMNS || formattedValue == null) {
+                return;
+            }
+            while (cells.size() < column) {
+                cells.add("");
+            }
+            String value = formattedValue.length() > MAX_PARAGRAPH_CHARS ? formattedValue.substring(0, MAX_PARAGRAPH_CHARS) : formattedValue;
+            if (cells.size() == column) {
+                cells.add(value);
+            } else {
+                cells.set(column, value);
+            }
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            if (cells.stream().allMatch(String::isBlank)) {
+                return;
+            }
+            if (header == null) {
+                header = new ArrayList<>(cells);
+                return;
+            }
+            String row = TableRows.describe(sheetName, header, cells);
+            if (!row.isEmpty()) {
+                paragraphs.accept(row);
+            }
+        }
+    }
+}
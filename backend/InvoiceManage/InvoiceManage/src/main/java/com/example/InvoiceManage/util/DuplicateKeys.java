@@ -0,0 +1,38 @@
+package com.example.InvoiceManage.util;
+
+import org.springframework.dao.DuplicateKeyException;
+
+import java.sql.SQLException;
+
+/**
+ * Nhận diện lỗi vi phạm khóa unique trong chuỗi nguyên nhân của một ngoại lệ ghi CSDL.
+ * Các lỗi toàn vẹn khác (NOT NULL, khóa ngoại, dữ liệu quá dài...) không được coi là "bản ghi trùng".
+ */
+public final class DuplicateKeys {
+
+    // ER_DUP_ENTRY của MySQL, đi kèm SQLState 23000
+    private static final int MYSQL_DUPLICATE_ENTRY = 1062;
+    private static final String MYSQL_INTEGRITY_STATE = "23000";
+    // SQLState chuẩn cho unique_violation (H2, PostgreSQL)
+    private static final String UNIQUE_VIOLATION_STATE = "23505";
+
+    private DuplicateKeys() {
+    }
+
+    public static boolean isDuplicateKey(Throwable error) {
+        for (Throwable t = error; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof DuplicateKeyException) {
+                return true;
+            }
+            if (t instanceof SQLException sql) {
+                if (MYSQL_INTEGRITY_STATE.equals(sql.getSQLState()) && sql.getErrorCode() == MYSQL_DUPLICATE_ENTRY) {
+                    return true;
+                }
+                if (UNIQUE_VIOLATION_STATE.equals(sql.getSQLState())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
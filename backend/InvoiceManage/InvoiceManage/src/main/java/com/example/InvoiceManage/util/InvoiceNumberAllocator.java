@@ -0,0 +1,133 @@
+package com.example.InvoiceManage.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bộ cấp số hóa đơn trong bộ nhớ, không dùng khóa trên đường đi thường xuyên.
+ *
+ * Mỗi node giữ một "block" số [start, end) đã được đặt trước trong CSDL; các luồng lấy số
+ * bằng một phép getAndIncrement trên block hiện tại. Chỉ khi block cạn mới phải khóa để xin block mới.
+ * Số bị trả lại (giao dịch duyệt hóa đơn bị rollback) được ưu tiên cấp lại trước, số nhỏ nhất trước,
+ * để dãy số hóa đơn không bị thủng.
+ */
+public class InvoiceNumberAllocator {
+
+    @FunctionalInterface
+    public interface BlockSource {
+        Block reserve(int size);
+    }
+
+    public static final class Block {
+        private final long start;
+        private final long end;
+        private final AtomicLong cursor;
+
+        public Block(long start, long end) {
+            this.start = start;
+            this.end = end;
+            this.cursor = new AtomicLong(start);
+        }
+
+        public long getStart() { return start; }
+        public long getEnd() { return end; }
+
+        // Trả về -1 khi block đã cạn
+        long take() {
+            long number = cursor.getAndIncrement();
+            return number < end ? number : -1;
+        }
+    }
+
+    private final BlockSource source;
+    private final int blockSize;
+    private final AtomicReference<Block> current = new AtomicReference<>();
+    private final ConcurrentSkipListSet<Long> released = new ConcurrentSkipListSet<>();
+    private final ReentrantLock refillLock = new ReentrantLock();
+
+    public InvoiceNumberAllocator(BlockSource source, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        this.source = source;
+        this.blockSize = blockSize;
+    }
+
+    public long next() {
+        Long reused = released.pollFirst();
+        if (reused != null) {
+            return reused;
+        }
+        while (true) {
+            Block block = current.get();
+            if (block != null) {
+                long number = block.take();
+                if (number >= 0) {
+                    return number;
+                }
+            }
+            refill(block);
+        }
+    }
+
+    /**
+     * Trả lại một số đã cấp nhưng không được dùng (ví dụ giao dịch bị rollback).
+     */
+    public void release(long number) {
+        released.add(number);
+    }
+
+    /**
+     * Nạp thêm các số có thể dùng lại (ví dụ các khoảng trống đọc từ CSDL khi khởi động).
+     */
+    public void addReusable(Collection<Long> numbers) {
+        released.addAll(numbers);
+    }
+
+    public int releasedCount() {
+        return released.size();
+    }
+
+    /**
+     * Rút toàn bộ số chưa dùng: các số đã trả lại và phần còn lại của block hiện tại.
+     * Gọi khi tắt ứng dụng để ghi các số này thành khoảng trống trong CSDL.
+     */
+    public List<Long> drainUnused() {
+        refillLock.lock();
+        try {
+            List<Long> unused = new ArrayList<>();
+            Long number;
+            while ((number = released.pollFirst()) != null) {
+                unused.add(number);
+            }
+            Block block = current.getAndSet(null);
+            if (block != null) {
+                // Đẩy con trỏ tới cuối để các lượt take() đang chạy song song không lấy được số nào nữa
+                long from = block.cursor.getAndSet(block.end);
+                for (long i = from; i < block.end; i++) {
+                    unused.add(i);
+                }
+            }
+            return unused;
+        } finally {
+            refillLock.unlock();
+        }
+    }
+
+    private void refill(Block exhausted) {
+        refillLock.lock();
+        try {
+            // Luồng khác có thể đã xin block mới trong lúc ta chờ khóa
+            if (current.get() == exhausted) {
+                current.set(source.reserve(blockSize));
+            }
+        } finally {
+            refillLock.unlock();
+        }
+    }
+}
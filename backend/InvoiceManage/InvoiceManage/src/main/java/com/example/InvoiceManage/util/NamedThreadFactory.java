@@ -0,0 +1,24 @@
+package com.example.InvoiceManage.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ThreadFactory đặt tên luồng theo tiền tố (vd: invoice-render-3) để dễ đọc log và thread dump.
+ * Luồng tạo ra là daemon nên không giữ JVM lại khi ứng dụng tắt.
+ */
+public class NamedThreadFactory implements ThreadFactory {
+    private final String prefix;
+    private final AtomicInteger counter = new AtomicInteger();
+
+    public NamedThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
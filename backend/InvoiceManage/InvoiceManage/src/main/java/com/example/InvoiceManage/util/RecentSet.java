@@ -0,0 +1,52 @@
+package com.example.InvoiceManage.util;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tập có giới hạn các giá trị vừa thấy gần đây, an toàn khi dùng đồng thời.
+ * Khi đầy thì loại giá trị được thêm sớm nhất (FIFO).
+ */
+public class RecentSet<T> {
+
+    private final int capacity;
+    private final Set<T> members = ConcurrentHashMap.newKeySet();
+    private final Queue<T> order = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    public RecentSet(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    public boolean contains(T value) {
+        return members.contains(value);
+    }
+
+    /**
+     * @return true nếu giá trị chưa có trong tập
+     */
+    public boolean add(T value) {
+        if (!members.add(value)) {
+            return false;
+        }
+        order.add(value);
+        if (size.incrementAndGet() > capacity) {
+            T oldest = order.poll();
+            if (oldest != null) {
+                members.remove(oldest);
+                size.decrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    public int size() {
+        return size.get();
+    }
+}
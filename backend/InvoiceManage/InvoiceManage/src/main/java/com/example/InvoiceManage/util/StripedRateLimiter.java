@@ -0,0 +1,122 @@
+package com.example.InvoiceManage.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Giới hạn tốc độ theo khóa (IP, tài khoản...): mỗi khóa một {@link TokenBucket}.
+ *
+ * Các bucket được chia vào nhiều map con (stripe) theo hash của khóa, mỗi stripe có giới hạn số khóa riêng.
+ * Dọn bucket nhàn rỗi hay chạm giới hạn chỉ quét một stripe nhỏ, không khóa hay duyệt toàn bộ,
+ * nên một đợt tấn công với rất nhiều khóa khác nhau không làm phình bộ nhớ hay làm chậm các khóa khác.
+ * Khi stripe đầy mà không có bucket nhàn rỗi, bucket dùng lâu nhất trong stripe bị đẩy ra để nhường chỗ:
+ * nếu từ chối khóa mới thì kẻ tấn công chỉ cần làm đầy map là chặn được đăng nhập của mọi người dùng thật.
+ */
+public class StripedRateLimiter {
+
+    private static final class Bucket {
+        private final TokenBucket tokens;
+        private volatile long lastUsed;
+
+        private Bucket(TokenBucket tokens, long now) {
+            this.tokens = tokens;
+            this.lastUsed = now;
+        }
+    }
+
+    private final Map<String, Bucket>[] stripes;
+    private final double permitsPerSecond;
+    private final int burst;
+    private final int maxKeysPerStripe;
+    // Bucket không dùng trong khoảng này đã nạp đầy trở lại nên xóa đi cũng không đổi kết quả
+    private final long idleNanos;
+
+    @SuppressWarnings("unchecked")
+    public StripedRateLimiter(int stripeCount, int maxKeys, double permitsPerSecond, int burst) {
+        if (stripeCount <= 0 || maxKeys < stripeCount) {
+            throw new IllegalArgumentException("Invalid rate limiter parameters");
+        }
+        this.stripes = new Map[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ConcurrentHashMap<>();
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.maxKeysPerStripe = maxKeys / stripeCount;
+        this.idleNanos = (long) Math.ceil(burst / permitsPerSecond * 1_000_000_000L);
+    }
+
+    /**
+     * Lấy một lượt cho khóa nếu còn, không chờ.
+     */
+    public boolean tryAcquire(String key) {
+        long now = System.nanoTime();
+        Map<String, Bucket> stripe = stripeFor(key);
+        Bucket bucket = stripe.get(key);
+        if (bucket == null) {
+            if (stripe.size() >= maxKeysPerStripe && purgeIdle(stripe, now) == 0) {
+                evictLeastRecentlyUsed(stripe);
+            }
+            bucket = stripe.computeIfAbsent(key, k -> new Bucket(new TokenBucket(permitsPerSecond, burst), now));
+        }
+        bucket.lastUsed = now;
+        return bucket.tokens.tryAcquire();
+    }
+
+    /**
+     * Xóa bucket nhàn rỗi ở mọi stripe. Trả về số bucket đã xóa.
+     */
+    public int purgeIdle() {
+        long now = System.nanoTime();
+        int removed = 0;
+        for (Map<String, Bucket> stripe : stripes) {
+            removed += purgeIdle(stripe, now);
+        }
+        return removed;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Map<String, Bucket> stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    public long retryAfterSeconds() {
+        return Math.max(1, (long) Math.ceil(1 / permitsPerSecond));
+    }
+
+    private int purgeIdle(Map<String, Bucket> stripe, long now) {
+        int removed = 0;
+        for (Iterator<Bucket> it = stripe.values().iterator(); it.hasNext(); ) {
+            if (now - it.next().lastUsed > idleNanos) {
+                it.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    private static void evictLeastRecentlyUsed(Map<String, Bucket> stripe) {
+        String oldestKey = null;
+        long oldest = Long.MAX_VALUE;
+        for (Map.Entry<String, Bucket> entry : stripe.entrySet()) {
+            long lastUsed = entry.getValue().lastUsed;
+            if (oldestKey == null || lastUsed - oldest < 0) {
+                oldestKey = entry.getKey();
+                oldest = lastUsed;
+            }
+        }
+        if (oldestKey != null) {
+            stripe.remove(oldestKey);
+        }
+    }
+
+    private Map<String, Bucket> stripeFor(String key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        return stripes[(h & 0x7fffffff) % stripes.length];
+    }
+}
@@ -0,0 +1,63 @@
+package com.example.InvoiceManage.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bộ giới hạn tốc độ kiểu token bucket: nạp đều permitsPerSecond token mỗi giây, chứa tối đa burst token.
+ * acquire() chờ tới lượt mà không giữ khóa trong lúc ngủ, nên nhiều luồng chờ cùng lúc vẫn được chia lượt đều.
+ */
+public class TokenBucket {
+
+    private final double permitsPerNano;
+    private final double burst;
+    private double available;
+    private long lastRefill;
+
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst <= 0) {
+            throw new IllegalArgumentException("Invalid token bucket parameters");
+        }
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.available = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Lấy một token nếu có ngay, không chờ.
+     */
+    public synchronized boolean tryAcquire() {
+        refill(System.nanoTime());
+        if (available >= 1) {
+            available -= 1;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Lấy một token, chờ nếu cần.
+     */
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    // Đặt trước token (số dư có thể âm): luồng đến sau phải chờ lâu hơn luồng đến trước
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        refill(now);
+        available -= 1;
+        return available >= 0 ? 0 : (long) Math.ceil(-available / permitsPerNano);
+    }
+
+    private void refill(long now) {
+        long elapsed = now - lastRefill;
+        if (elapsed > 0) {
+            available = Math.min(burst, available + elapsed * permitsPerNano);
+            lastRefill = now;
+        }
+    }
+}
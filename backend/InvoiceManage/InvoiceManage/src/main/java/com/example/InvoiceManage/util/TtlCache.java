@@ -0,0 +1,136 @@
+package com.example.InvoiceManage.util;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Cache có giới hạn kích thước và thời gian sống (TTL), an toàn khi dùng đồng thời.
+ *
+ * - Mục hết hạn bị coi như không có và được nạp lại ở lần đọc kế tiếp.
+ * - Khi vượt maxSize thì loại mục được thêm sớm nhất (FIFO), giống RecentSet.
+ * - invalidate() có hiệu lực ngay cả với lần nạp đang chạy dở: giá trị nạp xong sau thời điểm
+ *   invalidate sẽ không được đưa vào cache, tránh ghi đè lại dữ liệu cũ.
+ * - Thế hệ được đếm theo khóa (chia vào một số ngăn cố định theo hash), nên invalidate một khóa
+ *   không làm hỏng lần nạp đang chạy của các khóa khác; invalidateAll() thì áp dụng cho mọi khóa.
+ */
+public class TtlCache<K, V> {
+
+    private record Entry<V>(V value, long expiresAt) {}
+
+    // Lũy thừa của 2; hai khóa chung ngăn chỉ làm lần nạp của nhau phải nạp lại, không bao giờ giữ dữ liệu cũ
+    private static final int GENERATION_STRIPES = 64;
+
+    private final long ttlNanos;
+    private final int maxSize;
+    private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final Queue<K> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLongArray keyGenerations = new AtomicLongArray(GENERATION_STRIPES);
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public TtlCache(long ttl, TimeUnit unit, int maxSize) {
+        if (ttl <= 0 || maxSize <= 0) {
+            throw new IllegalArgumentException("Invalid cache parameters");
+        }
+        this.ttlNanos = unit.toNanos(ttl);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Lấy giá trị trong cache, hoặc nạp bằng loader nếu chưa có/hết hạn. Loader ném exception thì không cache gì.
+     */
+    public V get(K key, Function<? super K, ? extends V> loader) {
+        long now = System.nanoTime();
+        Entry<V> entry = entries.get(key);
+        if (entry != null && now - entry.expiresAt() < 0) {
+            hits.increment();
+            return entry.value();
+        }
+        misses.increment();
+        int stripe = stripe(key);
+        long observedGeneration = generation.get();
+        long observedKeyGeneration = keyGenerations.get(stripe);
+        V value = loader.apply(key);
+        if (value != null && generation.get() == observedGeneration && keyGenerations.get(stripe) == observedKeyGeneration) {
+            put(key, value, now);
+        }
+        return value;
+    }
+
+    /**
+     * Giá trị còn hạn trong cache, hoặc null (tính là một lần miss). Dùng cùng put() khi việc nạp
+     * không gói được vào một Function (vd: ném checked exception, hoặc chạy bất đồng bộ).
+     */
+    public V getIfPresent(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && System.nanoTime() - entry.expiresAt() < 0) {
+            hits.increment();
+            return entry.value();
+        }
+        misses.increment();
+        return null;
+    }
+
+    public void put(K key, V value) {
+        put(key, value, System.nanoTime());
+    }
+
+    public void invalidate(K key) {
+        keyGenerations.incrementAndGet(stripe(key));
+        if (entries.remove(key) != null) {
+            // O(n) nhưng chỉ xảy ra khi dữ liệu gốc thay đổi (hiếm), giữ hàng đợi không phình ra
+            insertionOrder.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+        insertionOrder.clear();
+    }
+
+    private static int stripe(Object key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & (GENERATION_STRIPES - 1);
+    }
+
+    private void put(K key, V value, long now) {
+        if (entries.put(key, new Entry<>(value, now + ttlNanos)) == null) {
+            insertionOrder.add(key);
+        }
+        while (entries.size() > maxSize) {
+            K oldest = insertionOrder.poll();
+            if (oldest == null) {
+                break;
+            }
+            if (entries.remove(oldest) != null) {
+                evictions.increment();
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.InvoiceManage.util;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.UUID;
+
+/**
+ * Gọi API truy vấn giao dịch (vnp_Command=querydr) của VNPay.
+ *
+ * Một HttpClient dùng chung cho mọi luồng: kết nối HTTP/1.1 keep-alive được giữ trong pool của HttpClient
+ * và dùng lại giữa các request, không bắt tay TLS lại cho từng giao dịch.
+ * Chữ ký phản hồi được kiểm tra trước khi tin vào kết quả.
+ */
+public class VnPayQueryClient {
+
+    private final URI apiUrl;
+    private final String tmnCode;
+    private final String ipAddr;
+    private final Duration timeout;
+    private final VnPaySigner signer;
+    private final HttpClient httpClient;
+
+    public VnPayQueryClient(String apiUrl, String tmnCode, String secretKey, String ipAddr, Duration timeout) {
+        this.apiUrl = URI.create(apiUrl);
+        this.tmnCode = tmnCode;
+        this.ipAddr = ipAddr;
+        this.timeout = timeout;
+        this.signer = new VnPaySigner(secretKey);
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(timeout)
+                .build();
+    }
+
+    /**
+     * @param txnRef          vnp_TxnRef của giao dịch gốc
+     * @param transactionDate vnp_CreateDate của giao dịch gốc (yyyyMMddHHmmss, giờ Việt Nam)
+     */
+    public QueryResult query(String txnRef, String transactionDate) throws IOException, InterruptedException {
+        String requestId = UUID.randomUUID().toString().replace("-", "");
+        String createDate = VnPaySigner.VNPAY_DATE.format(Instant.now());
+        String orderInfo = "Truy van giao dich " + txnRef;
+        String version = "2.1.0";
+        String command = "querydr";
+
+        String hashData = String.join("|", requestId, version, command, tmnCode, txnRef,
+                transactionDate, createDate, ipAddr, orderInfo);
+        JSONObject body = new JSONObject()
+                .put("vnp_RequestId", requestId)
+                .put("vnp_Version", version)
+                .put("vnp_Command", command)
+                .put("vnp_TmnCode", tmnCode)
+                .put("vnp_TxnRef", txnRef)
+                .put("vnp_OrderInfo", orderInfo)
+                .put("vnp_TransactionDate", transactionDate)
+                .put("vnp_CreateDate", createDate)
+                .put("vnp_IpAddr", ipAddr)
+                .put("vnp_SecureHash", signer.sign(hashData));
+
+        HttpRequest request = HttpRequest.newBuilder(apiUrl)
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+                .build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        if (response.statusCode() != 200) {
+            throw new IOException("VNPay query API returned HTTP " + response.statusCode());
+        }
+        try {
+            return parse(new JSONObject(response.body()));
+        } catch (JSONException | DateTimeParseException | NumberFormatException e) {
+            throw new IOException("Malformed VNPay query response", e);
+        }
+    }
+
+    private QueryResult parse(JSONObject json) throws IOException {
+        String responseCode = json.optString("vnp_ResponseCode");
+        if ("00".equals(responseCode)) {
+            // Thứ tự trường để kiểm tra chữ ký phản hồi theo tài liệu querydr của VNPay
+            String hashData = String.join("|",
+                    json.optString("vnp_ResponseId"), json.optString("vnp_Command"), responseCode,
+                    json.optString("vnp_Message"), json.optString("vnp_TmnCode"), json.optString("vnp_TxnRef"),
+                    json.optString("vnp_Amount"), json.optString("vnp_BankCode"), json.optString("vnp_PayDate"),
+                    json.optString("vnp_TransactionNo"), json.optString("vnp_TransactionType"),
+                    json.optString("vnp_TransactionStatus"), json.optString("vnp_OrderInfo"),
+                    json.optString("vnp_PromotionCode"), json.optString("vnp_PromotionAmount"));
+            if (!signer.verify(hashData, json.optString("vnp_SecureHash", null))) {
+                throw new IOException("Invalid VNPay query response signature");
+            }
+        }
+        String amount = json.optString("vnp_Amount");
+        String payDate = json.optString("vnp_PayDate");
+        return new QueryResult(
+                responseCode,
+                json.optString("vnp_Message"),
+                json.optString("vnp_TransactionStatus"),
+                emptyToNull(json.optString("vnp_TransactionNo")),
+                amount.isEmpty() ? null : new BigDecimal(amount).divide(new BigDecimal(100)),
+                emptyToNull(json.optString("vnp_BankCode")),
+                payDate.isEmpty() ? null
+                        : LocalDateTime.ofInstant(VnPaySigner.VNPAY_DATE.parse(payDate, Instant::from), ZoneId.systemDefault()));
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Kết quả truy vấn. amount đã quy về VND (VNPay trả số tiền nhân 100).
+     */
+    public record QueryResult(String responseCode, String message, String transactionStatus, String transactionNo,
+                              BigDecimal amount, String bankCode, LocalDateTime payDate) {
+
+        // Truy vấn thành công và giao dịch đã thanh toán
+        public boolean isPaid() {
+            return "00".equals(responseCode) && "00".equals(transactionStatus) && transactionNo != null;
+        }
+
+        // "91": VNPay không tìm thấy giao dịch (khách chưa thanh toán)
+        public boolean isNotFound() {
+            return "91".equals(responseCode);
+        }
+
+        // Truy vấn thành công, giao dịch tồn tại nhưng không thành công (01 chưa hoàn tất, 02 lỗi, ...)
+        public boolean isUnpaid() {
+            return "00".equals(responseCode) && !"00".equals(transactionStatus);
+        }
+    }
+}
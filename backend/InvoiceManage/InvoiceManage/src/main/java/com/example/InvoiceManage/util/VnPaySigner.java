@@ -0,0 +1,216 @@
+package com.example.InvoiceManage.util;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ký và xác thực tham số VNPay (HMAC-SHA512) với chi phí cấp phát thấp.
+ *
+ * - Mac đã nạp khóa sẵn được giữ trong pool và nhân bản (clone) từ một bản mẫu, không gọi Mac.getInstance/init mỗi lần.
+ * - Chuỗi truy vấn chuẩn được dựng trong một lượt: sắp xếp tên tham số, mã hóa URL từng giá trị đúng một lần.
+ *   Với VNPay 2.1.0, chuỗi để băm chính là chuỗi truy vấn này.
+ * - Mã hóa hex bằng bảng tra, so sánh chữ ký theo thời gian hằng (MessageDigest.isEqual).
+ */
+public class VnPaySigner {
+
+    public static final String SECURE_HASH = "vnp_SecureHash";
+    public static final String SECURE_HASH_TYPE = "vnp_SecureHashType";
+
+    // VNPay yêu cầu giờ Việt Nam (GMT+7). Lưu ý "Etc/GMT+7" trong mã mẫu thực chất là UTC-7;
+    // mã cũ vẫn chạy đúng chỉ vì SimpleDateFormat định dạng theo múi giờ mặc định của máy chủ.
+    public static final ZoneId VNPAY_ZONE = ZoneId.of("Asia/Ho_Chi_Minh");
+    public static final DateTimeFormatter VNPAY_DATE = DateTimeFormatter.ofPattern("yyyyMMddHHmmss").withZone(VNPAY_ZONE);
+
+    private static final String ALGORITHM = "HmacSHA512";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final char[] HEX_UPPER = "0123456789ABCDEF".toCharArray();
+    private static final int MAX_POOLED = 64;
+
+    private final Mac prototype;
+    private final boolean cloneable;
+    private final SecretKeySpec key;
+    private final ConcurrentLinkedQueue<Mac> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    public VnPaySigner(String secretKey) {
+        this.key = new SecretKeySpec(secretKey.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.prototype = newMac();
+        this.cloneable = isCloneable(prototype);
+    }
+
+    /**
+     * Chuỗi truy vấn đã ký: các tham số khác rỗng theo thứ tự tên, kèm vnp_SecureHash ở cuối.
+     */
+    public String signedQuery(Map<String, String> params) {
+        StringBuilder query = canonicalQuery(params, new StringBuilder(512));
+        String hash = sign(query);
+        return query.append('&').append(SECURE_HASH).append('=').append(hash).toString();
+    }
+
+    /**
+     * Kiểm tra vnp_SecureHash của các tham số VNPay gửi về (IPN/return URL). Tham số đã được giải mã URL.
+     */
+    public boolean verify(Map<String, String> params) {
+        return verify(canonicalQuery(params, new StringBuilder(512)), params.get(SECURE_HASH));
+    }
+
+    /**
+     * Kiểm tra chữ ký của một chuỗi dữ liệu đã dựng sẵn (vd: chuỗi nối bằng "|" trong phản hồi querydr).
+     */
+    public boolean verify(CharSequence data, String providedHash) {
+        if (providedHash == null || providedHash.length() != 128) {
+            return false;
+        }
+        byte[] actual = decodeHex(providedHash);
+        return actual != null && MessageDigest.isEqual(hmac(data), actual);
+    }
+
+    public String sign(CharSequence data) {
+        return toHex(hmac(data));
+    }
+
+    /**
+     * Dựng chuỗi chuẩn "ten=giatri&..." theo thứ tự tên tham số, bỏ qua giá trị rỗng và các trường chữ ký.
+     */
+    public static StringBuilder canonicalQuery(Map<String, String> params, StringBuilder out) {
+        String[] names = params.keySet().toArray(new String[0]);
+        Arrays.sort(names);
+        boolean first = true;
+        for (String name : names) {
+            if (SECURE_HASH.equals(name) || SECURE_HASH_TYPE.equals(name)) {
+                continue;
+            }
+            String value = params.get(name);
+            if (value == null || value.isEmpty()) {
+                continue;
+            }
+            if (!first) {
+                out.append('&');
+            }
+            first = false;
+            urlEncode(name, out);
+            out.append('=');
+            urlEncode(value, out);
+        }
+        return out;
+    }
+
+    /**
+     * Tương đương URLEncoder.encode(value, US_ASCII) nhưng ghi thẳng vào StringBuilder.
+     * Ký tự ngoài ASCII thành "?" (%3F) giống hệt cách VNPay tính chữ ký ở phía họ.
+     */
+    static void urlEncode(String value, StringBuilder out) {
+        for (int i = 0; i < value.length(); ) {
+            int cp = value.codePointAt(i);
+            i += Character.charCount(cp);
+            if ((cp >= 'a' && cp <= 'z') || (cp >= 'A' && cp <= 'Z') || (cp >= '0' && cp <= '9')
+                    || cp == '.' || cp == '-' || cp == '*' || cp == '_') {
+                out.append((char) cp);
+            } else if (cp == ' ') {
+                out.append('+');
+            } else {
+                int b = cp < 0x80 ? cp : '?';
+                out.append('%').append(HEX_UPPER[b >>> 4]).append(HEX_UPPER[b & 0xF]);
+            }
+        }
+    }
+
+    private byte[] hmac(CharSequence data) {
+        Mac mac = borrow();
+        try {
+            return mac.doFinal(toAsciiBytes(data));
+        } finally {
+            release(mac);
+        }
+    }
+
+    // Chuỗi chuẩn chỉ chứa ASCII sau khi mã hóa URL nên chép thẳng từng ký tự sang byte
+    private static byte[] toAsciiBytes(CharSequence data) {
+        byte[] bytes = new byte[data.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            char c = data.charAt(i);
+            if (c >= 0x80) {
+                return data.toString().getBytes(StandardCharsets.UTF_8);
+            }
+            bytes[i] = (byte) c;
+        }
+        return bytes;
+    }
+
+    private Mac borrow() {
+        Mac mac = pool.poll();
+        if (mac != null) {
+            pooled.decrementAndGet();
+            return mac;
+        }
+        if (cloneable) {
+            try {
+                return (Mac) prototype.clone();
+            } catch (CloneNotSupportedException ignored) {
+                // đã kiểm tra khi khởi tạo, không xảy ra
+            }
+        }
+        return newMac();
+    }
+
+    private void release(Mac mac) {
+        // doFinal đã reset Mac về trạng thái ban đầu với cùng khóa
+        if (pooled.incrementAndGet() <= MAX_POOLED) {
+            pool.offer(mac);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA512 is not available", e);
+        }
+    }
+
+    private static boolean isCloneable(Mac mac) {
+        try {
+            mac.clone();
+            return true;
+        } catch (CloneNotSupportedException e) {
+            return false;
+        }
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0, j = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            chars[j++] = HEX[b >>> 4];
+            chars[j++] = HEX[b & 0xF];
+        }
+        return new String(chars);
+    }
+
+    // Trả về null nếu chuỗi không phải hex hợp lệ; chấp nhận cả chữ hoa và chữ thường
+    private static byte[] decodeHex(String hex) {
+        byte[] out = new byte[hex.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                return null;
+            }
+            out[i] = (byte) ((hi << 4) | lo);
+        }
+        return out;
+    }
+}
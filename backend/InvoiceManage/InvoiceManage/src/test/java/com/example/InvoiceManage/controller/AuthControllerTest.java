@@ -0,0 +1,55 @@
+package com.example.InvoiceManage.controller;
+
+import com.example.InvoiceManage.DTO.request.UserRegistrationRequest;
+import com.example.InvoiceManage.exception.TooManyRequestsException;
+import com.example.InvoiceManage.service.UserService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class AuthControllerTest {
+
+    @Mock
+    private UserService userService;
+
+    @InjectMocks
+    private AuthController controller;
+
+    @Test
+    void registerReportsRetryAfterWhenHashingIsSaturated() {
+        // Pool BCrypt đầy khi băm mật khẩu mới
+        when(userService.register(any(UserRegistrationRequest.class)))
+                .thenThrow(new TooManyRequestsException("Hệ thống đang bận, vui lòng thử lại sau.", 1));
+
+        ResponseEntity<?> response = controller.register(new UserRegistrationRequest());
+
+        assertEquals(429, response.getStatusCode().value());
+        assertEquals("1", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals("Hệ thống đang bận, vui lòng thử lại sau.", response.getBody());
+    }
+
+    @Test
+    void clientIpTakesTheHopAddedByTheOutermostTrustedProxy() {
+        // Client tự thêm "6.6.6.6"; proxy tin cậy nối IP thật vào cuối
+        assertEquals("203.0.113.7", AuthController.clientIp("6.6.6.6, 203.0.113.7", "10.0.0.2", 1));
+        assertEquals("203.0.113.7", AuthController.clientIp("6.6.6.6, 203.0.113.7, 10.0.0.3", "10.0.0.2", 2));
+        assertEquals("203.0.113.7", AuthController.clientIp("203.0.113.7", "10.0.0.2", 2));
+    }
+
+    @Test
+    void forwardedForIsIgnoredWithoutTrustedProxies() {
+        assertEquals("198.51.100.4", AuthController.clientIp("6.6.6.6", "198.51.100.4", 0));
+        assertEquals("198.51.100.4", AuthController.clientIp(null, "198.51.100.4", 1));
+        assertEquals("198.51.100.4", AuthController.clientIp(" ", "198.51.100.4", 1));
+        assertEquals("198.51.100.4", AuthController.clientIp("6.6.6.6, ", "198.51.100.4", 1));
+    }
+}
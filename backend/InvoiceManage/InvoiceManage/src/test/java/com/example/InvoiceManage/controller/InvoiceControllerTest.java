@@ -0,0 +1,74 @@
+package com.example.InvoiceManage.controller;
+
+import com.example.InvoiceManage.DTO.Invoice;
+import com.example.InvoiceManage.entity.SecurityUser;
+import com.example.InvoiceManage.service.InvoiceDocumentRenderer;
+import com.example.InvoiceManage.service.InvoiceDocumentRenderer.Format;
+import com.example.InvoiceManage.service.InvoiceFileCache;
+import com.example.InvoiceManage.service.InvoiceService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvoiceControllerTest {
+
+    private Path cacheDir;
+    private final AtomicInteger documentRequests = new AtomicInteger();
+    private InvoiceService service;
+    private InvoiceController controller;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        cacheDir = Files.createTempDirectory("invoice-controller");
+        Path rendered = Files.writeString(cacheDir.resolve("invoice.pdf"), "pdf");
+        service = new InvoiceService(null, new InvoiceDocumentRenderer(), new InvoiceFileCache(cacheDir.toString()), null, null, 1, 500, 1000) {
+            @Override
+            public Invoice getSnapshot(Integer invoiceId) {
+                return Invoice.builder().id(invoiceId).customerId(7).lines(List.of()).build();
+            }
+
+            @Override
+            public RenderedInvoice getDocument(Invoice snapshot, Format format) {
+                documentRequests.incrementAndGet();
+                return new RenderedInvoice(snapshot, format, "key", rendered);
+            }
+        };
+        controller = new InvoiceController(service);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        service.shutdown();
+        Files.deleteIfExists(cacheDir.resolve("invoice.pdf"));
+        Files.deleteIfExists(cacheDir);
+    }
+
+    private static SecurityUser user(int id, String role) {
+        return new SecurityUser(id, "user" + id + "@example.com", "", List.of(), true, true, true, true, role);
+    }
+
+    @Test
+    void otherCustomersAreRejectedBeforeAnythingIsRendered() {
+        ResponseEntity<?> response = controller.downloadDocument(user(8, "USER"), 1, "pdf", null);
+        assertEquals(HttpStatus.FORBIDDEN, response.getStatusCode());
+        assertEquals(0, documentRequests.get());
+    }
+
+    @Test
+    void ownerAndAdminCanDownload() {
+        assertEquals(HttpStatus.OK, controller.downloadDocument(user(7, "USER"), 1, "pdf", null).getStatusCode());
+        assertEquals(HttpStatus.OK, controller.downloadDocument(user(1, "ADMIN"), 1, "pdf", null).getStatusCode());
+        assertEquals(HttpStatus.NOT_MODIFIED, controller.downloadDocument(user(7, "USER"), 1, "pdf", "\"key\"").getStatusCode());
+        assertEquals(3, documentRequests.get());
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.InvoiceManage.controller;
+
+import com.example.InvoiceManage.DTO.response.OrderBalanceDTO;
+import com.example.InvoiceManage.entity.SecurityUser;
+import com.example.InvoiceManage.service.PaymentSummaryService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PaymentBalanceControllerTest {
+
+    private static final int OWNER_ID = 7;
+
+    // Phạm vi userId mà controller truyền xuống cho mỗi lần hỏi số dư
+    private final List<Integer> scopes = new ArrayList<>();
+    private PaymentBalanceController controller;
+
+    @BeforeEach
+    void setUp() {
+        // Chỉ dùng getBalance: không gửi việc nào nên các executor của dịch vụ không tạo luồng
+        PaymentSummaryService service = new PaymentSummaryService(null, new JdbcTemplate(), null, 1, 100) {
+            @Override
+            public Optional<OrderBalanceDTO> getBalance(Integer orderId, Integer userId) {
+                scopes.add(userId);
+                // Đơn 1 thuộc OWNER_ID, đã trả 40.000 trên 100.000
+                if (orderId != 1 || (userId != null && userId != OWNER_ID)) {
+                    return Optional.empty();
+                }
+                return Optional.of(new OrderBalanceDTO(1, LocalDateTime.of(2024, 5, 1, 9, 0),
+                        new BigDecimal("100000"), new BigDecimal("40000"), LocalDateTime.of(2024, 5, 2, 9, 0), "NCB"));
+            }
+        };
+        controller = new PaymentBalanceController(service);
+    }
+
+    private static SecurityUser user(int id, String role) {
+        return new SecurityUser(id, "user" + id + "@example.com", "", List.of(), true, true, true, true, role);
+    }
+
+    @Test
+    void ownerSeesOutstandingBalance() {
+        ResponseEntity<OrderBalanceDTO> response = controller.balance(user(OWNER_ID, "USER"), 1);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(0, new BigDecimal("60000").compareTo(response.getBody().getOutstanding()));
+        assertFalse(response.getBody().isFullyPaid());
+        assertEquals(List.of(OWNER_ID), scopes);
+    }
+
+    @Test
+    void adminIsNotScopedToOwnOrders() {
+        assertEquals(HttpStatus.OK, controller.balance(user(1, "ADMIN"), 1).getStatusCode());
+        assertNull(scopes.get(0));
+    }
+
+    @Test
+    void otherUsersAndUnknownOrdersGetNotFound() {
+        ResponseStatusException otherUser = assertThrows(ResponseStatusException.class,
+                () -> controller.balance(user(8, "USER"), 1));
+        assertEquals(HttpStatus.NOT_FOUND, otherUser.getStatusCode());
+        ResponseStatusException unknown = assertThrows(ResponseStatusException.class,
+                () -> controller.balance(user(1, "ADMIN"), 99));
+        assertEquals(HttpStatus.NOT_FOUND, unknown.getStatusCode());
+    }
+}
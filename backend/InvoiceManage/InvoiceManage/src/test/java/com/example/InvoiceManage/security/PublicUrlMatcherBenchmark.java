@@ -0,0 +1,61 @@
+package com.example.InvoiceManage.security;
+
+import com.example.InvoiceManage.config.constants.SecurityConstants;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.util.AntPathMatcher;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh chi phí kiểm tra URL công khai mỗi request trong JwtAuthenticationFilter giữa cách cũ
+ * (duyệt SecurityConstants.PUBLIC_URLS với AntPathMatcher.match) và PublicUrlMatcher đã biên dịch sẵn.
+ * Đường dẫn gồm cả URL công khai (thoát sớm) và URL cần đăng nhập (phải thử hết mọi mẫu).
+ * Chạy: mvn test-compile rồi chạy main() của lớp này, hoặc
+ * java -cp target/test-classes:<classpath> org.openjdk.jmh.Main PublicUrlMatcherBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PublicUrlMatcherBenchmark {
+
+    @Param({"/api/auth/login", "/api/swagger-ui/index.html", "/api/orders/1024/details", "/api/products"})
+    public String path;
+
+    private AntPathMatcher antPathMatcher;
+    private PublicUrlMatcher publicUrlMatcher;
+
+    @Setup
+    public void setUp() {
+        antPathMatcher = new AntPathMatcher();
+        publicUrlMatcher = new PublicUrlMatcher(SecurityConstants.PUBLIC_URLS);
+    }
+
+    @Benchmark
+    public boolean legacyAntPathLoop() {
+        for (String publicUrlPattern : SecurityConstants.PUBLIC_URLS) {
+            if (antPathMatcher.match(publicUrlPattern, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean compiledMatcher() {
+        return publicUrlMatcher.matches(path);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PublicUrlMatcherBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.InvoiceManage.security;
+
+import com.example.InvoiceManage.config.constants.SecurityConstants;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.AntPathMatcher;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * PublicUrlMatcher thay cho vòng lặp AntPathMatcher.match cũ trong JwtAuthenticationFilter:
+ * với mọi mẫu PUBLIC_URLS, kể cả đường dẫn suýt khớp, hai cách phải cho cùng kết quả.
+ */
+class PublicUrlMatcherTest {
+
+    private final AntPathMatcher antPathMatcher = new AntPathMatcher();
+
+    private static Set<String> candidatePaths() {
+        Set<String> paths = new LinkedHashSet<>(List.of(
+                "", "/", "//", "api/auth/login", "/api", "/api/", "/api/auth", "/api/auth/",
+                "/api/orders/1024", "/api/products", "/api/users/list", "/api/auth/login.json",
+                "/api/swagger-ui.html", "/api/invoice-requests-admin", "/other/api/auth/login"));
+        for (String pattern : SecurityConstants.PUBLIC_URLS) {
+            String literal = pattern.endsWith("/**") ? pattern.substring(0, pattern.length() - 3) : pattern;
+            String parent = literal.substring(0, literal.lastIndexOf('/'));
+            paths.add(literal);
+            paths.add(literal + "/");
+            paths.add(literal + "//");
+            paths.add(literal + "x");
+            paths.add(literal.substring(0, literal.length() - 1));
+            paths.add(literal + "/child");
+            paths.add(literal + "/a/b.html");
+            paths.add(literal + "/..");
+            paths.add(parent + "/x" + literal.substring(parent.length() + 1));
+            paths.add(parent);
+            paths.add(parent + "/");
+            paths.add("/" + literal);
+            paths.add(literal.replace("/api/", "/api//"));
+            paths.add(literal.toUpperCase());
+            paths.add(literal.substring(1));
+        }
+        return paths;
+    }
+
+    @Test
+    void agreesWithAntPathMatcherForEveryPublicPattern() {
+        for (String pattern : SecurityConstants.PUBLIC_URLS) {
+            PublicUrlMatcher single = new PublicUrlMatcher(pattern);
+            for (String path : candidatePaths()) {
+                assertEquals(antPathMatcher.match(pattern, path), single.matches(path), pattern + " vs " + path);
+            }
+        }
+    }
+
+    @Test
+    void agreesWithLegacyLoopOverAllPublicPatterns() {
+        PublicUrlMatcher matcher = new PublicUrlMatcher();
+        for (String path : candidatePaths()) {
+            boolean legacy = false;
+            for (String pattern : SecurityConstants.PUBLIC_URLS) {
+                legacy |= antPathMatcher.match(pattern, path);
+            }
+            assertEquals(legacy, matcher.matches(path), path);
+        }
+    }
+
+    @Test
+    void knownPublicAndProtectedPaths() {
+        PublicUrlMatcher matcher = new PublicUrlMatcher();
+
+        assertTrue(matcher.matches("/api/auth/login"));
+        assertTrue(matcher.matches("/api/swagger-ui"));
+        assertTrue(matcher.matches("/api/swagger-ui/index.html"));
+        assertTrue(matcher.matches("/api/invoice-requests/12/approve"));
+        assertFalse(matcher.matches("/api/auth/login/"));
+        assertFalse(matcher.matches("/api/auth/loginx"));
+        assertFalse(matcher.matches("/api/vnpay/ipn"));
+        assertFalse(matcher.matches("/api/orders/1024"));
+        assertFalse(matcher.matches(null));
+        assertEquals(List.of(SecurityConstants.PUBLIC_URLS), matcher.patterns());
+    }
+
+    @Test
+    void rootAndTrailingSlashPatternsAgreeWithAntPathMatcher() {
+        List<String> paths = List.of("/", "//", "/a", "/a/", "/a/b", "/a/b/c", "/ab", "/a//b");
+        for (String pattern : List.of("/", "/a/", "/a", "/**", "/a/**")) {
+            PublicUrlMatcher single = new PublicUrlMatcher(pattern);
+            for (String path : paths) {
+                assertEquals(antPathMatcher.match(pattern, path), single.matches(path), pattern + " vs " + path);
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> new PublicUrlMatcher("api/auth/login"));
+    }
+}
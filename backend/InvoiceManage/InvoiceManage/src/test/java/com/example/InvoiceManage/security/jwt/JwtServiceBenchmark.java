@@ -0,0 +1,90 @@
+package com.example.InvoiceManage.security.jwt;
+
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.io.Decoders;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.security.Key;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh chi phí xác thực JWT mỗi request giữa cách cũ (giải mã khóa + dựng parser + parse 3 lần:
+ * lấy subject, kiểm tra hạn, so subject) và JwtService.verify (khóa/parser dựng sẵn, parse một lần, có cache).
+ * Chạy: mvn test-compile rồi chạy main() của lớp này, hoặc
+ * java -cp target/test-classes:<classpath> org.openjdk.jmh.Main JwtServiceBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JwtServiceBenchmark {
+
+    private static final String SECRET = "404E635266556A586E3272357538782F413F4428472B4B6250645367566B5970";
+    private static final int TOKEN_COUNT = 1024;
+
+    private JwtService cachedService;
+    private JwtService uncachedService;
+    private UserDetails user;
+    private String token;
+    private String[] tokens;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        cachedService = new JwtService(SECRET, 3_600_000L, 300, 10_000);
+        // Cache chỉ giữ 1 phần tử và token xoay vòng: mọi lần gọi đều phải parse và kiểm chữ ký
+        uncachedService = new JwtService(SECRET, 3_600_000L, 300, 1);
+        user = User.withUsername("customer@example.com").password("x").authorities(List.of()).build();
+        token = cachedService.generateToken(user);
+        tokens = new String[TOKEN_COUNT];
+        for (int i = 0; i < TOKEN_COUNT; i++) {
+            tokens[i] = cachedService.generateToken(Map.of("n", i), user);
+        }
+    }
+
+    @Benchmark
+    public boolean legacyTripleParse() {
+        String subject = legacyClaims(token).getSubject();
+        boolean expired = legacyClaims(token).getExpiration().before(new Date());
+        return subject.equals(user.getUsername()) && legacyClaims(token).getSubject().equals(subject) && !expired;
+    }
+
+    @Benchmark
+    public boolean singleParseNoCache() {
+        String t = tokens[next++ & (TOKEN_COUNT - 1)];
+        VerifiedClaims claims = uncachedService.verify(t);
+        return uncachedService.isTokenValid(claims, user);
+    }
+
+    @Benchmark
+    public boolean singleParseCacheHit() {
+        VerifiedClaims claims = cachedService.verify(token);
+        return cachedService.isTokenValid(claims, user);
+    }
+
+    // Đúng như JwtService trước đây: mỗi lần gọi giải mã base64 khóa và dựng parser mới
+    private static Claims legacyClaims(String jwt) {
+        Key key = Keys.hmacShaKeyFor(Decoders.BASE64.decode(SECRET));
+        return Jwts.parserBuilder().setSigningKey(key).build().parseClaimsJws(jwt).getBody();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(JwtServiceBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
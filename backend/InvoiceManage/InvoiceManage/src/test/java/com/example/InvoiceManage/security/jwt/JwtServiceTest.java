@@ -0,0 +1,106 @@
+package com.example.InvoiceManage.security.jwt;
+
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * JwtService.verify có cache: cache chỉ được bỏ qua việc tính lại HMAC,
+ * không được chấp nhận token bị sửa hoặc token đã quá hạn "exp".
+ */
+class JwtServiceTest {
+
+    private static final String SECRET = "404E635266556A586E3272357538782F413F4428472B4B6250645367566B5970";
+    private static final String OTHER_SECRET = "5A7134743777217A25432A462D4A614E645267556B58703273357638792F423F";
+
+    private final UserDetails user = User.withUsername("customer@example.com").password("x").authorities(List.of()).build();
+    private final UserDetails other = User.withUsername("other@example.com").password("x").authorities(List.of()).build();
+
+    private static JwtService service(long expirationMillis) {
+        return new JwtService(SECRET, expirationMillis, 300, 100);
+    }
+
+    @Test
+    void validTokenIsVerifiedAndCached() {
+        JwtService jwtService = service(3_600_000L);
+        String token = jwtService.generateToken(user);
+
+        VerifiedClaims first = jwtService.verify(token);
+        VerifiedClaims second = jwtService.verify(token);
+
+        assertSame(first, second);
+        assertEquals("customer@example.com", first.subject());
+        assertNotNull(first.tokenId());
+        assertTrue(first.expiresAt().isAfter(first.issuedAt()));
+        assertTrue(jwtService.isTokenValid(token, user));
+        assertFalse(jwtService.isTokenValid(token, other));
+        assertEquals("customer@example.com", jwtService.extractUsername(token));
+        // Mỗi token có jti riêng để thu hồi từng token
+        assertNotEquals(first.tokenId(), jwtService.verify(jwtService.generateToken(user)).tokenId());
+    }
+
+    @Test
+    void tamperedTokenIsRejectedEvenAfterGenuineTokenWasCached() {
+        JwtService jwtService = service(3_600_000L);
+        String token = jwtService.generateToken(user);
+        jwtService.verify(token);
+        String[] parts = token.split("\\.");
+
+        // Đổi một ký tự giữa chữ ký (không đụng các bit đệm ở ký tự cuối)
+        int i = parts[2].length() / 2;
+        String flipped = parts[2].substring(0, i) + (parts[2].charAt(i) == 'A' ? 'B' : 'A') + parts[2].substring(i + 1);
+        assertThrows(JwtException.class, () -> jwtService.verify(parts[0] + "." + parts[1] + "." + flipped));
+
+        // Payload giả mạo dùng lại chữ ký đã cache của token thật
+        String payload = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8)
+                .replace("customer@example.com", "other@example.com");
+        String forged = parts[0] + "."
+                + Base64.getUrlEncoder().withoutPadding().encodeToString(payload.getBytes(StandardCharsets.UTF_8))
+                + "." + parts[2];
+        assertThrows(JwtException.class, () -> jwtService.verify(forged));
+
+        // Ký bằng khóa khác
+        JwtService foreign = new JwtService(OTHER_SECRET, 3_600_000L, 300, 100);
+        assertThrows(JwtException.class, () -> jwtService.verify(foreign.generateToken(user)));
+
+        assertThrows(JwtException.class, () -> jwtService.verify("not-a-jwt"));
+        assertEquals("customer@example.com", jwtService.verify(token).subject());
+    }
+
+    @Test
+    void expiredTokenIsRejected() {
+        JwtService jwtService = service(-60_000L);
+        String token = jwtService.generateToken(user);
+
+        assertThrows(ExpiredJwtException.class, () -> jwtService.verify(token));
+        // Lần lỗi không được cache thành token hợp lệ
+        assertThrows(ExpiredJwtException.class, () -> jwtService.verify(token));
+    }
+
+    @Test
+    void cachedVerificationDoesNotOutliveExpiry() throws Exception {
+        // TTL cache 300s dài hơn nhiều so với hạn token 2s
+        JwtService jwtService = service(2_000L);
+        String token = jwtService.generateToken(user);
+        VerifiedClaims claims = jwtService.verify(token);
+        assertSame(claims, jwtService.verify(token));
+
+        // "exp" làm tròn xuống theo giây nên token hết hạn sau 1-2s
+        long wait = claims.expiresAt().toEpochMilli() - System.currentTimeMillis() + 50;
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+
+        assertThrows(ExpiredJwtException.class, () -> jwtService.verify(token));
+        assertThrows(ExpiredJwtException.class, () -> jwtService.verify(token));
+        assertFalse(jwtService.isTokenValid(claims, user));
+    }
+}
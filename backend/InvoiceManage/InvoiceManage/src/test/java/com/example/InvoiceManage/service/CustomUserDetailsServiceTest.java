@@ -0,0 +1,132 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.entity.Role;
+import com.example.InvoiceManage.entity.SecurityUser;
+import com.example.InvoiceManage.entity.User;
+import com.example.InvoiceManage.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Cache principal theo email: request mang JWT không truy vấn user mỗi lần,
+ * nhưng khóa/mở khóa tài khoản phải có hiệu lực ngay.
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class CustomUserDetailsServiceTest {
+
+    private static final String EMAIL = "customer@example.com";
+
+    @Mock
+    private UserRepository userRepository;
+    @Mock
+    private RefreshTokenService refreshTokenService;
+    @Mock
+    private TokenRevocationService tokenRevocationService;
+
+    @InjectMocks
+    private UserService userService;
+
+    private CustomUserDetailsService userDetailsService;
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        Role role = new Role();
+        role.setRoleName("USER");
+        user = new User();
+        user.setId(7);
+        user.setEmail(EMAIL);
+        user.setName("Customer");
+        user.setPassword("hash");
+        user.setRole(role);
+        user.setActive(true);
+
+        when(userRepository.findByEmail(EMAIL)).thenAnswer(inv -> Optional.of(copy(user)));
+        when(userRepository.findByEmail("missing@example.com")).thenReturn(Optional.empty());
+        when(userRepository.findById(7)).thenAnswer(inv -> Optional.of(copy(user)));
+        when(userRepository.save(any(User.class))).thenAnswer(inv -> {
+            user = copy(inv.getArgument(0));
+            return inv.getArgument(0);
+        });
+
+        userDetailsService = new CustomUserDetailsService(userRepository, new SimpleMeterRegistry(), 60, 100);
+        ReflectionTestUtils.setField(userService, "userDetailsService", userDetailsService);
+    }
+
+    @Test
+    void principalIsLoadedOnceWithinTtl() {
+        SecurityUser first = userDetailsService.loadCachedPrincipal(EMAIL);
+        SecurityUser second = userDetailsService.loadCachedPrincipal(EMAIL);
+
+        assertSame(first, second);
+        assertEquals(user.getId(), first.getUserId());
+        assertTrue(first.isEnabled());
+        verify(userRepository, times(1)).findByEmail(EMAIL);
+    }
+
+    @Test
+    void unknownUserIsNotCached() {
+        assertThrows(UsernameNotFoundException.class, () -> userDetailsService.loadCachedPrincipal("missing@example.com"));
+        assertThrows(UsernameNotFoundException.class, () -> userDetailsService.loadCachedPrincipal("missing@example.com"));
+
+        verify(userRepository, times(2)).findByEmail("missing@example.com");
+    }
+
+    @Test
+    void evictReloadsPrincipal() {
+        userDetailsService.loadCachedPrincipal(EMAIL);
+        user.setActive(false);
+
+        assertTrue(userDetailsService.loadCachedPrincipal(EMAIL).isEnabled(), "trong TTL vẫn dùng bản đã cache");
+        userDetailsService.evict(EMAIL);
+
+        assertFalse(userDetailsService.loadCachedPrincipal(EMAIL).isEnabled());
+        verify(userRepository, times(2)).findByEmail(anyString());
+    }
+
+    @Test
+    void banAndUnbanTakeEffectWithoutWaitingForTtl() {
+        assertTrue(userDetailsService.loadCachedPrincipal(EMAIL).isEnabled());
+
+        userService.banUser(7);
+
+        assertFalse(userDetailsService.loadCachedPrincipal(EMAIL).isEnabled());
+        verify(refreshTokenService).revokeAllForUser(7);
+        verify(tokenRevocationService).revokeUser(EMAIL);
+
+        userService.unbanUser(7);
+
+        assertTrue(userDetailsService.loadCachedPrincipal(EMAIL).isEnabled());
+    }
+
+    // Mỗi lần đọc trả về một entity mới như JPA ở giao dịch khác, không dùng chung đối tượng với "CSDL"
+    private static User copy(User source) {
+        User copy = new User();
+        copy.setId(source.getId());
+        copy.setEmail(source.getEmail());
+        copy.setName(source.getName());
+        copy.setPassword(source.getPassword());
+        copy.setRole(source.getRole());
+        copy.setActive(source.getActive());
+        return copy;
+    }
+}
@@ -0,0 +1,210 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.entity.InvoiceNumberBlock;
+import com.example.InvoiceManage.entity.InvoiceNumberCounter;
+import com.example.InvoiceManage.entity.InvoiceNumberGap;
+import com.example.InvoiceManage.repository.InvoiceNumberBlockRepository;
+import com.example.InvoiceManage.repository.InvoiceNumberCounterRepository;
+import com.example.InvoiceManage.repository.InvoiceNumberGapRepository;
+import com.example.InvoiceManage.repository.InvoiceRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+
+/**
+ * Kiểm tra việc cấp số qua các repository: dừng đột ngột rồi khởi động lại không được làm mất số nào.
+ * Các repository là mock Mockito trả lời từ các danh sách trong bộ nhớ (cùng một "CSDL" cho mọi lần
+ * khởi động của node).
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class InvoiceNumberServiceTest {
+
+    private static final String SERIES = "HD";
+    private static final String NODE = "node-a";
+    private static final int BLOCK_SIZE = 5;
+
+    // "CSDL" trong bộ nhớ phía sau các repository giả
+    private final Map<String, InvoiceNumberCounter> counters = new HashMap<>();
+    private final List<InvoiceNumberBlock> blocks = new ArrayList<>();
+    private final List<InvoiceNumberGap> gaps = new ArrayList<>();
+    private final Set<Long> invoiceNos = new HashSet<>();
+
+    @Mock
+    private InvoiceNumberCounterRepository counterRepository;
+    @Mock
+    private InvoiceNumberBlockRepository blockRepository;
+    @Mock
+    private InvoiceNumberGapRepository gapRepository;
+    @Mock
+    private InvoiceRepository invoiceRepository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @BeforeEach
+    void setUp() {
+        when(counterRepository.findForUpdate(anyString()))
+                .thenAnswer(inv -> Optional.ofNullable(counters.get(inv.<String>getArgument(0))));
+        when(counterRepository.saveAndFlush(any(InvoiceNumberCounter.class))).thenAnswer(inv -> {
+            InvoiceNumberCounter counter = inv.getArgument(0);
+            counters.put(counter.getSeries(), counter);
+            return counter;
+        });
+
+        when(blockRepository.findByNodeIdAndSeries(anyString(), anyString())).thenAnswer(inv -> blocks.stream()
+                .filter(b -> b.getNodeId().equals(inv.getArgument(0)) && b.getSeries().equals(inv.getArgument(1)))
+                .toList());
+        when(blockRepository.save(any(InvoiceNumberBlock.class))).thenAnswer(inv -> {
+            blocks.add(inv.getArgument(0));
+            return inv.getArgument(0);
+        });
+        doAnswer(inv -> blocks.remove(inv.<InvoiceNumberBlock>getArgument(0)))
+                .when(blockRepository).delete(any(InvoiceNumberBlock.class));
+        doAnswer(inv -> blocks.removeIf(
+                b -> b.getNodeId().equals(inv.getArgument(0)) && b.getSeries().equals(inv.getArgument(1))))
+                .when(blockRepository).deleteByNodeIdAndSeries(anyString(), anyString());
+
+        when(gapRepository.findUnclaimedForUpdate(anyString(), any(Pageable.class))).thenAnswer(inv -> gaps.stream()
+                .filter(g -> g.getSeries().equals(inv.getArgument(0)) && g.getNodeId() == null)
+                .sorted(Comparator.comparing(InvoiceNumberGap::getNumber))
+                .limit(inv.<Pageable>getArgument(1).getPageSize())
+                .toList());
+        when(gapRepository.findBySeriesAndNodeId(anyString(), anyString())).thenAnswer(inv -> gaps.stream()
+                .filter(g -> g.getSeries().equals(inv.getArgument(0)) && inv.getArgument(1).equals(g.getNodeId()))
+                .collect(Collectors.toList()));
+        when(gapRepository.findNumbersInRange(anyString(), anyLong(), anyLong())).thenAnswer(inv -> gaps.stream()
+                .filter(g -> g.getSeries().equals(inv.getArgument(0))
+                        && g.getNumber() >= inv.<Long>getArgument(1) && g.getNumber() < inv.<Long>getArgument(2))
+                .map(InvoiceNumberGap::getNumber)
+                .toList());
+        when(gapRepository.saveAll(anyIterable())).thenAnswer(inv -> {
+            for (InvoiceNumberGap gap : inv.<Iterable<InvoiceNumberGap>>getArgument(0)) {
+                if (gaps.stream().noneMatch(g -> g == gap)) {
+                    // Ràng buộc unique (series, number) của bảng khoảng trống
+                    assertTrue(gaps.stream().noneMatch(g -> g.getNumber().equals(gap.getNumber())),
+                            "duplicate gap " + gap.getNumber());
+                    gaps.add(gap);
+                }
+            }
+            return List.of();
+        });
+        doAnswer(inv -> {
+            for (InvoiceNumberGap gap : inv.<Iterable<InvoiceNumberGap>>getArgument(0)) {
+                gaps.remove(gap);
+            }
+            return null;
+        }).when(gapRepository).deleteAll(anyIterable());
+
+        when(invoiceRepository.findUsedInvoiceNos(anyCollection())).thenAnswer(inv -> inv.<Collection<Long>>getArgument(0)
+                .stream()
+                .filter(invoiceNos::contains)
+                .toList());
+        when(invoiceRepository.findMaxInvoiceNo())
+                .thenAnswer(inv -> invoiceNos.stream().max(Long::compare).orElse(null));
+    }
+
+    @Test
+    void crashAfterSecondBlockRecoversNumbersOfBothBlocks() {
+        InvoiceNumberService first = start();
+
+        List<Long> issued = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            issued.add(first.nextNumber());
+        }
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L), issued);
+        // 3, 5 và 7 còn nằm trong giao dịch chưa commit lúc node chết
+        commitInvoices(1, 2, 4, 6);
+        assertEquals(Set.of(1L, 6L), blockStarts(), "block cũ còn số chưa đối chiếu phải được giữ lại");
+
+        // Dừng đột ngột: không gọi shutdown(), khởi động một instance mới trên cùng CSDL
+        InvoiceNumberService restarted = start();
+
+        assertEquals(Set.of(3L, 5L, 7L, 8L, 9L, 10L), gapNumbers());
+        assertTrue(blockStarts().isEmpty());
+        assertEquals(3L, restarted.nextNumber(), "khoảng trống nhỏ nhất được cấp lại trước");
+    }
+
+    @Test
+    void reservingNextBlockDropsPreviousBlockOnceAllNumbersAreUsed() {
+        InvoiceNumberService service = start();
+
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            service.nextNumber();
+        }
+        commitInvoices(1, 2, 3, 4, 5);
+        assertEquals(6L, service.nextNumber());
+
+        assertEquals(Set.of(6L), blockStarts());
+        assertTrue(gapNumbers().isEmpty());
+    }
+
+    @Test
+    void shutdownKeepsBlockWithInFlightNumbersUntilNextStart() {
+        InvoiceNumberService service = start();
+
+        service.nextNumber();
+        service.nextNumber();
+        service.nextNumber();
+        commitInvoices(1);
+        service.shutdown();
+
+        assertEquals(Set.of(4L, 5L), gapNumbers());
+        assertEquals(Set.of(1L), blockStarts(), "2 và 3 chưa commit nên block chưa được xóa");
+
+        // Số 2 commit muộn sau khi node đã tắt, số 3 bị rollback
+        commitInvoices(2);
+        start();
+
+        assertEquals(Set.of(3L, 4L, 5L), gapNumbers(), "không ghi trùng khoảng trống đã có");
+        assertTrue(blockStarts().isEmpty());
+    }
+
+    // Một lần khởi động node trên cùng "CSDL"; giao dịch của transactionManager giả luôn commit
+    private InvoiceNumberService start() {
+        InvoiceNumberService service = new InvoiceNumberService(counterRepository, blockRepository,
+                gapRepository, invoiceRepository, transactionManager, SERIES, BLOCK_SIZE, NODE);
+        service.recover();
+        return service;
+    }
+
+    private void commitInvoices(long... numbers) {
+        for (long number : numbers) {
+            invoiceNos.add(number);
+        }
+    }
+
+    private Set<Long> blockStarts() {
+        return blocks.stream().map(InvoiceNumberBlock::getStartValue).collect(Collectors.toSet());
+    }
+
+    private Set<Long> gapNumbers() {
+        Set<Long> numbers = new TreeSet<>();
+        for (InvoiceNumberGap gap : gaps) {
+            assertTrue(numbers.add(gap.getNumber()), "duplicate gap " + gap.getNumber());
+        }
+        return numbers;
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.DTO.Invoice;
+import com.example.InvoiceManage.service.InvoiceDocumentRenderer.Format;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvoiceServiceTest {
+
+    private Path cacheDir;
+    private final AtomicInteger renders = new AtomicInteger();
+    private final CountDownLatch releaseRender = new CountDownLatch(1);
+    private InvoiceService service;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        cacheDir = Files.createTempDirectory("invoice-cache");
+        // Renderer giả: đếm số lần render, chờ test cho phép để các request kịp chồng lên nhau
+        InvoiceDocumentRenderer renderer = new InvoiceDocumentRenderer() {
+            @Override
+            public byte[] render(Invoice invoice, Format format) {
+                renders.incrementAndGet();
+                try {
+                    releaseRender.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return ("invoice " + invoice.getId() + " " + format).getBytes(StandardCharsets.UTF_8);
+            }
+        };
+        // Chỉ dùng các hàm nhận ảnh chụp có sẵn: không cần repository / transaction
+        service = new InvoiceService(null, renderer, new InvoiceFileCache(cacheDir.toString()), null, null, 2, 500, 5000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        service.shutdown();
+        try (Stream<Path> files = Files.walk(cacheDir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private static Invoice snapshot(int id, String total) {
+        return Invoice.builder()
+                .id(id)
+                .invoiceNumber("HD-" + id)
+                .orderId(100 + id)
+                .customerId(7)
+                .customerName("Nguyễn Văn A")
+                .customerEmail("a@example.com")
+                .statusName("PAID")
+                .issuedAt(LocalDateTime.of(2026, 1, 15, 10, 0))
+                .total(new BigDecimal(total))
+                .lines(List.of(new Invoice.Line("Bút bi", 2, new BigDecimal("5000"), new BigDecimal("10000"))))
+                .build();
+    }
+
+    @Test
+    void concurrentDownloadsOfTheSameInvoiceRenderOnce() throws Exception {
+        Invoice invoice = snapshot(1, "10000");
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<InvoiceService.RenderedInvoice>> downloads = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                downloads.add(clients.submit(() -> service.getDocument(invoice, Format.PDF)));
+            }
+            Thread.sleep(200);
+            releaseRender.countDown();
+            Path first = downloads.get(0).get().getPath();
+            for (Future<InvoiceService.RenderedInvoice> download : downloads) {
+                assertEquals(first, download.get().getPath());
+            }
+            assertEquals(1, renders.get());
+            assertEquals("invoice 1 PDF", Files.readString(first, StandardCharsets.UTF_8));
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    @Test
+    void cachedFileIsServedUntilInvoiceDataChanges() {
+        releaseRender.countDown();
+        InvoiceService.RenderedInvoice first = service.getDocument(snapshot(2, "10000"), Format.DOCX);
+        InvoiceService.RenderedInvoice again = service.getDocument(snapshot(2, "10000"), Format.DOCX);
+        assertEquals(first.getKey(), again.getKey());
+        assertEquals(1, renders.get());
+
+        // Dữ liệu đổi -> khóa (và ETag) đổi -> render lại
+        InvoiceService.RenderedInvoice changed = service.getDocument(snapshot(2, "12000"), Format.DOCX);
+        assertNotEquals(first.getKey(), changed.getKey());
+        assertEquals(2, renders.get());
+
+        // Định dạng khác là file khác
+        service.getDocument(snapshot(2, "10000"), Format.PDF);
+        assertEquals(3, renders.get());
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.entity.Order;
+import com.example.InvoiceManage.entity.Payment;
+import com.example.InvoiceManage.entity.VnPayPaymentAttempt;
+import com.example.InvoiceManage.repository.OrderRepository;
+import com.example.InvoiceManage.repository.VnPayPaymentAttemptRepository;
+import com.example.InvoiceManage.util.VnPayQueryClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.when;
+
+/**
+ * Đối soát một lô lần thanh toán với kết quả querydr giả lập của VNPay.
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class PaymentReconciliationServiceTest {
+
+    private static final Integer ORDER_ID = 10;
+
+    // txnRef -> kết quả VNPay trả về; không có nghĩa là VNPay không tìm thấy giao dịch
+    private final Map<String, VnPayQueryClient.QueryResult> vnpay = new ConcurrentHashMap<>();
+    private final List<VnPayPaymentAttempt> attempts = new ArrayList<>();
+    // Mã giao dịch đã có dòng payment trong CSDL
+    private final Set<String> recordedTransactions = ConcurrentHashMap.newKeySet();
+    private final Map<String, Payment> written = new ConcurrentHashMap<>();
+    private final Map<Long, String> markedPaid = new ConcurrentHashMap<>();
+    private final Map<Long, VnPayPaymentAttempt.Status> markedChecked = new ConcurrentHashMap<>();
+    private volatile CountDownLatch scanGate;
+
+    @Mock
+    private VnPayPaymentAttemptRepository attemptRepository;
+    @Mock
+    private OrderRepository orderRepository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private PaymentReconciliationService service;
+
+    @BeforeEach
+    void setUp() {
+        when(attemptRepository.findOpenAfter(anyLong(), any(), any(), any(Pageable.class))).thenAnswer(inv -> {
+            CountDownLatch gate = scanGate;
+            if (gate != null) {
+                gate.await(5, TimeUnit.SECONDS);
+            }
+            return attempts.stream()
+                    .filter(a -> a.getId() > inv.<Long>getArgument(0))
+                    .sorted(Comparator.comparing(VnPayPaymentAttempt::getId))
+                    .limit(inv.<Pageable>getArgument(3).getPageSize())
+                    .toList();
+        });
+        when(attemptRepository.markPaid(anyLong(), anyString(), any())).thenAnswer(inv -> {
+            markedPaid.put(inv.getArgument(0), inv.getArgument(1));
+            return 1;
+        });
+        when(attemptRepository.markChecked(anyCollection(), any(), any())).thenAnswer(inv -> {
+            Collection<Long> ids = inv.getArgument(0);
+            ids.forEach(id -> markedChecked.put(id, inv.getArgument(1)));
+            return ids.size();
+        });
+        when(orderRepository.findAllById(anyIterable())).thenAnswer(inv -> {
+            List<Order> found = new ArrayList<>();
+            for (Integer id : inv.<Iterable<Integer>>getArgument(0)) {
+                if (id.equals(ORDER_ID)) {
+                    Order order = new Order();
+                    order.setId(ORDER_ID);
+                    found.add(order);
+                }
+            }
+            return found;
+        });
+
+        service = new PaymentReconciliationService(attemptRepository, orderRepository, dedupeService(),
+                transactionManager, queryClient(),
+                true, 2, 1_000, 50, Duration.ZERO, Duration.ofDays(7));
+    }
+
+    @AfterEach
+    void tearDown() {
+        service.shutdown();
+    }
+
+    @Test
+    void paymentMissingLocallyIsRecordedFromVnPay() {
+        addAttempt(1L, "10_1", "150000");
+        vnpay.put("10_1", paid("14000001", "150000"));
+
+        PaymentReconciliationService.ReconciliationReport report = service.reconcile();
+
+        assertEquals(1, report.getScanned());
+        assertEquals(1, report.getRepaired());
+        assertEquals(0, report.getAmountMismatches());
+        assertEquals(List.of("14000001"), report.getRepairedTransactions());
+        Payment payment = written.get("14000001");
+        assertEquals(0, new BigDecimal("150000").compareTo(payment.getAmount()));
+        assertEquals(Payment.PROVIDER_VNPAY, payment.getProvider());
+        assertEquals(ORDER_ID, payment.getOrder().getId());
+        assertEquals("14000001", markedPaid.get(1L));
+    }
+
+    @Test
+    void paymentAlreadyRecordedIsOnlyMatched() {
+        addAttempt(1L, "10_1", "150000");
+        vnpay.put("10_1", paid("14000001", "150000"));
+        recordedTransactions.add("14000001");
+
+        PaymentReconciliationService.ReconciliationReport report = service.reconcile();
+
+        assertEquals(0, report.getRepaired());
+        assertEquals(1, report.getAlreadyRecorded());
+        assertTrue(written.isEmpty());
+        assertEquals("14000001", markedPaid.get(1L));
+    }
+
+    @Test
+    void amountMismatchIsRecordedWithVnPayAmountAndReported() {
+        addAttempt(1L, "10_1", "150000");
+        vnpay.put("10_1", paid("14000001", "100000"));
+
+        PaymentReconciliationService.ReconciliationReport report = service.reconcile();
+
+        assertEquals(1, report.getAmountMismatches());
+        assertEquals(1, report.getRepaired());
+        assertEquals(0, new BigDecimal("100000").compareTo(written.get("14000001").getAmount()));
+    }
+
+    @Test
+    void transactionUnknownToVnPayIsMarkedUnpaid() {
+        addAttempt(1L, "10_1", "150000");
+        addAttempt(2L, "10_2", "150000");
+        vnpay.put("10_2", paid("14000002", "150000"));
+
+        PaymentReconciliationService.ReconciliationReport report = service.reconcile();
+
+        assertEquals(2, report.getScanned());
+        assertEquals(1, report.getUnpaid());
+        assertEquals(1, report.getRepaired());
+        assertEquals(VnPayPaymentAttempt.Status.UNPAID, markedChecked.get(1L));
+        assertFalse(markedChecked.containsKey(2L));
+    }
+
+    @Test
+    void secondStartWhileRunningIsRejected() throws Exception {
+        addAttempt(1L, "10_1", "150000");
+        scanGate = new CountDownLatch(1);
+
+        assertTrue(service.startAsync());
+        assertFalse(service.startAsync(), "lượt thứ hai phải bị từ chối ngay cả khi lượt đầu chưa bắt đầu quét");
+        assertTrue(service.isRunning());
+
+        scanGate.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (service.isRunning() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(service.isRunning());
+        assertEquals(1, service.getLastReport().getScanned());
+        assertTrue(service.startAsync(), "sau khi xong thì được chạy lại");
+    }
+
+    private void addAttempt(long id, String txnRef, String amount) {
+        VnPayPaymentAttempt attempt = new VnPayPaymentAttempt();
+        attempt.setId(id);
+        attempt.setOrderId(ORDER_ID);
+        attempt.setTxnRef(txnRef);
+        attempt.setAmount(new BigDecimal(amount));
+        attempt.setVnpCreateDate("20240101120000");
+        attempts.add(attempt);
+    }
+
+    private static VnPayQueryClient.QueryResult paid(String transactionNo, String amount) {
+        return new VnPayQueryClient.QueryResult("00", "QueryDR Success", "00", transactionNo,
+                new BigDecimal(amount), "NCB", LocalDateTime.now());
+    }
+
+    private VnPayQueryClient queryClient() {
+        return new VnPayQueryClient("http://127.0.0.1:1/merchant_webapi/api/transaction", "TESTTMN1",
+                "TESTSECRETKEYTESTSECRETKEY123456", "127.0.0.1", Duration.ofSeconds(1)) {
+            @Override
+            public QueryResult query(String txnRef, String transactionDate) {
+                QueryResult result = vnpay.get(txnRef);
+                return result != null ? result
+                        : new QueryResult("91", "Transaction not found", null, null, null, null, null);
+            }
+        };
+    }
+
+    private PaymentDedupeService dedupeService() {
+        return new PaymentDedupeService(null, null, transactionManager, 1_000, 0.01, 100) {
+            @Override
+            public Map<String, Outcome> recordBatch(Map<String, Supplier<Payment>> payments) {
+                Map<String, Outcome> outcomes = new ConcurrentHashMap<>();
+                payments.forEach((transactionNo, factory) -> {
+                    if (recordedTransactions.add(transactionNo)) {
+                        written.put(transactionNo, factory.get());
+                        outcomes.put(transactionNo, Outcome.RECORDED);
+                    } else {
+                        outcomes.put(transactionNo, Outcome.DUPLICATE);
+                    }
+                });
+                return outcomes;
+            }
+        };
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.entity.Order;
+import com.example.InvoiceManage.entity.Payment;
+import com.example.InvoiceManage.repository.OrderPaymentSummaryRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class PaymentSummaryServiceTest {
+
+    // Một lần gọi addPayments (câu upsert của một đơn)
+    private record Upsert(int orderId, BigDecimal amount, int count, LocalDateTime paidAt, String method) {}
+
+    private final List<Upsert> upserts = new ArrayList<>();
+    private final CountDownLatch rangeGate = new CountDownLatch(1);
+
+    @Mock
+    private OrderPaymentSummaryRepository repository;
+    @Mock
+    private JdbcTemplate jdbc;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private PaymentSummaryService service;
+
+    @BeforeEach
+    void setUp() {
+        when(repository.addPayments(anyInt(), any(), anyInt(), any(), any(), any())).thenAnswer(inv -> {
+            upserts.add(new Upsert(inv.getArgument(0), inv.getArgument(1), inv.getArgument(2),
+                    inv.getArgument(3), inv.getArgument(4)));
+            return 1;
+        });
+        // Truy vấn biên order_id chờ tín hiệu rồi trả về khoảng rỗng: giữ lượt dựng lại đang chạy trong test
+        when(jdbc.queryForMap(anyString())).thenAnswer(inv -> {
+            rangeGate.await(5, TimeUnit.SECONDS);
+            return Map.of("min_id", 1, "max_id", 0);
+        });
+        service = new PaymentSummaryService(repository, jdbc, transactionManager, 2, 100);
+    }
+
+    @AfterEach
+    void tearDown() {
+        rangeGate.countDown();
+        service.shutdown();
+    }
+
+    @Test
+    void paymentsAreUpsertedOncePerOrderInOrderIdOrder() {
+        LocalDateTime morning = LocalDateTime.of(2024, 5, 1, 9, 0);
+        service.applyPayments(List.of(
+                payment(20, "50000", morning, "NCB"),
+                payment(10, "100000", morning, "NCB"),
+                payment(20, "25000", morning.plusHours(3), "stripe")));
+
+        assertEquals(2, upserts.size());
+        assertEquals(new Upsert(10, new BigDecimal("100000"), 1, morning, "NCB"), upserts.get(0));
+        Upsert second = upserts.get(1);
+        assertEquals(20, second.orderId());
+        assertEquals(0, new BigDecimal("75000").compareTo(second.amount()));
+        assertEquals(2, second.count());
+        assertEquals(morning.plusHours(3), second.paidAt());
+        assertEquals("stripe", second.method());
+    }
+
+    @Test
+    void paymentWithoutPaidAtDoesNotBreakLatestSelection() {
+        LocalDateTime paidAt = LocalDateTime.of(2024, 5, 1, 9, 0);
+        service.applyPayments(List.of(payment(10, "1000", null, "cash"), payment(10, "2000", paidAt, "NCB")));
+        service.applyPayments(List.of(payment(11, "1000", null, "cash")));
+
+        assertEquals(new Upsert(10, new BigDecimal("3000"), 2, paidAt, "NCB"), upserts.get(0));
+        assertEquals(new Upsert(11, new BigDecimal("1000"), 1, null, "cash"), upserts.get(1));
+    }
+
+    @Test
+    void secondBackgroundRunIsRejectedWhileFirstIsQueued() throws Exception {
+        assertTrue(service.startRebuild());
+        assertFalse(service.startCheck(false));
+        assertFalse(service.startRebuild());
+
+        rangeGate.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (service.isRunning() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(service.isRunning());
+        assertNotNull(service.getLastRebuild());
+        assertNull(service.getLastCheck());
+        assertTrue(service.startCheck(false));
+    }
+
+    private static Payment payment(int orderId, String amount, LocalDateTime paidAt, String method) {
+        Order order = new Order();
+        order.setId(orderId);
+        Payment payment = new Payment();
+        payment.setOrder(order);
+        payment.setAmount(new BigDecimal(amount));
+        payment.setPaidAt(paidAt);
+        payment.setPaymentMethod(method);
+        return payment;
+    }
+}
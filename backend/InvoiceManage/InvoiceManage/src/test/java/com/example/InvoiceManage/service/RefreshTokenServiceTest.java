@@ -0,0 +1,212 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.DTO.response.TokenRefreshResponse;
+import com.example.InvoiceManage.entity.RefreshToken;
+import com.example.InvoiceManage.entity.Role;
+import com.example.InvoiceManage.entity.SecurityUser;
+import com.example.InvoiceManage.entity.User;
+import com.example.InvoiceManage.exception.InvalidRefreshTokenException;
+import com.example.InvoiceManage.repository.RefreshTokenRepository;
+import com.example.InvoiceManage.security.jwt.JwtService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Xoay vòng refresh token theo họ: token cũ chỉ dùng được một lần, dùng lại thì cả họ bị thu hồi,
+ * đăng xuất thu hồi cả họ và hạn của họ không vượt quá thời gian sống tối đa tính từ lần đăng nhập.
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class RefreshTokenServiceTest {
+
+    private static final String EMAIL = "customer@example.com";
+    private static final long REFRESH_TTL_MILLIS = Duration.ofDays(7).toMillis();
+    private static final long MAX_FAMILY_DAYS = 30;
+
+    // "CSDL": băm token -> dòng refresh_token
+    private final Map<String, RefreshToken> rows = new ConcurrentHashMap<>();
+
+    @Mock
+    private RefreshTokenRepository refreshTokenRepository;
+    @Mock
+    private CustomUserDetailsService userDetailsService;
+    @Mock
+    private JwtService jwtService;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private User user;
+    private RefreshTokenService service;
+
+    @BeforeEach
+    void setUp() {
+        Role role = new Role();
+        role.setRoleName("USER");
+        user = new User();
+        user.setId(7);
+        user.setEmail(EMAIL);
+        user.setPassword("hash");
+        user.setRole(role);
+        user.setActive(true);
+
+        when(refreshTokenRepository.save(any(RefreshToken.class))).thenAnswer(inv -> {
+            RefreshToken token = inv.getArgument(0);
+            rows.put(token.getTokenHash(), token);
+            return token;
+        });
+        when(refreshTokenRepository.findByTokenHash(anyString()))
+                .thenAnswer(inv -> Optional.ofNullable(rows.get(inv.<String>getArgument(0))));
+        when(refreshTokenRepository.markRotated(anyString(), any(), any(), any())).thenAnswer(inv -> {
+            RefreshToken token = rows.get(inv.<String>getArgument(0));
+            if (token == null || token.getStatus() != inv.getArgument(1)) {
+                return 0;
+            }
+            token.setStatus(inv.getArgument(2));
+            token.setUsedAt(inv.getArgument(3));
+            return 1;
+        });
+        when(refreshTokenRepository.findHashesByFamilyId(anyString())).thenAnswer(inv -> rows.values().stream()
+                .filter(t -> t.getFamilyId().equals(inv.getArgument(0)))
+                .map(RefreshToken::getTokenHash)
+                .toList());
+        when(refreshTokenRepository.revokeFamily(anyString(), any())).thenAnswer(inv -> {
+            int revoked = 0;
+            for (RefreshToken token : rows.values()) {
+                if (token.getFamilyId().equals(inv.getArgument(0)) && token.getStatus() != RefreshToken.Status.REVOKED) {
+                    token.setStatus(RefreshToken.Status.REVOKED);
+                    revoked++;
+                }
+            }
+            return revoked;
+        });
+        when(userDetailsService.loadCachedPrincipal(EMAIL)).thenAnswer(inv -> SecurityUser.build(user));
+        when(jwtService.generateToken(any(UserDetails.class))).thenReturn("access-token");
+
+        service = newNode();
+    }
+
+    // Mỗi node có chỉ mục trong bộ nhớ riêng nhưng dùng chung CSDL
+    private RefreshTokenService newNode() {
+        return new RefreshTokenService(refreshTokenRepository, userDetailsService, jwtService, transactionManager,
+                new SimpleMeterRegistry(), REFRESH_TTL_MILLIS, MAX_FAMILY_DAYS, 3600, 1000);
+    }
+
+    private RefreshToken row(String token) {
+        return rows.get(RefreshTokenService.hash(token));
+    }
+
+    @Test
+    void rotateIssuesNextTokenOfTheSameFamily() {
+        String first = service.issue(user);
+
+        TokenRefreshResponse response = service.rotate(first);
+
+        assertEquals("access-token", response.getAccessToken());
+        String second = response.getRefreshToken();
+        assertNotEquals(first, second);
+        assertEquals(RefreshToken.Status.ROTATED, row(first).getStatus());
+        assertNotNull(row(first).getUsedAt());
+        assertEquals(RefreshToken.Status.ACTIVE, row(second).getStatus());
+        assertEquals(row(first).getFamilyId(), row(second).getFamilyId());
+        assertEquals(7, row(second).getUserId().intValue());
+        // CSDL chỉ lưu băm, không lưu token gốc
+        assertTrue(rows.values().stream().noneMatch(t -> t.getTokenHash().equals(first) || t.getTokenHash().equals(second)));
+
+        assertNotNull(service.rotate(second).getRefreshToken());
+        assertThrows(InvalidRefreshTokenException.class, () -> service.rotate("unknown-token"));
+    }
+
+    @Test
+    void reusingRotatedTokenRevokesTheWholeFamily() {
+        String first = service.issue(user);
+        String second = service.rotate(first).getRefreshToken();
+        String otherLogin = service.issue(user);
+
+        assertThrows(InvalidRefreshTokenException.class, () -> service.rotate(first));
+
+        assertEquals(RefreshToken.Status.REVOKED, row(first).getStatus());
+        assertEquals(RefreshToken.Status.REVOKED, row(second).getStatus());
+        assertThrows(InvalidRefreshTokenException.class, () -> service.rotate(second));
+        // Họ token của lần đăng nhập khác không bị ảnh hưởng
+        assertEquals(RefreshToken.Status.ACTIVE, row(otherLogin).getStatus());
+        assertNotNull(service.rotate(otherLogin).getRefreshToken());
+    }
+
+    @Test
+    void reuseIsDetectedByAnotherNodeThroughTheDatabase() {
+        String first = service.issue(user);
+        String second = service.rotate(first).getRefreshToken();
+
+        // Node khác chưa từng thấy token này: nạp trạng thái ROTATED từ CSDL
+        RefreshTokenService otherNode = newNode();
+        assertThrows(InvalidRefreshTokenException.class, () -> otherNode.rotate(first));
+
+        assertEquals(RefreshToken.Status.REVOKED, row(second).getStatus());
+        // Node đầu đã cache token thứ hai là ACTIVE nhưng phải thấy lần thu hồi qua CSDL
+        assertThrows(InvalidRefreshTokenException.class, () -> service.rotate(second));
+    }
+
+    @Test
+    void logoutRevokesTheFamily() {
+        String first = service.issue(user);
+        String second = service.rotate(first).getRefreshToken();
+
+        service.revoke(second);
+
+        assertEquals(RefreshToken.Status.REVOKED, row(second).getStatus());
+        assertThrows(InvalidRefreshTokenException.class, () -> service.rotate(second));
+        // Token không tồn tại thì bỏ qua
+        service.revoke("unknown-token");
+        verify(refreshTokenRepository, times(1)).revokeFamily(anyString(), eq(RefreshToken.Status.REVOKED));
+    }
+
+    @Test
+    void familyLifetimeCapsTokenExpiry() {
+        LocalDateTime before = LocalDateTime.now();
+        String fresh = service.issue(user);
+        assertFalse(row(fresh).getExpiresAt().isBefore(before.plusDays(7)));
+
+        // Họ mở gần 30 ngày trước: token mới không được sống quá mốc 30 ngày
+        LocalDateTime familyStartedAt = LocalDateTime.now().minusDays(MAX_FAMILY_DAYS).plusHours(1);
+        String old = "token-of-an-old-login";
+        RefreshToken oldRow = new RefreshToken();
+        oldRow.setTokenHash(RefreshTokenService.hash(old));
+        oldRow.setFamilyId("family-old");
+        oldRow.setUserId(7);
+        oldRow.setUserEmail(EMAIL);
+        oldRow.setFamilyStartedAt(familyStartedAt);
+        oldRow.setExpiresAt(LocalDateTime.now().plusHours(1));
+        rows.put(oldRow.getTokenHash(), oldRow);
+
+        String next = service.rotate(old).getRefreshToken();
+
+        assertEquals(familyStartedAt.plusDays(MAX_FAMILY_DAYS), row(next).getExpiresAt());
+        assertEquals(familyStartedAt, row(next).getFamilyStartedAt());
+
+        // Quá mốc: token cuối của họ đã hết hạn, phải đăng nhập lại
+        row(next).setExpiresAt(LocalDateTime.now().minusSeconds(1));
+        RefreshTokenService otherNode = newNode();
+        InvalidRefreshTokenException expired = assertThrows(InvalidRefreshTokenException.class, () -> otherNode.rotate(next));
+        assertEquals("Refresh token đã hết hạn", expired.getMessage());
+    }
+}
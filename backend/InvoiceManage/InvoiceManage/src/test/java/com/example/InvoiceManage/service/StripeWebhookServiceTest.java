@@ -0,0 +1,280 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.entity.Order;
+import com.example.InvoiceManage.entity.Payment;
+import com.example.InvoiceManage.entity.StripeEvent;
+import com.example.InvoiceManage.repository.OrderRepository;
+import com.example.InvoiceManage.repository.StripeEventRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONObject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.when;
+
+/**
+ * Webhook Stripe với payload ký thật (định dạng Stripe-Signature) và hàng đợi stripe_event trong bộ nhớ.
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class StripeWebhookServiceTest {
+
+    private static final String SECRET = "whsec_test_secret";
+    private static final Integer ORDER_ID = 10;
+
+    private final List<StripeEvent> events = new ArrayList<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final AtomicInteger lockCalls = new AtomicInteger();
+    private final List<String> recordedTransactions = new ArrayList<>();
+    private BigDecimal orderTotal = new BigDecimal("15.50");
+    private RuntimeException saveFailure;
+    private RuntimeException recordFailure;
+
+    @Mock
+    private StripeEventRepository eventRepository;
+    @Mock
+    private OrderRepository orderRepository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private StripeWebhookService service;
+
+    @BeforeEach
+    void setUp() {
+        when(eventRepository.saveAndFlush(any(StripeEvent.class))).thenAnswer(inv -> {
+            if (saveFailure != null) {
+                throw saveFailure;
+            }
+            StripeEvent entry = inv.getArgument(0);
+            entry.setId(nextId.getAndIncrement());
+            events.add(entry);
+            return entry;
+        });
+        when(eventRepository.lockPendingIds(anyInt())).thenAnswer(inv -> {
+            lockCalls.incrementAndGet();
+            return events.stream()
+                    .filter(e -> e.getStatus() == StripeEvent.Status.PENDING)
+                    .limit(inv.<Integer>getArgument(0))
+                    .map(StripeEvent::getId)
+                    .toList();
+        });
+        when(eventRepository.claim(anyCollection(), any(), any()))
+                .thenAnswer(inv -> update(inv.getArgument(0), e -> e.setStatus(inv.getArgument(1))));
+        when(eventRepository.findAllById(anyIterable())).thenAnswer(inv -> events.stream()
+                .filter(e -> inv.<Collection<Long>>getArgument(0).contains(e.getId()))
+                .map(StripeWebhookServiceTest::detached)
+                .toList());
+        when(eventRepository.markDone(anyCollection(), any(), any()))
+                .thenAnswer(inv -> update(inv.getArgument(0), e -> e.setStatus(inv.getArgument(1))));
+        when(eventRepository.markAttempt(anyCollection(), any(), any())).thenAnswer(inv -> update(inv.getArgument(0), e -> {
+            e.setStatus(inv.getArgument(1));
+            e.setAttempts(e.getAttempts() + 1);
+            e.setLastError(inv.getArgument(2));
+        }));
+        when(eventRepository.countByStatus(any()))
+                .thenAnswer(inv -> events.stream().filter(e -> e.getStatus() == inv.getArgument(0)).count());
+
+        when(orderRepository.findTotalById(anyInt()))
+                .thenAnswer(inv -> ORDER_ID.equals(inv.getArgument(0)) ? Optional.ofNullable(orderTotal) : Optional.empty());
+        when(orderRepository.findAllById(anyIterable())).thenAnswer(inv -> {
+            Order order = new Order();
+            order.setId(ORDER_ID);
+            order.setTotal(orderTotal);
+            return List.of(order);
+        });
+
+        service = new StripeWebhookService(eventRepository, orderRepository, dedupeService(),
+                transactionManager, new SimpleMeterRegistry(), SECRET, 2, 3, 60_000, 100);
+    }
+
+    @Test
+    void paidSessionMatchingOrderTotalIsQueued() throws Exception {
+        StripeWebhookService.AcceptResult result = accept(event("evt_1", session("pi_1", "usd", 1550)));
+
+        assertEquals(StripeWebhookService.AcceptResult.QUEUED, result);
+        assertEquals(1, events.size());
+        StripeEvent entry = events.get(0);
+        assertEquals("pi_1", entry.getTransactionNo());
+        assertEquals(0, new BigDecimal("15.50").compareTo(entry.getAmount()));
+        assertEquals(ORDER_ID, entry.getOrderId());
+    }
+
+    @Test
+    void amountOrCurrencyMismatchIsRejected() throws Exception {
+        assertEquals(StripeWebhookService.AcceptResult.REJECTED, accept(event("evt_1", session("pi_1", "usd", 1000))));
+        assertEquals(StripeWebhookService.AcceptResult.REJECTED, accept(event("evt_2", session("pi_2", "eur", 1550))));
+        orderTotal = null;
+        assertEquals(StripeWebhookService.AcceptResult.REJECTED, accept(event("evt_3", session("pi_3", "usd", 1550))));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    void sessionIdFallbackLongerThanColumnIsRejected() throws Exception {
+        JSONObject session = session(null, "usd", 1550).put("id", "cs_test_" + "a".repeat(70));
+
+        assertEquals(StripeWebhookService.AcceptResult.REJECTED, accept(event("evt_1", session)));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    void onlyDuplicateEventIdIsReportedAsDuplicate() throws Exception {
+        saveFailure = new DataIntegrityViolationException("insert",
+                new SQLException("Duplicate entry 'evt_1' for key 'stripe_event.UK_event_id'", "23000", 1062));
+        assertEquals(StripeWebhookService.AcceptResult.DUPLICATE, accept(event("evt_1", session("pi_1", "usd", 1550))));
+
+        saveFailure = new DataIntegrityViolationException("insert",
+                new SQLException("Data too long for column 'currency'", "22001", 1406));
+        assertThrows(DataIntegrityViolationException.class, () -> accept(event("evt_2", session("pi_2", "usd", 1550))));
+    }
+
+    @Test
+    void drainAppliesPendingEvents() throws Exception {
+        accept(event("evt_1", session("pi_1", "usd", 1550)));
+        accept(event("evt_2", session("pi_2", "usd", 1550)));
+        accept(event("evt_3", session("pi_1", "usd", 1550)));
+
+        service.drain();
+
+        assertEquals(List.of("pi_1", "pi_2"), recordedTransactions.stream().sorted().toList());
+        assertTrue(events.stream().allMatch(e -> e.getStatus() == StripeEvent.Status.DONE));
+    }
+
+    @Test
+    void failedBatchStopsDrainAndReturnsEventsToPending() throws Exception {
+        accept(event("evt_1", session("pi_1", "usd", 1550)));
+        accept(event("evt_2", session("pi_2", "usd", 1550)));
+        recordFailure = new IllegalStateException("database unavailable");
+
+        service.drain();
+
+        // Lô đầy (batch-size=2) nhưng lỗi: không lấy lô tiếp theo ngay
+        assertEquals(1, lockCalls.get());
+        for (StripeEvent entry : events) {
+            assertEquals(StripeEvent.Status.PENDING, entry.getStatus());
+            assertEquals(1, entry.getAttempts());
+            assertEquals("database unavailable", entry.getLastError());
+        }
+
+        // Hết số lần thử (max-attempts=3) thì chuyển FAILED
+        service.drain();
+        service.drain();
+        assertTrue(events.stream().allMatch(e -> e.getStatus() == StripeEvent.Status.FAILED));
+    }
+
+    @Test
+    void amountsAreConvertedFromMinorUnits() {
+        assertEquals(0, new BigDecimal("15.50").compareTo(StripeWebhookService.toMajorUnits(1550, "usd")));
+        assertEquals(0, new BigDecimal("150000").compareTo(StripeWebhookService.toMajorUnits(150000, "vnd")));
+        assertEquals(0, new BigDecimal("1200").compareTo(StripeWebhookService.toMajorUnits(1200, "JPY")));
+        assertEquals(0, new BigDecimal("0.99").compareTo(StripeWebhookService.toMajorUnits(99, "EUR")));
+    }
+
+    private StripeWebhookService.AcceptResult accept(String payload) throws Exception {
+        return service.accept(payload, signatureHeader(payload));
+    }
+
+    private static JSONObject session(String paymentIntent, String currency, long amountTotal) {
+        return new JSONObject()
+                .put("id", "cs_test_" + (paymentIntent == null ? "free" : paymentIntent))
+                .put("object", "checkout.session")
+                .put("payment_status", "paid")
+                .put("payment_intent", paymentIntent == null ? JSONObject.NULL : paymentIntent)
+                .put("currency", currency)
+                .put("amount_total", amountTotal)
+                .put("metadata", new JSONObject().put("orderId", String.valueOf(ORDER_ID)));
+    }
+
+    private static String event(String id, JSONObject session) {
+        return new JSONObject()
+                .put("id", id)
+                .put("object", "event")
+                .put("api_version", "2024-04-10")
+                .put("created", System.currentTimeMillis() / 1000)
+                .put("type", "checkout.session.completed")
+                .put("data", new JSONObject().put("object", session))
+                .toString();
+    }
+
+    // t=<unix giây>,v1=hex(HMAC-SHA256(secret, "<t>.<payload>"))
+    private static String signatureHeader(String payload) throws Exception {
+        long timestamp = System.currentTimeMillis() / 1000;
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        byte[] digest = mac.doFinal((timestamp + "." + payload).getBytes(StandardCharsets.UTF_8));
+        return "t=" + timestamp + ",v1=" + HexFormat.of().formatHex(digest);
+    }
+
+    private PaymentDedupeService dedupeService() {
+        return new PaymentDedupeService(null, null, transactionManager, 1_000, 0.01, 100) {
+            @Override
+            public Map<String, Outcome> recordBatch(Map<String, Supplier<Payment>> payments) {
+                if (recordFailure != null) {
+                    throw recordFailure;
+                }
+                Map<String, Outcome> outcomes = new HashMap<>();
+                payments.forEach((transactionNo, factory) -> {
+                    if (recordedTransactions.contains(transactionNo)) {
+                        outcomes.put(transactionNo, Outcome.DUPLICATE);
+                    } else {
+                        factory.get();
+                        recordedTransactions.add(transactionNo);
+                        outcomes.put(transactionNo, Outcome.RECORDED);
+                    }
+                });
+                return outcomes;
+            }
+        };
+    }
+
+    private int update(Collection<Long> ids, Consumer<StripeEvent> change) {
+        int updated = 0;
+        for (StripeEvent entry : events) {
+            if (ids.contains(entry.getId())) {
+                change.accept(entry);
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    // Bản sao như entity đã tách khỏi persistence context: sửa nó không đổi dữ liệu trong "CSDL"
+    private static StripeEvent detached(StripeEvent source) {
+        StripeEvent copy = new StripeEvent();
+        copy.setId(source.getId());
+        copy.setEventId(source.getEventId());
+        copy.setOrderId(source.getOrderId());
+        copy.setTransactionNo(source.getTransactionNo());
+        copy.setAmount(source.getAmount());
+        copy.setEventCreatedAt(source.getEventCreatedAt() != null ? source.getEventCreatedAt() : LocalDateTime.now());
+        copy.setStatus(source.getStatus());
+        copy.setAttempts(source.getAttempts());
+        return copy;
+    }
+}
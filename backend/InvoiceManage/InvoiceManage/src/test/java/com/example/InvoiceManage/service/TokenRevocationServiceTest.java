@@ -0,0 +1,205 @@
+package com.example.InvoiceManage.service;
+
+import com.example.InvoiceManage.entity.TokenRevocation;
+import com.example.InvoiceManage.repository.TokenRevocationRepository;
+import com.example.InvoiceManage.security.jwt.VerifiedClaims;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.domain.Pageable;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.when;
+
+/**
+ * Danh sách thu hồi JWT trong bộ nhớ: thu hồi theo jti và theo người dùng, đồng bộ tăng dần
+ * giữa các node (kể cả id commit trễ trong cửa sổ đọc lại) và dựng lại sau khi xóa bản ghi hết hạn.
+ */
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class TokenRevocationServiceTest {
+
+    private static final long ACCESS_TTL_MILLIS = Duration.ofHours(1).toMillis();
+
+    // "Bảng" token_revocation dùng chung giữa các node
+    private final List<TokenRevocation> table = new CopyOnWriteArrayList<>();
+    private final AtomicLong ids = new AtomicLong();
+
+    @Mock
+    private TokenRevocationRepository revocationRepository;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private TokenRevocationService service;
+
+    @BeforeEach
+    void setUp() {
+        when(revocationRepository.save(any(TokenRevocation.class))).thenAnswer(inv -> {
+            TokenRevocation revocation = inv.getArgument(0);
+            revocation.setId(ids.incrementAndGet());
+            table.add(revocation);
+            return revocation;
+        });
+        when(revocationRepository.findActiveAfter(anyLong(), any(), any(Pageable.class))).thenAnswer(inv -> table.stream()
+                .filter(r -> r.getId() > inv.<Long>getArgument(0))
+                .filter(r -> r.getExpiresAt().isAfter(inv.getArgument(1)))
+                .sorted(Comparator.comparing(TokenRevocation::getId))
+                .limit(inv.<Pageable>getArgument(2).getPageSize())
+                .toList());
+        when(revocationRepository.deleteExpired(any())).thenAnswer(inv -> {
+            List<TokenRevocation> expired = table.stream()
+                    .filter(r -> r.getExpiresAt().isBefore(inv.getArgument(0)))
+                    .toList();
+            table.removeAll(expired);
+            return expired.size();
+        });
+
+        service = newNode();
+    }
+
+    private TokenRevocationService newNode() {
+        return new TokenRevocationService(revocationRepository, transactionManager, new SimpleMeterRegistry(),
+                ACCESS_TTL_MILLIS, 1_000, 0.001);
+    }
+
+    private static VerifiedClaims token(String tokenId, String subject, Instant issuedAt) {
+        return new VerifiedClaims(tokenId, subject, issuedAt, issuedAt.plus(Duration.ofHours(1)));
+    }
+
+    // Bản ghi do node khác ghi, với id tự chọn để mô phỏng thứ tự commit
+    private TokenRevocation commitFromOtherNode(long id, String tokenId, LocalDateTime expiresAt) {
+        TokenRevocation revocation = new TokenRevocation();
+        revocation.setId(id);
+        revocation.setType(TokenRevocation.Type.TOKEN);
+        revocation.setTokenId(tokenId);
+        revocation.setExpiresAt(expiresAt);
+        table.add(revocation);
+        return revocation;
+    }
+
+    @Test
+    void revokedTokenIsRejectedByJti() {
+        Instant now = Instant.now();
+        VerifiedClaims revoked = token("jti-1", "a@example.com", now);
+        VerifiedClaims sameUserOtherToken = token("jti-2", "a@example.com", now);
+
+        service.revokeToken(revoked);
+
+        assertTrue(service.isRevoked(revoked));
+        assertFalse(service.isRevoked(sameUserOtherToken));
+        assertEquals(1, table.size());
+        assertEquals(revoked.expiresAt(), table.get(0).getExpiresAt().atZone(ZoneId.systemDefault()).toInstant());
+
+        // Token cũ không có jti thì không thu hồi được theo token
+        service.revokeToken(token(null, "a@example.com", now));
+        assertEquals(1, table.size());
+    }
+
+    @Test
+    void revokedUserRejectsTokensIssuedUpToTheRevocation() {
+        Instant issued = Instant.now().truncatedTo(ChronoUnit.SECONDS).minusSeconds(60);
+        VerifiedClaims old = token("jti-old", "a@example.com", issued);
+        VerifiedClaims otherUser = token("jti-other", "b@example.com", issued);
+
+        service.revokeUser("a@example.com");
+
+        assertTrue(service.isRevoked(old));
+        assertTrue(service.isRevoked(new VerifiedClaims(null, "a@example.com", null, null)));
+        assertFalse(service.isRevoked(otherUser));
+        // Đăng nhập lại sau khi được mở chặn: iat sau mốc thu hồi
+        assertFalse(service.isRevoked(token("jti-new", "a@example.com", Instant.now().plusSeconds(2))));
+    }
+
+    @Test
+    void syncPicksUpRevocationsFromOtherNodes() {
+        TokenRevocationService otherNode = newNode();
+        VerifiedClaims claims = token("jti-1", "a@example.com", Instant.now());
+
+        otherNode.revokeToken(claims);
+        assertFalse(service.isRevoked(claims));
+
+        service.sync();
+        assertTrue(service.isRevoked(claims));
+
+        otherNode.revokeUser("b@example.com");
+        service.sync();
+        assertTrue(service.isRevoked(token("jti-2", "b@example.com", Instant.now().minusSeconds(5))));
+    }
+
+    @Test
+    void syncRereadsOverlapWindowForLateCommits() {
+        LocalDateTime expiresAt = LocalDateTime.now().plusHours(1);
+        commitFromOtherNode(1, "jti-1", expiresAt);
+        commitFromOtherNode(3, "jti-3", expiresAt);
+        service.sync();
+        assertTrue(service.isRevoked(token("jti-3", "a@example.com", Instant.now())));
+
+        // Id 2 được cấp trước nhưng commit sau khi node này đã đọc tới id 3
+        commitFromOtherNode(2, "jti-2", expiresAt);
+        VerifiedClaims late = token("jti-2", "a@example.com", Instant.now());
+        assertFalse(service.isRevoked(late));
+
+        service.sync();
+        assertTrue(service.isRevoked(late));
+        assertTrue(service.isRevoked(token("jti-1", "a@example.com", Instant.now())));
+    }
+
+    @Test
+    void syncReadsEveryPageOfALargeBacklog() {
+        LocalDateTime expiresAt = LocalDateTime.now().plusHours(1);
+        for (long id = 1; id <= 2_500; id++) {
+            commitFromOtherNode(id, "jti-" + id, expiresAt);
+        }
+
+        service.loadOnStartup();
+
+        for (long id = 1; id <= 2_500; id++) {
+            assertTrue(service.isRevoked(token("jti-" + id, "a@example.com", Instant.now())), "jti-" + id);
+        }
+        assertFalse(service.isRevoked(token("jti-2501", "a@example.com", Instant.now())));
+    }
+
+    @Test
+    void purgeDropsExpiredRevocationsAndRebuildsFromTheTable() {
+        VerifiedClaims expired = new VerifiedClaims("jti-expired", "a@example.com",
+                Instant.now().minusSeconds(7200), Instant.now().minusSeconds(3600));
+        VerifiedClaims live = token("jti-live", "a@example.com", Instant.now());
+        service.revokeToken(expired);
+        service.revokeToken(live);
+        service.revokeUser("b@example.com");
+        // Node khác thu hồi nhưng node này chưa đồng bộ
+        commitFromOtherNode(ids.incrementAndGet(), "jti-remote", LocalDateTime.now().plusHours(1));
+        assertTrue(service.isRevoked(expired));
+
+        service.purgeExpired();
+
+        assertEquals(3, table.size());
+        assertFalse(service.isRevoked(expired));
+        assertTrue(service.isRevoked(live));
+        assertTrue(service.isRevoked(token("jti-remote", "a@example.com", Instant.now())));
+        assertTrue(service.isRevoked(token("jti-b", "b@example.com", Instant.now().minusSeconds(5))));
+
+        // Đồng bộ tiếp tục từ mốc id sau khi dựng lại
+        VerifiedClaims afterPurge = token("jti-after", "a@example.com", Instant.now());
+        newNode().revokeToken(afterPurge);
+        service.sync();
+        assertTrue(service.isRevoked(afterPurge));
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.InvoiceManage.service.chat;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * So sánh chi phí tìm ngữ cảnh giữa cách cũ (contains trên từng đoạn + indexOf khi chấm điểm)
+ * và Bm25Index, theo số đoạn của tài liệu. Chạy: mvn test-compile rồi chạy main() của lớp này, hoặc
+ * java -cp target/test-classes:<classpath> org.openjdk.jmh.Main Bm25IndexBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class Bm25IndexBenchmark {
+
+    @Param({"1000", "10000"})
+    public int chunkCount;
+
+    private List<String> chunks;
+    private Bm25Index index;
+    private String query;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        chunks = new ArrayList<>(chunkCount);
+        for (int i = 0; i < chunkCount; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < 150; w++) {
+                text.append(w == 0 ? "" : " ").append("từ").append(random.nextInt(5000));
+            }
+            chunks.add(text.toString());
+        }
+        index = Bm25Index.build(chunks);
+        query = "hóa đơn từ17 từ256 từ4095 thanh toán";
+    }
+
+    @Benchmark
+    public String legacyScan() {
+        List<String> keywords = Arrays.stream(query.toLowerCase().split("\\s+"))
+                .filter(word -> word.length() > 2)
+                .collect(Collectors.toList());
+        return chunks.stream()
+                .map(chunk -> new AbstractMap.SimpleEntry<>(chunk, legacyScore(chunk, keywords)))
+                .filter(entry -> entry.getValue() > 0)
+                .sorted(Comparator.comparing(Map.Entry<String, Long>::getValue).reversed())
+                .limit(3)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.joining("\n\n---\n\n"));
+    }
+
+    @Benchmark
+    public List<Bm25Index.Hit> bm25Search() {
+        return index.search(query, 3);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public List<Bm25Index.Hit> bm25SearchContended() {
+        return index.search(query, 3);
+    }
+
+    private long legacyScore(String chunk, List<String> keywords) {
+        long score = 0;
+        String lowerCaseChunk = chunk.toLowerCase();
+        for (String keyword : keywords) {
+            if (lowerCaseChunk.contains(keyword)) {
+                score++;
+            }
+        }
+        int indexInDocument = chunks.indexOf(chunk);
+        if (indexInDocument != -1 && indexInDocument < 10) {
+            score += 2;
+        }
+        return score;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(Bm25IndexBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.InvoiceManage.service.chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class Bm25IndexTest {
+
+    private static final List<String> CHUNKS = List.of(
+            "Hóa đơn điện tử phải có mã số thuế của người bán.",
+            "Khách hàng có thể thanh toán qua VNPay hoặc Stripe.",
+            "Hóa đơn được lập khi thanh toán xong; hóa đơn sai thì lập hóa đơn điều chỉnh.",
+            "Giao hàng trong nội thành mất từ một đến hai ngày.");
+
+    private static List<Integer> chunksOf(List<Bm25Index.Hit> hits) {
+        return hits.stream().map(Bm25Index.Hit::chunk).toList();
+    }
+
+    private static List<String> randomChunks(int count, long seed) {
+        Random random = new Random(seed);
+        List<String> chunks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder text = new StringBuilder();
+            int words = 20 + random.nextInt(60);
+            for (int w = 0; w < words; w++) {
+                text.append(w == 0 ? "" : " ").append("từ").append(random.nextInt(500));
+            }
+            chunks.add(text.toString());
+        }
+        return chunks;
+    }
+
+    @Test
+    void chunksAreRankedByBm25Score() {
+        Bm25Index index = Bm25Index.build(CHUNKS);
+
+        // Đoạn 2 nhắc "hóa đơn" nhiều lần hơn đoạn 0; đoạn 1 và 3 không có
+        List<Bm25Index.Hit> hits = index.search("hóa đơn", 3);
+        assertEquals(List.of(2, 0), chunksOf(hits));
+        assertTrue(hits.get(0).score() > hits.get(1).score());
+
+        // "thuế" chỉ có trong một đoạn nên nặng hơn "thanh" (xuất hiện ở hai đoạn)
+        assertEquals(0, index.search("thuế thanh", 3).get(0).chunk());
+        assertEquals(List.of(1), chunksOf(index.search("STRIPE", 3)));
+        assertEquals(List.of(2), chunksOf(index.search("hóa đơn", 1)));
+    }
+
+    @Test
+    void equalScoresKeepDocumentOrder() {
+        Bm25Index index = Bm25Index.build(List.of("giao hàng nhanh", "đổi trả", "giao hàng nhanh"));
+
+        assertEquals(List.of(0, 2), chunksOf(index.search("giao hàng", 5)));
+    }
+
+    @Test
+    void emptyQueryFindsNothing() {
+        Bm25Index index = Bm25Index.build(CHUNKS);
+
+        assertTrue(index.search("", 3).isEmpty());
+        assertTrue(index.search("  ,.?! ", 3).isEmpty());
+        // Chỉ gồm stop word
+        assertTrue(index.search("là của và", 3).isEmpty());
+        assertTrue(index.search("hóa đơn", 0).isEmpty());
+        assertTrue(Bm25Index.EMPTY.search("hóa đơn", 3).isEmpty());
+    }
+
+    @Test
+    void unknownTermsAreIgnored() {
+        Bm25Index index = Bm25Index.build(CHUNKS);
+
+        assertTrue(index.search("bitcoin ethereum", 3).isEmpty());
+        assertEquals(index.search("hóa đơn", 3), index.search("hóa đơn bitcoin", 3));
+    }
+
+    @Test
+    void fileLayoutSurvivesWriteAndMmap() throws IOException {
+        List<String> chunks = new ArrayList<>(CHUNKS);
+        chunks.addAll(randomChunks(2000, 1));
+        Bm25Index index = Bm25Index.build(chunks);
+        Path dir = Files.createTempDirectory("bm25");
+        Path file = dir.resolve("context.idx");
+        try {
+            index.writeTo(file);
+            Bm25Index reopened = Bm25Index.open(file);
+            assertEquals(index.byteSize(), Files.size(file));
+            assertEquals(index.size(), reopened.size());
+            assertEquals(index.termCount(), reopened.termCount());
+            assertEquals(chunks, reopened.chunks());
+            for (String query : List.of("hóa đơn", "từ1 từ42 từ499", "thanh toán stripe", "từ7")) {
+                assertEquals(index.search(query, 5), reopened.search(query, 5));
+            }
+
+            Files.write(file, java.util.Arrays.copyOf(Files.readAllBytes(file), 1000));
+            assertThrows(IOException.class, () -> Bm25Index.open(file));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    void corruptHeaderCountsAreRejected() throws IOException {
+        byte[] valid = Files.readAllBytes(writeTemp(Bm25Index.build(CHUNKS)));
+        // Số đoạn âm, số từ rất lớn (vị trí tràn int), số posting lệch khỏi bảng postingStart
+        for (int[] field : new int[][]{{12, -1}, {16, 0x40000000}, {20, Integer.MAX_VALUE}, {20, 1}}) {
+            byte[] bytes = valid.clone();
+            ByteBuffer.wrap(bytes).putInt(field[0], field[1]);
+            Path file = Files.createTempFile("bm25", ".idx");
+            try {
+                Files.write(file, bytes);
+                assertThrows(IOException.class, () -> Bm25Index.open(file), "offset " + field[0]);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static Path writeTemp(Bm25Index index) throws IOException {
+        Path file = Files.createTempFile("bm25", ".idx");
+        file.toFile().deleteOnExit();
+        index.writeTo(file);
+        return file;
+    }
+}
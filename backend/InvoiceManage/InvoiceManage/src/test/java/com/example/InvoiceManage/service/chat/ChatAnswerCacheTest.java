@@ -0,0 +1,73 @@
+package com.example.InvoiceManage.service.chat;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChatAnswerCacheTest {
+
+    private static final String CONTEXT = "Hóa đơn điện tử phải có mã số thuế của người bán.";
+
+    private final ChatAnswerCache cache = new ChatAnswerCache(new SimpleMeterRegistry(), 60, 100);
+
+    private ChatAnswerCache.Key key(String owner, String query) {
+        return cache.key(owner, "default", "llama3", query, CONTEXT, 0.2);
+    }
+
+    @Test
+    void differentlyTypedQuestionsShareAKey() {
+        // "ó" gõ tổ hợp (o + dấu sắc) và dựng sẵn phải cùng một khóa
+        String decomposed = "Ho\u0301a đơn  cần   GÌ ?!";
+        assertEquals("hóa đơn cần gì", ChatAnswerCache.normalize(decomposed));
+        assertEquals(key("a@example.com", "hóa đơn cần gì"), key("a@example.com", decomposed));
+        assertEquals("", ChatAnswerCache.normalize(null));
+
+        cache.put(key("a@example.com", "Hóa đơn cần gì?"), "Mã số thuế.", 2_000_000_000L);
+        assertEquals("Mã số thuế.", cache.get(key("a@example.com", "  hóa   đơn cần gì… ")));
+    }
+
+    @Test
+    void answersAreNotSharedAcrossOwnersOrContexts() {
+        cache.put(key("a@example.com", "hóa đơn cần gì"), "Mã số thuế.", 1);
+
+        assertNull(cache.get(key("b@example.com", "hóa đơn cần gì")));
+        assertNull(cache.get(cache.key("a@example.com", "default", "llama3", "hóa đơn cần gì", "Ngữ cảnh khác", 0.2)));
+        assertNull(cache.get(key("a@example.com", "hóa đơn cần gì nữa")));
+    }
+
+    @Test
+    void answerComputedBeforeContextChangeIsNotStored() {
+        ChatAnswerCache.Key inFlight = key("a@example.com", "hóa đơn cần gì");
+        // Tài liệu được nạp lại trong lúc chờ model
+        cache.invalidate("a@example.com", "default");
+        cache.put(inFlight, "Câu trả lời theo ngữ cảnh cũ", 1);
+
+        assertEquals(0, cache.size());
+        assertNull(cache.get(key("a@example.com", "hóa đơn cần gì")));
+
+        ChatAnswerCache.Key current = key("a@example.com", "hóa đơn cần gì");
+        cache.put(current, "Mã số thuế.", 1);
+        assertEquals("Mã số thuế.", cache.get(current));
+        cache.invalidate("a@example.com", "default");
+        assertNull(cache.get(key("a@example.com", "hóa đơn cần gì")));
+    }
+
+    @Test
+    void forgottenCollectionDoesNotRevivePreviousGenerations() {
+        ChatAnswerCache.Key beforeClear = key("a@example.com", "hóa đơn cần gì");
+        cache.invalidate("a@example.com", "default");
+        ChatAnswerCache.Key inFlight = key("a@example.com", "hóa đơn cần gì");
+
+        // Bộ bị xóa hẳn: mục thế hệ bị bỏ, khóa lấy trước đó không được lưu
+        cache.forget("a@example.com", "default");
+        cache.put(inFlight, "Câu trả lời theo ngữ cảnh đã xóa", 1);
+        assertEquals(0, cache.size());
+
+        // Nạp lại sau khi xóa: thế hệ mới không trùng thế hệ nào đã cấp
+        cache.invalidate("a@example.com", "default");
+        cache.put(beforeClear, "Câu trả lời rất cũ", 1);
+        cache.put(inFlight, "Câu trả lời theo ngữ cảnh đã xóa", 1);
+        assertEquals(0, cache.size());
+    }
+}
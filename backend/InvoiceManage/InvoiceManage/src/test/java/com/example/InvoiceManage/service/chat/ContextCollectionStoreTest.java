@@ -0,0 +1,130 @@
+package com.example.InvoiceManage.service.chat;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContextCollectionStoreTest {
+
+    private static final String ALICE = "alice@example.com";
+    private static final String BOB = "bob@example.com";
+
+    private Path dir;
+
+    @BeforeEach
+    void createDir() throws IOException {
+        dir = Files.createTempDirectory("chat-context");
+    }
+
+    @AfterEach
+    void deleteDir() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private ContextCollectionStore store(long maxResidentMb) {
+        return new ContextCollectionStore(dir.toString(), maxResidentMb);
+    }
+
+    // Khoảng 400 KB chỉ mục mỗi tài liệu: ba bộ vượt ngân sách 1 MB, hai bộ thì không
+    private static List<String> bigChunks(String tag) {
+        List<String> chunks = new ArrayList<>();
+        for (int i = 0; i < 48; i++) {
+            chunks.add((tag + " hóa đơn số " + i + " ").repeat(400));
+        }
+        return chunks;
+    }
+
+    @Test
+    void missDoesNotKeepAnEmptySlot() {
+        ContextCollectionStore store = store(256);
+
+        assertTrue(store.get(ALICE, "default").isEmpty());
+        assertTrue(store.get(ALICE, "never-created").isEmpty());
+
+        assertEquals(0, store.residentCount());
+        assertEquals(0, store.residentBytes());
+        assertEquals(List.of(), store.list(ALICE));
+
+        // Xóa hết tài liệu: bộ không còn trên đĩa nên cũng không còn trong bộ nhớ
+        store.update(ALICE, "default", c -> c.withDocument("policy.txt", List.of("Hoàn tiền trong 7 ngày.")));
+        assertEquals(1, store.residentCount());
+        store.update(ALICE, "default", c -> ContextCollection.EMPTY);
+        assertEquals(0, store.residentCount());
+        assertEquals(0, store.residentBytes());
+        assertTrue(store.get(ALICE, "default").isEmpty());
+        assertEquals(0, store.residentCount());
+        assertThrows(IllegalArgumentException.class, () -> store.get(ALICE, "../other"));
+    }
+
+    @Test
+    void collectionsAreIsolatedPerOwner() {
+        ContextCollectionStore store = store(256);
+        store.update(ALICE, "default", c -> c.withDocument("alice.txt", List.of("Hóa đơn của Alice.")));
+        store.update(BOB, "default", c -> c.withDocument("bob.txt", List.of("Đơn hàng của Bob.")));
+        store.update(BOB, "policies", c -> c.withDocument("returns.txt", List.of("Đổi trả trong 7 ngày.")));
+
+        assertEquals("alice.txt", store.get(ALICE, "default").documents().get(0).name());
+        assertEquals("bob.txt", store.get(BOB, "default").documents().get(0).name());
+        assertEquals(List.of("default"), store.list(ALICE));
+        assertEquals(List.of("default", "policies"), store.list(BOB));
+        assertTrue(store.get(ALICE, "policies").isEmpty());
+
+        // Khởi động lại: mỗi chủ sở hữu đọc lại đúng bộ của mình từ đĩa
+        ContextCollectionStore restarted = store(256);
+        assertEquals(List.of("Hóa đơn của Alice."), restarted.get(ALICE, "default").index().chunks());
+        assertEquals(List.of("Đơn hàng của Bob."), restarted.get(BOB, "default").index().chunks());
+    }
+
+    @Test
+    void updatesAreCopyOnWrite() {
+        ContextCollectionStore store = store(256);
+        store.update(ALICE, "default", c -> c.withDocument("a.txt", List.of("Hóa đơn điện tử.")));
+        ContextCollection before = store.get(ALICE, "default");
+
+        ContextCollection after = store.update(ALICE, "default", c -> c.withDocument("b.txt", List.of("Thanh toán VNPay.")));
+
+        // Người đang đọc snapshot cũ vẫn thấy đúng nội dung cũ, kể cả khi file đã bị thay
+        assertNotSame(before, after);
+        assertEquals(1, before.documents().size());
+        assertEquals(List.of("Hóa đơn điện tử."), before.index().chunks());
+        assertEquals(2, after.documents().size());
+        assertSame(after, store.get(ALICE, "default"));
+
+        // Không đổi gì: không ghi lại, snapshot giữ nguyên
+        assertSame(after, store.update(ALICE, "default", c -> c.withoutDocument("missing.txt")));
+    }
+
+    @Test
+    void leastRecentlyUsedCollectionIsEvictedOverBudget() {
+        ContextCollectionStore store = store(1);
+        store.update(ALICE, "a", c -> c.withDocument("a.txt", bigChunks("a")));
+        long oneCollection = store.residentBytes();
+        assertTrue(oneCollection * 2 < 1024 * 1024 && oneCollection * 3 > 1024 * 1024, "bytes: " + oneCollection);
+        store.update(ALICE, "b", c -> c.withDocument("b.txt", bigChunks("b")));
+        ContextCollection a = store.get(ALICE, "a"); // "a" vừa dùng, "b" thành bộ lạnh nhất
+
+        store.update(ALICE, "c", c -> c.withDocument("c.txt", bigChunks("c")));
+
+        assertEquals(2, store.residentCount());
+        assertTrue(store.residentBytes() <= 1024 * 1024);
+        assertSame(a, store.get(ALICE, "a"));
+        // Bộ bị đóng được ánh xạ lại từ đĩa khi dùng tới
+        ContextCollection b = store.get(ALICE, "b");
+        assertEquals(bigChunks("b"), b.index().chunks());
+        assertEquals(2, store.residentCount());
+    }
+}
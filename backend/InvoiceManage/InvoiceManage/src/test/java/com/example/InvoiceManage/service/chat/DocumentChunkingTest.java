@@ -0,0 +1,113 @@
+package com.example.InvoiceManage.service.chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentChunkingTest {
+
+    private static final String W = "http://schemas.openxmlformats.org/wordprocessingml/2006/main";
+
+    private static byte[] docx(String body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry("[Content_Types].xml"));
+            zip.write("<Types/>".getBytes(StandardCharsets.UTF_8));
+            zip.putNextEntry(new ZipEntry("word/document.xml"));
+            zip.write(("<w:document xmlns:w=\"" + W + "\"><w:body>" + body + "</w:body></w:document>")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String words(String prefix, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(i == 0 ? "" : " ").append(prefix).append(i);
+        }
+        return text.toString();
+    }
+
+    @Test
+    void docxParagraphsAreStreamedInOrder() throws IOException {
+        byte[] document = docx(
+                "<w:p><w:r><w:t>Hóa đơn </w:t></w:r><w:r><w:t>điện tử</w:t></w:r></w:p>"
+                        + "<w:p/>"
+                        + "<w:p><w:r><w:t>Cột A</w:t><w:tab/><w:t>Cột B</w:t><w:br/><w:t>Dòng 2</w:t></w:r></w:p>"
+                        + "<w:tbl><w:tr><w:tc><w:p><w:r><w:t>Ô 1</w:t></w:r></w:p></w:tc>"
+                        + "<w:tc><w:p><w:r><w:instrText>PAGE</w:instrText><w:t>Ô 2</w:t></w:r></w:p></w:tc></w:tr></w:tbl>");
+        List<String> paragraphs = new ArrayList<>();
+        DocxExtractor.read(new ByteArrayInputStream(document), paragraphs::add);
+        assertEquals(List.of("Hóa đơn điện tử", "Cột A\tCột B\nDòng 2", "Ô 1", "Ô 2"), paragraphs);
+    }
+
+    @Test
+    void nonDocxInputIsRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> DocxExtractor.read(new ByteArrayInputStream("plain text".getBytes(StandardCharsets.UTF_8)), p -> { }));
+    }
+
+    @Test
+    void chunksRespectBudgetAndOverlap() {
+        List<String> chunks = new ArrayList<>();
+        TokenChunker chunker = new TokenChunker(10, 3, chunks::add);
+        chunker.accept(words("a", 4));
+        chunker.accept(words("b", 4));
+        chunker.accept(words("c", 4));
+        chunker.finish();
+
+        assertEquals(List.of("a0 a1 a2 a3\n\nb0 b1 b2 b3", "b1 b2 b3\n\nc0 c1 c2 c3"), chunks);
+        assertEquals(2, chunker.emitted());
+    }
+
+    @Test
+    void longParagraphIsSplitWithinBudget() {
+        List<String> chunks = new ArrayList<>();
+        TokenChunker chunker = new TokenChunker(10, 2, chunks::add);
+        chunker.accept(words("w", 35));
+        chunker.finish();
+
+        List<String> seen = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            List<String> tokens = Arrays.asList(chunks.get(i).split("\\s+"));
+            assertTrue(tokens.size() <= 10, chunks.get(i));
+            if (i > 0) {
+                // Hai từ cuối của chunk trước mở đầu chunk sau
+                List<String> previous = Arrays.asList(chunks.get(i - 1).split("\\s+"));
+                assertEquals(previous.subList(previous.size() - 2, previous.size()), tokens.subList(0, 2));
+                seen.addAll(tokens.subList(2, tokens.size()));
+            } else {
+                seen.addAll(tokens);
+            }
+        }
+        assertEquals(Arrays.asList(words("w", 35).split(" ")), seen);
+    }
+
+    @Test
+    void nothingIsEmittedForEmptyInputOrTrailingOverlap() {
+        List<String> chunks = new ArrayList<>();
+        TokenChunker chunker = new TokenChunker(4, 1, chunks::add);
+        chunker.accept("   ");
+        chunker.finish();
+        assertTrue(chunks.isEmpty());
+
+        chunker.accept("a b c d");
+        chunker.accept("e");
+        chunker.finish();
+        assertEquals(List.of("a b c d", "d\n\ne"), chunks);
+        assertThrows(IllegalArgumentException.class, () -> new TokenChunker(4, 4, chunks::add));
+        assertThrows(IllegalArgumentException.class, () -> TokenChunker.validate(1, 0));
+        assertThrows(IllegalArgumentException.class, () -> TokenChunker.validate(4, -1));
+        TokenChunker.validate(4, 3);
+    }
+}
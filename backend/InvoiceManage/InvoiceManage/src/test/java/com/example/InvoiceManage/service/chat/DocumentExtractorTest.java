@@ -0,0 +1,132 @@
+package com.example.InvoiceManage.service.chat;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentExtractorTest {
+
+    private Path dir;
+    private final List<String> paragraphs = new ArrayList<>();
+    private final List<Double> progress = new ArrayList<>();
+
+    @BeforeEach
+    void createDir() throws IOException {
+        dir = Files.createTempDirectory("extract");
+    }
+
+    @AfterEach
+    void deleteDir() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : files.toList()) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.writeString(dir.resolve(name), content, StandardCharsets.UTF_8);
+    }
+
+    private void extract(DocumentExtractor extractor, Path file) throws IOException {
+        extractor.extract(file, paragraphs::add, progress::add);
+    }
+
+    @Test
+    void plainTextSplitsOnBlankLines() throws IOException {
+        extract(new PlainTextExtractor(), write("policy.txt",
+                "\uFEFFChính sách đổi trả\r\nTrong 7 ngày.\r\n\r\n\r\nHoàn tiền qua VNPay.\n"));
+        assertEquals(List.of("Chính sách đổi trả\nTrong 7 ngày.", "Hoàn tiền qua VNPay."), paragraphs);
+        assertEquals(1.0, progress.get(progress.size() - 1));
+    }
+
+    @Test
+    void textWithoutLineBreaksIsReadInBoundedPieces() throws IOException {
+        extract(new PlainTextExtractor(), write("log.txt", "x".repeat(DocumentExtractor.MAX_PARAGRAPH_CHARS * 3 + 10)));
+        assertEquals(4, paragraphs.size());
+        assertTrue(paragraphs.stream().allMatch(p -> p.length() <= DocumentExtractor.MAX_PARAGRAPH_CHARS));
+        assertEquals(DocumentExtractor.MAX_PARAGRAPH_CHARS * 3 + 10, paragraphs.stream().mapToInt(String::length).sum());
+    }
+
+    @Test
+    void csvRowsCarryColumnNames() throws IOException {
+        extract(new CsvExtractor(), write("prices.csv",
+                "Sản phẩm;Giá;Ghi chú\nBút bi;5.000;\n\n\"Vở; 200 trang\";25.000;\"Loại \"\"A\"\"\"\n"));
+        assertEquals(List.of("Sản phẩm: Bút bi; Giá: 5.000", "Sản phẩm: Vở; 200 trang; Giá: 25.000; Ghi chú: Loại \"A\""),
+                paragraphs);
+    }
+
+    @Test
+    void xlsxRowsAreStreamedPerSheet() throws IOException {
+        Path file = dir.resolve("prices.xlsx");
+        try (XSSFWorkbook workbook = new XSSFWorkbook(); OutputStream out = Files.newOutputStream(file)) {
+            XSSFSheet prices = workbook.createSheet("Bảng giá");
+            XSSFRow header = prices.createRow(0);
+            header.createCell(0).setCellValue("Sản phẩm");
+            header.createCell(1).setCellValue("Giá");
+            XSSFRow row = prices.createRow(2); // dòng 1 để trống
+            row.createCell(0).setCellValue("Bút bi");
+            row.createCell(1).setCellValue(5000);
+            XSSFRow sparse = prices.createRow(3);
+            sparse.createCell(1).setCellValue(7000);
+            XSSFSheet notes = workbook.createSheet("Ghi chú");
+            notes.createRow(0).createCell(0).setCellValue("Nội dung");
+            notes.createRow(1).createCell(0).setCellValue("Giá chưa gồm VAT");
+            workbook.write(out);
+        }
+        extract(new XlsxExtractor(), file);
+        assertEquals(List.of("Bảng giá | Sản phẩm: Bút bi; Giá: 5000", "Bảng giá | Giá: 7000", "Ghi chú | Nội dung: Giá chưa gồm VAT"),
+                paragraphs);
+        assertEquals(List.of(0.5, 1.0), progress);
+    }
+
+    @Test
+    void pdfTextIsExtractedPageByPage() throws IOException {
+        Path file = dir.resolve("manual.pdf");
+        try (PDDocument document = new PDDocument()) {
+            for (String text : List.of("Invoices are issued monthly.", "Payments via Stripe.")) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(new PDType1Font(Standard14Fonts.FontName.HELVETICA), 12);
+                    content.newLineAtOffset(72, 700);
+                    content.showText(text);
+                    content.endText();
+                }
+            }
+            document.save(file.toFile());
+        }
+        extract(new PdfExtractor(), file);
+        assertEquals(List.of("Invoices are issued monthly.", "Payments via Stripe."), paragraphs);
+        assertEquals(List.of(0.5, 1.0), progress);
+    }
+
+    @Test
+    void wrongContentIsRejected() throws IOException {
+        Path notXlsx = write("fake.xlsx", "not a workbook");
+        assertThrows(IllegalArgumentException.class, () -> extract(new XlsxExtractor(), notXlsx));
+        Path notPdf = write("fake.pdf", "not a pdf");
+        assertThrows(IllegalArgumentException.class, () -> extract(new PdfExtractor(), notPdf));
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.InvoiceManage.service.chat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Embedder giả cho test, không cần Ollama: băm các từ (TextTokenizer) và bộ ba ký tự của từng từ vào một vector
+ * số chiều cố định (hashing trick, có dấu). Tất định: cùng văn bản luôn cho cùng vector; văn bản chung nhiều
+ * từ/gốc từ thì vector gần nhau.
+ */
+class HashingEmbedder implements TextEmbedder {
+
+    private final int dimensions;
+    private int calls;
+
+    HashingEmbedder(int dimensions) {
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public synchronized List<float[]> embed(List<String> texts) {
+        calls++;
+        List<float[]> vectors = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            float[] vector = new float[dimensions];
+            for (String token : TextTokenizer.tokenize(text)) {
+                add(vector, "w:" + token, 1f);
+                String padded = "^" + token + "$";
+                for (int i = 0; i + 3 <= padded.length(); i++) {
+                    add(vector, "t:" + padded.substring(i, i + 3), 0.5f);
+                }
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+
+    synchronized int calls() {
+        return calls;
+    }
+
+    private void add(float[] vector, String feature, float weight) {
+        int hash = fnv1a(feature.getBytes(StandardCharsets.UTF_8));
+        int slot = Math.floorMod(hash, dimensions);
+        vector[slot] += (hash & 0x80000000) == 0 ? weight : -weight;
+    }
+
+    private static int fnv1a(byte[] bytes) {
+        int hash = 0x811c9dc5;
+        for (byte b : bytes) {
+            hash ^= b & 0xFF;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+}
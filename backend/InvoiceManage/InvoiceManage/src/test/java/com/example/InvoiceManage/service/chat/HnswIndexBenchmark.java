@@ -0,0 +1,79 @@
+package com.example.InvoiceManage.service.chat;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thời gian một lần tìm trên HnswIndex theo số đoạn (mục tiêu dưới 1ms với vài chục nghìn đoạn) và lượng cấp phát
+ * của tập đỉnh đã thăm. Chạy: mvn test-compile rồi chạy main() của lớp này, hoặc
+ * java -cp target/test-classes:<classpath> org.openjdk.jmh.Main HnswIndexBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HnswIndexBenchmark {
+
+    private static final int DIMENSIONS = 64;
+    private static final int QUERIES = 1024;
+
+    @Param({"2000", "20000"})
+    public int chunkCount;
+
+    private HnswIndex index;
+    private float[][] queries;
+
+    // Mỗi luồng đi qua bộ câu hỏi bằng con trỏ riêng, không tranh nhau một biến đếm chung
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup
+    public void setUp() {
+        index = HnswIndex.build(randomVectors(chunkCount, 4));
+        queries = randomVectors(QUERIES, 5).toArray(new float[0][]);
+    }
+
+    private static List<float[]> randomVectors(int count, long seed) {
+        Random random = new Random(seed);
+        List<float[]> vectors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] vector = new float[DIMENSIONS];
+            for (int j = 0; j < DIMENSIONS; j++) {
+                vector[j] = (float) random.nextGaussian();
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+
+    @Benchmark
+    public List<HnswIndex.Hit> search(Cursor cursor) {
+        return index.search(queries[cursor.next++ & (QUERIES - 1)], 3);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public List<HnswIndex.Hit> searchContended(Cursor cursor) {
+        return index.search(queries[cursor.next++ & (QUERIES - 1)], 3);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(HnswIndexBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(options).run();
+    }
+}
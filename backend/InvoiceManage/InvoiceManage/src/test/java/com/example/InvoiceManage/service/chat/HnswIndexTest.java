@@ -0,0 +1,157 @@
+package com.example.InvoiceManage.service.chat;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HnswIndexTest {
+
+    private static List<float[]> randomVectors(int count, int dimensions, long seed) {
+        Random random = new Random(seed);
+        List<float[]> vectors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            float[] vector = new float[dimensions];
+            for (int j = 0; j < dimensions; j++) {
+                vector[j] = (float) random.nextGaussian();
+            }
+            vectors.add(vector);
+        }
+        return vectors;
+    }
+
+    private static Set<Integer> bruteForce(List<float[]> vectors, float[] query, int k) {
+        Integer[] order = new Integer[vectors.size()];
+        double[] similarity = new double[vectors.size()];
+        for (int i = 0; i < vectors.size(); i++) {
+            order[i] = i;
+            similarity[i] = cosine(vectors.get(i), query);
+        }
+        java.util.Arrays.sort(order, (a, b) -> Double.compare(similarity[b], similarity[a]));
+        return new HashSet<>(List.of(order).subList(0, k));
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        double dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return dot / Math.sqrt(na * nb);
+    }
+
+    @Test
+    void approximateSearchMatchesBruteForce() {
+        List<float[]> vectors = randomVectors(5000, 48, 1);
+        HnswIndex index = HnswIndex.build(vectors);
+        List<float[]> queries = randomVectors(200, 48, 2);
+
+        int found = 0;
+        for (float[] query : queries) {
+            Set<Integer> expected = bruteForce(vectors, query, 10);
+            List<HnswIndex.Hit> hits = index.search(query, 10);
+            assertEquals(10, hits.size());
+            for (int i = 1; i < hits.size(); i++) {
+                assertTrue(hits.get(i - 1).score() >= hits.get(i).score());
+            }
+            for (HnswIndex.Hit hit : hits) {
+                if (expected.contains(hit.chunk())) {
+                    found++;
+                }
+            }
+        }
+        double recall = found / (10.0 * queries.size());
+        assertTrue(recall >= 0.95, "recall@10 = " + recall);
+    }
+
+    @Test
+    void everyVectorFindsItself() {
+        List<float[]> vectors = randomVectors(2000, 32, 3);
+        HnswIndex index = HnswIndex.build(vectors);
+        int self = 0;
+        for (int i = 0; i < vectors.size(); i++) {
+            if (index.search(vectors.get(i), 1).get(0).chunk() == i) {
+                self++;
+            }
+        }
+        assertTrue(self >= vectors.size() * 0.99, self + " of " + vectors.size());
+    }
+
+    @Test
+    void buildIsDeterministicAndSurvivesWriteAndMmap() throws IOException {
+        List<float[]> vectors = randomVectors(1000, 16, 6);
+        HnswIndex index = HnswIndex.build(vectors);
+        Path dir = Files.createTempDirectory("hnsw");
+        Path file = dir.resolve("context.vec");
+        try {
+            index.writeTo(file);
+            HnswIndex reopened = HnswIndex.open(file);
+            HnswIndex rebuilt = HnswIndex.build(vectors);
+            assertEquals(index.byteSize(), Files.size(file));
+            for (float[] query : randomVectors(50, 16, 7)) {
+                assertEquals(index.search(query, 5), reopened.search(query, 5));
+                assertEquals(index.search(query, 5), rebuilt.search(query, 5));
+            }
+            assertArrayEquals(index.vector(123), reopened.vector(123));
+
+            byte[] bytes = Files.readAllBytes(file);
+            Files.write(file, java.util.Arrays.copyOf(bytes, 1000));
+            assertThrows(IOException.class, () -> HnswIndex.open(file));
+
+            // Số đỉnh hỏng mà 4 * size * dimensions tràn int: phải bị từ chối, không ánh xạ sai vùng
+            java.nio.ByteBuffer.wrap(bytes).putInt(12, 0x4000_0001);
+            Files.write(file, bytes);
+            assertThrows(IOException.class, () -> HnswIndex.open(file));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    void emptyIndexAndDimensionMismatch() {
+        assertTrue(HnswIndex.EMPTY.search(new float[8], 3).isEmpty());
+        HnswIndex index = HnswIndex.build(randomVectors(10, 8, 8));
+        assertThrows(IllegalArgumentException.class, () -> index.search(new float[4], 3));
+        assertThrows(IllegalArgumentException.class, () -> HnswIndex.build(List.of(new float[8], new float[4])));
+    }
+
+    @Test
+    void collectionKeepsVectorsAlignedWithChunks() throws Exception {
+        HashingEmbedder embedder = new HashingEmbedder(256);
+        List<String> invoices = List.of(
+                "Hóa đơn được thanh toán qua VNPay hoặc Stripe.",
+                "Khách hàng có thể tải hóa đơn dạng PDF hoặc DOCX.",
+                "Đơn hàng quá hạn sẽ được chuyển sang bảng lưu trữ theo tháng.");
+        List<String> accounts = List.of(
+                "Mật khẩu được băm bằng BCrypt.",
+                "Đăng nhập sai nhiều lần sẽ bị giới hạn tốc độ.");
+
+        ContextCollection collection = ContextCollection.EMPTY
+                .withDocument("invoices.docx", invoices, embedder.embed(invoices))
+                .withDocument("accounts.docx", accounts, embedder.embed(accounts));
+        assertNotNull(collection.vectors());
+        assertEquals(5, collection.vectors().size());
+        assertEquals(1, nearest(collection, embedder, "tải hóa đơn PDF"));
+
+        // Bỏ tài liệu đầu: vector cũ được dùng lại và vẫn khớp đúng đoạn
+        ContextCollection accountsOnly = collection.withoutDocument("invoices.docx");
+        assertEquals("Mật khẩu được băm bằng BCrypt.", accountsOnly.index().chunk(nearest(accountsOnly, embedder, "băm mật khẩu")));
+
+        // Tài liệu không có embedding: bộ quay về chỉ tìm theo từ khóa
+        assertNull(collection.withDocument("notes.docx", List.of("Ghi chú"), null).vectors());
+    }
+
+    private static int nearest(ContextCollection collection, HashingEmbedder embedder, String query) throws Exception {
+        return collection.vectors().search(embedder.embed(query), 1).get(0).chunk();
+    }
+}
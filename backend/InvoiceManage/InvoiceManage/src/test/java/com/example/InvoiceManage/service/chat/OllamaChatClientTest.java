@@ -0,0 +1,373 @@
+package com.example.InvoiceManage.service.chat;
+
+import com.example.InvoiceManage.DTO.request.ChatMessage;
+import com.example.InvoiceManage.exception.ServiceUnavailableException;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Chạy OllamaChatClient với một máy chủ HTTP cục bộ đóng vai Ollama: stream NDJSON từng token một,
+ * hoặc trả lời cả câu sau một khoảng trễ để thử giới hạn số request và gộp câu hỏi giống nhau.
+ */
+class OllamaChatClientTest {
+
+    private static final List<ChatMessage> MESSAGES = List.of(new ChatMessage("user", "Xin chào"));
+
+    private final AtomicInteger tokensWritten = new AtomicInteger();
+    private final AtomicInteger upstreamCalls = new AtomicInteger();
+    private final CountDownLatch clientGone = new CountDownLatch(1);
+    private volatile String receivedBody;
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private OllamaChatClient client;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverExecutor = Executors.newFixedThreadPool(4);
+        server.setExecutor(serverExecutor);
+        server.start();
+        client = newClient(4, 16, 5000);
+    }
+
+    @AfterEach
+    void stopStub() {
+        client.shutdown();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private OllamaChatClient newClient(int maxInFlight, int maxQueued, long queueTimeoutMs) {
+        return new OllamaChatClient(new SimpleMeterRegistry(), "http://127.0.0.1:" + server.getAddress().getPort(),
+                5, 1000, maxInFlight, maxQueued, queueTimeoutMs);
+    }
+
+    // Ollama giả cho "stream": false: trả lời cả câu (lặp lại câu hỏi) sau delayMs
+    private void answerAfter(long delayMs) {
+        server.createContext("/api/chat", exchange -> {
+            upstreamCalls.incrementAndGet();
+            JSONObject request = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            sleep(delayMs);
+            String question = request.getJSONArray("messages").getJSONObject(0).getString("content");
+            byte[] body = new JSONObject().put("model", "stub").put("done", true)
+                    .put("message", new JSONObject().put("role", "assistant").put("content", "Trả lời: " + question))
+                    .toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+    }
+
+    // Ollama giả: chờ prefillMs rồi stream từng token, mỗi token cách nhau delayMs
+    private void streamTokens(List<String> tokens, long prefillMs, long delayMs) {
+        server.createContext("/api/chat", exchange -> {
+            receivedBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            try (OutputStream out = exchange.getResponseBody()) {
+                sleep(prefillMs);
+                exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+                exchange.sendResponseHeaders(200, 0);
+                for (String token : tokens) {
+                    writeLine(out, new JSONObject().put("model", "stub").put("done", false)
+                            .put("message", new JSONObject().put("role", "assistant").put("content", token)));
+                    tokensWritten.incrementAndGet();
+                    sleep(delayMs);
+                }
+                writeLine(out, new JSONObject().put("model", "stub").put("done", true)
+                        .put("message", new JSONObject().put("role", "assistant").put("content", "")));
+            } catch (IOException e) {
+                clientGone.countDown();
+            }
+        });
+    }
+
+    private static void writeLine(OutputStream out, JSONObject chunk) throws IOException {
+        out.write((chunk + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static List<ChatMessage> question(String text) {
+        return List.of(new ChatMessage("user", text));
+    }
+
+    private static class RecordingListener implements OllamaChatClient.ChatStreamListener {
+        final List<String> tokens = new CopyOnWriteArrayList<>();
+        final CountDownLatch firstToken = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicReference<String> content = new AtomicReference<>();
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        @Override
+        public void onToken(String token) {
+            tokens.add(token);
+            firstToken.countDown();
+        }
+
+        @Override
+        public void onComplete(String content) {
+            this.content.set(content);
+            finished.countDown();
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error.set(error);
+            finished.countDown();
+        }
+    }
+
+    @Test
+    void tokensArriveBeforeTheAnswerIsComplete() throws Exception {
+        streamTokens(List.of("Hóa", " đơn", " đã", " được", " thanh", " toán."), 50, 150);
+        RecordingListener listener = new RecordingListener();
+
+        long start = System.nanoTime();
+        client.streamChat("mistral", MESSAGES, 0.3, listener);
+        assertTrue(listener.firstToken.await(5, TimeUnit.SECONDS));
+        long firstTokenMs = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(listener.finished.await(5, TimeUnit.SECONDS));
+        long totalMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertNull(listener.error.get());
+        assertEquals("Hóa đơn đã được thanh toán.", listener.content.get());
+        assertEquals(6, listener.tokens.size());
+        // Token đầu tới ngay sau prefill, không phải chờ 6 token x 150ms
+        assertTrue(firstTokenMs < totalMs - 500, "first token after " + firstTokenMs + "ms of " + totalMs + "ms");
+
+        JSONObject request = new JSONObject(receivedBody);
+        assertTrue(request.getBoolean("stream"));
+        assertEquals("mistral", request.getString("model"));
+        assertEquals(0.3, request.getJSONObject("options").getDouble("temperature"), 1e-9);
+    }
+
+    @Test
+    void cancelClosesTheConnectionToOllama() throws Exception {
+        streamTokens(Collections.nCopies(1000, " token"), 0, 5);
+        RecordingListener listener = new RecordingListener();
+
+        OllamaChatClient.ChatStream stream = client.streamChat("mistral", MESSAGES, 0.3, listener);
+        assertTrue(listener.firstToken.await(5, TimeUnit.SECONDS));
+        stream.cancel();
+
+        // Máy chủ giả nhận lỗi ghi khi kết nối bị đóng, thay vì stream hết 1000 token (~5 giây)
+        assertTrue(clientGone.await(3, TimeUnit.SECONDS), "stub kept streaming after cancel");
+        assertTrue(tokensWritten.get() < 1000);
+        assertTrue(stream.isCancelled());
+        assertEquals(1, listener.finished.getCount(), "cancelled stream must not report completion");
+    }
+
+    @Test
+    void failingListenerCancelsTheStream() throws Exception {
+        streamTokens(Collections.nCopies(1000, " token"), 0, 5);
+        AtomicInteger calls = new AtomicInteger();
+        OllamaChatClient.ChatStream stream = client.streamChat("mistral", MESSAGES, 0.3, new RecordingListener() {
+            @Override
+            public void onToken(String token) {
+                if (calls.incrementAndGet() == 3) {
+                    throw new IllegalStateException("client disconnected");
+                }
+            }
+        });
+
+        assertTrue(clientGone.await(3, TimeUnit.SECONDS), "stub kept streaming after the listener failed");
+        assertTrue(stream.isCancelled());
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void cancelDuringPrefillAbortsTheRequest() throws Exception {
+        streamTokens(List.of("late"), 1500, 0);
+        RecordingListener listener = new RecordingListener();
+
+        OllamaChatClient.ChatStream stream = client.streamChat("mistral", MESSAGES, 0.3, listener);
+        Thread.sleep(200);
+        stream.cancel();
+
+        assertFalse(listener.finished.await(2, TimeUnit.SECONDS));
+        assertTrue(listener.tokens.isEmpty());
+    }
+
+    @Test
+    void errorStatusIsReported() throws Exception {
+        server.createContext("/api/chat", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            byte[] body = "{\"error\":\"model 'mistral' not found\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(404, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        RecordingListener listener = new RecordingListener();
+
+        client.streamChat("mistral", MESSAGES, 0.3, listener);
+
+        assertTrue(listener.finished.await(5, TimeUnit.SECONDS));
+        assertInstanceOf(IOException.class, listener.error.get());
+        assertTrue(listener.error.get().getMessage().contains("404"));
+        assertTrue(listener.error.get().getMessage().contains("not found"));
+    }
+
+    @Test
+    void errorChunkMidStreamIsReported() throws Exception {
+        server.createContext("/api/chat", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                writeLine(out, new JSONObject().put("done", false)
+                        .put("message", new JSONObject().put("role", "assistant").put("content", "Một")));
+                writeLine(out, new JSONObject().put("error", "out of memory"));
+            }
+        });
+        RecordingListener listener = new RecordingListener();
+
+        client.streamChat("mistral", MESSAGES, 0.3, listener);
+
+        assertTrue(listener.finished.await(5, TimeUnit.SECONDS));
+        assertEquals(List.of("Một"), listener.tokens);
+        assertTrue(listener.error.get().getMessage().contains("out of memory"));
+    }
+
+    @Test
+    void identicalConcurrentPromptsShareOneUpstreamCall() throws Exception {
+        answerAfter(300);
+        ExecutorService callers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> answers = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                answers.add(callers.submit(() -> client.chat("mistral", question("Hóa đơn 42 đã thanh toán chưa?"), 0.3)));
+            }
+            for (Future<String> answer : answers) {
+                assertEquals("Trả lời: Hóa đơn 42 đã thanh toán chưa?", answer.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        assertEquals(1, upstreamCalls.get());
+
+        // Lượt trước đã xong: cùng câu hỏi lần nữa là một request mới, câu hỏi khác không bị gộp nhầm
+        assertEquals("Trả lời: Hóa đơn 42 đã thanh toán chưa?", client.chat("mistral", question("Hóa đơn 42 đã thanh toán chưa?"), 0.3));
+        assertEquals("Trả lời: Hóa đơn 43?", client.chat("mistral", question("Hóa đơn 43?"), 0.3));
+        assertEquals(3, upstreamCalls.get());
+    }
+
+    @Test
+    void saturatedClientRejectsFastInsteadOfQueueingForever() throws Exception {
+        answerAfter(1000);
+        client.shutdown();
+        client = newClient(1, 1, 300);
+        ExecutorService callers = Executors.newFixedThreadPool(6);
+        Set<String> outcomes = ConcurrentHashMap.newKeySet();
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger slowRejections = new AtomicInteger();
+        try {
+            List<Future<?>> calls = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                String text = "Câu hỏi " + i;
+                calls.add(callers.submit(() -> {
+                    long start = System.nanoTime();
+                    try {
+                        outcomes.add(client.chat("mistral", question(text), 0.3));
+                    } catch (ServiceUnavailableException e) {
+                        rejected.incrementAndGet();
+                        // Bị từ chối ngay (hàng đợi đầy) hoặc sau queue-timeout, không phải chờ model trả lời
+                        if ((System.nanoTime() - start) / 1_000_000 > 700) {
+                            slowRejections.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> call : calls) {
+                call.get(5, TimeUnit.SECONDS);
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        // 1 request chạy, 1 chờ rồi hết hạn sau 300ms, 4 bị từ chối ngay vì hàng đợi đầy
+        assertEquals(1, outcomes.size());
+        assertEquals(5, rejected.get());
+        assertEquals(0, slowRejections.get());
+        assertEquals(1, upstreamCalls.get());
+    }
+
+    @Test
+    void streamsCountTowardsTheInFlightLimit() throws Exception {
+        streamTokens(Collections.nCopies(200, " token"), 0, 5);
+        client.shutdown();
+        client = newClient(1, 0, 100);
+        RecordingListener first = new RecordingListener();
+
+        OllamaChatClient.ChatStream stream = client.streamChat("mistral", MESSAGES, 0.3, first);
+        assertTrue(first.firstToken.await(5, TimeUnit.SECONDS));
+        assertThrows(ServiceUnavailableException.class,
+                () -> client.streamChat("mistral", MESSAGES, 0.3, new RecordingListener()));
+
+        // Hủy stream đầu thì chỗ được trả lại
+        stream.cancel();
+        RecordingListener second = new RecordingListener();
+        client.streamChat("mistral", MESSAGES, 0.3, second);
+        assertTrue(second.firstToken.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void upstreamErrorIsSharedWithCoalescedCallers() throws Exception {
+        server.createContext("/api/chat", exchange -> {
+            upstreamCalls.incrementAndGet();
+            exchange.getRequestBody().readAllBytes();
+            sleep(200);
+            byte[] body = "{\"error\":\"model 'mistral' not found\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(404, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        ExecutorService callers = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<String>> answers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                answers.add(callers.submit(() -> client.chat("mistral", MESSAGES, 0.3)));
+            }
+            for (Future<String> answer : answers) {
+                ExecutionException e = assertThrows(ExecutionException.class, () -> answer.get(5, TimeUnit.SECONDS));
+                OllamaChatClient.OllamaHttpException cause = assertInstanceOf(OllamaChatClient.OllamaHttpException.class, e.getCause());
+                assertEquals(404, cause.getStatusCode());
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        assertEquals(1, upstreamCalls.get());
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.InvoiceManage.tools;
+
+import com.example.InvoiceManage.util.TokenBucket;
+import org.json.JSONObject;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+/**
+ * Phát lại các sự kiện Stripe đã ghi lại vào endpoint webhook với tốc độ cao để thử tải.
+ *
+ * Mỗi sự kiện được ký lại bằng webhook secret với timestamp hiện tại (đúng định dạng header Stripe-Signature),
+ * nên ứng dụng xác thực như với Stripe thật. Mặc định gửi lại nguyên event id để thử đường chống trùng;
+ * với --unique, event id và payment_intent được đổi cho mỗi lần gửi để thử đường ghi thanh toán.
+ *
+ * Ví dụ:
+ *   java ... StripeWebhookReplayer --url http://localhost:8080/api/stripe/webhook --secret whsec_test \
+ *       --events ./stripe-events --count 20000 --rate 2000 --concurrency 64 --unique
+ *
+ * --events là file JSON Lines (mỗi dòng một sự kiện) hoặc thư mục chứa các file *.json.
+ */
+public class StripeWebhookReplayer {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args);
+        String url = require(options, "url");
+        String secret = require(options, "secret");
+        List<String> events = loadEvents(Path.of(require(options, "events")));
+        int count = Integer.parseInt(options.getOrDefault("count", String.valueOf(events.size())));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "500"));
+        int concurrency = Integer.parseInt(options.getOrDefault("concurrency", "32"));
+        boolean unique = options.containsKey("unique");
+        if (events.isEmpty()) {
+            throw new IllegalArgumentException("No events found");
+        }
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        TokenBucket limiter = new TokenBucket(rate, Math.max(1, (int) (rate / 10)));
+        ExecutorService pool = Executors.newFixedThreadPool(concurrency);
+        Map<Integer, AtomicInteger> statuses = new ConcurrentHashMap<>();
+        AtomicInteger errors = new AtomicInteger();
+        AtomicLongArray latencies = new AtomicLongArray(count);
+        CountDownLatch done = new CountDownLatch(count);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            int n = i;
+            String payload = unique ? makeUnique(events.get(n % events.size()), n) : events.get(n % events.size());
+            pool.execute(() -> {
+                try {
+                    limiter.acquire();
+                    HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                            .timeout(Duration.ofSeconds(30))
+                            .header("Content-Type", "application/json")
+                            .header("Stripe-Signature", signatureHeader(payload, secret))
+                            .POST(HttpRequest.BodyPublishers.ofString(payload, StandardCharsets.UTF_8))
+                            .build();
+                    long sent = System.nanoTime();
+                    HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                    latencies.set(n, System.nanoTime() - sent);
+                    statuses.computeIfAbsent(response.statusCode(), code -> new AtomicInteger()).incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    errors.incrementAndGet();
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        long elapsedNanos = System.nanoTime() - start;
+        pool.shutdown();
+
+        long[] sorted = new long[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = latencies.get(i);
+        }
+        Arrays.sort(sorted);
+        System.out.printf("Sent %d events in %.2fs (%.0f req/s), errors=%d, statuses=%s%n",
+                count, elapsedNanos / 1e9, count / (elapsedNanos / 1e9), errors.get(), statuses);
+        System.out.printf("Latency p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms%n",
+                percentile(sorted, 0.50), percentile(sorted, 0.95), percentile(sorted, 0.99), percentile(sorted, 1.0));
+    }
+
+    // Định dạng của Stripe: t=<unix giây>,v1=hex(HMAC-SHA256(secret, "<t>.<payload>"))
+    static String signatureHeader(String payload, String secret) throws Exception {
+        long timestamp = System.currentTimeMillis() / 1000;
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        byte[] digest = mac.doFinal((timestamp + "." + payload).getBytes(StandardCharsets.UTF_8));
+        StringBuilder hex = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return "t=" + timestamp + ",v1=" + hex;
+    }
+
+    private static String makeUnique(String payload, int n) {
+        JSONObject event = new JSONObject(payload);
+        event.put("id", event.getString("id") + "_r" + n);
+        JSONObject object = event.optJSONObject("data") == null ? null : event.getJSONObject("data").optJSONObject("object");
+        if (object != null && object.has("payment_intent") && !object.isNull("payment_intent")) {
+            object.put("payment_intent", object.getString("payment_intent") + "_r" + n);
+        }
+        return event.toString();
+    }
+
+    private static List<String> loadEvents(Path source) throws IOException {
+        List<String> events = new ArrayList<>();
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> files = Files.list(source)) {
+                for (Path file : files.filter(f -> f.toString().endsWith(".json")).sorted().toList()) {
+                    events.add(Files.readString(file, StandardCharsets.UTF_8).trim());
+                }
+            }
+        } else {
+            for (String line : Files.readAllLines(source, StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) {
+                    events.add(line.trim());
+                }
+            }
+        }
+        return events;
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + args[i]);
+            }
+            String name = args[i].substring(2);
+            if (i + 1 < args.length && !args[i + 1].startsWith("--")) {
+                options.put(name, args[++i]);
+            } else {
+                options.put(name, "true");
+            }
+        }
+        return options;
+    }
+
+    private static String require(Map<String, String> options, String name) {
+        String value = options.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing --" + name);
+        }
+        return value;
+    }
+}
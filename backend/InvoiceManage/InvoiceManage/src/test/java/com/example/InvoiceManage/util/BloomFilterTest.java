@@ -0,0 +1,87 @@
+package com.example.InvoiceManage.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BloomFilterTest {
+
+    @Test
+    void neverGivesFalseNegatives() {
+        BloomFilter filter = new BloomFilter(10_000, 0.001);
+        List<String> inserted = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            inserted.add(UUID.randomUUID().toString());
+        }
+        inserted.add("");
+        inserted.add("hóa-đơn-😀");
+        inserted.forEach(filter::put);
+
+        for (String value : inserted) {
+            assertTrue(filter.mightContain(value), value);
+        }
+    }
+
+    @Test
+    void falsePositiveRateStaysNearTarget() {
+        BloomFilter filter = new BloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.put("revoked-" + i);
+        }
+
+        int falsePositives = 0;
+        int probes = 100_000;
+        for (int i = 0; i < probes; i++) {
+            if (filter.mightContain("live-" + i)) {
+                falsePositives++;
+            }
+        }
+        // Mục tiêu 1%; cho phép gấp đôi vì hàm băm không lý tưởng
+        assertTrue(falsePositives < probes * 0.02, "false positives: " + falsePositives);
+        assertTrue(filter.bitSize() >= 95_851);
+        assertEquals(7, filter.hashCount());
+    }
+
+    @Test
+    void concurrentPutsAreNotLost() throws Exception {
+        // Nhiều phần tử chung một word: CAS không được ghi đè bit của luồng khác
+        BloomFilter filter = new BloomFilter(1_000, 0.01);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                futures.add(pool.submit(() -> {
+                    for (int i = 0; i < 2_000; i++) {
+                        filter.put(thread + "-" + i);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        for (int t = 0; t < 8; t++) {
+            for (int i = 0; i < 2_000; i++) {
+                assertTrue(filter.mightContain(t + "-" + i));
+            }
+        }
+    }
+
+    @Test
+    void invalidParametersAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(0, 0.01));
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(100, 0));
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(100, 1));
+    }
+}
@@ -0,0 +1,33 @@
+package com.example.InvoiceManage.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DuplicateKeysTest {
+
+    @Test
+    void mysqlDuplicateEntryIsDuplicateKey() {
+        SQLException sql = new SQLException("Duplicate entry 'pi_1' for key 'payment.UK_tx'", "23000", 1062);
+        assertTrue(DuplicateKeys.isDuplicateKey(new DataIntegrityViolationException("insert", new RuntimeException(sql))));
+    }
+
+    @Test
+    void otherIntegrityErrorsAreNot() {
+        // Cùng SQLState 23000 nhưng là lỗi NOT NULL (1048) và khóa ngoại (1452)
+        SQLException notNull = new SQLException("Column 'order_id' cannot be null", "23000", 1048);
+        SQLException foreignKey = new SQLException("Cannot add or update a child row", "23000", 1452);
+        assertFalse(DuplicateKeys.isDuplicateKey(new DataIntegrityViolationException("insert", notNull)));
+        assertFalse(DuplicateKeys.isDuplicateKey(new DataIntegrityViolationException("insert", foreignKey)));
+        assertFalse(DuplicateKeys.isDuplicateKey(new DataIntegrityViolationException("insert")));
+    }
+
+    @Test
+    void standardUniqueViolationStateIsDuplicateKey() {
+        SQLException sql = new SQLException("Unique index or primary key violation", "23505", 23505);
+        assertTrue(DuplicateKeys.isDuplicateKey(new DataIntegrityViolationException("insert", sql)));
+    }
+}
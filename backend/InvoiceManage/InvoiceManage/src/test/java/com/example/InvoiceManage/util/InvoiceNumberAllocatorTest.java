@@ -0,0 +1,121 @@
+package com.example.InvoiceManage.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InvoiceNumberAllocatorTest {
+
+    private static final int NODES = 4;
+    private static final int THREADS_PER_NODE = 8;
+    private static final int ALLOCATIONS_PER_THREAD = 20_000;
+
+    /**
+     * Giả lập bảng invoice_number_counter: mỗi lần đặt block là một "giao dịch" ngắn có khóa.
+     */
+    private static final class CounterRow implements InvoiceNumberAllocator.BlockSource {
+        private final AtomicLong reservations = new AtomicLong();
+        private long nextValue = 1;
+
+        @Override
+        public synchronized InvoiceNumberAllocator.Block reserve(int size) {
+            reservations.incrementAndGet();
+            long start = nextValue;
+            nextValue += size;
+            return new InvoiceNumberAllocator.Block(start, start + size);
+        }
+
+        synchronized long nextValue() {
+            return nextValue;
+        }
+    }
+
+    @Test
+    void numbersAreUniqueAndGapFreeUnderHeavyConcurrency() throws Exception {
+        CounterRow counter = new CounterRow();
+        List<InvoiceNumberAllocator> nodes = new ArrayList<>();
+        for (int i = 0; i < NODES; i++) {
+            nodes.add(new InvoiceNumberAllocator(counter, 50));
+        }
+
+        Set<Long> committed = ConcurrentHashMap.newKeySet();
+        AtomicLong duplicates = new AtomicLong();
+        ExecutorService pool = Executors.newFixedThreadPool(NODES * THREADS_PER_NODE);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+
+        for (InvoiceNumberAllocator node : nodes) {
+            for (int t = 0; t < THREADS_PER_NODE; t++) {
+                futures.add(pool.submit(() -> {
+                    start.await();
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < ALLOCATIONS_PER_THREAD; i++) {
+                        long number = node.next();
+                        if (random.nextInt(100) < 2) {
+                            // ~2% giao dịch duyệt bị rollback: số phải được trả lại để dùng lại
+                            node.release(number);
+                        } else if (!committed.add(number)) {
+                            duplicates.incrementAndGet();
+                        }
+                    }
+                    return null;
+                }));
+            }
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertEquals(0, duplicates.get(), "A number was handed out twice");
+
+        // Khi các node tắt, phần chưa dùng được ghi thành khoảng trống; mọi số đã đặt phải được tính đủ
+        Set<Long> unused = ConcurrentHashMap.newKeySet();
+        for (InvoiceNumberAllocator node : nodes) {
+            for (Long number : node.drainUnused()) {
+                assertTrue(unused.add(number), "Unused number reported twice: " + number);
+                assertFalse(committed.contains(number), "Committed number reported as unused: " + number);
+            }
+        }
+
+        long reservedUpTo = counter.nextValue();
+        assertEquals(reservedUpTo - 1, committed.size() + unused.size(), "Some reserved numbers were lost");
+        for (long n = 1; n < reservedUpTo; n++) {
+            assertTrue(committed.contains(n) || unused.contains(n), "Number lost: " + n);
+        }
+        // Số bị trả lại được dùng lại nên phần trống chỉ còn tối đa phần đuôi của mỗi block
+        assertTrue(unused.size() < NODES * 50 + NODES * THREADS_PER_NODE,
+                "Too many unused numbers: " + unused.size());
+    }
+
+    @Test
+    void releasedNumbersAreReusedSmallestFirst() {
+        CounterRow counter = new CounterRow();
+        InvoiceNumberAllocator allocator = new InvoiceNumberAllocator(counter, 10);
+
+        long first = allocator.next();
+        allocator.next();
+        long third = allocator.next();
+        allocator.release(third);
+        allocator.release(first);
+
+        assertEquals(first, allocator.next());
+        assertEquals(third, allocator.next());
+        assertEquals(third + 1, allocator.next());
+        assertEquals(1, counter.reservations.get());
+    }
+}
@@ -0,0 +1,48 @@
+package com.example.InvoiceManage.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StripedRateLimiterTest {
+
+    @Test
+    void eachKeyHasItsOwnBucket() {
+        StripedRateLimiter limiter = new StripedRateLimiter(4, 100, 0.001, 2);
+
+        assertTrue(limiter.tryAcquire("10.0.0.1"));
+        assertTrue(limiter.tryAcquire("10.0.0.1"));
+        assertFalse(limiter.tryAcquire("10.0.0.1"));
+        assertTrue(limiter.tryAcquire("10.0.0.2"));
+    }
+
+    @Test
+    void fullStripeEvictsLeastRecentlyUsedBucketInsteadOfRejectingNewKeys() throws Exception {
+        // Một stripe, tối đa 2 khóa; nạp lại rất chậm nên không bucket nào kịp nhàn rỗi
+        StripedRateLimiter limiter = new StripedRateLimiter(1, 2, 0.001, 1);
+
+        assertTrue(limiter.tryAcquire("a"));
+        Thread.sleep(2);
+        assertTrue(limiter.tryAcquire("b"));
+        Thread.sleep(2);
+
+        // Khóa mới vẫn được xét giới hạn bình thường: "a" (dùng lâu nhất) bị đẩy ra
+        assertTrue(limiter.tryAcquire("c"));
+        assertEquals(2, limiter.size());
+        assertFalse(limiter.tryAcquire("b"), "bucket vừa dùng không được bị đẩy ra");
+        assertFalse(limiter.tryAcquire("c"));
+    }
+
+    @Test
+    void idleBucketsArePurged() throws Exception {
+        // Nạp đầy lại sau 1 ms
+        StripedRateLimiter limiter = new StripedRateLimiter(2, 10, 1_000, 1);
+        limiter.tryAcquire("a");
+        limiter.tryAcquire("b");
+
+        Thread.sleep(20);
+
+        assertEquals(2, limiter.purgeIdle());
+        assertEquals(0, limiter.size());
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.InvoiceManage.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TtlCacheTest {
+
+    @Test
+    void valueIsLoadedOnceUntilItExpires() throws Exception {
+        TtlCache<String, String> cache = new TtlCache<>(50, TimeUnit.MILLISECONDS, 10);
+        AtomicInteger loads = new AtomicInteger();
+
+        assertEquals("v1", cache.get("a", key -> "v" + loads.incrementAndGet()));
+        assertEquals("v1", cache.get("a", key -> "v" + loads.incrementAndGet()));
+        assertEquals("v1", cache.getIfPresent("a"));
+        assertEquals(1, loads.get());
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+
+        Thread.sleep(80);
+
+        assertNull(cache.getIfPresent("a"));
+        assertEquals("v2", cache.get("a", key -> "v" + loads.incrementAndGet()));
+    }
+
+    @Test
+    void failedOrEmptyLoadIsNotCached() {
+        TtlCache<String, String> cache = new TtlCache<>(1, TimeUnit.MINUTES, 10);
+
+        assertThrows(IllegalStateException.class, () -> cache.get("a", key -> {
+            throw new IllegalStateException("database unavailable");
+        }));
+        assertNull(cache.get("a", key -> null));
+        assertEquals(0, cache.size());
+        assertEquals("v", cache.get("a", key -> "v"));
+    }
+
+    @Test
+    void invalidatedKeyIsReloaded() {
+        TtlCache<String, String> cache = new TtlCache<>(1, TimeUnit.MINUTES, 10);
+        cache.put("a", "old");
+        cache.put("b", "b");
+
+        cache.invalidate("a");
+
+        assertNull(cache.getIfPresent("a"));
+        assertEquals("b", cache.getIfPresent("b"));
+        assertEquals("new", cache.get("a", key -> "new"));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void loadRacingInvalidationOfSameKeyIsNotStored() {
+        TtlCache<String, String> cache = new TtlCache<>(1, TimeUnit.MINUTES, 10);
+
+        // Dữ liệu đổi (và invalidate) trong lúc đang nạp: giá trị cũ vẫn trả về cho lần gọi này nhưng không được cache
+        assertEquals("stale", cache.get("a", key -> {
+            cache.invalidate("a");
+            return "stale";
+        }));
+        assertNull(cache.getIfPresent("a"));
+
+        assertEquals("stale", cache.get("a", key -> {
+            cache.invalidateAll();
+            return "stale";
+        }));
+        assertNull(cache.getIfPresent("a"));
+    }
+
+    @Test
+    void invalidatingAnotherKeyDoesNotDropInFlightLoad() {
+        TtlCache<String, String> cache = new TtlCache<>(1, TimeUnit.MINUTES, 10);
+
+        // Đăng xuất/khóa một user khác trong lúc đang nạp principal của "a"
+        cache.get("a", key -> {
+            cache.invalidate("b");
+            return "fresh";
+        });
+
+        assertEquals("fresh", cache.getIfPresent("a"));
+    }
+
+    @Test
+    void oldestEntryIsEvictedWhenFull() {
+        TtlCache<String, String> cache = new TtlCache<>(1, TimeUnit.MINUTES, 2);
+        cache.put("a", "a");
+        cache.put("b", "b");
+        cache.put("a", "a2");
+        cache.put("c", "c");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+        assertNull(cache.getIfPresent("a"));
+        assertEquals("b", cache.getIfPresent("b"));
+        assertEquals("c", cache.getIfPresent("c"));
+    }
+}
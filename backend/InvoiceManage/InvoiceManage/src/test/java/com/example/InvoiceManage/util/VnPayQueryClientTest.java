@@ -0,0 +1,170 @@
+package com.example.InvoiceManage.util;
+
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Chạy VnPayQueryClient với một máy chủ HTTP cục bộ đóng vai API querydr của VNPay.
+ */
+class VnPayQueryClientTest {
+
+    private static final String TMN_CODE = "TESTTMN1";
+    private static final String SECRET = "TESTSECRETKEYTESTSECRETKEY123456";
+
+    private final VnPaySigner signer = new VnPaySigner(SECRET);
+    // txnRef -> {transactionNo, amount*100} của các giao dịch đã thanh toán trên "VNPay"
+    private final Map<String, String[]> paid = new ConcurrentHashMap<>();
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicBoolean tamperResponses = new AtomicBoolean();
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private VnPayQueryClient client;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/merchant_webapi/api/transaction", exchange -> {
+            requests.incrementAndGet();
+            JSONObject request = new JSONObject(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            byte[] body = respond(request).toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        serverExecutor = Executors.newFixedThreadPool(4);
+        server.setExecutor(serverExecutor);
+        server.start();
+        String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/merchant_webapi/api/transaction";
+        client = new VnPayQueryClient(url, TMN_CODE, SECRET, "127.0.0.1", Duration.ofSeconds(5));
+    }
+
+    @AfterEach
+    void stopStub() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    private JSONObject respond(JSONObject request) {
+        String requestHash = String.join("|", request.getString("vnp_RequestId"), request.getString("vnp_Version"),
+                request.getString("vnp_Command"), request.getString("vnp_TmnCode"), request.getString("vnp_TxnRef"),
+                request.getString("vnp_TransactionDate"), request.getString("vnp_CreateDate"),
+                request.getString("vnp_IpAddr"), request.getString("vnp_OrderInfo"));
+        if (!signer.verify(requestHash, request.getString("vnp_SecureHash"))) {
+            return new JSONObject().put("vnp_ResponseCode", "97").put("vnp_Message", "Invalid Checksum");
+        }
+        String txnRef = request.getString("vnp_TxnRef");
+        String[] transaction = paid.get(txnRef);
+        if (transaction == null) {
+            return new JSONObject().put("vnp_ResponseCode", "91").put("vnp_Message", "Transaction not found");
+        }
+        JSONObject response = new JSONObject()
+                .put("vnp_ResponseId", "resp" + requests.get())
+                .put("vnp_Command", "querydr")
+                .put("vnp_ResponseCode", "00")
+                .put("vnp_Message", "QueryDR Success")
+                .put("vnp_TmnCode", TMN_CODE)
+                .put("vnp_TxnRef", txnRef)
+                .put("vnp_Amount", transaction[1])
+                .put("vnp_BankCode", "NCB")
+                .put("vnp_PayDate", VnPaySigner.VNPAY_DATE.format(Instant.now()))
+                .put("vnp_TransactionNo", transaction[0])
+                .put("vnp_TransactionType", "01")
+                .put("vnp_TransactionStatus", "00")
+                .put("vnp_OrderInfo", "Thanh toan don hang");
+        String responseHash = String.join("|", response.getString("vnp_ResponseId"), "querydr", "00",
+                response.getString("vnp_Message"), TMN_CODE, txnRef, transaction[1], "NCB",
+                response.getString("vnp_PayDate"), transaction[0], "01", "00", "Thanh toan don hang", "", "");
+        String hash = signer.sign(responseHash);
+        if (tamperResponses.get()) {
+            hash = (hash.charAt(0) == 'a' ? "b" : "a") + hash.substring(1);
+        }
+        return response.put("vnp_SecureHash", hash);
+    }
+
+    @Test
+    void paidTransactionIsReportedWithVndAmount() throws Exception {
+        paid.put("42_1700000000000", new String[]{"14012345", "15000000"});
+
+        VnPayQueryClient.QueryResult result = client.query("42_1700000000000", "20240101120000");
+
+        assertTrue(result.isPaid());
+        assertEquals("14012345", result.transactionNo());
+        assertEquals(0, new BigDecimal("150000").compareTo(result.amount()));
+        assertEquals("NCB", result.bankCode());
+        assertNotNull(result.payDate());
+    }
+
+    @Test
+    void unknownTransactionIsNotFound() throws Exception {
+        VnPayQueryClient.QueryResult result = client.query("7_1700000000000", "20240101120000");
+
+        assertFalse(result.isPaid());
+        assertTrue(result.isNotFound());
+    }
+
+    @Test
+    void tamperedResponseIsRejected() {
+        paid.put("42_1700000000000", new String[]{"14012345", "15000000"});
+        tamperResponses.set(true);
+
+        assertThrows(IOException.class, () -> client.query("42_1700000000000", "20240101120000"));
+    }
+
+    @Test
+    void concurrentQueriesRespectRateLimit() throws Exception {
+        int total = 40;
+        for (int i = 0; i < total; i += 2) {
+            paid.put(i + "_1700000000000", new String[]{String.valueOf(90_000_000 + i), "100000"});
+        }
+        TokenBucket limiter = new TokenBucket(50, 5);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        long start = System.nanoTime();
+        try {
+            List<Future<VnPayQueryClient.QueryResult>> futures = new ArrayList<>();
+            for (int i = 0; i < total; i++) {
+                String txnRef = i + "_1700000000000";
+                futures.add(pool.submit(() -> {
+                    limiter.acquire();
+                    return client.query(txnRef, "20240101120000");
+                }));
+            }
+            int paidCount = 0;
+            for (Future<VnPayQueryClient.QueryResult> future : futures) {
+                if (future.get().isPaid()) {
+                    paidCount++;
+                }
+            }
+            assertEquals(total / 2, paidCount);
+        } finally {
+            pool.shutdownNow();
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        // 5 lượt đầu dùng burst, 35 lượt còn lại ở 50/giây => tối thiểu ~700ms
+        assertTrue(elapsedMs >= 650, "rate limit not applied, took " + elapsedMs + "ms");
+        assertEquals(total, requests.get());
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.InvoiceManage.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh chi phí mỗi lần ký/xác thực VNPay giữa cách cũ (sort + URLEncoder 2 lần + Config.hmacSHA512)
+ * và VnPaySigner. Chạy: mvn test-compile rồi chạy main() của lớp này, hoặc
+ * java -cp target/test-classes:<classpath> org.openjdk.jmh.Main VnPaySignerBenchmark -prof gc
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VnPaySignerBenchmark {
+
+    private Map<String, String> params;
+    private Map<String, String> signedParams;
+    private VnPaySigner signer;
+
+    @Setup
+    public void setUp() {
+        signer = new VnPaySigner(Config.secretKey);
+        params = new HashMap<>();
+        params.put("vnp_Version", "2.1.0");
+        params.put("vnp_Command", "pay");
+        params.put("vnp_TmnCode", Config.vnp_TmnCode);
+        params.put("vnp_Amount", "125000000");
+        params.put("vnp_CurrCode", "VND");
+        params.put("vnp_TxnRef", "1024_1718000000000");
+        params.put("vnp_OrderInfo", "Thanh toan don hang: 1024 cho user: customer@example.com");
+        params.put("vnp_OrderType", "other");
+        params.put("vnp_Locale", "vn");
+        params.put("vnp_ReturnUrl", Config.vnp_ReturnUrl);
+        params.put("vnp_IpAddr", "203.113.130.10");
+        params.put("vnp_CreateDate", "20240610120000");
+        params.put("vnp_ExpireDate", "20240610121500");
+
+        signedParams = new HashMap<>(params);
+        signedParams.put(VnPaySigner.SECURE_HASH, signer.sign(VnPaySigner.canonicalQuery(params, new StringBuilder())));
+    }
+
+    @Benchmark
+    public String legacySign() throws Exception {
+        return legacySignedQuery(params, Config.secretKey);
+    }
+
+    // Cách ký cũ của VNPayService, giữ nguyên để so sánh (VnPaySignerTest dùng làm chuẩn đối chiếu)
+    static String legacySignedQuery(Map<String, String> params, String secretKey) throws Exception {
+        List<String> fieldNames = new ArrayList<>(params.keySet());
+        Collections.sort(fieldNames);
+        StringBuilder hashData = new StringBuilder();
+        StringBuilder query = new StringBuilder();
+        for (String fieldName : fieldNames) {
+            String fieldValue = params.get(fieldName);
+            if (fieldValue != null && !fieldValue.isEmpty()) {
+                hashData.append(fieldName).append('=')
+                        .append(URLEncoder.encode(fieldValue, StandardCharsets.US_ASCII.toString())).append('&');
+                query.append(URLEncoder.encode(fieldName, StandardCharsets.US_ASCII.toString())).append('=')
+                        .append(URLEncoder.encode(fieldValue, StandardCharsets.US_ASCII.toString())).append('&');
+            }
+        }
+        query.setLength(query.length() - 1);
+        hashData.setLength(hashData.length() - 1);
+        return query + "&vnp_SecureHash=" + Config.hmacSHA512(secretKey, hashData.toString());
+    }
+
+    @Benchmark
+    public String signerSign() {
+        return signer.signedQuery(params);
+    }
+
+    @Benchmark
+    public boolean signerVerify() {
+        return signer.verify(signedParams);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public String signerSignContended() {
+        return signer.signedQuery(params);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(VnPaySignerBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build();
+        new Runner(options).run();
+    }
+}
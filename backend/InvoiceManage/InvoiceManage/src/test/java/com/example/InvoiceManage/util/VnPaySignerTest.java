@@ -0,0 +1,113 @@
+package com.example.InvoiceManage.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class VnPaySignerTest {
+
+    private static final String SECRET = "70GI0Z7WETRZP8RAT4LJXYOLS0M6XBYM";
+
+    private final VnPaySigner signer = new VnPaySigner(SECRET);
+
+    private static Map<String, String> payParams(String orderInfo) {
+        Map<String, String> params = new HashMap<>();
+        params.put("vnp_Version", "2.1.0");
+        params.put("vnp_Command", "pay");
+        params.put("vnp_TmnCode", "IWJGM192");
+        params.put("vnp_Amount", "125000000");
+        params.put("vnp_CurrCode", "VND");
+        params.put("vnp_TxnRef", "1024_1718000000000");
+        params.put("vnp_OrderInfo", orderInfo);
+        params.put("vnp_OrderType", "other");
+        params.put("vnp_Locale", "vn");
+        params.put("vnp_ReturnUrl", "http://localhost:3000/payment-success?from=vnpay&x=1");
+        params.put("vnp_IpAddr", "203.113.130.10");
+        params.put("vnp_CreateDate", "20240610120000");
+        params.put("vnp_BankCode", "");
+        return params;
+    }
+
+    // Tham số VNPay gửi về đã được giải mã URL, như Spring đưa vào @RequestParam Map
+    private static Map<String, String> parse(String query) {
+        Map<String, String> params = new LinkedHashMap<>();
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.US_ASCII),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.US_ASCII));
+        }
+        return params;
+    }
+
+    @Test
+    void signedQueryIsByteIdenticalToLegacyEncoding() throws Exception {
+        List<String> orderInfos = List.of(
+                "Thanh toan don hang: 1024 cho user: customer@example.com",
+                // Ký tự ngoài ASCII (cả cặp surrogate) thành "?" giống URLEncoder với US-ASCII
+                "Thanh toán đơn hàng #1024 😀",
+                "a+b=c&d/e~f (g) 'h' *i* -j- _k_ .l. %m",
+                "x");
+        for (String orderInfo : orderInfos) {
+            Map<String, String> params = payParams(orderInfo);
+            assertEquals(VnPaySignerBenchmark.legacySignedQuery(params, SECRET), signer.signedQuery(params), orderInfo);
+        }
+    }
+
+    @Test
+    void signatureFieldsAndEmptyValuesAreNotSigned() {
+        Map<String, String> params = payParams("Thanh toan");
+        String expected = signer.signedQuery(params);
+
+        params.put(VnPaySigner.SECURE_HASH, "abc");
+        params.put(VnPaySigner.SECURE_HASH_TYPE, "HmacSHA512");
+        params.put("vnp_Bill_Mobile", null);
+        assertEquals(expected, signer.signedQuery(params));
+    }
+
+    @Test
+    void verifyAcceptsOwnSignature() {
+        Map<String, String> received = parse(signer.signedQuery(payParams("Thanh toán đơn hàng #1024")));
+        received.put(VnPaySigner.SECURE_HASH_TYPE, "HmacSHA512");
+
+        assertTrue(signer.verify(received));
+        // VNPay có thể gửi chữ ký hex chữ hoa
+        received.put(VnPaySigner.SECURE_HASH, received.get(VnPaySigner.SECURE_HASH).toUpperCase());
+        assertTrue(signer.verify(received));
+    }
+
+    @Test
+    void verifyRejectsTamperedParameters() {
+        Map<String, String> signed = parse(signer.signedQuery(payParams("Thanh toan don hang 1024")));
+        String hash = signed.get(VnPaySigner.SECURE_HASH);
+
+        Map<String, String> amount = new HashMap<>(signed);
+        amount.put("vnp_Amount", "100");
+        assertFalse(signer.verify(amount));
+
+        Map<String, String> added = new HashMap<>(signed);
+        added.put("vnp_ResponseCode", "00");
+        assertFalse(signer.verify(added));
+
+        Map<String, String> flipped = new HashMap<>(signed);
+        flipped.put(VnPaySigner.SECURE_HASH, (hash.charAt(0) == '0' ? '1' : '0') + hash.substring(1));
+        assertFalse(signer.verify(flipped));
+
+        Map<String, String> malformed = new HashMap<>(signed);
+        malformed.put(VnPaySigner.SECURE_HASH, "zz" + hash.substring(2));
+        assertFalse(signer.verify(malformed));
+
+        Map<String, String> missing = new HashMap<>(signed);
+        missing.remove(VnPaySigner.SECURE_HASH);
+        assertFalse(signer.verify(missing));
+        assertFalse(signer.verify("vnp_Amount=100", hash.substring(2)));
+
+        assertFalse(new VnPaySigner("another-secret").verify(signed));
+    }
+}
@@ -28,6 +28,30 @@ const getAuthToken = (): string | null => {
   return localStorage.getItem('accessToken');
 };
 
+// Trạng thái job nạp tài liệu (backend nạp ở nền)
+interface IngestionJob {
+  id: string;
+  status: 'QUEUED' | 'RUNNING' | 'COMPLETED' | 'FAILED';
+  progress: number;
+  error?: string;
+}
+
+// Chờ job nạp tài liệu chạy xong, hỏi lại trạng thái mỗi 500ms
+const waitForIngestion = async (job: IngestionJob, token: string): Promise<IngestionJob> => {
+  let current = job;
+  while (current.status === 'QUEUED' || current.status === 'RUNNING') {
+    await new Promise((resolve) => setTimeout(resolve, 500));
+    const response = await axios.get<IngestionJob>(`${API_BASE_URL}/ingestions/${current.id}`, {
+      headers: { 'Authorization': `Bearer ${token}` },
+    });
+    current = response.data;
+  }
+  if (current.status === 'FAILED') {
+    throw new Error(current.error || 'Ingestion failed');
+  }
+  return current;
+};
+
 // --- MAIN COMPONENT ---
 
 const Chatbox: React.FC<ChatboxProps> = ({ onClose }) => {
@@ -36,6 +60,7 @@ const Chatbox: React.FC<ChatboxProps> = ({ onClose }) => {
   const [input, setInput] = useState<string>('');
   const [isLoading, setIsLoading] = useState<boolean>(false);
   const [isInitialized, setIsInitialized] = useState<boolean>(false); // Trạng thái để biết đã nạp tài liệu chưa
+  const [conversationId, setConversationId] = useState<string>(() => crypto.randomUUID()); // Backend dùng để nhớ/tóm tắt hội thoại
   const messagesEndRef = useRef<HTMLDivElement | null>(null);
 
   // --- API FUNCTIONS ---
@@ -44,6 +69,7 @@ const Chatbox: React.FC<ChatboxProps> = ({ onClose }) => {
   const loadContextDocument = async () => {
     setIsLoading(true);
     setMessages([]); // Xóa tin nhắn cũ khi bắt đầu nạp
+    setConversationId(crypto.randomUUID()); // Bắt đầu hội thoại mới
     const token = getAuthToken();
     if (!token) {
       setMessages([{ role: 'assistant', content: 'Lỗi: Không tìm thấy token xác thực. Vui lòng đăng nhập lại.' }]);
@@ -52,7 +78,7 @@ const Chatbox: React.FC<ChatboxProps> = ({ onClose }) => {
     }
 
     try {
-      await axios.post(
+      const response = await axios.post<IngestionJob>(
         `${API_BASE_URL}/load-from-path`,
         { path: DOCUMENT_PATH.replace(/\\/g, '/') }, // Gửi đường dẫn đã chuẩn hóa
         {
@@ -62,6 +88,7 @@ const Chatbox: React.FC<ChatboxProps> = ({ onClose }) => {
           },
         }
       );
+      await waitForIngestion(response.data, token);
       // Thêm tin nhắn chào mừng sau khi nạp thành công
       setMessages([{ role: 'assistant', content: 'Xin chào! Tôi có thể giúp gì cho bạn về dự án này?' }]);
       setIsInitialized(true);
@@ -126,6 +153,7 @@ const Chatbox: React.FC<ChatboxProps> = ({ onClose }) => {
         {
           model: 'mistral', // Hoặc model mặc định của bạn
           messages: updatedMessages, // Gửi toàn bộ lịch sử chat
+          conversationId,
         },
         {
           headers: {